@@ -0,0 +1,154 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tom_roush.pdfbox.pdmodel.graphics.image;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Color;
+
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.tom_roush.pdfbox.android.PDFBoxResourceLoader;
+import com.tom_roush.pdfbox.cos.COSName;
+import com.tom_roush.pdfbox.io.IOUtils;
+import com.tom_roush.pdfbox.pdmodel.PDDocument;
+import com.tom_roush.pdfbox.pdmodel.PDPage;
+import com.tom_roush.pdfbox.pdmodel.PDPageContentStream;
+import com.tom_roush.pdfbox.pdmodel.PDResources;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the {@link ImageOptimizer}.
+ */
+public class ImageOptimizerTest
+{
+    @Before
+    public void setUp()
+    {
+        Context testContext = InstrumentationRegistry.getInstrumentation().getContext();
+        PDFBoxResourceLoader.init(testContext);
+    }
+
+    @Test
+    public void testOptimize() throws IOException
+    {
+        PDDocument document = new PDDocument();
+        PDPage page = new PDPage();
+        document.addPage(page);
+
+        // 600 dpi and 50 dpi when drawn at 2 x 2 inch
+        PDImageXObject large = LosslessFactory.createFromImage(document, createImage(1200));
+        PDImageXObject small = JPEGFactory.createFromImage(document, createImage(100));
+        byte[] smallData = getRawData(small);
+
+        PDPageContentStream contentStream = new PDPageContentStream(document, page);
+        contentStream.drawImage(large, 72, 72, 144, 144);
+        contentStream.drawImage(small, 72, 360, 144, 144);
+        contentStream.close();
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        List<ImageOptimizer.Result> results;
+        try
+        {
+            ImageOptimizer optimizer = new ImageOptimizer(150);
+            optimizer.setExecutor(executor);
+            results = optimizer.optimize(document);
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+
+        assertEquals(2, results.size());
+        ImageOptimizer.Result largeResult = results.get(0);
+        assertEquals(600, largeResult.getEffectiveDpi(), 1);
+        assertTrue(largeResult.isReplaced());
+        assertEquals(300, largeResult.getNewWidth());
+        assertEquals(300, largeResult.getNewHeight());
+        assertTrue(largeResult.getSavedBytes() > 0);
+        assertEquals(300, large.getWidth());
+        assertEquals(large.getCOSObject().getLength(), largeResult.getNewBytes());
+
+        ImageOptimizer.Result smallResult = results.get(1);
+        assertEquals(50, smallResult.getEffectiveDpi(), 1);
+        assertFalse(smallResult.isReplaced());
+        assertEquals(0, smallResult.getSavedBytes());
+        assertTrue(Arrays.equals(smallData, getRawData(small)));
+
+        // the document can still be saved and the images decoded
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        document.save(baos);
+        document.close();
+        document = PDDocument.load(baos.toByteArray());
+        try
+        {
+            PDResources resources = document.getPage(0).getResources();
+            for (COSName name : resources.getXObjectNames())
+            {
+                PDImageXObject image = (PDImageXObject) resources.getXObject(name);
+                assertTrue(image.getImage().getWidth() > 0);
+            }
+        }
+        finally
+        {
+            document.close();
+        }
+    }
+
+    private static Bitmap createImage(int size)
+    {
+        Random random = new Random(size);
+        Bitmap image = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+        for (int y = 0; y < size; y++)
+        {
+            for (int x = 0; x < size; x++)
+            {
+                int noise = random.nextInt(16);
+                image.setPixel(x, y, Color.rgb(x * 255 / size, y * 255 / size, noise));
+            }
+        }
+        return image;
+    }
+
+    private static byte[] getRawData(PDImageXObject image) throws IOException
+    {
+        InputStream in = image.getCOSObject().createRawInputStream();
+        try
+        {
+            return IOUtils.toByteArray(in);
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+}
@@ -18,6 +18,7 @@ package com.tom_roush.pdfbox.pdmodel.graphics.image;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.graphics.Rect;
 import android.util.Log;
 
 import androidx.test.platform.app.InstrumentationRegistry;
@@ -31,6 +32,7 @@ import java.util.Arrays;
 import com.tom_roush.pdfbox.cos.COSName;
 import com.tom_roush.pdfbox.io.IOUtils;
 import com.tom_roush.pdfbox.pdmodel.PDDocument;
+import com.tom_roush.pdfbox.pdmodel.ResourceRegistry;
 import com.tom_roush.pdfbox.pdmodel.graphics.color.PDDeviceGray;
 import com.tom_roush.pdfbox.pdmodel.graphics.color.PDDeviceRGB;
 import com.tom_roush.pdfbox.android.PDFBoxResourceLoader;
@@ -42,8 +44,11 @@ import static com.tom_roush.pdfbox.pdmodel.graphics.image.ValidateXImage.colorCo
 import static com.tom_roush.pdfbox.pdmodel.graphics.image.ValidateXImage.doWritePDF;
 import static com.tom_roush.pdfbox.pdmodel.graphics.image.ValidateXImage.validate;
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -98,6 +103,26 @@ public class JPEGFactoryTest
         checkJpegStream(testResultsDir, "jpegcmykstream.pdf", testContext.getAssets().open("pdfbox/com/tom_roush/pdfbox/pdmodel/graphics/image/jpegcmyk.jpg"));
     }
 
+    /**
+     * Tests that the same JPEG data is embedded only once with a ResourceRegistry.
+     */
+    @Test
+    public void testCreateFromByteArrayWithRegistry() throws IOException
+    {
+        PDDocument document = new PDDocument();
+        byte[] bytes = IOUtils.toByteArray(testContext.getAssets().open(
+            "pdfbox/com/tom_roush/pdfbox/pdmodel/graphics/image/jpeg.jpg"));
+        assertNotSame(JPEGFactory.createFromByteArray(document, bytes),
+            JPEGFactory.createFromByteArray(document, bytes));
+
+        document.setResourceRegistry(new ResourceRegistry());
+        PDImageXObject ximage = JPEGFactory.createFromByteArray(document, bytes);
+        validate(ximage, 8, 344, 287, "jpg", PDDeviceRGB.INSTANCE.getName());
+        assertSame(ximage, JPEGFactory.createFromByteArray(document, bytes));
+        assertSame(ximage, JPEGFactory.createFromByteArray(document, bytes.clone()));
+        document.close();
+    }
+
     /**
      * Tests JPEGFactory#createFromStream(PDDocument document, InputStream
      * stream) with gray JPEG file
@@ -116,6 +141,38 @@ public class JPEGFactoryTest
             "pdfbox/com/tom_roush/pdfbox/pdmodel/graphics/image/jpeg256.jpg"));
     }
 
+    /**
+     * Tests that subsampled JPEG images and regions of JPEG images are decoded at the requested
+     * size.
+     */
+    @Test
+    public void testSubsampledAndRegionImage() throws IOException
+    {
+        PDDocument document = new PDDocument();
+        InputStream stream = testContext.getAssets().open(
+            "pdfbox/com/tom_roush/pdfbox/pdmodel/graphics/image/jpeg.jpg");
+        PDImageXObject ximage = JPEGFactory.createFromStream(document, stream);
+
+        // a power of 2 is decoded directly, the decoder may round up
+        Bitmap image = ximage.getImage(null, 4);
+        assertTrue(Math.abs(image.getWidth() - 344 / 4) <= 1);
+        assertTrue(Math.abs(image.getHeight() - 287 / 4) <= 1);
+
+        // the remaining factor is scaled
+        image = ximage.getImage(null, 3);
+        assertEquals(344 / 3, image.getWidth());
+        assertEquals(287 / 3, image.getHeight());
+
+        image = ximage.getImage(new Rect(10, 20, 110, 70), 1);
+        assertEquals(100, image.getWidth());
+        assertEquals(50, image.getHeight());
+
+        image = ximage.getImage(new Rect(10, 20, 110, 70), 2);
+        assertEquals(50, image.getWidth());
+        assertEquals(25, image.getHeight());
+        document.close();
+    }
+
     /**
      * Tests RGB JPEGFactory#createFromImage(PDDocument document, BufferedImage
      * image) with color JPEG image
@@ -28,6 +28,7 @@ import androidx.test.platform.app.InstrumentationRegistry;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.zip.Deflater;
 
 import com.tom_roush.pdfbox.android.PDFBoxResourceLoader;
 import com.tom_roush.pdfbox.android.TestResourceGenerator;
@@ -182,6 +183,42 @@ public class LosslessFactoryTest
         doWritePDF(document, ximage, testResultsDir, "intargb.pdf");
     }
 
+    /**
+     * Tests LosslessFactory#createFromImage(PDDocument document, Bitmap image, int
+     * compressionLevel) with an image which is large enough to be encoded in several bands.
+     *
+     * @throws java.io.IOException
+     */
+    @Test
+    public void testCreateLosslessFromImageWithPredictor() throws IOException
+    {
+        PDDocument document = new PDDocument();
+        int w = 1531;
+        int h = 1107;
+        int[] pixels = new int[w * h];
+        for (int y = 0; y < h; ++y)
+        {
+            for (int x = 0; x < w; ++x)
+            {
+                pixels[x + w * y] = Color.argb(255 - y / 5, x / 7, y / 5, (x ^ y) & 0xFF);
+            }
+        }
+        Bitmap argbImage = Bitmap.createBitmap(pixels, w, h, Bitmap.Config.ARGB_8888);
+
+        for (int level : new int[] { Deflater.DEFAULT_COMPRESSION, Deflater.BEST_SPEED,
+            Deflater.BEST_COMPRESSION })
+        {
+            PDImageXObject ximage = LosslessFactory.createFromImage(document, argbImage, level);
+            validate(ximage, 8, w, h, "png", PDDeviceRGB.INSTANCE.getName());
+            checkIdent(argbImage, ximage.getImage());
+            checkIdentRGB(argbImage, ximage.getOpaqueImage());
+
+            assertNotNull(ximage.getSoftMask());
+            validate(ximage.getSoftMask(), 8, w, h, "png", PDDeviceGray.INSTANCE.getName());
+        }
+        document.close();
+    }
+
     // testCreateLosslessFromImageBITMASK_INT_ARGB: Android does not have bitmask transparency
 
     // testCreateLosslessFromImageBITMASK4BYTE_ABGR: Android does not have bitmask transparency
@@ -19,9 +19,11 @@ package com.tom_roush.pdfbox.pdmodel.graphics.image;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.graphics.Color;
 
 import androidx.test.platform.app.InstrumentationRegistry;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
@@ -29,8 +31,12 @@ import java.net.URISyntaxException;
 
 import com.tom_roush.pdfbox.android.PDFBoxResourceLoader;
 import com.tom_roush.pdfbox.android.TestResourceGenerator;
+import com.tom_roush.pdfbox.cos.COSArray;
+import com.tom_roush.pdfbox.cos.COSInteger;
+import com.tom_roush.pdfbox.cos.COSName;
 import com.tom_roush.pdfbox.io.IOUtils;
 import com.tom_roush.pdfbox.pdmodel.PDDocument;
+import com.tom_roush.pdfbox.pdmodel.graphics.color.PDDeviceRGB;
 
 import org.junit.Assert;
 import org.junit.Before;
@@ -131,6 +137,77 @@ public class PDImageXObjectTest
       testCompareCreatedFromByteArrayWithCreatedByLosslessFactory("png.png");
    }
 
+   /**
+    * Test that images with less than 8 bits per component, a decode array and a color key mask
+    * are read row by row into an image of the final size.
+    */
+   @Test
+   public void testDecodeArrayAndColorKey() throws IOException
+   {
+      PDDocument doc = new PDDocument();
+      // 3 x 2 pixels, RGB with 4 bits per component, rows padded to whole bytes
+      byte[] data = new byte[] {
+         (byte) 0xF0, 0x00, (byte) 0xF0, 0x55, 0x50,
+         0x00, (byte) 0xFF, (byte) 0xFF, 0x00, 0x00 };
+      PDImageXObject image = new PDImageXObject(doc, new ByteArrayInputStream(data), null,
+          3, 2, 4, PDDeviceRGB.INSTANCE);
+      COSArray colorKey = new COSArray();
+      for (int i = 0; i < 6; i++)
+      {
+         colorKey.add(COSInteger.get(5));
+      }
+      image.getCOSObject().setItem(COSName.MASK, colorKey);
+
+      Bitmap bim = image.getImage();
+      Assert.assertEquals(3, bim.getWidth());
+      Assert.assertEquals(2, bim.getHeight());
+      Assert.assertEquals(Color.RED, bim.getPixel(0, 0));
+      Assert.assertEquals(Color.GREEN, bim.getPixel(1, 0));
+      Assert.assertEquals(0, Color.alpha(bim.getPixel(2, 0)));
+      Assert.assertEquals(Color.BLUE, bim.getPixel(0, 1));
+      Assert.assertEquals(Color.WHITE, bim.getPixel(1, 1));
+      Assert.assertEquals(Color.BLACK, bim.getPixel(2, 1));
+
+      image.getCOSObject().removeItem(COSName.MASK);
+      COSArray decode = new COSArray();
+      for (int i = 0; i < 3; i++)
+      {
+         decode.add(COSInteger.ONE);
+         decode.add(COSInteger.ZERO);
+      }
+      image.getCOSObject().setItem(COSName.DECODE, decode);
+      bim = image.getImage(null, 2);
+      Assert.assertEquals(1, bim.getWidth());
+      Assert.assertEquals(1, bim.getHeight());
+      Assert.assertEquals(Color.CYAN, bim.getPixel(0, 0));
+
+      doc.close();
+   }
+
+   /**
+    * Test that the rows of a truncated 8-bit image after the end of the data are left empty
+    * instead of being filled with stale data.
+    */
+   @Test
+   public void testTruncated8BitImage() throws IOException
+   {
+      PDDocument doc = new PDDocument();
+      // 2 x 3 pixels, but only the first row and a half are there
+      byte[] data = new byte[] { (byte) 255, 0, 0, 0, (byte) 255, 0, 0, 0, (byte) 255 };
+      PDImageXObject image = new PDImageXObject(doc, new ByteArrayInputStream(data), null,
+          2, 3, 8, PDDeviceRGB.INSTANCE);
+
+      Bitmap bim = image.getImage();
+      Assert.assertEquals(2, bim.getWidth());
+      Assert.assertEquals(3, bim.getHeight());
+      Assert.assertEquals(Color.RED, bim.getPixel(0, 0));
+      Assert.assertEquals(Color.GREEN, bim.getPixel(1, 0));
+      Assert.assertEquals(0, Color.alpha(bim.getPixel(0, 1)));
+      Assert.assertEquals(0, Color.alpha(bim.getPixel(1, 2)));
+
+      doc.close();
+   }
+
    private void testCompareCreatedFileByExtensionWithCreatedByLosslessFactory(String filename)
        throws IOException, URISyntaxException
    {
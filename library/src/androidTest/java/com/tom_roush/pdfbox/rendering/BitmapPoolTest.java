@@ -0,0 +1,134 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tom_roush.pdfbox.rendering;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Color;
+
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import java.io.IOException;
+
+import com.tom_roush.pdfbox.android.PDFBoxResourceLoader;
+import com.tom_roush.pdfbox.pdmodel.PDDocument;
+import com.tom_roush.pdfbox.pdmodel.PDPage;
+import com.tom_roush.pdfbox.pdmodel.PDPageContentStream;
+import com.tom_roush.pdfbox.pdmodel.common.PDRectangle;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the {@link BitmapPool} and rendering into caller-supplied bitmaps.
+ */
+public class BitmapPoolTest
+{
+    @Before
+    public void setUp()
+    {
+        Context testContext = InstrumentationRegistry.getInstrumentation().getContext();
+        PDFBoxResourceLoader.init(testContext);
+    }
+
+    @Test
+    public void testReuse()
+    {
+        BitmapPool pool = new BitmapPool(1 << 20);
+        Bitmap bitmap = pool.acquire(100, 50, Bitmap.Config.ARGB_8888);
+        bitmap.eraseColor(Color.RED);
+        pool.release(bitmap);
+        assertEquals(bitmap.getByteCount(), pool.getIdleBytes());
+
+        // different size or config
+        assertNotSame(bitmap, pool.acquire(50, 100, Bitmap.Config.ARGB_8888));
+        assertNotSame(bitmap, pool.acquire(100, 50, Bitmap.Config.ALPHA_8));
+
+        Bitmap reused = pool.acquire(100, 50, Bitmap.Config.ARGB_8888);
+        assertSame(bitmap, reused);
+        assertEquals(Color.TRANSPARENT, reused.getPixel(10, 10));
+        assertEquals(0, pool.getIdleBytes());
+    }
+
+    @Test
+    public void testTrim()
+    {
+        // room for two bitmaps of 100 x 100 pixels
+        BitmapPool pool = new BitmapPool(100 * 100 * 4 * 2);
+        Bitmap first = Bitmap.createBitmap(100, 100, Bitmap.Config.ARGB_8888);
+        Bitmap second = Bitmap.createBitmap(100, 100, Bitmap.Config.ARGB_8888);
+        Bitmap third = Bitmap.createBitmap(100, 100, Bitmap.Config.ARGB_8888);
+        pool.release(first);
+        pool.release(second);
+        pool.release(third);
+        assertEquals(100 * 100 * 4 * 2, pool.getIdleBytes());
+        assertSame(third, pool.acquire(100, 100, Bitmap.Config.ARGB_8888));
+        assertSame(second, pool.acquire(100, 100, Bitmap.Config.ARGB_8888));
+
+        pool.release(Bitmap.createBitmap(1000, 1000, Bitmap.Config.ARGB_8888));
+        assertEquals(0, pool.getIdleBytes());
+    }
+
+    @Test
+    public void testRenderIntoBitmap() throws IOException
+    {
+        PDDocument document = new PDDocument();
+        try
+        {
+            PDPage page = new PDPage(new PDRectangle(200, 100));
+            document.addPage(page);
+            PDPageContentStream contentStream = new PDPageContentStream(document, page);
+            contentStream.setNonStrokingColor(0, 0, 200);
+            contentStream.addRect(20, 20, 100, 50);
+            contentStream.fill();
+            contentStream.close();
+
+            PDFRenderer renderer = new PDFRenderer(document);
+            renderer.setBitmapPool(new BitmapPool(1 << 20));
+            Bitmap expected = renderer.renderImage(0, 1.5f);
+
+            Bitmap bitmap = Bitmap.createBitmap(300, 150, Bitmap.Config.ARGB_8888);
+            bitmap.eraseColor(Color.RED);
+            for (int i = 0; i < 2; i++)
+            {
+                renderer.renderImage(0, 1.5f, bitmap);
+                assertTrue(expected.sameAs(bitmap));
+            }
+
+            try
+            {
+                renderer.renderImage(0, 1.5f, Bitmap.createBitmap(300, 151,
+                    Bitmap.Config.ARGB_8888));
+                fail("size mismatch not detected");
+            }
+            catch (IllegalArgumentException expectedException)
+            {
+                // expected
+            }
+        }
+        finally
+        {
+            document.close();
+        }
+    }
+}
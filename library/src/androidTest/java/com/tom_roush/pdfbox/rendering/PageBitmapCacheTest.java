@@ -0,0 +1,161 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tom_roush.pdfbox.rendering;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+
+import com.tom_roush.pdfbox.android.PDFBoxResourceLoader;
+import com.tom_roush.pdfbox.pdmodel.PDDocument;
+import com.tom_roush.pdfbox.pdmodel.PDPage;
+import com.tom_roush.pdfbox.pdmodel.PDPageContentStream;
+import com.tom_roush.pdfbox.pdmodel.common.PDRectangle;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the {@link PageBitmapCache}.
+ */
+public class PageBitmapCacheTest
+{
+    private Context testContext;
+
+    @Before
+    public void setUp()
+    {
+        testContext = InstrumentationRegistry.getInstrumentation().getContext();
+        PDFBoxResourceLoader.init(testContext);
+    }
+
+    @Test
+    public void testMemoryCache() throws IOException
+    {
+        PDDocument document = createDocument();
+        try
+        {
+            PDFRenderer renderer = new PDFRenderer(document);
+            PageBitmapCache cache = new PageBitmapCache(1 << 24);
+            Bitmap image = cache.renderImage(renderer, 0, 1, ImageType.RGB,
+                RenderDestination.VIEW);
+            assertTrue(renderer.renderImage(0, 1).sameAs(image));
+
+            // nearly the same scale shares the image
+            assertSame(image, cache.renderImage(renderer, 0, 1.001f, ImageType.RGB,
+                RenderDestination.VIEW));
+            assertNotSame(image, cache.renderImage(renderer, 0, 2, ImageType.RGB,
+                RenderDestination.VIEW));
+            assertNotSame(image, cache.renderImage(renderer, 0, 1, ImageType.ARGB,
+                RenderDestination.VIEW));
+            assertEquals(1, cache.getMemoryHitCount());
+            assertEquals(3, cache.getMissCount());
+            assertEquals(0.25f, cache.getHitRate(), 0);
+
+            // marking the page as updated drops all of its images
+            document.getPage(0).getCOSObject().setNeedToBeUpdated(true);
+            assertNotSame(image, cache.renderImage(renderer, 0, 1, ImageType.RGB,
+                RenderDestination.VIEW));
+            assertEquals(200 * 100 * 4, cache.getMemoryBytes());
+
+            cache.invalidate(document);
+            assertEquals(0, cache.getMemoryBytes());
+        }
+        finally
+        {
+            document.close();
+        }
+    }
+
+    @Test
+    public void testMemoryBudget() throws IOException
+    {
+        PDDocument document = createDocument();
+        try
+        {
+            PDFRenderer renderer = new PDFRenderer(document);
+            // room for one image of 200 x 100 pixels
+            PageBitmapCache cache = new PageBitmapCache(200 * 100 * 4);
+            Bitmap first = cache.renderImage(renderer, 0, 1, ImageType.RGB, null);
+            cache.renderImage(renderer, 0, 1, ImageType.ARGB, null);
+            assertEquals(200 * 100 * 4, cache.getMemoryBytes());
+            assertNotSame(first, cache.renderImage(renderer, 0, 1, ImageType.RGB, null));
+            assertEquals(0, cache.getMemoryHitCount());
+        }
+        finally
+        {
+            document.close();
+        }
+    }
+
+    @Test
+    public void testDiskCache() throws IOException
+    {
+        File directory = new File(testContext.getCacheDir(), "PageBitmapCacheTest");
+        // saving gives the document an ID
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        PDDocument document = createDocument();
+        document.save(baos);
+        document.close();
+
+        document = PDDocument.load(baos.toByteArray());
+        try
+        {
+            PDFRenderer renderer = new PDFRenderer(document);
+            PageBitmapCache cache = new PageBitmapCache(1 << 24);
+            cache.setDiskCache(directory, 1 << 24);
+            cache.clear();
+            Bitmap image = cache.renderImage(renderer, 0, 1, ImageType.RGB, null);
+
+            // a new cache finds the file
+            cache = new PageBitmapCache(1 << 24);
+            cache.setDiskCache(directory, 1 << 24);
+            Bitmap fromDisk = cache.renderImage(renderer, 0, 1, ImageType.RGB, null);
+            assertEquals(1, cache.getDiskHitCount());
+            assertTrue(image.sameAs(fromDisk));
+            cache.clear();
+        }
+        finally
+        {
+            document.close();
+        }
+    }
+
+    // a page of 200 x 100 points with a rectangle
+    private static PDDocument createDocument() throws IOException
+    {
+        PDDocument document = new PDDocument();
+        PDPage page = new PDPage(new PDRectangle(200, 100));
+        document.addPage(page);
+        PDPageContentStream contentStream = new PDPageContentStream(document, page);
+        contentStream.setNonStrokingColor(0, 128, 0);
+        contentStream.addRect(20, 20, 100, 50);
+        contentStream.fill();
+        contentStream.close();
+        return document;
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tom_roush.pdfbox.rendering;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Color;
+
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import java.io.IOException;
+
+import com.tom_roush.pdfbox.android.PDFBoxResourceLoader;
+import com.tom_roush.pdfbox.cos.COSArray;
+import com.tom_roush.pdfbox.cos.COSDictionary;
+import com.tom_roush.pdfbox.cos.COSFloat;
+import com.tom_roush.pdfbox.cos.COSInteger;
+import com.tom_roush.pdfbox.cos.COSName;
+import com.tom_roush.pdfbox.pdmodel.PDDocument;
+import com.tom_roush.pdfbox.pdmodel.PDPage;
+import com.tom_roush.pdfbox.pdmodel.PDPageContentStream;
+import com.tom_roush.pdfbox.pdmodel.common.PDRectangle;
+import com.tom_roush.pdfbox.pdmodel.font.PDType1Font;
+import com.tom_roush.pdfbox.pdmodel.graphics.shading.PDShading;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests drawing pages from a {@link PageDisplayList}.
+ */
+public class PageDisplayListTest
+{
+    @Before
+    public void setUp()
+    {
+        Context testContext = InstrumentationRegistry.getInstrumentation().getContext();
+        PDFBoxResourceLoader.init(testContext);
+    }
+
+    @Test
+    public void testDisplayListMatchesRendering() throws IOException
+    {
+        PDDocument document = new PDDocument();
+        try
+        {
+            PDPage page = new PDPage(new PDRectangle(300, 200));
+            page.setRotation(90);
+            document.addPage(page);
+            PDPageContentStream contentStream = new PDPageContentStream(document, page);
+            contentStream.setNonStrokingColor(200, 0, 0);
+            contentStream.addRect(10, 10, 100, 50);
+            contentStream.fill();
+            contentStream.setStrokingColor(0, 150, 0);
+            contentStream.setLineWidth(3);
+            contentStream.moveTo(0, 0);
+            contentStream.lineTo(300, 200);
+            contentStream.stroke();
+            contentStream.beginText();
+            contentStream.setFont(PDType1Font.HELVETICA, 24);
+            contentStream.newLineAtOffset(20, 150);
+            contentStream.showText("Display list");
+            contentStream.endText();
+            contentStream.close();
+
+            PDFRenderer renderer = new PDFRenderer(document);
+            PageDisplayList displayList = renderer.recordDisplayList(0);
+            assertEquals(200, displayList.getWidth(), 0);
+            assertEquals(300, displayList.getHeight(), 0);
+
+            for (float scale : new float[] { 0.5f, 1, 2.5f })
+            {
+                Bitmap expected = renderer.renderImage(0, scale);
+                Bitmap actual = displayList.renderImage(scale);
+                assertEquals(expected.getWidth(), actual.getWidth());
+                assertEquals(expected.getHeight(), actual.getHeight());
+                assertTrue("scale " + scale, countDifferentPixels(expected, actual) <
+                    expected.getWidth() * expected.getHeight() / 100);
+            }
+        }
+        finally
+        {
+            document.close();
+        }
+    }
+
+    @Test
+    public void testRasterScale() throws IOException
+    {
+        PDDocument document = new PDDocument();
+        try
+        {
+            PDPage page = new PDPage(new PDRectangle(200, 100));
+            document.addPage(page);
+            // a radial shading with two centers, which is rasterized
+            COSDictionary function = new COSDictionary();
+            function.setInt(COSName.FUNCTION_TYPE, 2);
+            function.setItem(COSName.DOMAIN, toArray(0, 1));
+            function.setItem(COSName.C0, toArray(1, 0, 0));
+            function.setItem(COSName.C1, toArray(0, 0, 1));
+            function.setItem(COSName.N, COSInteger.ONE);
+            COSDictionary shading = new COSDictionary();
+            shading.setInt(COSName.SHADING_TYPE, 3);
+            shading.setItem(COSName.COLORSPACE, COSName.DEVICERGB);
+            shading.setItem(COSName.COORDS, toArray(80, 50, 0, 100, 50, 40));
+            shading.setItem(COSName.FUNCTION, function);
+            PDPageContentStream contentStream = new PDPageContentStream(document, page);
+            contentStream.shadingFill(PDShading.create(shading));
+            contentStream.close();
+
+            PDFRenderer renderer = new PDFRenderer(document);
+            PageDisplayList displayList = renderer.recordDisplayList(0, 4);
+            assertEquals(4, displayList.getRasterScale(), 0);
+            assertEquals(200, displayList.getWidth(), 0);
+            assertEquals(100, displayList.getHeight(), 0);
+
+            Bitmap expected = renderer.renderImage(0, 4);
+            Bitmap actual = displayList.renderImage(4);
+            assertEquals(expected.getWidth(), actual.getWidth());
+            assertEquals(expected.getHeight(), actual.getHeight());
+            assertTrue(countDifferentPixels(expected, actual) <
+                expected.getWidth() * expected.getHeight() / 100);
+        }
+        finally
+        {
+            document.close();
+        }
+    }
+
+    private static COSArray toArray(float... values)
+    {
+        COSArray array = new COSArray();
+        for (float value : values)
+        {
+            array.add(new COSFloat(value));
+        }
+        return array;
+    }
+
+    // counts pixels which differ by more than anti-aliasing would
+    private static int countDifferentPixels(Bitmap expected, Bitmap actual)
+    {
+        int count = 0;
+        for (int y = 0; y < expected.getHeight(); y++)
+        {
+            for (int x = 0; x < expected.getWidth(); x++)
+            {
+                int e = expected.getPixel(x, y);
+                int a = actual.getPixel(x, y);
+                if (Math.abs(Color.red(e) - Color.red(a)) > 16 ||
+                    Math.abs(Color.green(e) - Color.green(a)) > 16 ||
+                    Math.abs(Color.blue(e) - Color.blue(a)) > 16)
+                {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+}
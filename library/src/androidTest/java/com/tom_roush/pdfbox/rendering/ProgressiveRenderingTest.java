@@ -0,0 +1,120 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tom_roush.pdfbox.rendering;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Color;
+
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.tom_roush.pdfbox.android.PDFBoxResourceLoader;
+import com.tom_roush.pdfbox.pdmodel.PDDocument;
+import com.tom_roush.pdfbox.pdmodel.PDPage;
+import com.tom_roush.pdfbox.pdmodel.PDPageContentStream;
+import com.tom_roush.pdfbox.pdmodel.font.PDType1Font;
+import com.tom_roush.pdfbox.pdmodel.graphics.image.LosslessFactory;
+import com.tom_roush.pdfbox.pdmodel.graphics.image.PDImageXObject;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link PDFRenderer#renderImageProgressive(int, float, ImageType,
+ * ProgressiveRenderListener)}.
+ */
+public class ProgressiveRenderingTest
+{
+    @Before
+    public void setUp()
+    {
+        Context testContext = InstrumentationRegistry.getInstrumentation().getContext();
+        PDFBoxResourceLoader.init(testContext);
+    }
+
+    @Test
+    public void testDraftThenFinal() throws IOException
+    {
+        PDDocument document = new PDDocument();
+        try
+        {
+            PDPage page = new PDPage();
+            document.addPage(page);
+            Bitmap bitmap = Bitmap.createBitmap(1000, 1000, Bitmap.Config.ARGB_8888);
+            for (int y = 0; y < 1000; y++)
+            {
+                for (int x = 0; x < 1000; x++)
+                {
+                    bitmap.setPixel(x, y, (x + y) % 2 == 0 ? Color.BLACK : Color.YELLOW);
+                }
+            }
+            PDImageXObject image = LosslessFactory.createFromImage(document, bitmap);
+            PDPageContentStream contentStream = new PDPageContentStream(document, page);
+            contentStream.drawImage(image, 50, 300, 400, 400);
+            contentStream.beginText();
+            contentStream.setFont(PDType1Font.HELVETICA, 5);
+            contentStream.newLineAtOffset(50, 200);
+            contentStream.showText("Small print which is drawn as bars in the draft");
+            contentStream.endText();
+            contentStream.close();
+
+            final List<Bitmap> images = new ArrayList<Bitmap>();
+            final List<String> calls = new ArrayList<String>();
+            PDFRenderer renderer = new PDFRenderer(document);
+            Bitmap result = renderer.renderImageProgressive(0, 1, ImageType.RGB,
+                new ProgressiveRenderListener()
+                {
+                    @Override
+                    public void onDraftRendered(int pageIndex, Bitmap draft)
+                    {
+                        calls.add("draft " + pageIndex);
+                        images.add(draft);
+                    }
+
+                    @Override
+                    public void onPageRendered(int pageIndex, Bitmap image)
+                    {
+                        calls.add("final " + pageIndex);
+                        images.add(image);
+                    }
+                });
+
+            assertEquals(2, calls.size());
+            assertEquals("draft 0", calls.get(0));
+            assertEquals("final 0", calls.get(1));
+            assertSame(result, images.get(1));
+            Bitmap draft = images.get(0);
+            assertEquals(result.getWidth(), draft.getWidth());
+            assertEquals(result.getHeight(), draft.getHeight());
+            assertFalse(draft.sameAs(result));
+            assertTrue(renderer.renderImage(0, 1).sameAs(result));
+        }
+        finally
+        {
+            document.close();
+        }
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tom_roush.pdfbox.rendering;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Color;
+
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import com.tom_roush.pdfbox.android.PDFBoxResourceLoader;
+import com.tom_roush.pdfbox.cos.COSArray;
+import com.tom_roush.pdfbox.cos.COSDictionary;
+import com.tom_roush.pdfbox.cos.COSFloat;
+import com.tom_roush.pdfbox.cos.COSInteger;
+import com.tom_roush.pdfbox.cos.COSName;
+import com.tom_roush.pdfbox.cos.COSStream;
+import com.tom_roush.pdfbox.pdmodel.PDDocument;
+import com.tom_roush.pdfbox.pdmodel.PDPage;
+import com.tom_roush.pdfbox.pdmodel.PDResources;
+import com.tom_roush.pdfbox.pdmodel.common.PDRectangle;
+import com.tom_roush.pdfbox.pdmodel.common.PDStream;
+import com.tom_roush.pdfbox.pdmodel.graphics.pattern.PDShadingPattern;
+import com.tom_roush.pdfbox.pdmodel.graphics.shading.PDShading;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests rendering axial, radial and mesh shadings, with the sh operator and as shading
+ * patterns.
+ */
+public class ShadingRenderingTest
+{
+    @Before
+    public void setUp()
+    {
+        Context testContext = InstrumentationRegistry.getInstrumentation().getContext();
+        PDFBoxResourceLoader.init(testContext);
+    }
+
+    @Test
+    public void testAxialShadingFill() throws IOException
+    {
+        // red to blue from left to right, clipped to the lower half of the page
+        PDShading shading = createShading(2, 0, 0, 200, 0);
+        Bitmap image = render(shading, "q 0 0 200 50 re W n /Sh0 sh Q");
+        assertColor(Color.WHITE, image.getPixel(100, 25));
+        assertColor(Color.RED, image.getPixel(1, 75));
+        assertColor(Color.BLUE, image.getPixel(198, 75));
+        assertColor(Color.rgb(128, 0, 127), image.getPixel(100, 75));
+    }
+
+    @Test
+    public void testRadialShadingPattern() throws IOException
+    {
+        // two-point radial shading, which is rasterized, filling a rectangle
+        PDShading shading = createShading(3, 80, 50, 0, 100, 50, 40);
+        Bitmap image = render(shading, "/Pattern cs /P0 scn 50 0 100 100 re f");
+        assertColor(Color.WHITE, image.getPixel(25, 50));
+        assertColor(Color.RED, image.getPixel(80, 50));
+        assertColor(Color.BLUE, image.getPixel(139, 50));
+        // outside of the larger circle, not extended
+        assertColor(Color.WHITE, image.getPixel(55, 5));
+    }
+
+    @Test
+    public void testConcentricRadialShadingFill() throws IOException
+    {
+        PDShading shading = createShading(3, 100, 50, 10, 100, 50, 40);
+        Bitmap image = render(shading, "/Sh0 sh");
+        // inside the smaller circle, not extended
+        assertColor(Color.WHITE, image.getPixel(100, 50));
+        assertColor(Color.RED, image.getPixel(110, 50));
+        assertColor(Color.BLUE, image.getPixel(139, 50));
+        assertColor(Color.WHITE, image.getPixel(5, 5));
+    }
+
+    @Test
+    public void testFreeFormMeshShadingFill() throws IOException
+    {
+        // a triangle with red, green and blue corners in the lower left half of the page
+        COSStream mesh = new COSStream();
+        mesh.setInt(COSName.SHADING_TYPE, 4);
+        mesh.setItem(COSName.COLORSPACE, COSName.DEVICERGB);
+        mesh.setInt(COSName.BITS_PER_COORDINATE, 8);
+        mesh.setInt(COSName.BITS_PER_COMPONENT, 8);
+        mesh.setInt(COSName.BITS_PER_FLAG, 8);
+        mesh.setItem(COSName.DECODE, toArray(0, 255, 0, 255, 0, 1, 0, 1, 0, 1));
+        OutputStream output = mesh.createOutputStream();
+        output.write(new byte[] { 0, 0, 0, (byte) 255, 0, 0,
+            0, (byte) 200, 0, 0, (byte) 255, 0,
+            0, 0, 100, 0, 0, (byte) 255 });
+        output.close();
+        Bitmap image = render(PDShading.create(mesh), "/Sh0 sh");
+        assertColor(Color.RED, image.getPixel(2, 97));
+        assertColor(Color.GREEN, image.getPixel(195, 98));
+        assertColor(Color.BLUE, image.getPixel(1, 4));
+        assertColor(Color.WHITE, image.getPixel(150, 20));
+    }
+
+    // renders a page of 200 x 100 points with the shading as /Sh0 and as pattern /P0
+    private static Bitmap render(PDShading shading, String contents) throws IOException
+    {
+        PDDocument document = new PDDocument();
+        try
+        {
+            PDPage page = new PDPage(new PDRectangle(200, 100));
+            document.addPage(page);
+            PDResources resources = new PDResources();
+            resources.put(COSName.getPDFName("Sh0"), shading);
+            PDShadingPattern pattern = new PDShadingPattern();
+            pattern.setShading(shading);
+            resources.put(COSName.getPDFName("P0"), pattern);
+            page.setResources(resources);
+            page.setContents(new PDStream(document,
+                new ByteArrayInputStream(contents.getBytes("US-ASCII"))));
+            return new PDFRenderer(document).renderImage(0);
+        }
+        finally
+        {
+            document.close();
+        }
+    }
+
+    // a shading from red to blue with the given coordinates, not extended
+    private static PDShading createShading(int type, float... coords) throws IOException
+    {
+        COSDictionary function = new COSDictionary();
+        function.setInt(COSName.FUNCTION_TYPE, 2);
+        function.setItem(COSName.DOMAIN, toArray(0, 1));
+        function.setItem(COSName.C0, toArray(1, 0, 0));
+        function.setItem(COSName.C1, toArray(0, 0, 1));
+        function.setItem(COSName.N, COSInteger.ONE);
+
+        COSDictionary dictionary = new COSDictionary();
+        dictionary.setInt(COSName.SHADING_TYPE, type);
+        dictionary.setItem(COSName.COLORSPACE, COSName.DEVICERGB);
+        dictionary.setItem(COSName.COORDS, toArray(coords));
+        dictionary.setItem(COSName.FUNCTION, function);
+        return PDShading.create(dictionary);
+    }
+
+    private static COSArray toArray(float... values)
+    {
+        COSArray array = new COSArray();
+        for (float value : values)
+        {
+            array.add(new COSFloat(value));
+        }
+        return array;
+    }
+
+    private static void assertColor(int expected, int actual)
+    {
+        assertEquals(255, Color.alpha(actual));
+        assertTrue("expected " + Integer.toHexString(expected) + " but was " +
+            Integer.toHexString(actual),
+            Math.abs(Color.red(expected) - Color.red(actual)) <= 8 &&
+            Math.abs(Color.green(expected) - Color.green(actual)) <= 8 &&
+            Math.abs(Color.blue(expected) - Color.blue(actual)) <= 8);
+    }
+}
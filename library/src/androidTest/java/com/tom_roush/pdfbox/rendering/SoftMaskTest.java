@@ -0,0 +1,194 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tom_roush.pdfbox.rendering;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Color;
+
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import com.tom_roush.pdfbox.android.PDFBoxResourceLoader;
+import com.tom_roush.pdfbox.cos.COSArray;
+import com.tom_roush.pdfbox.cos.COSDictionary;
+import com.tom_roush.pdfbox.cos.COSFloat;
+import com.tom_roush.pdfbox.cos.COSInteger;
+import com.tom_roush.pdfbox.cos.COSName;
+import com.tom_roush.pdfbox.cos.COSStream;
+import com.tom_roush.pdfbox.pdmodel.PDDocument;
+import com.tom_roush.pdfbox.pdmodel.PDPage;
+import com.tom_roush.pdfbox.pdmodel.PDResources;
+import com.tom_roush.pdfbox.pdmodel.common.PDRectangle;
+import com.tom_roush.pdfbox.pdmodel.common.PDStream;
+import com.tom_roush.pdfbox.pdmodel.graphics.form.PDTransparencyGroup;
+import com.tom_roush.pdfbox.pdmodel.graphics.state.PDExtendedGraphicsState;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests rendering soft masks and transparency groups.
+ */
+public class SoftMaskTest
+{
+    @Before
+    public void setUp()
+    {
+        Context testContext = InstrumentationRegistry.getInstrumentation().getContext();
+        PDFBoxResourceLoader.init(testContext);
+    }
+
+    @Test
+    public void testLuminositySoftMask() throws IOException
+    {
+        // the mask is white on the left half and black elsewhere
+        COSDictionary softMask = createSoftMask(COSName.LUMINOSITY, "1 g 0 0 100 100 re f");
+        Bitmap image = render("/GS0 gs 1 0 0 rg 0 0 200 100 re f", softMask, null);
+        assertColor(Color.RED, image.getPixel(50, 50));
+        assertColor(Color.WHITE, image.getPixel(150, 50));
+    }
+
+    @Test
+    public void testBackdropColor() throws IOException
+    {
+        // white backdrop, the mask is black on the right half
+        COSDictionary softMask = createSoftMask(COSName.LUMINOSITY, "0 g 100 0 100 100 re f");
+        COSArray backdrop = new COSArray();
+        backdrop.add(COSInteger.ONE);
+        softMask.setItem(COSName.BC, backdrop);
+        Bitmap image = render("/GS0 gs 0 0 1 rg 0 0 200 100 re f", softMask, null);
+        assertColor(Color.BLUE, image.getPixel(50, 50));
+        assertColor(Color.WHITE, image.getPixel(150, 50));
+    }
+
+    @Test
+    public void testAlphaSoftMaskWithTransferFunction() throws IOException
+    {
+        // the mask is opaque on the left half, the transfer function inverts it
+        COSDictionary softMask = createSoftMask(COSName.ALPHA, "0 0 100 100 re f");
+        COSDictionary function = new COSDictionary();
+        function.setInt(COSName.FUNCTION_TYPE, 2);
+        function.setItem(COSName.DOMAIN, toArray(0, 1));
+        function.setItem(COSName.C0, toArray(1));
+        function.setItem(COSName.C1, toArray(0));
+        function.setItem(COSName.N, COSInteger.ONE);
+        softMask.setItem(COSName.TR, function);
+        Bitmap image = render("/GS0 gs 0 1 0 rg 0 0 200 100 re f", softMask, null);
+        assertColor(Color.WHITE, image.getPixel(50, 50));
+        assertColor(Color.GREEN, image.getPixel(150, 50));
+    }
+
+    @Test
+    public void testTransparencyGroupAlpha() throws IOException
+    {
+        // overlapping rectangles in a group are composited with the page as a whole
+        PDTransparencyGroup group = createGroup("0 0 1 rg 0 0 120 100 re f 80 0 120 100 re f");
+        Bitmap image = render("/GS0 gs /Fm0 Do", null, group);
+        int halfBlue = Color.rgb(127, 127, 255);
+        assertColor(halfBlue, image.getPixel(40, 50));
+        assertColor(halfBlue, image.getPixel(100, 50));
+        assertColor(halfBlue, image.getPixel(160, 50));
+    }
+
+    // renders a page of 200 x 100 points with an ExtGState /GS0, which has the soft mask or else
+    // an alpha constant of 0.5, and the group as /Fm0
+    private static Bitmap render(String contents, COSDictionary softMask,
+        PDTransparencyGroup group) throws IOException
+    {
+        PDDocument document = new PDDocument();
+        try
+        {
+            PDPage page = new PDPage(new PDRectangle(200, 100));
+            document.addPage(page);
+            PDResources resources = new PDResources();
+            PDExtendedGraphicsState extGState = new PDExtendedGraphicsState();
+            if (softMask != null)
+            {
+                extGState.getCOSObject().setItem(COSName.SMASK, softMask);
+            }
+            else
+            {
+                extGState.setNonStrokingAlphaConstant(0.5f);
+            }
+            resources.put(COSName.getPDFName("GS0"), extGState);
+            if (group != null)
+            {
+                resources.put(COSName.getPDFName("Fm0"), group);
+            }
+            page.setResources(resources);
+            page.setContents(new PDStream(document,
+                new ByteArrayInputStream(contents.getBytes("US-ASCII"))));
+            return new PDFRenderer(document).renderImage(0);
+        }
+        finally
+        {
+            document.close();
+        }
+    }
+
+    private static COSDictionary createSoftMask(COSName subType, String contents)
+        throws IOException
+    {
+        COSDictionary softMask = new COSDictionary();
+        softMask.setItem(COSName.TYPE, COSName.MASK);
+        softMask.setItem(COSName.S, subType);
+        softMask.setItem(COSName.G, createGroup(contents));
+        return softMask;
+    }
+
+    // a transparency group covering the page
+    private static PDTransparencyGroup createGroup(String contents) throws IOException
+    {
+        COSStream stream = new COSStream();
+        stream.setItem(COSName.TYPE, COSName.XOBJECT);
+        stream.setItem(COSName.SUBTYPE, COSName.FORM);
+        stream.setItem(COSName.BBOX, toArray(0, 0, 200, 100));
+        COSDictionary attributes = new COSDictionary();
+        attributes.setItem(COSName.S, COSName.TRANSPARENCY);
+        attributes.setItem(COSName.CS, COSName.DEVICEGRAY);
+        stream.setItem(COSName.GROUP, attributes);
+        OutputStream output = stream.createOutputStream();
+        output.write(contents.getBytes("US-ASCII"));
+        output.close();
+        return new PDTransparencyGroup(stream, null);
+    }
+
+    private static COSArray toArray(float... values)
+    {
+        COSArray array = new COSArray();
+        for (float value : values)
+        {
+            array.add(new COSFloat(value));
+        }
+        return array;
+    }
+
+    private static void assertColor(int expected, int actual)
+    {
+        assertTrue("expected " + Integer.toHexString(expected) + " but was " +
+            Integer.toHexString(actual),
+            Math.abs(Color.red(expected) - Color.red(actual)) <= 8 &&
+            Math.abs(Color.green(expected) - Color.green(actual)) <= 8 &&
+            Math.abs(Color.blue(expected) - Color.blue(actual)) <= 8);
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tom_roush.pdfbox.rendering;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Color;
+
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import com.tom_roush.pdfbox.android.PDFBoxResourceLoader;
+import com.tom_roush.pdfbox.pdmodel.PDDocument;
+import com.tom_roush.pdfbox.pdmodel.PDPage;
+import com.tom_roush.pdfbox.pdmodel.PDPageContentStream;
+import com.tom_roush.pdfbox.pdmodel.common.PDRectangle;
+import com.tom_roush.pdfbox.pdmodel.graphics.image.LosslessFactory;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests {@link PDFRenderer#renderThumbnail(int, int)} and
+ * {@link PDFRenderer#createThumbnails(int)}.
+ */
+public class ThumbnailTest
+{
+    @Before
+    public void setUp()
+    {
+        Context testContext = InstrumentationRegistry.getInstrumentation().getContext();
+        PDFBoxResourceLoader.init(testContext);
+    }
+
+    @Test
+    public void testEmbeddedThumbnail() throws IOException
+    {
+        PDDocument document = createDocument();
+        try
+        {
+            PDPage page = document.getPage(0);
+            Bitmap thumb = Bitmap.createBitmap(200, 400, Bitmap.Config.ARGB_8888);
+            thumb.eraseColor(Color.GREEN);
+            page.setThumbnail(LosslessFactory.createFromImage(document, thumb));
+
+            // the embedded thumbnail is used, it doesn't show the blue page
+            Bitmap image = new PDFRenderer(document).renderThumbnail(0, 100);
+            assertEquals(50, image.getWidth());
+            assertEquals(100, image.getHeight());
+            assertEquals(Color.GREEN, image.getPixel(25, 50));
+
+            // too small, the page is rendered
+            image = new PDFRenderer(document).renderThumbnail(0, 500);
+            assertEquals(250, image.getWidth());
+            assertEquals(500, image.getHeight());
+            assertEquals(Color.BLUE, image.getPixel(125, 250));
+        }
+        finally
+        {
+            document.close();
+        }
+    }
+
+    @Test
+    public void testRotatedThumbnail() throws IOException
+    {
+        PDDocument document = createDocument();
+        try
+        {
+            // the thumbnail shows the unrotated page, with the left half red
+            PDPage page = document.getPage(0);
+            page.setRotation(90);
+            Bitmap thumb = Bitmap.createBitmap(200, 400, Bitmap.Config.ARGB_8888);
+            thumb.eraseColor(Color.GREEN);
+            for (int y = 0; y < 400; y++)
+            {
+                for (int x = 0; x < 100; x++)
+                {
+                    thumb.setPixel(x, y, Color.RED);
+                }
+            }
+            page.setThumbnail(LosslessFactory.createFromImage(document, thumb));
+
+            Bitmap image = new PDFRenderer(document).renderThumbnail(0, 100);
+            assertEquals(100, image.getWidth());
+            assertEquals(50, image.getHeight());
+            assertEquals(Color.RED, image.getPixel(50, 10));
+            assertEquals(Color.GREEN, image.getPixel(50, 40));
+        }
+        finally
+        {
+            document.close();
+        }
+    }
+
+    @Test
+    public void testTransposedThumbnailWithoutRotation() throws IOException
+    {
+        PDDocument document = createDocument();
+        try
+        {
+            // the thumbnail is landscape, the unrotated page is portrait, so the page is rendered
+            PDPage page = document.getPage(0);
+            Bitmap thumb = Bitmap.createBitmap(400, 200, Bitmap.Config.ARGB_8888);
+            thumb.eraseColor(Color.GREEN);
+            page.setThumbnail(LosslessFactory.createFromImage(document, thumb));
+
+            Bitmap image = new PDFRenderer(document).renderThumbnail(0, 100);
+            assertEquals(50, image.getWidth());
+            assertEquals(100, image.getHeight());
+            assertEquals(Color.BLUE, image.getPixel(25, 50));
+        }
+        finally
+        {
+            document.close();
+        }
+    }
+
+    @Test
+    public void testCreateThumbnails() throws IOException
+    {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        PDDocument document = createDocument();
+        try
+        {
+            PDFRenderer renderer = new PDFRenderer(document);
+            assertNull(document.getPage(0).getThumbnail());
+            assertEquals(1, renderer.createThumbnails(80));
+            assertEquals(0, renderer.createThumbnails(80));
+            document.save(baos);
+        }
+        finally
+        {
+            document.close();
+        }
+
+        document = PDDocument.load(baos.toByteArray());
+        try
+        {
+            assertNotNull(document.getPage(0).getThumbnail());
+            assertEquals(40, document.getPage(0).getThumbnail().getWidth());
+            assertEquals(80, document.getPage(0).getThumbnail().getHeight());
+            Bitmap image = new PDFRenderer(document).renderThumbnail(0, 80);
+            assertEquals(40, image.getWidth());
+            assertEquals(80, image.getHeight());
+        }
+        finally
+        {
+            document.close();
+        }
+    }
+
+    // a page of 200 x 400 points, filled with blue
+    private static PDDocument createDocument() throws IOException
+    {
+        PDDocument document = new PDDocument();
+        PDPage page = new PDPage(new PDRectangle(200, 400));
+        document.addPage(page);
+        PDPageContentStream contentStream = new PDPageContentStream(document, page);
+        contentStream.setNonStrokingColor(0, 0, 255);
+        contentStream.addRect(0, 0, 200, 400);
+        contentStream.fill();
+        contentStream.close();
+        return document;
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tom_roush.pdfbox.rendering;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import com.tom_roush.pdfbox.android.PDFBoxResourceLoader;
+import com.tom_roush.pdfbox.pdmodel.PDDocument;
+import com.tom_roush.pdfbox.pdmodel.PDPage;
+import com.tom_roush.pdfbox.pdmodel.PDPageContentStream;
+import com.tom_roush.pdfbox.pdmodel.common.PDRectangle;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests rendering pages in tiles.
+ */
+public class TileRenderingTest
+{
+    @Before
+    public void setUp()
+    {
+        Context testContext = InstrumentationRegistry.getInstrumentation().getContext();
+        PDFBoxResourceLoader.init(testContext);
+    }
+
+    @Test
+    public void testTileGrid()
+    {
+        PDPage page = new PDPage(new PDRectangle(300, 200));
+        TileGrid grid = new TileGrid(page, 2, 256);
+        assertEquals(600, grid.getPageWidth());
+        assertEquals(400, grid.getPageHeight());
+        assertEquals(3, grid.getColumns());
+        assertEquals(2, grid.getRows());
+        assertEquals(new Rect(512, 256, 600, 400), grid.getTile(2, 1));
+
+        List<Rect> tiles = grid.getTiles(new Rect(300, 100, 520, 200));
+        assertEquals(Arrays.asList(new Rect(256, 0, 512, 256), new Rect(512, 0, 600, 256)),
+            tiles);
+        assertTrue(grid.getTiles(new Rect(-100, -100, 0, 0)).isEmpty());
+
+        page.setRotation(90);
+        grid = new TileGrid(page, 2, 256);
+        assertEquals(400, grid.getPageWidth());
+        assertEquals(600, grid.getPageHeight());
+    }
+
+    @Test
+    public void testTilesMatchPage() throws IOException
+    {
+        PDDocument document = new PDDocument();
+        try
+        {
+            for (int rotation = 0; rotation < 360; rotation += 90)
+            {
+                PDPage page = new PDPage(new PDRectangle(300, 200));
+                page.setRotation(rotation);
+                document.addPage(page);
+                PDPageContentStream contentStream = new PDPageContentStream(document, page);
+                contentStream.setNonStrokingColor(200, 0, 0);
+                contentStream.addRect(10, 10, 100, 50);
+                contentStream.fill();
+                contentStream.setNonStrokingColor(0, 0, 200);
+                contentStream.addRect(150, 120, 140, 70);
+                contentStream.fill();
+                contentStream.setStrokingColor(0, 150, 0);
+                contentStream.setLineWidth(4);
+                contentStream.moveTo(0, 0);
+                contentStream.lineTo(300, 200);
+                contentStream.stroke();
+                contentStream.close();
+            }
+
+            PDFRenderer renderer = new PDFRenderer(document);
+            for (int i = 0; i < document.getNumberOfPages(); i++)
+            {
+                Bitmap full = renderer.renderImage(i, 2);
+                TileGrid grid = new TileGrid(document.getPage(i), 2, 128);
+                assertEquals(full.getWidth(), grid.getPageWidth());
+                assertEquals(full.getHeight(), grid.getPageHeight());
+                for (int row = 0; row < grid.getRows(); row++)
+                {
+                    for (int column = 0; column < grid.getColumns(); column++)
+                    {
+                        Rect tile = grid.getTile(column, row);
+                        Bitmap image = renderer.renderImage(i, 2, tile);
+                        assertEquals(tile.width(), image.getWidth());
+                        assertEquals(tile.height(), image.getHeight());
+                        int[] expected = new int[tile.width() * tile.height()];
+                        full.getPixels(expected, 0, tile.width(), tile.left, tile.top,
+                            tile.width(), tile.height());
+                        int[] actual = new int[expected.length];
+                        image.getPixels(actual, 0, tile.width(), 0, 0, tile.width(),
+                            tile.height());
+                        assertTrue("page " + i + " tile " + tile,
+                            Arrays.equals(expected, actual));
+                    }
+                }
+            }
+        }
+        finally
+        {
+            document.close();
+        }
+    }
+}
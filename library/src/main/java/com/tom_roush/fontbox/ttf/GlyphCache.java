@@ -0,0 +1,152 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tom_roush.fontbox.ttf;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A least recently used cache of parsed glyphs, bounded by the number of glyphs and by their
+ * estimated size. Lookups don't take a lock. When a limit is exceeded, the least recently used
+ * quarter of the glyphs is evicted at once, so that the cost of eviction is spread over many
+ * insertions.
+ */
+final class GlyphCache
+{
+    private static final Comparator<Entry> BY_LAST_ACCESS = new Comparator<Entry>()
+    {
+        @Override
+        public int compare(Entry e1, Entry e2)
+        {
+            return e1.lastAccess < e2.lastAccess ? -1 : (e1.lastAccess == e2.lastAccess ? 0 : 1);
+        }
+    };
+
+    private final Map<Integer, Entry> entries = new ConcurrentHashMap<Integer, Entry>();
+    private final AtomicLong clock = new AtomicLong();
+    private final int maxGlyphs;
+    private final long maxBytes;
+    private long bytes;
+
+    /**
+     * Constructor.
+     *
+     * @param maxGlyphs the maximum number of cached glyphs
+     * @param maxBytes the maximum estimated size of the cached glyphs
+     */
+    GlyphCache(int maxGlyphs, long maxBytes)
+    {
+        this.maxGlyphs = maxGlyphs;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Returns the cached glyph with the given GID, or null.
+     */
+    GlyphData get(int gid)
+    {
+        Entry entry = entries.get(gid);
+        if (entry == null)
+        {
+            return null;
+        }
+        entry.lastAccess = clock.incrementAndGet();
+        return entry.glyph;
+    }
+
+    /**
+     * Adds a glyph to the cache.
+     *
+     * @param gid the GID
+     * @param glyph the glyph
+     * @param size the estimated size of the glyph in bytes
+     */
+    synchronized void put(int gid, GlyphData glyph, long size)
+    {
+        if (maxGlyphs <= 0 || size > maxBytes)
+        {
+            return;
+        }
+        Entry entry = new Entry(gid, glyph, size);
+        entry.lastAccess = clock.incrementAndGet();
+        Entry old = entries.put(gid, entry);
+        if (old != null)
+        {
+            bytes -= old.size;
+        }
+        bytes += size;
+        if (entries.size() > maxGlyphs || bytes > maxBytes)
+        {
+            evict();
+        }
+    }
+
+    /**
+     * Returns the number of cached glyphs.
+     */
+    int size()
+    {
+        return entries.size();
+    }
+
+    /**
+     * Returns the estimated size of the cached glyphs.
+     */
+    synchronized long getBytes()
+    {
+        return bytes;
+    }
+
+    private void evict()
+    {
+        List<Entry> sorted = new ArrayList<Entry>(entries.values());
+        Collections.sort(sorted, BY_LAST_ACCESS);
+        int targetGlyphs = maxGlyphs - maxGlyphs / 4;
+        long targetBytes = maxBytes - maxBytes / 4;
+        int count = sorted.size();
+        for (Entry entry : sorted)
+        {
+            if (count <= targetGlyphs && bytes <= targetBytes)
+            {
+                break;
+            }
+            entries.remove(entry.gid);
+            bytes -= entry.size;
+            count--;
+        }
+    }
+
+    private static final class Entry
+    {
+        private final int gid;
+        private final GlyphData glyph;
+        private final long size;
+        private volatile long lastAccess;
+
+        private Entry(int gid, GlyphData glyph, long size)
+        {
+            this.gid = gid;
+            this.glyph = glyph;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,335 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tom_roush.fontbox.ttf;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * An index of the raw 'glyf' records of a font, as needed by the {@link TTFSubsetter}: the
+ * length and checksum of each glyph record and the components of each composite glyph. Glyphs
+ * are read and parsed when a subset first needs them, see {@link #load(Collection)}, and the
+ * index is kept by the {@link TrueTypeFont}, so that subsetting the same font again doesn't
+ * have to read and parse those glyphs again.
+ */
+final class GlyphComponentIndex
+{
+    private static final int[] NO_COMPONENTS = new int[0];
+
+    private final TrueTypeFont ttf;
+    private final long glyfOffset;
+    private final long[] offsets;
+    private final boolean[] loaded;
+    private final int[] lengths;
+    private final int[] checksums;
+    private final int[][] components;
+    private final int[][] componentPositions;
+
+    private GlyphComponentIndex(TrueTypeFont ttf, long glyfOffset, long[] offsets)
+    {
+        this.ttf = ttf;
+        this.glyfOffset = glyfOffset;
+        this.offsets = offsets;
+        int numGlyphs = Math.max(offsets.length - 1, 0);
+        loaded = new boolean[numGlyphs];
+        lengths = new int[numGlyphs];
+        checksums = new int[numGlyphs];
+        components = new int[numGlyphs][];
+        componentPositions = new int[numGlyphs][];
+    }
+
+    /**
+     * Creates an empty index of the given font.
+     *
+     * @param ttf the font
+     * @return the index
+     * @throws IOException if the 'glyf' or 'loca' table could not be read
+     */
+    static GlyphComponentIndex build(TrueTypeFont ttf) throws IOException
+    {
+        GlyphTable glyf = ttf.getGlyph();
+        IndexToLocationTable loca = ttf.getIndexToLocation();
+        if (glyf == null || loca == null)
+        {
+            throw new IOException("TrueType font has no 'glyf' or 'loca' table");
+        }
+        return new GlyphComponentIndex(ttf, glyf.getOffset(), loca.getOffsets());
+    }
+
+    /**
+     * Reads and parses the given glyphs, unless this was done before. The other methods return
+     * the data of loaded glyphs only, so this has to be called first by each thread using the
+     * index. GIDs which don't exist in the font are ignored.
+     *
+     * @param gids the GIDs, preferably in ascending order
+     * @throws IOException if the 'glyf' table could not be read
+     */
+    synchronized void load(Collection<Integer> gids) throws IOException
+    {
+        byte[] buf = new byte[512];
+        InputStream is = null;
+        long position = 0;
+        try
+        {
+            for (int gid : gids)
+            {
+                if (gid < 0 || gid >= loaded.length || loaded[gid])
+                {
+                    continue;
+                }
+                loaded[gid] = true;
+                long offset = glyfOffset + offsets[gid];
+                int length = (int) (offsets[gid + 1] - offsets[gid]);
+                if (length <= 0)
+                {
+                    continue;
+                }
+                if (is == null || offset < position)
+                {
+                    // loca offsets are usually ascending, start over if they aren't
+                    if (is != null)
+                    {
+                        is.close();
+                    }
+                    is = ttf.getOriginalData();
+                    position = 0;
+                }
+                skipFully(is, offset - position);
+                if (buf.length < length)
+                {
+                    buf = new byte[length];
+                }
+                readFully(is, buf, length);
+                position = offset + length;
+                parseGlyph(gid, buf, length);
+            }
+        }
+        finally
+        {
+            if (is != null)
+            {
+                is.close();
+            }
+        }
+    }
+
+    private void parseGlyph(int gid, byte[] buf, int length)
+    {
+        if (length < 2 || buf[0] != -1 || buf[1] != -1)
+        {
+            // simple glyph, copied as a whole
+            lengths[gid] = length;
+            checksums[gid] = checksum(buf, length);
+            return;
+        }
+
+        int[] gids = new int[4];
+        int[] positions = new int[4];
+        int count = 0;
+        int off = 2 * 5;
+        int flags;
+        do
+        {
+            if (off + 4 > length)
+            {
+                Log.w("PdfBox-Android", "Composite glyph " + gid + " is truncated, it is skipped");
+                return;
+            }
+            flags = (buf[off] & 0xff) << 8 | buf[off + 1] & 0xff;
+            off += 2;
+            int componentGid = (buf[off] & 0xff) << 8 | buf[off + 1] & 0xff;
+            if (componentGid >= lengths.length)
+            {
+                Log.w("PdfBox-Android", "Composite glyph " + gid + " refers to the invalid glyph "
+                    + componentGid + ", it is skipped");
+                return;
+            }
+            if (count == gids.length)
+            {
+                int[] newGids = new int[count * 2];
+                int[] newPositions = new int[count * 2];
+                System.arraycopy(gids, 0, newGids, 0, count);
+                System.arraycopy(positions, 0, newPositions, 0, count);
+                gids = newGids;
+                positions = newPositions;
+            }
+            gids[count] = componentGid;
+            positions[count] = off;
+            count++;
+            off += 2;
+            // ARG_1_AND_2_ARE_WORDS
+            if ((flags & 1 << 0) != 0)
+            {
+                off += 2 * 2;
+            }
+            else
+            {
+                off += 2;
+            }
+            // WE_HAVE_A_TWO_BY_TWO
+            if ((flags & 1 << 7) != 0)
+            {
+                off += 2 * 4;
+            }
+            // WE_HAVE_AN_X_AND_Y_SCALE
+            else if ((flags & 1 << 6) != 0)
+            {
+                off += 2 * 2;
+            }
+            // WE_HAVE_A_SCALE
+            else if ((flags & 1 << 3) != 0)
+            {
+                off += 2;
+            }
+        }
+        while ((flags & 1 << 5) != 0); // MORE_COMPONENTS
+
+        // WE_HAVE_INSTRUCTIONS
+        if ((flags & 0x0100) == 0x0100 && off + 2 <= length)
+        {
+            // USHORT numInstr
+            int numInstr = (buf[off] & 0xff) << 8 | buf[off + 1] & 0xff;
+            off += 2;
+
+            // BYTE instr[numInstr]
+            off += numInstr;
+        }
+
+        if (off > length)
+        {
+            Log.w("PdfBox-Android", "Composite glyph " + gid + " is truncated, it is skipped");
+            return;
+        }
+
+        // trailing padding of the compound glyph isn't copied
+        lengths[gid] = off;
+        checksums[gid] = checksum(buf, off);
+        components[gid] = Arrays.copyOf(gids, count);
+        componentPositions[gid] = Arrays.copyOf(positions, count);
+    }
+
+    /**
+     * Returns the number of glyphs in the index.
+     */
+    int getNumberOfGlyphs()
+    {
+        return lengths.length;
+    }
+
+    /**
+     * Returns the offset of the glyph record in the font data.
+     */
+    long getOffset(int gid)
+    {
+        return glyfOffset + offsets[gid];
+    }
+
+    /**
+     * Returns the number of bytes of the glyph record which are copied into a subset, i.e.
+     * without the trailing padding of composite glyphs. 0 for empty, unknown or malformed glyphs.
+     */
+    int getLength(int gid)
+    {
+        return gid >= 0 && gid < lengths.length ? lengths[gid] : 0;
+    }
+
+    /**
+     * Returns the TrueType checksum of the glyph record as given by {@link #getLength(int)},
+     * as unsigned 32-bit sum.
+     */
+    long getChecksum(int gid)
+    {
+        return gid >= 0 && gid < checksums.length ? checksums[gid] & 0xffffffffL : 0;
+    }
+
+    /**
+     * Returns the GIDs of the components of a composite glyph, or an empty array.
+     */
+    int[] getComponents(int gid)
+    {
+        int[] gids = gid >= 0 && gid < components.length ? components[gid] : null;
+        return gids != null ? gids : NO_COMPONENTS;
+    }
+
+    /**
+     * Returns the positions of the component GIDs within the glyph record, in the same order as
+     * {@link #getComponents(int)}.
+     */
+    int[] getComponentPositions(int gid)
+    {
+        int[] positions = gid >= 0 && gid < componentPositions.length ?
+            componentPositions[gid] : null;
+        return positions != null ? positions : NO_COMPONENTS;
+    }
+
+    /**
+     * Returns the TrueType checksum of the given bytes, as if they started at a 4-byte aligned
+     * offset and were padded with zeros.
+     */
+    static int checksum(byte[] bytes, int length)
+    {
+        int checksum = 0;
+        for (int i = 0; i < length; i++)
+        {
+            checksum += (bytes[i] & 0xff) << 24 - i % 4 * 8;
+        }
+        return checksum;
+    }
+
+    /**
+     * Skips the given number of bytes, or up to the end of the stream.
+     */
+    static void skipFully(InputStream is, long n) throws IOException
+    {
+        while (n > 0)
+        {
+            long skipped = is.skip(n);
+            if (skipped <= 0)
+            {
+                if (is.read() == -1)
+                {
+                    return;
+                }
+                skipped = 1;
+            }
+            n -= skipped;
+        }
+    }
+
+    /**
+     * Reads the given number of bytes. Bytes beyond the end of the stream are zero, so that
+     * truncated fonts are handled as before.
+     */
+    static void readFully(InputStream is, byte[] buf, int length) throws IOException
+    {
+        int off = 0;
+        while (off < length)
+        {
+            int read = is.read(buf, off, length - off);
+            if (read < 0)
+            {
+                Arrays.fill(buf, off, length, (byte) 0);
+                return;
+            }
+            off += read;
+        }
+    }
+}
@@ -30,24 +30,28 @@ public class GlyphTable extends TTFTable
      */
     public static final String TAG = "glyf";
 
-    private GlyphData[] glyphs;
+    private volatile GlyphData[] glyphs;
 
     // lazy table reading
     private TTFDataStream data;
     private IndexToLocationTable loca;
     private int numGlyphs;
 
-    private int cached = 0;
-
     /**
-     * Don't even bother to cache huge fonts.
+     * Default maximum number of glyphs cached per font.
      */
-    private static final int MAX_CACHE_SIZE = 5000;
+    public static final int DEFAULT_MAX_CACHED_GLYPHS = 4096;
 
     /**
-     * Don't cache more glyphs than this.
+     * Default maximum estimated size of the glyphs cached per font.
      */
-    private static final int MAX_CACHED_GLYPHS = 100;
+    public static final long DEFAULT_MAX_CACHED_BYTES = 2L * 1024 * 1024;
+
+    private static volatile int maxCachedGlyphs = DEFAULT_MAX_CACHED_GLYPHS;
+    private static volatile long maxCachedBytes = DEFAULT_MAX_CACHED_BYTES;
+
+    // the cache is bounded, so that huge fonts don't use too much memory
+    private final GlyphCache cache = new GlyphCache(maxCachedGlyphs, maxCachedBytes);
 
     GlyphTable(TrueTypeFont font)
     {
@@ -67,12 +71,6 @@ public class GlyphTable extends TTFTable
         loca = ttf.getIndexToLocation();
         numGlyphs = ttf.getNumberOfGlyphs();
 
-        if (numGlyphs < MAX_CACHE_SIZE)
-        {
-            // don't cache the huge fonts to save memory
-            glyphs = new GlyphData[numGlyphs];
-        }
-
         // we don't actually read the complete table here because it can contain tens of thousands of glyphs
         this.data = data;
         initialized = true;
@@ -98,10 +96,8 @@ public class GlyphTable extends TTFTable
             // https://developer.apple.com/fonts/TTRefMan/RM06/Chap6loca.html
             long endOfGlyphs = offsets[numGlyphs];
             long offset = getOffset();
-            if (glyphs == null)
-            {
-                glyphs = new GlyphData[numGlyphs];
-            }
+            // filled before it is published, because getGlyph() reads it without lock
+            GlyphData[] allGlyphs = glyphs != null ? glyphs : new GlyphData[numGlyphs];
 
             for (int gid = 0; gid < numGlyphs; gid++)
             {
@@ -116,22 +112,23 @@ public class GlyphTable extends TTFTable
                 {
                     continue;
                 }
-                if (glyphs[gid] != null)
+                if (allGlyphs[gid] != null)
                 {
                     // already cached
                     continue;
                 }
 
-                data.seek(offset + offsets[gid]);
-
-                if (glyphs[gid] == null)
+                GlyphData glyph = cache.get(gid);
+                if (glyph == null)
                 {
-                    ++cached;
+                    data.seek(offset + offsets[gid]);
+                    glyph = getGlyphData(gid);
                 }
-                glyphs[gid] = getGlyphData(gid);
+                allGlyphs[gid] = glyph;
             }
+            glyphs = allGlyphs;
             initialized = true;
-            return glyphs;
+            return allGlyphs;
         }
     }
 
@@ -143,6 +140,19 @@ public class GlyphTable extends TTFTable
         glyphs = glyphsValue;
     }
 
+    /**
+     * Sets the limits of the glyph cache of fonts which are read afterwards. Glyphs are cached
+     * per font, and the least recently used glyphs are dropped when a limit is exceeded.
+     *
+     * @param maxGlyphs the maximum number of glyphs cached per font, 0 disables the cache
+     * @param maxBytes the maximum estimated size of the glyphs cached per font
+     */
+    public static void setCacheLimits(int maxGlyphs, long maxBytes)
+    {
+        maxCachedGlyphs = maxGlyphs;
+        maxCachedBytes = maxBytes;
+    }
+
     /**
      * Returns the data for the glyph with the given GID.
      *
@@ -156,15 +166,29 @@ public class GlyphTable extends TTFTable
             return null;
         }
 
-        if (glyphs != null && glyphs[gid] != null)
+        GlyphData[] allGlyphs = glyphs;
+        if (allGlyphs != null && allGlyphs[gid] != null)
+        {
+            return allGlyphs[gid];
+        }
+
+        GlyphData cachedGlyph = cache.get(gid);
+        if (cachedGlyph != null)
         {
-            return glyphs[gid];
+            return cachedGlyph;
         }
 
         // PDFBOX-4219: synchronize on data because it is accessed by several threads
         // when PDFBox is accessing a standard 14 font for the first time
         synchronized (data)
         {
+            // another thread may have read the glyph while we were waiting
+            cachedGlyph = cache.get(gid);
+            if (cachedGlyph != null)
+            {
+                return cachedGlyph;
+            }
+
             // read a single glyph
             long[] offsets = loca.getOffsets();
 
@@ -184,11 +208,8 @@ public class GlyphTable extends TTFTable
             // restore
             data.seek(currentPosition);
 
-            if (glyphs != null && glyphs[gid] == null && cached < MAX_CACHED_GLYPHS)
-            {
-                glyphs[gid] = glyph;
-                ++cached;
-            }
+            // the parsed glyph takes more memory than its record, mainly for the coordinates
+            cache.put(gid, glyph, 64 + 3 * (offsets[gid + 1] - offsets[gid]));
 
             return glyph;
         }
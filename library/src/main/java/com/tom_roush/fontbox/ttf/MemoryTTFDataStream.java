@@ -57,6 +57,14 @@ class MemoryTTFDataStream extends TTFDataStream
         }
     }
 
+    /**
+     * Constructor for views, the data is shared and must not be modified.
+     */
+    private MemoryTTFDataStream(byte[] data)
+    {
+        this.data = data;
+    }
+
     /**
      * Read an unsigned byte.
      * @return An unsigned byte.
@@ -224,4 +232,13 @@ class MemoryTTFDataStream extends TTFDataStream
     {
         return data.length;
     }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    TTFDataStream createView()
+    {
+        return new MemoryTTFDataStream(data);
+    }
 }
\ No newline at end of file
@@ -16,11 +16,14 @@
  */
 package com.tom_roush.fontbox.ttf;
 
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 /**
  * An implementation of the TTFDataStream that goes against a RAF.
@@ -187,4 +190,181 @@ class RAFDataStream extends TTFDataStream
     {
         return ttfFile.length();
     }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The view uses positional reads on the channel of the file, which don't move the file
+     * pointer of this stream and can be done by several threads at the same time.
+     */
+    @Override
+    TTFDataStream createView() throws IOException
+    {
+        if (raf == null)
+        {
+            throw new IOException("The stream is closed");
+        }
+        return new View(raf.getChannel(), ttfFile);
+    }
+
+    /**
+     * A read-only view of the file with its own position.
+     */
+    private static final class View extends TTFDataStream
+    {
+        private static final int VIEW_BUFFER_SIZE = 4096;
+
+        private final FileChannel channel;
+        private final File file;
+        private final byte[] buffer = new byte[VIEW_BUFFER_SIZE];
+        private long bufferStart = 0;
+        private int bufferLength = 0;
+        private long position = 0;
+
+        private View(FileChannel channel, File file)
+        {
+            this.channel = channel;
+            this.file = file;
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            if (position < bufferStart || position >= bufferStart + bufferLength)
+            {
+                fill();
+                if (bufferLength <= 0)
+                {
+                    return -1;
+                }
+            }
+            int b = buffer[(int) (position - bufferStart)] & 0xff;
+            position++;
+            return b;
+        }
+
+        @Override
+        public long readLong() throws IOException
+        {
+            return ((long) readSignedInt() << 32) + (readSignedInt() & 0xFFFFFFFFL);
+        }
+
+        private int readSignedInt() throws IOException
+        {
+            int ch1 = read();
+            int ch2 = read();
+            int ch3 = read();
+            int ch4 = read();
+            if ((ch1 | ch2 | ch3 | ch4) < 0)
+            {
+                throw new EOFException();
+            }
+            return (ch1 << 24) + (ch2 << 16) + (ch3 << 8) + ch4;
+        }
+
+        @Override
+        public int readUnsignedShort() throws IOException
+        {
+            int ch1 = read();
+            int ch2 = read();
+            if ((ch1 | ch2) < 0)
+            {
+                throw new EOFException();
+            }
+            return (ch1 << 8) + ch2;
+        }
+
+        @Override
+        public short readSignedShort() throws IOException
+        {
+            return (short) readUnsignedShort();
+        }
+
+        @Override
+        public void seek(long pos) throws IOException
+        {
+            if (pos < 0)
+            {
+                throw new IOException("Illegal seek position: " + pos);
+            }
+            position = pos;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            if (len == 0)
+            {
+                return 0;
+            }
+            if (position < bufferStart || position >= bufferStart + bufferLength)
+            {
+                if (len >= VIEW_BUFFER_SIZE)
+                {
+                    // large reads bypass the buffer
+                    int amount = channel.read(ByteBuffer.wrap(b, off, len), position);
+                    if (amount > 0)
+                    {
+                        position += amount;
+                    }
+                    return amount;
+                }
+                fill();
+                if (bufferLength <= 0)
+                {
+                    return -1;
+                }
+            }
+            int amount = Math.min(len, (int) (bufferStart + bufferLength - position));
+            System.arraycopy(buffer, (int) (position - bufferStart), b, off, amount);
+            position += amount;
+            return amount;
+        }
+
+        @Override
+        public long getCurrentPosition()
+        {
+            return position;
+        }
+
+        @Override
+        public void close()
+        {
+            // the channel belongs to the RAFDataStream this view was created from
+        }
+
+        @Override
+        public InputStream getOriginalData() throws IOException
+        {
+            return new FileInputStream(file);
+        }
+
+        @Override
+        public long getOriginalDataSize()
+        {
+            return file.length();
+        }
+
+        @Override
+        TTFDataStream createView()
+        {
+            return new View(channel, file);
+        }
+
+        private void fill() throws IOException
+        {
+            bufferStart = position;
+            bufferLength = 0;
+            ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
+            while (byteBuffer.hasRemaining())
+            {
+                int amount = channel.read(byteBuffer, position + byteBuffer.position());
+                if (amount < 0)
+                {
+                    break;
+                }
+            }
+            bufferLength = byteBuffer.position();
+        }
+    }
 }
@@ -94,4 +94,11 @@ class TTCDataStream extends TTFDataStream
     {
         return stream.getOriginalDataSize();
     }
+
+    @Override
+    TTFDataStream createView() throws IOException
+    {
+        // views don't close the underlying stream either
+        return stream.createView();
+    }
 }
@@ -302,4 +302,17 @@ abstract class TTFDataStream implements Closeable
      * @throws IOException If there is an issue reading the data.
      */
     public abstract long getOriginalDataSize();
+
+    /**
+     * Creates a view of the same data which has its own position. Views can be read while this
+     * stream or other views are being read by other threads, which allows to read the tables of
+     * a font concurrently. Closing a view doesn't close this stream.
+     *
+     * @return the view, or null if this stream doesn't support views.
+     * @throws IOException If the view could not be created.
+     */
+    TTFDataStream createView() throws IOException
+    {
+        return null;
+    }
 }
@@ -25,6 +25,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.charset.Charset;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -59,6 +60,7 @@ public final class TTFSubsetter
     private final SortedSet<Integer> glyphIds; // new glyph ids
     private String prefix;
     private boolean hasAddedCompoundReferences;
+    private int[] newGlyphIds; // sorted old glyph ids, the index is the new glyph id
 
     /**
      * Creates a subsetter for the given font.
@@ -110,7 +112,10 @@ public final class TTFSubsetter
         if (gid != 0)
         {
             uniToGID.put(unicode, gid);
-            glyphIds.add(gid);
+            if (glyphIds.add(gid))
+            {
+                newGlyphIds = null;
+            }
         }
     }
 
@@ -170,25 +175,23 @@ public final class TTFSubsetter
         return 0x00010000L + toUInt32(nTables, searchRange) + toUInt32(entrySelector, last);
     }
 
-    private long writeTableHeader(DataOutputStream out, String tag, long offset, byte[] bytes)
-        throws IOException
+    private long checksum(byte[] bytes)
     {
-        long checksum = 0;
-        for (int nup = 0, n = bytes.length; nup < n; nup++)
-        {
-            checksum += (bytes[nup] & 0xffL) << 24 - nup % 4 * 8;
-        }
-        checksum &= 0xffffffffL;
+        return GlyphComponentIndex.checksum(bytes, bytes.length) & 0xffffffffL;
+    }
 
+    private long writeTableHeader(DataOutputStream out, String tag, long offset, long length,
+        long checksum) throws IOException
+    {
         byte[] tagbytes = tag.getBytes("US-ASCII");
 
         out.write(tagbytes, 0, 4);
         out.writeInt((int)checksum);
         out.writeInt((int)offset);
-        out.writeInt(bytes.length);
+        out.writeInt((int)length);
 
         // account for the checksum twice, once for the header field, once for the content itself
-        return toUInt32(tagbytes) + checksum + checksum + offset + bytes.length;
+        return toUInt32(tagbytes) + checksum + checksum + offset + length;
     }
 
     private void writeTableBody(OutputStream os, byte[] bytes) throws IOException
@@ -474,216 +477,146 @@ public final class TTFSubsetter
             return;
         }
         hasAddedCompoundReferences = true;
+        newGlyphIds = null;
 
-        boolean hasNested;
-        do
+        // the components are taken from the index kept by the font, so that the glyphs
+        // don't have to be read again for each subset
+        GlyphComponentIndex index = ttf.getGlyphComponentIndex();
+        Set<Integer> pending = new TreeSet<Integer>(glyphIds);
+        while (!pending.isEmpty())
         {
-            GlyphTable g = ttf.getGlyph();
-            long[] offsets = ttf.getIndexToLocation().getOffsets();
-            InputStream is = ttf.getOriginalData();
-            Set<Integer> glyphIdsToAdd = null;
-            try
+            // only the glyphs reachable from the subset are read, one level at a time
+            index.load(pending);
+            Set<Integer> components = new TreeSet<Integer>();
+            for (int gid : pending)
             {
-                is.skip(g.getOffset());
-                long lastOff = 0L;
-                for (Integer glyphId : glyphIds)
+                for (int componentGid : index.getComponents(gid))
                 {
-                    long offset = offsets[glyphId];
-                    long len = offsets[glyphId + 1] - offset;
-                    is.skip(offset - lastOff);
-                    byte[] buf = new byte[(int)len];
-                    is.read(buf);
-                    // rewrite glyphIds for compound glyphs
-                    if (buf.length >= 2 && buf[0] == -1 && buf[1] == -1)
+                    if (glyphIds.add(componentGid))
                     {
-                        int off = 2*5;
-                        int flags;
-                        do
-                        {
-                            flags = (buf[off] & 0xff) << 8 | buf[off + 1] & 0xff;
-                            off +=2;
-                            int ogid = (buf[off] & 0xff) << 8 | buf[off + 1] & 0xff;
-                            if (!glyphIds.contains(ogid))
-                            {
-                                if (glyphIdsToAdd == null)
-                                {
-                                    glyphIdsToAdd = new TreeSet<Integer>();
-                                }
-                                glyphIdsToAdd.add(ogid);
-                            }
-                            off += 2;
-                            // ARG_1_AND_2_ARE_WORDS
-                            if ((flags & 1 << 0) != 0)
-                            {
-                                off += 2 * 2;
-                            }
-                            else
-                            {
-                                off += 2;
-                            }
-                            // WE_HAVE_A_TWO_BY_TWO
-                            if ((flags & 1 << 7) != 0)
-                            {
-                                off += 2 * 4;
-                            }
-                            // WE_HAVE_AN_X_AND_Y_SCALE
-                            else if ((flags & 1 << 6) != 0)
-                            {
-                                off += 2 * 2;
-                            }
-                            // WE_HAVE_A_SCALE
-                            else if ((flags & 1 << 3) != 0)
-                            {
-                                off += 2;
-                            }
-                        }
-                        while ((flags & 1 << 5) != 0); // MORE_COMPONENTS
-
+                        components.add(componentGid);
                     }
-                    lastOff = offsets[glyphId + 1];
                 }
             }
-            finally
-            {
-                is.close();
-            }
-            if (glyphIdsToAdd != null)
-            {
-                glyphIds.addAll(glyphIdsToAdd);
-            }
-            hasNested = glyphIdsToAdd != null;
+            pending = components;
         }
-        while (hasNested);
     }
 
-    // never returns null
-    private byte[] buildGlyfTable(long[] newOffsets) throws IOException
+    /**
+     * Calculates the new glyph offsets and the checksum of the 'glyf' table of the subset, without
+     * reading any glyphs. The table itself is written by {@link #writeGlyfTable(OutputStream)}.
+     *
+     * @param newOffsets the new offsets, to be filled
+     * @return the checksum of the table
+     */
+    private long buildGlyfTable(long[] newOffsets) throws IOException
     {
-        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        GlyphComponentIndex index = ttf.getGlyphComponentIndex();
+        index.load(glyphIds);
+        long checksum = 0;
+        long newOffset = 0;  // new offset for the glyph in the subset font
+        int newGid = 0;      // new GID in subset font
 
-        GlyphTable g = ttf.getGlyph();
-        long[] offsets = ttf.getIndexToLocation().getOffsets();
-        InputStream is = ttf.getOriginalData();
-        try
+        // for each glyph in the subset
+        for (int gid : glyphIds)
         {
-            is.skip(g.getOffset());
-
-            long prevEnd = 0;    // previously read glyph offset
-            long newOffset = 0;  // new offset for the glyph in the subset font
-            int newGid = 0;      // new GID in subset font
+            newOffsets[newGid++] = newOffset;
+            checksum += index.getChecksum(gid);
 
-            // for each glyph in the subset
-            for (Integer gid : glyphIds)
+            // the component GIDs are rewritten, component GIDs are at even offsets
+            int[] components = index.getComponents(gid);
+            int[] positions = index.getComponentPositions(gid);
+            for (int i = 0; i < components.length; i++)
             {
-                long offset = offsets[gid];
-                long length = offsets[gid + 1] - offset;
-
-                newOffsets[newGid++] = newOffset;
-                is.skip(offset - prevEnd);
+                int shift = positions[i] % 4 == 0 ? 16 : 0;
+                checksum -= (long) components[i] << shift;
+                checksum += (long) getNewGlyphId(components[i]) << shift;
+            }
 
-                byte[] buf = new byte[(int)length];
-                is.read(buf);
+            // 4-byte alignment
+            newOffset += (index.getLength(gid) + 3) / 4 * 4;
+        }
+        newOffsets[newGid] = newOffset;
+        return checksum & 0xffffffffL;
+    }
 
-                // detect glyph type
-                if (buf.length >= 2 && buf[0] == -1 && buf[1] == -1)
+    /**
+     * Copies the glyphs of the subset from the original font directly to the output.
+     */
+    private void writeGlyfTable(OutputStream out) throws IOException
+    {
+        GlyphComponentIndex index = ttf.getGlyphComponentIndex();
+        byte[] buf = new byte[512];
+        InputStream is = null;
+        long position = 0;  // position in the original font data
+        try
+        {
+            for (int gid : glyphIds)
+            {
+                int length = index.getLength(gid);
+                if (length == 0)
                 {
-                    // compound glyph
-                    int off = 2*5;
-                    int flags;
-                    do
-                    {
-                        // flags
-                        flags = (buf[off] & 0xff) << 8 | buf[off + 1] & 0xff;
-                        off += 2;
-
-                        // glyphIndex
-                        int componentGid = (buf[off] & 0xff) << 8 | buf[off + 1] & 0xff;
-                        if (!glyphIds.contains(componentGid))
-                        {
-                            glyphIds.add(componentGid);
-                        }
-
-                        int newComponentGid = getNewGlyphId(componentGid);
-                        buf[off]   = (byte)(newComponentGid >>> 8);
-                        buf[off + 1] = (byte)newComponentGid;
-                        off += 2;
-
-                        // ARG_1_AND_2_ARE_WORDS
-                        if ((flags & 1 << 0) != 0)
-                        {
-                            off += 2 * 2;
-                        }
-                        else
-                        {
-                            off += 2;
-                        }
-                        // WE_HAVE_A_TWO_BY_TWO
-                        if ((flags & 1 << 7) != 0)
-                        {
-                            off += 2 * 4;
-                        }
-                        // WE_HAVE_AN_X_AND_Y_SCALE
-                        else if ((flags & 1 << 6) != 0)
-                        {
-                            off += 2 * 2;
-                        }
-                        // WE_HAVE_A_SCALE
-                        else if ((flags & 1 << 3) != 0)
-                        {
-                            off += 2;
-                        }
-                    }
-                    while ((flags & 1 << 5) != 0); // MORE_COMPONENTS
-
-                    // WE_HAVE_INSTRUCTIONS
-                    if ((flags & 0x0100) == 0x0100)
+                    continue;
+                }
+                long offset = index.getOffset(gid);
+                if (is == null || offset < position)
+                {
+                    if (is != null)
                     {
-                        // USHORT numInstr
-                        int numInstr = (buf[off] & 0xff) << 8 | buf[off + 1] & 0xff;
-                        off += 2;
-
-                        // BYTE instr[numInstr]
-                        off += numInstr;
+                        is.close();
                     }
-
-                    // write the compound glyph
-                    bos.write(buf, 0, off);
-
-                    // offset to start next glyph
-                    newOffset += off;
+                    is = ttf.getOriginalData();
+                    position = 0;
                 }
-                else if (buf.length > 0)
+                GlyphComponentIndex.skipFully(is, offset - position);
+                if (buf.length < length)
                 {
-                    // copy the entire glyph
-                    bos.write(buf, 0, buf.length);
+                    buf = new byte[length];
+                }
+                GlyphComponentIndex.readFully(is, buf, length);
+                position = offset + length;
 
-                    // offset to start next glyph
-                    newOffset += buf.length;
+                // rewrite glyphIds for compound glyphs
+                int[] components = index.getComponents(gid);
+                int[] positions = index.getComponentPositions(gid);
+                for (int i = 0; i < components.length; i++)
+                {
+                    int newComponentGid = getNewGlyphId(components[i]);
+                    buf[positions[i]] = (byte) (newComponentGid >>> 8);
+                    buf[positions[i] + 1] = (byte) newComponentGid;
                 }
+                out.write(buf, 0, length);
 
                 // 4-byte alignment
-                if (newOffset % 4 != 0)
+                if (length % 4 != 0)
                 {
-                    int len = 4 - (int)(newOffset % 4);
-                    bos.write(PAD_BUF, 0, len);
-                    newOffset += len;
+                    out.write(PAD_BUF, 0, 4 - length % 4);
                 }
-
-                prevEnd = offset + length;
             }
-            newOffsets[newGid++] = newOffset;
         }
         finally
         {
-            is.close();
+            if (is != null)
+            {
+                is.close();
+            }
         }
-
-        return bos.toByteArray();
     }
 
-    private int getNewGlyphId(Integer oldGid)
+    private int getNewGlyphId(int oldGid)
     {
-        return glyphIds.headSet(oldGid).size();
+        // the sorted GIDs are kept as array, a lookup in the TreeSet would take linear time
+        if (newGlyphIds == null)
+        {
+            newGlyphIds = new int[glyphIds.size()];
+            int i = 0;
+            for (int gid : glyphIds)
+            {
+                newGlyphIds[i++] = gid;
+            }
+        }
+        int newGid = Arrays.binarySearch(newGlyphIds, oldGid);
+        return newGid >= 0 ? newGid : -(newGid + 1);
     }
 
     private byte[] buildCmapTable() throws IOException
@@ -969,7 +902,7 @@ public final class TTFSubsetter
             byte[] maxp = buildMaxpTable();
             byte[] name = buildNameTable();
             byte[] os2  = buildOS2Table();
-            byte[] glyf = buildGlyfTable(newLoca);
+            long glyfChecksum = buildGlyfTable(newLoca);
             byte[] loca = buildLocaTable(newLoca);
             byte[] cmap = buildCmapTable();
             byte[] hmtx = buildHmtxTable();
@@ -985,7 +918,8 @@ public final class TTFSubsetter
             {
                 tables.put("cmap", cmap);
             }
-            tables.put("glyf", glyf);
+            // the glyphs aren't copied into memory, they are written directly from the original font
+            tables.put("glyf", null);
             tables.put("head", head);
             tables.put("hhea", hhea);
             tables.put("hmtx", hmtx);
@@ -1017,8 +951,20 @@ public final class TTFSubsetter
             long offset = 12L + 16L * tables.size();
             for (Map.Entry<String, byte[]> entry : tables.entrySet())
             {
-                checksum += writeTableHeader(out, entry.getKey(), offset, entry.getValue());
-                offset += (entry.getValue().length + 3) / 4 * 4;
+                byte[] bytes = entry.getValue();
+                long length;
+                if (bytes != null)
+                {
+                    length = bytes.length;
+                    checksum += writeTableHeader(out, entry.getKey(), offset, length,
+                            checksum(bytes));
+                }
+                else
+                {
+                    length = newLoca[newLoca.length - 1];
+                    checksum += writeTableHeader(out, entry.getKey(), offset, length, glyfChecksum);
+                }
+                offset += (length + 3) / 4 * 4;
             }
             checksum = 0xB1B0AFBAL - (checksum & 0xffffffffL);
 
@@ -1029,7 +975,14 @@ public final class TTFSubsetter
             head[11] = (byte)checksum;
             for (byte[] bytes : tables.values())
             {
-                writeTableBody(out, bytes);
+                if (bytes != null)
+                {
+                    writeTableBody(out, bytes);
+                }
+                else
+                {
+                    writeGlyfTable(out);
+                }
             }
         }
         finally
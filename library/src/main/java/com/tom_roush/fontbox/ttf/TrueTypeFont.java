@@ -46,6 +46,7 @@ public class TrueTypeFont implements FontBoxFont, Closeable
     private final TTFDataStream data;
     private Map<String, Integer> postScriptNames;
     private final List<String> enabledGsubFeatures = new ArrayList<String>();
+    private volatile GlyphComponentIndex glyphComponentIndex;
 
     /**
      * Constructor.  Clients should use the TTFParser to create a new TrueTypeFont object.
@@ -123,18 +124,28 @@ public class TrueTypeFont implements FontBoxFont, Closeable
      * @param table the table to read.
      * @throws IOException if there was an error accessing the table.
      */
-    public synchronized byte[] getTableBytes(TTFTable table) throws IOException
+    public byte[] getTableBytes(TTFTable table) throws IOException
     {
-        // save current position
-        long currentPosition = data.getCurrentPosition();
-        data.seek(table.getOffset());
+        TTFDataStream view = data.createView();
+        if (view != null)
+        {
+            view.seek(table.getOffset());
+            return view.read((int) table.getLength());
+        }
+
+        synchronized (data)
+        {
+            // save current position
+            long currentPosition = data.getCurrentPosition();
+            data.seek(table.getOffset());
 
-        // read all data
-        byte[] bytes = data.read((int)table.getLength());
+            // read all data
+            byte[] bytes = data.read((int) table.getLength());
 
-        // restore current position
-        data.seek(currentPosition);
-        return bytes;
+            // restore current position
+            data.seek(currentPosition);
+            return bytes;
+        }
     }
 
     /**
@@ -144,12 +155,20 @@ public class TrueTypeFont implements FontBoxFont, Closeable
      * @return The table with the given tag.
      * @throws IOException if there was an error reading the table.
      */
-    protected synchronized TTFTable getTable(String tag) throws IOException
+    protected TTFTable getTable(String tag) throws IOException
     {
         TTFTable ttfTable = tables.get(tag);
         if (ttfTable != null && !ttfTable.getInitialized())
         {
-            readTable(ttfTable);
+            // each table is read only once, tables are published via their volatile
+            // "initialized" flag so that no lock is needed once they have been read
+            synchronized (ttfTable)
+            {
+                if (!ttfTable.getInitialized())
+                {
+                    readTable(ttfTable);
+                }
+            }
         }
         return ttfTable;
     }
@@ -353,6 +372,16 @@ public class TrueTypeFont implements FontBoxFont, Closeable
      */
     void readTable(TTFTable table) throws IOException
     {
+        // read from a view if possible, so that tables can be read concurrently
+        TTFDataStream view = data.createView();
+        if (view != null)
+        {
+            // the view isn't closed, the glyph table keeps reading from it
+            view.seek(table.getOffset());
+            table.read(this, view);
+            return;
+        }
+
         // PDFBOX-4219: synchronize on data because it is accessed by several threads
         // when PDFBox is accessing a standard 14 font for the first time
         synchronized (data)
@@ -366,6 +395,32 @@ public class TrueTypeFont implements FontBoxFont, Closeable
         }
     }
 
+    /**
+     * Returns the index of the raw glyph records, which is created on first use and kept for
+     * later subsets of this font. Glyphs are added to it as subsets need them. Package-private,
+     * used by TTFSubsetter only.
+     *
+     * @return the index
+     * @throws IOException if there was an error reading the 'glyf' table.
+     */
+    GlyphComponentIndex getGlyphComponentIndex() throws IOException
+    {
+        GlyphComponentIndex index = glyphComponentIndex;
+        if (index == null)
+        {
+            synchronized (this)
+            {
+                index = glyphComponentIndex;
+                if (index == null)
+                {
+                    index = GlyphComponentIndex.build(this);
+                    glyphComponentIndex = index;
+                }
+            }
+        }
+        return index;
+    }
+
     /**
      * Returns the number of glyphs (MaximumProfile.numGlyphs).
      *
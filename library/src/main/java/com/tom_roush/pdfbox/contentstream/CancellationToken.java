@@ -0,0 +1,94 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tom_roush.pdfbox.contentstream;
+
+/**
+ * Signals a {@link PDFStreamEngine} to stop processing, either when {@link #cancel()} is called
+ * from another thread or when a deadline has passed. The engine checks the token periodically
+ * between operators and throws a {@link ProcessingCancelledException}.
+ */
+public final class CancellationToken
+{
+    private final long deadline;
+    private final boolean hasDeadline;
+    private volatile boolean cancelled;
+
+    /**
+     * Creates a token without a deadline, which is only cancelled by {@link #cancel()}.
+     */
+    public CancellationToken()
+    {
+        this.deadline = 0;
+        this.hasDeadline = false;
+    }
+
+    private CancellationToken(long deadline)
+    {
+        this.deadline = deadline;
+        this.hasDeadline = true;
+    }
+
+    /**
+     * Creates a token which is cancelled when the given time has passed, or when
+     * {@link #cancel()} is called before.
+     *
+     * @param timeoutMillis the time budget in milliseconds, starting now
+     * @return the token
+     */
+    public static CancellationToken withTimeout(long timeoutMillis)
+    {
+        return new CancellationToken(System.nanoTime() + timeoutMillis * 1000000L);
+    }
+
+    /**
+     * Cancels the processing. Can be called from any thread.
+     */
+    public void cancel()
+    {
+        cancelled = true;
+    }
+
+    /**
+     * Returns true if {@link #cancel()} was called or the deadline has passed.
+     */
+    public boolean isCancelled()
+    {
+        if (cancelled)
+        {
+            return true;
+        }
+        if (hasDeadline && System.nanoTime() - deadline >= 0)
+        {
+            cancelled = true;
+        }
+        return cancelled;
+    }
+
+    /**
+     * Throws an exception if the processing is cancelled.
+     *
+     * @throws ProcessingCancelledException if {@link #isCancelled()} is true
+     */
+    public void throwIfCancelled() throws ProcessingCancelledException
+    {
+        if (isCancelled())
+        {
+            throw new ProcessingCancelledException(hasDeadline ?
+                "Processing was cancelled or exceeded its deadline" : "Processing was cancelled");
+        }
+    }
+}
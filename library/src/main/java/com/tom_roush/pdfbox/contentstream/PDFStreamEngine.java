@@ -89,6 +89,11 @@ public abstract class PDFStreamEngine
     // used to monitor potentially recursive operations.
     private int level = 0;
 
+    // checked every CANCELLATION_CHECK_INTERVAL operators, may be null
+    private CancellationToken cancellationToken;
+    private int operatorCount;
+    private static final int CANCELLATION_CHECK_INTERVAL = 64;
+
     /**
      * Creates a new PDFStreamEngine.
      */
@@ -121,6 +126,40 @@ public abstract class PDFStreamEngine
         operators.put(op.getName(), op);
     }
 
+    /**
+     * Sets a token which stops the processing when it is cancelled. The token is checked
+     * periodically between operators; the processing then ends with a
+     * {@link ProcessingCancelledException}.
+     *
+     * @param cancellationToken the token, may be null
+     */
+    public void setCancellationToken(CancellationToken cancellationToken)
+    {
+        this.cancellationToken = cancellationToken;
+    }
+
+    /**
+     * Returns the cancellation token, may be null.
+     */
+    public CancellationToken getCancellationToken()
+    {
+        return cancellationToken;
+    }
+
+    /**
+     * Throws an exception if the cancellation token has been cancelled. Subclasses may call
+     * this before expensive operations, e.g. decoding an image.
+     *
+     * @throws ProcessingCancelledException if the processing has been cancelled
+     */
+    protected final void checkCancelled() throws ProcessingCancelledException
+    {
+        if (cancellationToken != null)
+        {
+            cancellationToken.throwIfCancelled();
+        }
+    }
+
     /**
      * Initializes the stream engine for the given page.
      */
@@ -501,6 +540,7 @@ public abstract class PDFStreamEngine
      */
     private void processStreamOperators(PDContentStream contentStream) throws IOException
     {
+        checkCancelled();
         List<COSBase> arguments = new ArrayList<COSBase>();
         PDFStreamParser parser = new PDFStreamParser(contentStream);
         Object token = parser.parseNextToken();
@@ -512,6 +552,11 @@ public abstract class PDFStreamEngine
             }
             else if (token instanceof Operator)
             {
+                if (cancellationToken != null &&
+                    ++operatorCount % CANCELLATION_CHECK_INTERVAL == 0)
+                {
+                    cancellationToken.throwIfCancelled();
+                }
                 processOperator((Operator) token, arguments);
                 arguments = new ArrayList<COSBase>();
             }
@@ -968,6 +1013,10 @@ public abstract class PDFStreamEngine
     protected void operatorException(Operator operator, List<COSBase> operands, IOException e)
         throws IOException
     {
+        if (e instanceof ProcessingCancelledException)
+        {
+            throw e;
+        }
         if (e instanceof MissingOperandException ||
             e instanceof MissingResourceException ||
             e instanceof MissingImageReaderException)
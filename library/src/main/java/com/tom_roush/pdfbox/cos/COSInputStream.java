@@ -73,12 +73,22 @@ public final class COSInputStream extends FilterInputStream
             // apply filters
             for (int i = 0; i < filters.size(); i++)
             {
-                if (scratchFile != null)
+                Filter filter = filters.get(i);
+
+                // decode lazily while the stream is being read if the filter supports it
+                InputStream decoder = filter.createDecoderStream(input, parameters, i, options);
+                if (decoder != null)
+                {
+                    results.add(new DecodeResult(parameters));
+                    input = decoder;
+                }
+                else if (scratchFile != null)
                 {
                     // scratch file
                     final RandomAccess buffer = scratchFile.createBuffer();
-                    DecodeResult result = filters.get(i).decode(input, new RandomAccessOutputStream(buffer), parameters, i, options);
+                    DecodeResult result = filter.decode(input, new RandomAccessOutputStream(buffer), parameters, i, options);
                     results.add(result);
+                    closeIntermediate(input, in);
                     input = new RandomAccessInputStream(buffer)
                     {
                         @Override
@@ -92,8 +102,9 @@ public final class COSInputStream extends FilterInputStream
                 {
                     // in-memory
                     ByteArrayOutputStream output = new ByteArrayOutputStream();
-                    DecodeResult result = filters.get(i).decode(input, output, parameters, i, options);
+                    DecodeResult result = filter.decode(input, output, parameters, i, options);
                     results.add(result);
+                    closeIntermediate(input, in);
                     input = new ByteArrayInputStream(output.toByteArray());
                 }
             }
@@ -101,6 +112,18 @@ public final class COSInputStream extends FilterInputStream
         return new COSInputStream(input, results);
     }
 
+    /**
+     * Closes the output of a previous filter once it has been decoded by the next filter, this
+     * releases scratch file buffers and inflaters early.
+     */
+    private static void closeIntermediate(InputStream input, InputStream in) throws IOException
+    {
+        if (input != in)
+        {
+            input.close();
+        }
+    }
+
     private final List<DecodeResult> decodeResults;
 
     /**
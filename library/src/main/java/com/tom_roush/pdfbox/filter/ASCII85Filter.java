@@ -47,6 +47,13 @@ final class ASCII85Filter extends Filter
         return new DecodeResult(parameters);
     }
 
+    @Override
+    public InputStream createDecoderStream(InputStream encoded, COSDictionary parameters,
+        int index, DecodeOptions options) throws IOException
+    {
+        return new ASCII85InputStream(encoded);
+    }
+
     @Override
     protected void encode(InputStream input, OutputStream encoded, COSDictionary parameters)
         throws IOException
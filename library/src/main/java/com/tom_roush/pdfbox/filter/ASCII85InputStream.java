@@ -194,7 +194,7 @@ final class ASCII85InputStream extends FilterInputStream
                 int t = read();
                 if (t == -1)
                 {
-                    return i;
+                    return i == 0 ? -1 : i;
                 }
                 data[i + offset] = (byte) t;
             }
@@ -228,16 +228,23 @@ final class ASCII85InputStream extends FilterInputStream
     }
 
     /**
-     * Unsupported.
+     * Skips decoded bytes, by decoding them.
      *
-     * @param nValue ignored.
+     * @param nValue the number of bytes to be skipped.
      *
-     * @return Always zero.
+     * @return The number of bytes actually skipped.
+     *
+     * @throws IOException If there is an error reading data from the underlying stream.
      */
     @Override
-    public long skip(long nValue)
+    public long skip(long nValue) throws IOException
     {
-        return 0;
+        long skipped = 0;
+        while (skipped < nValue && read() != -1)
+        {
+            skipped++;
+        }
+        return skipped;
     }
 
     /**
@@ -18,6 +18,7 @@ package com.tom_roush.pdfbox.filter;
 
 import android.util.Log;
 
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -65,44 +66,113 @@ final class ASCIIHexFilter extends Filter
     public DecodeResult decode(InputStream encoded, OutputStream decoded,
         COSDictionary parameters, int index) throws IOException
     {
-        int value, firstByte, secondByte;
-        while ((firstByte = encoded.read()) != -1)
+        InputStream in = new HexInputStream(encoded);
+        int value;
+        while ((value = in.read()) != -1)
         {
+            decoded.write(value);
+        }
+        decoded.flush();
+        return new DecodeResult(parameters);
+    }
+
+    @Override
+    public InputStream createDecoderStream(InputStream encoded, COSDictionary parameters,
+        int index, DecodeOptions options) throws IOException
+    {
+        return new HexInputStream(encoded);
+    }
+
+    /**
+     * Decodes one pair of hex digits at a time while the data is being read.
+     */
+    private static final class HexInputStream extends FilterInputStream
+    {
+        private boolean eod;
+
+        HexInputStream(InputStream in)
+        {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            if (eod)
+            {
+                return -1;
+            }
+            int firstByte = in.read();
             // always after first char
             while (isWhitespace(firstByte))
             {
-                firstByte = encoded.read();
+                firstByte = in.read();
             }
             if (firstByte == -1 || isEOD(firstByte))
             {
-                break;
+                eod = true;
+                return -1;
             }
 
             if (REVERSE_HEX[firstByte] == -1)
             {
                 Log.e("PdfBox-Android", "Invalid hex, int: " + firstByte + " char: " + (char)firstByte);
             }
-            value = REVERSE_HEX[firstByte] * 16;
-            secondByte = encoded.read();
+            int value = REVERSE_HEX[firstByte] * 16;
+            int secondByte = in.read();
 
             if (secondByte == -1 || isEOD(secondByte))
             {
                 // second value behaves like 0 in case of EOD
-                decoded.write(value);
-                break;
+                eod = true;
+                return value & 0xff;
             }
-            if (secondByte >= 0)
+            if (REVERSE_HEX[secondByte] == -1)
             {
-                if (REVERSE_HEX[secondByte] == -1)
+                Log.e("PdfBox-Android", "Invalid hex, int: " + secondByte + " char: " + (char)secondByte);
+            }
+            value += REVERSE_HEX[secondByte];
+            return value & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            int count = 0;
+            while (count < len)
+            {
+                int value = read();
+                if (value == -1)
                 {
-                    Log.e("PdfBox-Android", "Invalid hex, int: " + secondByte + " char: " + (char)secondByte);
+                    break;
                 }
-                value += REVERSE_HEX[secondByte];
+                b[off + count++] = (byte) value;
             }
-            decoded.write(value);
+            return count == 0 && len > 0 ? -1 : count;
+        }
+
+        @Override
+        public long skip(long n) throws IOException
+        {
+            long skipped = 0;
+            while (skipped < n && read() != -1)
+            {
+                skipped++;
+            }
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException
+        {
+            return 0;
+        }
+
+        @Override
+        public boolean markSupported()
+        {
+            return false;
         }
-        decoded.flush();
-        return new DecodeResult(parameters);
     }
 
     // whitespace
@@ -112,12 +182,12 @@ final class ASCIIHexFilter extends Filter
     //  12  0x0C  Form feed (FF)
     //  13  0x0D  Carriage return (CR)
     //  32  0x20  Space (SP)
-    private boolean isWhitespace(int c)
+    private static boolean isWhitespace(int c)
     {
         return c == 0 || c == 9 || c == 10 || c == 12 || c == 13 || c == 32;
     }
 
-    private boolean isEOD(int c)
+    private static boolean isEOD(int c)
     {
         return c == '>';
     }
@@ -49,6 +49,9 @@ import java.util.Arrays;
  * Initial changes for PDFBox, discussed in PDFBOX-3338:
  * - removed Validate() usages
  * - catch VALUE_EOL in decode1D()
+ *
+ * Codes are resolved with lookup tables of several bits instead of walking the Huffman trees bit
+ * by bit, rows are packed with whole-byte writes, and skipping a whole row doesn't pack it.
  */
 final class CCITTFaxDecoderStream extends FilterInputStream {
     // See TIFF 6.0 Specification, Section 10: "Modified Huffman Compression", page 43.
@@ -145,11 +148,15 @@ final class CCITTFaxDecoderStream extends FilterInputStream {
     }
 
     private void fetch() throws IOException {
+        fetch(true);
+    }
+
+    private void fetch(final boolean pack) throws IOException {
         if (decodedPos >= decodedLength) {
             decodedLength = 0;
 
             try {
-                decodeRow();
+                decodeRow(pack);
             }
             catch (EOFException e) {
                 // TODO: Rewrite to avoid throw/catch for normal flow...
@@ -175,10 +182,10 @@ final class CCITTFaxDecoderStream extends FilterInputStream {
             int completeRun;
 
             if (white) {
-                completeRun = decodeRun(whiteRunTree);
+                completeRun = decodeRun(whiteRunLookup);
             }
             else {
-                completeRun = decodeRun(blackRunTree);
+                completeRun = decodeRun(blackRunLookup);
             }
 
             index += completeRun;
@@ -199,61 +206,54 @@ final class CCITTFaxDecoderStream extends FilterInputStream {
         int index = 0;
         changesCurrentRowCount = 0;
 
-        mode: while (index < columns) {
+        while (index < columns) {
             // read mode
-            Node n = codeTree.root;
+            Node n = decodeCode(codeLookup);
 
-            while (true) {
-                n = n.walk(readBit());
+            if (n == null) {
+                continue;
+            }
 
-                if (n == null) {
-                    continue mode;
-                }
-                else if (n.isLeaf) {
-                    switch (n.value) {
-                        case VALUE_HMODE:
-                            int runLength;
-                            runLength = decodeRun(white ? whiteRunTree : blackRunTree);
-                            index += runLength;
-                            changesCurrentRow[changesCurrentRowCount++] = index;
-
-                            runLength = decodeRun(white ? blackRunTree : whiteRunTree);
-                            index += runLength;
-                            changesCurrentRow[changesCurrentRowCount++] = index;
-                            break;
-
-                        case VALUE_PASSMODE:
-                            int pChangingElement = getNextChangingElement(index, white) + 1;
-
-                            if (pChangingElement >= changesReferenceRowCount) {
-                                index = columns;
-                            }
-                            else {
-                                index = changesReferenceRow[pChangingElement];
-                            }
-
-                            break;
-
-                        default:
-                            // Vertical mode (-3 to 3)
-                            int vChangingElement = getNextChangingElement(index, white);
-
-                            if (vChangingElement >= changesReferenceRowCount || vChangingElement == -1) {
-                                index = columns + n.value;
-                            }
-                            else {
-                                index = changesReferenceRow[vChangingElement] + n.value;
-                            }
-
-                            changesCurrentRow[changesCurrentRowCount] = index;
-                            changesCurrentRowCount++;
-                            white = !white;
-
-                            break;
+            switch (n.value) {
+                case VALUE_HMODE:
+                    int runLength;
+                    runLength = decodeRun(white ? whiteRunLookup : blackRunLookup);
+                    index += runLength;
+                    changesCurrentRow[changesCurrentRowCount++] = index;
+
+                    runLength = decodeRun(white ? blackRunLookup : whiteRunLookup);
+                    index += runLength;
+                    changesCurrentRow[changesCurrentRowCount++] = index;
+                    break;
+
+                case VALUE_PASSMODE:
+                    int pChangingElement = getNextChangingElement(index, white) + 1;
+
+                    if (pChangingElement >= changesReferenceRowCount) {
+                        index = columns;
+                    }
+                    else {
+                        index = changesReferenceRow[pChangingElement];
                     }
 
-                    continue mode;
-                }
+                    break;
+
+                default:
+                    // Vertical mode (-3 to 3)
+                    int vChangingElement = getNextChangingElement(index, white);
+
+                    if (vChangingElement >= changesReferenceRowCount || vChangingElement == -1) {
+                        index = columns + n.value;
+                    }
+                    else {
+                        index = changesReferenceRow[vChangingElement] + n.value;
+                    }
+
+                    changesCurrentRow[changesCurrentRowCount] = index;
+                    changesCurrentRowCount++;
+                    white = !white;
+
+                    break;
             }
         }
     }
@@ -289,20 +289,12 @@ final class CCITTFaxDecoderStream extends FilterInputStream {
         if (optionByteAligned) {
             resetBuffer();
         }
-        eof: while (true) {
+        while (true) {
             // read till next EOL code
-            Node n = eolOnlyTree.root;
-
-            while (true) {
-                n = n.walk(readBit());
-
-                if (n == null) {
-                    continue eof;
-                }
+            Node n = decodeCode(eolOnlyLookup);
 
-                if (n.isLeaf) {
-                    break eof;
-                }
+            if (n != null && n.isLeaf) {
+                break;
             }
         }
 
@@ -321,7 +313,7 @@ final class CCITTFaxDecoderStream extends FilterInputStream {
         decode2D();
     }
 
-    private void decodeRow() throws IOException {
+    private void decodeRow(final boolean pack) throws IOException {
         switch (type) {
             case TIFFExtension.COMPRESSION_CCITT_MODIFIED_HUFFMAN_RLE:
                 decodeRowType2();
@@ -336,120 +328,159 @@ final class CCITTFaxDecoderStream extends FilterInputStream {
                 throw new IllegalArgumentException("Illegal parameter: " + type);
         }
 
-        int index = 0;
-        boolean white = true;
-
         lastChangingElement = 0;
-        for (int i = 0; i <= changesCurrentRowCount; i++) {
-            int nextChange = columns;
-
-            if (i != changesCurrentRowCount) {
-                nextChange = changesCurrentRow[i];
-            }
-
-            if (nextChange > columns) {
-                nextChange = columns;
-            }
-
-            int byteIndex = index / 8;
 
-            while (index % 8 != 0 && (nextChange - index) > 0) {
-                decodedRow[byteIndex] |= (white ? 0 : 1 << (7 - ((index) % 8)));
-                index++;
-            }
+        if (pack) {
+            // white is 0, so only the black runs need to be set
+            Arrays.fill(decodedRow, (byte) 0);
+            int index = 0;
+            boolean white = true;
 
-            if (index % 8 == 0) {
-                byteIndex = index / 8;
-                final byte value = (byte) (white ? 0x00 : 0xff);
+            for (int i = 0; i <= changesCurrentRowCount; i++) {
+                int nextChange = columns;
 
-                while ((nextChange - index) > 7) {
-                    decodedRow[byteIndex] = value;
-                    index += 8;
-                    ++byteIndex;
+                if (i != changesCurrentRowCount) {
+                    nextChange = Math.min(changesCurrentRow[i], columns);
                 }
-            }
 
-            while ((nextChange - index) > 0) {
-                if (index % 8 == 0) {
-                    decodedRow[byteIndex] = 0;
+                if (nextChange > index) {
+                    if (!white) {
+                        setBits(decodedRow, index, nextChange);
+                    }
+                    index = nextChange;
                 }
 
-                decodedRow[byteIndex] |= (white ? 0 : 1 << (7 - ((index) % 8)));
-                index++;
+                white = !white;
             }
-
-            white = !white;
         }
 
-        if (index != columns) {
-            throw new IOException("Sum of run-lengths does not equal scan line width: " + index + " > " + columns);
+        decodedLength = (columns + 7) / 8;
+    }
+
+    // sets the bits from index start (inclusive) to end (exclusive)
+    private static void setBits(final byte[] row, final int start, final int end) {
+        int startByte = start >> 3;
+        int endByte = (end - 1) >> 3;
+        int startMask = 0xff >> (start & 7);
+        int endMask = 0xff << (7 - ((end - 1) & 7));
+
+        if (startByte == endByte) {
+            row[startByte] |= startMask & endMask;
+            return;
         }
 
-        decodedLength = (index + 7) / 8;
+        row[startByte] |= startMask;
+        for (int i = startByte + 1; i < endByte; i++) {
+            row[i] = (byte) 0xff;
+        }
+        row[endByte] |= endMask;
     }
 
-    private int decodeRun(final Tree tree) throws IOException {
+    private int decodeRun(final Lookup lookup) throws IOException {
         int total = 0;
 
-        Node n = tree.root;
-
         while (true) {
-            boolean bit = readBit();
-            n = n.walk(bit);
+            Node n = decodeCode(lookup);
 
             if (n == null) {
                 throw new IOException("Unknown code in Huffman RLE stream");
             }
 
-            if (n.isLeaf) {
-                total += n.value;
-                if (n.value >= 64) {
-                    n = tree.root;
-                }
-                else if (n.value >= 0) {
-                    return total;
-                }
-                else {
-                    return columns;
-                }
+            total += n.value;
+            if (n.value >= 64) {
+                continue;
+            }
+            else if (n.value >= 0) {
+                return total;
+            }
+            else {
+                return columns;
             }
         }
     }
 
+    /**
+     * Reads the next code of a tree. Returns the leaf node of the code, or null for an unknown
+     * code, after consuming the same bits as walking the tree bit by bit would.
+     */
+    private Node decodeCode(final Lookup lookup) throws IOException {
+        int bits = lookup.bits;
+        if (bitCount < bits) {
+            fillBuffer(bits);
+        }
+
+        int index;
+        int available;
+        if (bitCount >= bits) {
+            index = (int) (buffer >>> (bitCount - bits)) & ((1 << bits) - 1);
+            available = bits;
+        }
+        else {
+            // near the end of the data, the missing bits are taken as 0
+            index = (int) (buffer << (bits - bitCount)) & ((1 << bits) - 1);
+            available = bitCount;
+        }
+
+        int length = lookup.lengths[index];
+        if (length > available) {
+            bitCount = 0;
+            throw new EOFException("Unexpected end of Huffman RLE stream");
+        }
+        bitCount -= length;
+
+        Node n = lookup.nodes[index];
+        while (n != null && !n.isLeaf) {
+            // long codes and fill bits
+            n = n.walk(readBit());
+        }
+
+        return n;
+    }
+
     private void resetBuffer() {
-        bufferPos = -1;
+        // skip the rest of the current byte
+        bitCount -= bitCount % 8;
     }
 
-    int buffer = -1;
-    int bufferPos = -1;
+    // the bits which have been read but not used yet, the next bit is at bitCount - 1
+    private long buffer;
+    private int bitCount;
+    private final byte[] inputBuffer = new byte[64];
 
-    private boolean readBit() throws IOException {
-        if (bufferPos < 0 || bufferPos > 7) {
-            buffer = in.read();
+    // reads whole bytes until at least the given number of bits is available or the end of the
+    // data is reached, so that the bits left of the current byte are always bitCount % 8
+    private void fillBuffer(final int needed) throws IOException {
+        while (bitCount < needed) {
+            int count = Math.min((64 - 8 - bitCount) / 8, inputBuffer.length);
+            int read = in.read(inputBuffer, 0, count);
 
-            if (buffer == -1) {
-                throw new EOFException("Unexpected end of Huffman RLE stream");
+            if (read == -1) {
+                return;
             }
 
-            bufferPos = 0;
+            for (int i = 0; i < read; i++) {
+                int b = inputBuffer[i] & 0xff;
+                if (fillOrder != TIFFExtension.FILL_LEFT_TO_RIGHT) {
+                    b = Integer.reverse(b) >>> 24;
+                }
+                buffer = (buffer << 8) | b;
+                bitCount += 8;
+            }
         }
+    }
 
-        boolean isSet;
+    private boolean readBit() throws IOException {
+        if (bitCount == 0) {
+            fillBuffer(1);
 
-        if (fillOrder == TIFFExtension.FILL_LEFT_TO_RIGHT) {
-            isSet = ((buffer >> (7 - bufferPos)) & 1) == 1;
-        }
-        else {
-            isSet = ((buffer >> (bufferPos)) & 1) == 1;
+            if (bitCount == 0) {
+                throw new EOFException("Unexpected end of Huffman RLE stream");
+            }
         }
 
-        bufferPos++;
+        bitCount--;
 
-        if (bufferPos > 7) {
-            bufferPos = -1;
-        }
-
-        return isSet;
+        return ((buffer >>> bitCount) & 1) == 1;
     }
 
     @Override
@@ -499,7 +530,9 @@ final class CCITTFaxDecoderStream extends FilterInputStream {
         }
 
         if (decodedPos >= decodedLength) {
-            fetch();
+            // a whole row that is skipped is decoded, as it's the reference of the next row,
+            // but not packed
+            fetch(n < decodedRow.length);
 
             if (decodedLength < 0) {
                 return -1;
@@ -618,6 +651,40 @@ final class CCITTFaxDecoderStream extends FilterInputStream {
         }
     }
 
+    /**
+     * The nodes of a tree for all values of the next few bits: the node reached when walking
+     * these bits from the root, and the number of bits walked. Walking stops at a leaf, at a
+     * missing node (null) or after all bits.
+     */
+    private static final class Lookup {
+        final int bits;
+        final Node[] nodes;
+        final byte[] lengths;
+
+        Lookup(final Tree tree, final int bits) {
+            this.bits = bits;
+            nodes = new Node[1 << bits];
+            lengths = new byte[1 << bits];
+
+            for (int index = 0; index < nodes.length; index++) {
+                Node n = tree.root;
+                int length = 0;
+
+                while (length < bits) {
+                    n = n.walk(((index >> (bits - 1 - length)) & 1) == 1);
+                    length++;
+
+                    if (n == null || n.isLeaf) {
+                        break;
+                    }
+                }
+
+                nodes[index] = n;
+                lengths[index] = (byte) length;
+            }
+        }
+    }
+
     static final short[][] BLACK_CODES = {
         { // 2 bits
             0x2, 0x3,
@@ -769,6 +836,10 @@ final class CCITTFaxDecoderStream extends FilterInputStream {
     final static Tree whiteRunTree;
     final static Tree eolOnlyTree;
     final static Tree codeTree;
+    final static Lookup blackRunLookup;
+    final static Lookup whiteRunLookup;
+    final static Lookup eolOnlyLookup;
+    final static Lookup codeLookup;
 
     final static int VALUE_EOL = -2000;
     final static int VALUE_FILL = -1000;
@@ -837,5 +908,11 @@ final class CCITTFaxDecoderStream extends FilterInputStream {
         catch (IOException e) {
             throw new AssertionError(e);
         }
+
+        // most run length codes have up to 9 bits, all mode codes have up to 7 bits
+        blackRunLookup = new Lookup(blackRunTree, 9);
+        whiteRunLookup = new Lookup(whiteRunTree, 9);
+        eolOnlyLookup = new Lookup(eolOnlyTree, 12);
+        codeLookup = new Lookup(codeTree, 7);
     }
 }
@@ -17,6 +17,7 @@
 package com.tom_roush.pdfbox.filter;
 
 import java.io.EOFException;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -45,26 +46,59 @@ final class CCITTFaxFilter extends Filter
 
         // parse dimensions
         int cols = decodeParms.getInt(COSName.COLUMNS, 1728);
+        int rows = getRows(parameters, decodeParms);
+
+        // decompress data
+        int arraySize = (cols + 7) / 8 * rows;
+        // TODO possible options??
+        byte[] decompressed = new byte[arraySize];
+        CCITTFaxDecoderStream s = createDecoder(encoded, decodeParms, cols);
+        readFromDecoderStream(s, decompressed);
+
+        // invert bitmap
+        boolean blackIsOne = decodeParms.getBoolean(COSName.BLACK_IS_1, false);
+        if (!blackIsOne)
+        {
+            // Inverting the bitmap
+            // Note the previous approach with starting from an IndexColorModel didn't work
+            // reliably. In some cases the image wouldn't be painted for some reason.
+            // So a safe but slower approach was taken.
+            invertBitmap(decompressed, 0, decompressed.length);
+        }
+
+        decoded.write(decompressed);
+        return new DecodeResult(parameters);
+    }
+
+    @Override
+    public InputStream createDecoderStream(InputStream encoded, COSDictionary parameters,
+        int index, DecodeOptions options) throws IOException
+    {
+        COSDictionary decodeParms = getDecodeParams(parameters, index);
+        int cols = decodeParms.getInt(COSName.COLUMNS, 1728);
+        long length = (long) (cols + 7) / 8 * getRows(parameters, decodeParms);
+        boolean blackIsOne = decodeParms.getBoolean(COSName.BLACK_IS_1, false);
+        return new CCITTInputStream(createDecoder(encoded, decodeParms, cols), length, !blackIsOne);
+    }
+
+    private static int getRows(COSDictionary parameters, COSDictionary decodeParms)
+    {
         int rows = decodeParms.getInt(COSName.ROWS, 0);
         int height = parameters.getInt(COSName.HEIGHT, COSName.H, 0);
         if (rows > 0 && height > 0)
         {
             // PDFBOX-771, PDFBOX-3727: rows in DecodeParms sometimes contains an incorrect value
-            rows = height;
-        }
-        else
-        {
-            // at least one of the values has to have a valid value
-            rows = Math.max(rows, height);
+            return height;
         }
+        // at least one of the values has to have a valid value
+        return Math.max(rows, height);
+    }
 
-        // decompress data
+    private static CCITTFaxDecoderStream createDecoder(InputStream encoded,
+        COSDictionary decodeParms, int cols) throws IOException
+    {
         int k = decodeParms.getInt(COSName.K, 0);
         boolean encodedByteAlign = decodeParms.getBoolean(COSName.ENCODED_BYTE_ALIGN, false);
-        int arraySize = (cols + 7) / 8 * rows;
-        // TODO possible options??
-        byte[] decompressed = new byte[arraySize];
-        CCITTFaxDecoderStream s;
         int type;
         long tiffOptions = 0;
         if (k == 0)
@@ -106,22 +140,87 @@ final class CCITTFaxFilter extends Filter
             // Group 4
             type = TIFFExtension.COMPRESSION_CCITT_T6;
         }
-        s = new CCITTFaxDecoderStream(encoded, cols, type, TIFFExtension.FILL_LEFT_TO_RIGHT, tiffOptions, encodedByteAlign);
-        readFromDecoderStream(s, decompressed);
+        return new CCITTFaxDecoderStream(encoded, cols, type, TIFFExtension.FILL_LEFT_TO_RIGHT,
+            tiffOptions, encodedByteAlign);
+    }
 
-        // invert bitmap
-        boolean blackIsOne = decodeParms.getBoolean(COSName.BLACK_IS_1, false);
-        if (!blackIsOne)
+    /**
+     * Returns the decoded rows while they are being read, with the same length and inversion as
+     * the buffered decoding. Rows which are skipped as a whole aren't packed into bytes, which
+     * helps reading subsampled images.
+     */
+    private static final class CCITTInputStream extends FilterInputStream
+    {
+        private final boolean invert;
+        private long remaining;
+
+        CCITTInputStream(CCITTFaxDecoderStream in, long length, boolean invert)
         {
-            // Inverting the bitmap
-            // Note the previous approach with starting from an IndexColorModel didn't work
-            // reliably. In some cases the image wouldn't be painted for some reason.
-            // So a safe but slower approach was taken.
-            invertBitmap(decompressed);
+            super(in);
+            this.remaining = length;
+            this.invert = invert;
         }
 
-        decoded.write(decompressed);
-        return new DecodeResult(parameters);
+        @Override
+        public int read() throws IOException
+        {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            if (remaining <= 0)
+            {
+                return -1;
+            }
+            if (len == 0)
+            {
+                return 0;
+            }
+            int read = in.read(b, off, (int) Math.min(len, remaining));
+            if (read <= 0)
+            {
+                return -1;
+            }
+            if (invert)
+            {
+                invertBitmap(b, off, read);
+            }
+            remaining -= read;
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException
+        {
+            long toSkip = Math.min(n, remaining);
+            if (toSkip <= 0)
+            {
+                return 0;
+            }
+            long skipped = in.skip(toSkip);
+            if (skipped < 0)
+            {
+                // the decoder returns zeros after the end of the data
+                skipped = toSkip;
+            }
+            remaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException
+        {
+            return (int) Math.min(remaining, 1);
+        }
+
+        @Override
+        public boolean markSupported()
+        {
+            return false;
+        }
     }
 
     void readFromDecoderStream(CCITTFaxDecoderStream decoderStream, byte[] result)
@@ -140,9 +239,9 @@ final class CCITTFaxFilter extends Filter
         decoderStream.close();
     }
 
-    private void invertBitmap(byte[] bufferData)
+    private static void invertBitmap(byte[] bufferData, int off, int len)
     {
-        for (int i = 0, c = bufferData.length; i < c; i++)
+        for (int i = off, c = off + len; i < c; i++)
         {
             bufferData[i] = (byte) (~bufferData[i] & 0xFF);
         }
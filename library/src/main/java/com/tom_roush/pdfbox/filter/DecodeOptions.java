@@ -65,7 +65,7 @@ public class DecodeOptions
      */
     public DecodeOptions(int x, int y, int width, int height)
     {
-        this(new Rect(x, y, width, height));
+        this(new Rect(x, y, x + width, y + height));
     }
 
     /**
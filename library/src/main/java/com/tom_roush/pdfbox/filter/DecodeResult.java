@@ -33,7 +33,12 @@ public final class DecodeResult
     private final COSDictionary parameters;
     private PDJPXColorSpace colorSpace;
 
-    DecodeResult(COSDictionary parameters)
+    /**
+     * Constructor, for filters which don't repair the stream parameters.
+     *
+     * @param parameters the parameters dictionary of the stream
+     */
+    public DecodeResult(COSDictionary parameters)
     {
         this.parameters = parameters;
     }
@@ -81,6 +81,26 @@ public abstract class Filter
         return decode(encoded, decoded, parameters, index);
     }
 
+    /**
+     * Returns a stream which decodes the data incrementally while it is being read, so that the
+     * decoded data doesn't have to be buffered as a whole. Closing the returned stream closes the
+     * encoded stream. Filters which can only decode all data at once return null, and are used
+     * via {@link #decode(InputStream, OutputStream, COSDictionary, int, DecodeOptions)}
+     * instead.
+     *
+     * @param encoded the encoded byte stream
+     * @param parameters the parameters used for decoding
+     * @param index the index to the filter being decoded
+     * @param options additional options for decoding
+     * @return the decoding stream, or null if this filter doesn't support incremental decoding
+     * @throws IOException if the stream cannot be decoded
+     */
+    public InputStream createDecoderStream(InputStream encoded, COSDictionary parameters,
+        int index, DecodeOptions options) throws IOException
+    {
+        return null;
+    }
+
     /**
      * Encodes data.
      * @param input the byte stream to encode
@@ -18,12 +18,12 @@ package com.tom_roush.pdfbox.filter;
 
 import android.util.Log;
 
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.zip.DataFormatException;
 import java.util.zip.Deflater;
-import java.util.zip.DeflaterOutputStream;
 import java.util.zip.Inflater;
 
 import com.tom_roush.pdfbox.cos.COSDictionary;
@@ -37,88 +37,188 @@ import com.tom_roush.pdfbox.cos.COSDictionary;
  */
 final class FlateFilter extends Filter
 {
-    private static final int BUFFER_SIZE = 0x4000;
-
     @Override
     public DecodeResult decode(InputStream encoded, OutputStream decoded,
         COSDictionary parameters, int index) throws IOException
     {
         final COSDictionary decodeParams = getDecodeParams(parameters, index);
 
+        FlateInputStream in = new FlateInputStream(encoded);
+        OutputStream out = Predictor.wrapPredictor(decoded, decodeParams);
+        byte[] buf = FlatePool.acquireBuffer();
         try
         {
-            decompress(encoded, Predictor.wrapPredictor(decoded, decodeParams));
+            int read;
+            while ((read = in.read(buf)) != -1)
+            {
+                out.write(buf, 0, read);
+            }
         }
-        catch (DataFormatException e)
+        finally
         {
-            // if the stream is corrupt a DataFormatException may occur
-            Log.e("PdfBox-Android", "FlateFilter: stop reading corrupt stream due to a DataFormatException");
-
-            // re-throw the exception
-            throw new IOException(e);
+            // return the inflater to the pool, the encoded stream is left open
+            in.finish();
+            FlatePool.releaseBuffer(buf);
         }
+        out.flush();
         return new DecodeResult(parameters);
     }
 
-    // Use Inflater instead of InflateInputStream to avoid an EOFException due to a probably
-    // missing Z_STREAM_END, see PDFBOX-1232 for details
-    private void decompress(InputStream in, OutputStream out) throws IOException, DataFormatException
+    @Override
+    public InputStream createDecoderStream(InputStream encoded, COSDictionary parameters,
+        int index, DecodeOptions options) throws IOException
+    {
+        return Predictor.wrapPredictor(new FlateInputStream(encoded),
+            getDecodeParams(parameters, index));
+    }
+
+    /**
+     * Inflates the data while it is being read. Uses Inflater instead of InflaterInputStream to
+     * avoid an EOFException due to a probably missing Z_STREAM_END, see PDFBOX-1232 for details.
+     * The underlying stream is not read ahead of what the inflater needs, and the data is
+     * inflated directly into the caller's buffer. The inflater and the input buffer are taken
+     * from the {@link FlatePool} on the first read and returned when the end of the data is
+     * reached or when the stream is closed.
+     */
+    private static final class FlateInputStream extends FilterInputStream
     {
-        byte[] buf = new byte[2048];
-        // skip zlib header
-        in.read();
-        in.read();
-        int read = in.read(buf);
-        if (read > 0)
+        private final byte[] single = new byte[1];
+        private byte[] buf;
+        private Inflater inflater;
+        private boolean dataRead;
+        private boolean finished;
+
+        FlateInputStream(InputStream in)
+        {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            return read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException
         {
-            // use nowrap mode to bypass zlib-header and checksum to avoid a DataFormatException
-            Inflater inflater = new Inflater(true);
-            inflater.setInput(buf,0,read);
-            byte[] res = new byte[1024];
-            boolean dataWritten = false;
-            try
+            if (finished)
             {
-                while (true)
+                return -1;
+            }
+            if (len == 0)
+            {
+                return 0;
+            }
+            if (inflater == null)
+            {
+                // skip zlib header
+                in.read();
+                in.read();
+                // use nowrap mode to bypass zlib-header and checksum to avoid a DataFormatException
+                inflater = FlatePool.acquireInflater();
+                buf = FlatePool.acquireBuffer();
+            }
+            while (true)
+            {
+                if (inflater.needsInput())
                 {
-                    int resRead = 0;
-                    try
-                    {
-                        resRead = inflater.inflate(res);
-                    }
-                    catch(DataFormatException exception)
+                    int read = in.read(buf);
+                    if (read == -1)
                     {
-                        if (dataWritten)
-                        {
-                            // some data could be read -> don't throw an exception
-                            Log.w("PdfBox-Android", "FlateFilter: premature end of stream due to a DataFormatException");
-                            break;
-                        }
-                        else
-                        {
-                            // nothing could be read -> re-throw exception
-                            throw exception;
-                        }
+                        finish();
+                        return -1;
                     }
-                    if (resRead != 0)
+                    inflater.setInput(buf, 0, read);
+                }
+                int resRead;
+                try
+                {
+                    resRead = inflater.inflate(b, off, len);
+                }
+                catch (DataFormatException exception)
+                {
+                    finish();
+                    if (dataRead)
                     {
-                        out.write(res,0,resRead);
-                        dataWritten = true;
-                        continue;
+                        // some data could be read -> don't throw an exception
+                        Log.w("PdfBox-Android", "FlateFilter: premature end of stream due to a DataFormatException");
+                        return -1;
                     }
-                    if (inflater.finished() || inflater.needsDictionary() || in.available() == 0)
+                    // if the stream is corrupt a DataFormatException may occur
+                    Log.e("PdfBox-Android", "FlateFilter: stop reading corrupt stream due to a DataFormatException");
+
+                    // nothing could be read -> re-throw exception
+                    throw new IOException(exception);
+                }
+                if (resRead != 0)
+                {
+                    dataRead = true;
+                    if (inflater.finished())
                     {
-                        break;
+                        // the end of the data, so that available() returns 0
+                        finish();
                     }
-                    read = in.read(buf);
-                    inflater.setInput(buf,0,read);
+                    return resRead;
+                }
+                if (inflater.finished() || inflater.needsDictionary() || !inflater.needsInput())
+                {
+                    finish();
+                    return -1;
                 }
             }
-            finally
+        }
+
+        @Override
+        public long skip(long n) throws IOException
+        {
+            byte[] skipBuf = new byte[(int) Math.min(n, FlatePool.BUFFER_SIZE)];
+            long skipped = 0;
+            while (skipped < n)
             {
-                inflater.end();
+                int read = read(skipBuf, 0, (int) Math.min(n - skipped, skipBuf.length));
+                if (read == -1)
+                {
+                    break;
+                }
+                skipped += read;
+            }
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException
+        {
+            return finished ? 0 : 1;
+        }
+
+        @Override
+        public boolean markSupported()
+        {
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            finish();
+            super.close();
+        }
+
+        private void finish()
+        {
+            if (!finished)
+            {
+                finished = true;
+                if (inflater != null)
+                {
+                    FlatePool.releaseInflater(inflater);
+                    FlatePool.releaseBuffer(buf);
+                    inflater = null;
+                    buf = null;
+                }
             }
         }
-        out.flush();
     }
 
     @Override
@@ -126,20 +226,37 @@ final class FlateFilter extends Filter
         throws IOException
     {
         int compressionLevel = getCompressionLevel();
-        Deflater deflater = new Deflater(compressionLevel);
-        DeflaterOutputStream out = new DeflaterOutputStream(encoded, deflater);
-        int amountRead;
-        int mayRead = input.available();
-        if (mayRead > 0)
+        Deflater deflater = FlatePool.acquireDeflater(compressionLevel);
+        byte[] buffer = FlatePool.acquireBuffer();
+        byte[] output = FlatePool.acquireBuffer();
+        try
         {
-            byte[] buffer = new byte[Math.min(mayRead,BUFFER_SIZE)];
-            while ((amountRead = input.read(buffer, 0, Math.min(mayRead,BUFFER_SIZE))) != -1)
+            // drive the deflater directly instead of using a DeflaterOutputStream, which would
+            // allocate a buffer of its own for each stream
+            int amountRead;
+            while ((amountRead = input.read(buffer, 0, buffer.length)) != -1)
             {
-                out.write(buffer, 0, amountRead);
+                deflater.setInput(buffer, 0, amountRead);
+                while (!deflater.needsInput())
+                {
+                    int length = deflater.deflate(output, 0, output.length);
+                    encoded.write(output, 0, length);
+                }
             }
+            deflater.finish();
+            while (!deflater.finished())
+            {
+                int length = deflater.deflate(output, 0, output.length);
+                encoded.write(output, 0, length);
+            }
+            encoded.close();
+            encoded.flush();
+        }
+        finally
+        {
+            FlatePool.releaseBuffer(output);
+            FlatePool.releaseBuffer(buffer);
+            FlatePool.releaseDeflater(deflater);
         }
-        out.close();
-        encoded.flush();
-        deflater.end();
     }
 }
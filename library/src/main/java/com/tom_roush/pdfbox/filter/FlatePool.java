@@ -0,0 +1,127 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tom_roush.pdfbox.filter;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A bounded pool of inflaters, deflaters and buffers for the Flate filter. Creating and ending
+ * an inflater or deflater allocates and frees native zlib memory, which is expensive compared to
+ * decoding a small content, font or object stream. Instances beyond the capacity of the pool
+ * are ended as usual.
+ */
+final class FlatePool
+{
+    /**
+     * Size of the pooled buffers.
+     */
+    static final int BUFFER_SIZE = 0x4000;
+
+    private static final int CAPACITY =
+        Math.max(2, Math.min(16, Runtime.getRuntime().availableProcessors() * 2));
+
+    private static final BlockingQueue<Inflater> INFLATERS =
+        new ArrayBlockingQueue<Inflater>(CAPACITY);
+    private static final BlockingQueue<Deflater> DEFLATERS =
+        new ArrayBlockingQueue<Deflater>(CAPACITY);
+    private static final BlockingQueue<byte[]> BUFFERS =
+        new ArrayBlockingQueue<byte[]>(CAPACITY * 2);
+
+    private FlatePool()
+    {
+    }
+
+    /**
+     * Returns an inflater in nowrap mode, i.e. without zlib header and checksum.
+     */
+    static Inflater acquireInflater()
+    {
+        Inflater inflater = INFLATERS.poll();
+        return inflater != null ? inflater : new Inflater(true);
+    }
+
+    /**
+     * Returns an inflater to the pool. It must not be used by the caller afterwards.
+     */
+    static void releaseInflater(Inflater inflater)
+    {
+        inflater.reset();
+        if (!INFLATERS.offer(inflater))
+        {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Returns a deflater with zlib header and checksum.
+     *
+     * @param level the compression level
+     */
+    static Deflater acquireDeflater(int level)
+    {
+        Deflater deflater = DEFLATERS.poll();
+        if (deflater == null)
+        {
+            return new Deflater(level);
+        }
+        deflater.setLevel(level);
+        return deflater;
+    }
+
+    /**
+     * Returns a deflater to the pool. It must not be used by the caller afterwards.
+     */
+    static void releaseDeflater(Deflater deflater)
+    {
+        deflater.reset();
+        if (!DEFLATERS.offer(deflater))
+        {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Returns a buffer of {@link #BUFFER_SIZE} bytes with undefined content.
+     */
+    static byte[] acquireBuffer()
+    {
+        byte[] buffer = BUFFERS.poll();
+        return buffer != null ? buffer : new byte[BUFFER_SIZE];
+    }
+
+    /**
+     * Returns a buffer to the pool. It must not be used by the caller afterwards.
+     */
+    static void releaseBuffer(byte[] buffer)
+    {
+        if (buffer.length == BUFFER_SIZE)
+        {
+            BUFFERS.offer(buffer);
+        }
+    }
+
+    /**
+     * Returns the number of idle inflaters, for testing.
+     */
+    static int getIdleInflaterCount()
+    {
+        return INFLATERS.size();
+    }
+}
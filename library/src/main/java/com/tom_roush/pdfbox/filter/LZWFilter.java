@@ -17,16 +17,11 @@ package com.tom_roush.pdfbox.filter;
 
 import android.util.Log;
 
-import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.List;
 
-import com.tom_roush.harmony.javax.imageio.stream.MemoryCacheImageInputStream;
-import com.tom_roush.harmony.javax.imageio.stream.MemoryCacheImageOutputStream;
 import com.tom_roush.pdfbox.cos.COSDictionary;
 import com.tom_roush.pdfbox.cos.COSName;
 
@@ -49,6 +44,15 @@ public class LZWFilter extends Filter
      */
     public static final long EOD = 257;
 
+    /**
+     * The maximum size of the code table, as codes have at most 12 bits.
+     */
+    private static final int MAX_TABLE_SIZE = 4096;
+
+    // the encoder's hash table has about twice as many slots as there are codes
+    private static final int HASH_BITS = 13;
+    private static final int HASH_SIZE = 1 << HASH_BITS;
+
     //BEWARE: codeTable must be local to each method, because there is only
     // one instance of each filter
 
@@ -67,79 +71,240 @@ public class LZWFilter extends Filter
             earlyChange = 1;
         }
 
-        doLZWDecode(encoded, Predictor.wrapPredictor(decoded, decodeParams), earlyChange);
+        InputStream in = new LZWInputStream(encoded, earlyChange);
+        OutputStream out = Predictor.wrapPredictor(decoded, decodeParams);
+        byte[] buf = new byte[4096];
+        int read;
+        while ((read = in.read(buf)) != -1)
+        {
+            out.write(buf, 0, read);
+        }
+        out.flush();
         return new DecodeResult(parameters);
     }
 
-    private void doLZWDecode(InputStream encoded, OutputStream decoded, int earlyChange) throws IOException
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public InputStream createDecoderStream(InputStream encoded, COSDictionary parameters,
+        int index, DecodeOptions options) throws IOException
     {
-        List<byte[]> codeTable = new ArrayList<byte[]>();
-        int chunk = 9;
-        final MemoryCacheImageInputStream in = new MemoryCacheImageInputStream(encoded);
-        long nextCommand;
-        long prevCommand = -1;
+        COSDictionary decodeParams = getDecodeParams(parameters, index);
+        int earlyChange = decodeParams.getInt(COSName.EARLY_CHANGE, 1);
+
+        if (earlyChange != 0 && earlyChange != 1)
+        {
+            earlyChange = 1;
+        }
+
+        return Predictor.wrapPredictor(new LZWInputStream(encoded, earlyChange), decodeParams);
+    }
+
+    /**
+     * Decodes one code at a time while the data is being read. The code table is kept as
+     * prefix code, last byte, first byte and length of each entry, so that no array is
+     * allocated for new entries. The bytes of the current code are written backwards into a
+     * reusable buffer by following the prefix codes.
+     */
+    private static final class LZWInputStream extends InputStream
+    {
+        private final InputStream encoded;
+        private final int earlyChange;
+        private final byte[] inBuf = new byte[512];
+        private int inPos;
+        private int inLength;
+        private long position;
+        private int bitBuffer;
+        private int bitCount;
+
+        private final int[] prefix = new int[MAX_TABLE_SIZE];
+        private final byte[] suffix = new byte[MAX_TABLE_SIZE];
+        private final byte[] first = new byte[MAX_TABLE_SIZE];
+        private final int[] length = new int[MAX_TABLE_SIZE];
+        // the table is empty until the first clear table code
+        private int tableSize = 0;
+        private int chunk = 9;
+        private int prevCommand = -1;
+        private boolean eod;
+
+        // decoded data of the current code
+        private final byte[] data = new byte[MAX_TABLE_SIZE];
+        private int dataPos;
+        private int dataLength;
 
-        try
+        LZWInputStream(InputStream encoded, int earlyChange)
         {
-            while ((nextCommand = in.readBits(chunk)) != EOD)
+            this.encoded = encoded;
+            this.earlyChange = earlyChange;
+            for (int i = 0; i < 256; i++)
             {
-                if (nextCommand == CLEAR_TABLE)
+                prefix[i] = -1;
+                suffix[i] = (byte) i;
+                first[i] = (byte) i;
+                length[i] = 1;
+            }
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            if (dataPos >= dataLength && !nextCode())
+            {
+                return -1;
+            }
+            return data[dataPos++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            if (len == 0)
+            {
+                return 0;
+            }
+            int total = 0;
+            while (total < len)
+            {
+                if (dataPos >= dataLength && !nextCode())
+                {
+                    break;
+                }
+                int n = Math.min(dataLength - dataPos, len - total);
+                System.arraycopy(data, dataPos, b, off + total, n);
+                dataPos += n;
+                total += n;
+            }
+            return total == 0 ? -1 : total;
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            encoded.close();
+        }
+
+        /**
+         * Decodes the next code, returns false at the end of the data.
+         */
+        private boolean nextCode() throws IOException
+        {
+            while (!eod)
+            {
+                int nextCommand = readCode();
+                if (nextCommand == -1)
+                {
+                    Log.w("PdfBox-Android", "Premature EOF in LZW stream, EOD code missing");
+                    eod = true;
+                }
+                else if (nextCommand == EOD)
+                {
+                    eod = true;
+                }
+                else if (nextCommand == CLEAR_TABLE)
                 {
                     chunk = 9;
-                    codeTable = createCodeTable();
+                    tableSize = 258;
                     prevCommand = -1;
                 }
                 else
                 {
-                    if (nextCommand < codeTable.size())
+                    if (nextCommand < tableSize)
                     {
-                        byte[] data = codeTable.get((int) nextCommand);
-                        byte firstByte = data[0];
-                        decoded.write(data);
+                        expand(nextCommand);
                         if (prevCommand != -1)
                         {
-                            checkIndexBounds(codeTable, prevCommand, in);
-                            data = codeTable.get((int) prevCommand);
-                            byte[] newData = Arrays.copyOf(data, data.length + 1);
-                            newData[data.length] = firstByte;
-                            codeTable.add(newData);
+                            checkIndexBounds(prevCommand, tableSize, position);
+                            addEntry(prevCommand, first[nextCommand]);
                         }
                     }
                     else
                     {
-                        checkIndexBounds(codeTable, prevCommand, in);
-                        byte[] data = codeTable.get((int) prevCommand);
-                        byte[] newData = Arrays.copyOf(data, data.length + 1);
-                        newData[data.length] = data[0];
-                        decoded.write(newData);
-                        codeTable.add(newData);
+                        checkIndexBounds(prevCommand, tableSize, position);
+                        if (addEntry(prevCommand, first[prevCommand]))
+                        {
+                            expand(tableSize - 1);
+                        }
+                        else
+                        {
+                            // the table is full, decode the entry without storing it
+                            expand(prevCommand);
+                            data[dataLength++] = first[prevCommand];
+                        }
                     }
-
-                    chunk = calculateChunk(codeTable.size(), earlyChange);
+                    chunk = calculateChunk(tableSize, earlyChange);
                     prevCommand = nextCommand;
+                    return true;
                 }
             }
+            return false;
+        }
+
+        private boolean addEntry(int prefixCode, byte lastByte)
+        {
+            if (tableSize == MAX_TABLE_SIZE)
+            {
+                // codes have at most 12 bits, so that further entries could not be used anyway
+                return false;
+            }
+            prefix[tableSize] = prefixCode;
+            suffix[tableSize] = lastByte;
+            first[tableSize] = first[prefixCode];
+            length[tableSize] = length[prefixCode] + 1;
+            tableSize++;
+            return true;
         }
-        catch (EOFException ex)
+
+        private void expand(int code)
         {
-            Log.w("PdfBox-Android", "Premature EOF in LZW stream, EOD code missing");
+            dataLength = length[code];
+            dataPos = 0;
+            for (int i = dataLength - 1; i >= 0; i--)
+            {
+                data[i] = suffix[code];
+                code = prefix[code];
+            }
+        }
+
+        /**
+         * Reads the next code with the current chunk size, returns -1 at the end of the data.
+         */
+        private int readCode() throws IOException
+        {
+            while (bitCount < chunk)
+            {
+                if (inPos == inLength)
+                {
+                    inLength = encoded.read(inBuf, 0, inBuf.length);
+                    inPos = 0;
+                    if (inLength <= 0)
+                    {
+                        inLength = 0;
+                        return -1;
+                    }
+                }
+                bitBuffer = bitBuffer << 8 | inBuf[inPos++] & 0xff;
+                bitCount += 8;
+                position++;
+            }
+            bitCount -= chunk;
+            return bitBuffer >>> bitCount & (1 << chunk) - 1;
         }
-        decoded.flush();
     }
 
-    private void checkIndexBounds(List<byte[]> codeTable, long index, MemoryCacheImageInputStream in)
+    private static void checkIndexBounds(int index, int tableSize, long position)
         throws IOException
     {
         if (index < 0)
         {
             throw new IOException("negative array index: " + index + " near offset "
-                + in.getStreamPosition());
+                + position);
         }
-        if (index >= codeTable.size())
+        if (index >= tableSize)
         {
             throw new IOException("array index overflow: " + index +
-                " >= " + codeTable.size() + " near offset "
-                + in.getStreamPosition());
+                " >= " + tableSize + " near offset "
+                + position);
         }
     }
 
@@ -150,55 +315,60 @@ public class LZWFilter extends Filter
     protected void encode(InputStream rawData, OutputStream encoded, COSDictionary parameters)
         throws IOException
     {
-        List<byte[]> codeTable = createCodeTable();
+        CodeWriter out = new CodeWriter(encoded);
         int chunk = 9;
+        out.writeCode(CLEAR_TABLE, chunk);
+        // the code table is a hash table of the entries, keyed by prefix code and next byte
+        int[] keys = new int[HASH_SIZE];
+        int[] codes = new int[HASH_SIZE];
+        Arrays.fill(keys, -1);
+        int tableSize = 258;
 
-        byte[] inputPattern = null;
-        final MemoryCacheImageOutputStream out = new MemoryCacheImageOutputStream(encoded);
-        out.writeBits(CLEAR_TABLE, chunk);
         int foundCode = -1;
-        int r;
-        while ((r = rawData.read()) != -1)
+        byte[] buf = new byte[4096];
+        int read;
+        while ((read = rawData.read(buf)) != -1)
         {
-            byte by = (byte) r;
-            if (inputPattern == null)
-            {
-                inputPattern = new byte[] { by };
-                foundCode = by & 0xff;
-            }
-            else
+            for (int i = 0; i < read; i++)
             {
-                inputPattern = Arrays.copyOf(inputPattern, inputPattern.length + 1);
-                inputPattern[inputPattern.length - 1] = by;
-                int newFoundCode = findPatternCode(codeTable, inputPattern);
-                if (newFoundCode == -1)
+                int by = buf[i] & 0xff;
+                if (foundCode == -1)
                 {
-                    // use previous
-                    chunk = calculateChunk(codeTable.size() - 1, 1);
-                    out.writeBits(foundCode, chunk);
-                    // create new table entry
-                    codeTable.add(inputPattern);
-
-                    if (codeTable.size() == 4096)
-                    {
-                        // code table is full
-                        out.writeBits(CLEAR_TABLE, chunk);
-                        codeTable = createCodeTable();
-                    }
-
-                    inputPattern = new byte[] { by };
-                    foundCode = by & 0xff;
+                    foundCode = by;
+                    continue;
                 }
-                else
+                int key = foundCode << 8 | by;
+                int slot = hash(key);
+                while (keys[slot] != -1 && keys[slot] != key)
+                {
+                    slot = slot + 1 & HASH_SIZE - 1;
+                }
+                if (keys[slot] == key)
+                {
+                    foundCode = codes[slot];
+                    continue;
+                }
+                // use previous
+                chunk = calculateChunk(tableSize - 1, 1);
+                out.writeCode(foundCode, chunk);
+                // create new table entry
+                keys[slot] = key;
+                codes[slot] = tableSize++;
+
+                if (tableSize == MAX_TABLE_SIZE)
                 {
-                    foundCode = newFoundCode;
+                    // code table is full
+                    out.writeCode(CLEAR_TABLE, chunk);
+                    Arrays.fill(keys, -1);
+                    tableSize = 258;
                 }
+                foundCode = by;
             }
         }
         if (foundCode != -1)
         {
-            chunk = calculateChunk(codeTable.size() - 1, 1);
-            out.writeBits(foundCode, chunk);
+            chunk = calculateChunk(tableSize - 1, 1);
+            out.writeCode(foundCode, chunk);
         }
 
         // PPDFBOX-1977: the decoder wouldn't know that the encoder would output 
@@ -206,70 +376,67 @@ public class LZWFilter extends Filter
         // possibly adjusted the chunk. Therefore, the encoder must behave as 
         // if the code table had just grown and thus it must be checked it is
         // needed to adjust the chunk, based on an increased table size parameter
-        chunk = calculateChunk(codeTable.size(), 1);
+        chunk = calculateChunk(tableSize, 1);
 
-        out.writeBits(EOD, chunk);
+        out.writeCode(EOD, chunk);
 
         // pad with 0
-        out.writeBits(0, 7);
+        out.writeCode(0, 7);
 
         // must do or file will be empty :-(
         out.flush();
-        out.close();
+    }
+
+    private static int hash(int key)
+    {
+        return (key * 0x9E3779B1) >>> (32 - HASH_BITS);
     }
 
     /**
-     * Find the longest matching pattern in the code table.
-     *
-     * @param codeTable The LZW code table.
-     * @param pattern The pattern to be searched for.
-     * @return The index of the longest matching pattern or -1 if nothing is
-     * found.
+     * Packs codes into bytes, most significant bit first.
      */
-    private int findPatternCode(List<byte[]> codeTable, byte[] pattern)
+    private static final class CodeWriter
     {
-        int foundCode = -1;
-        int foundLen = 0;
-        for (int i = codeTable.size() - 1; i >= 0; --i)
+        private final OutputStream out;
+        private final byte[] buf = new byte[4096];
+        private int pos;
+        private int bitBuffer;
+        private int bitCount;
+
+        CodeWriter(OutputStream out)
         {
-            if (i <= EOD)
+            this.out = out;
+        }
+
+        void writeCode(long code, int chunk) throws IOException
+        {
+            bitBuffer = bitBuffer << chunk | (int) code & (1 << chunk) - 1;
+            bitCount += chunk;
+            while (bitCount >= 8)
             {
-                // we're in the single byte area
-                if (foundCode != -1)
+                bitCount -= 8;
+                if (pos == buf.length)
                 {
-                    // we already found pattern with size > 1
-                    return foundCode;
+                    out.write(buf, 0, pos);
+                    pos = 0;
                 }
-                else if (pattern.length > 1)
-                {
-                    // we won't find anything here anyway
-                    return -1;
-                }
-            }
-            byte[] tryPattern = codeTable.get(i);
-            if ((foundCode != -1 || tryPattern.length > foundLen) && Arrays.equals(tryPattern, pattern))
-            {
-                foundCode = i;
-                foundLen = tryPattern.length;
+                buf[pos++] = (byte) (bitBuffer >>> bitCount);
             }
         }
-        return foundCode;
-    }
 
-    /**
-     * Init the code table with 1 byte entries and the EOD and CLEAR_TABLE
-     * markers.
-     */
-    private List<byte[]> createCodeTable()
-    {
-        List<byte[]> codeTable = new ArrayList<byte[]>(4096);
-        for (int i = 0; i < 256; ++i)
+        /**
+         * Writes the pending bytes, the last byte is padded with 0.
+         */
+        void flush() throws IOException
         {
-            codeTable.add(new byte[] { (byte) (i & 0xFF) });
+            if (bitCount > 0)
+            {
+                writeCode(0, 8 - bitCount);
+            }
+            out.write(buf, 0, pos);
+            pos = 0;
+            out.flush();
         }
-        codeTable.add(null); // 256 EOD
-        codeTable.add(null); // 257 CLEAR_TABLE
-        return codeTable;
     }
 
     /**
@@ -280,7 +447,7 @@ public class LZWFilter extends Filter
      *
      * @return a value between 9 and 12
      */
-    private int calculateChunk(int tabSize, int earlyChange)
+    private static int calculateChunk(int tabSize, int earlyChange)
     {
         if (tabSize >= 2048 - earlyChange)
         {
@@ -15,8 +15,10 @@
  */
 package com.tom_roush.pdfbox.filter;
 
+import java.io.FilterInputStream;
 import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.Arrays;
 
@@ -63,24 +65,12 @@ public final class Predictor
                 if (bitsPerComponent == 8)
                 {
                     // for 8 bits per component it is the same algorithm as PRED SUB of PNG format
-                    for (int p = bytesPerPixel; p < rowlength; p++)
-                    {
-                        int sub = actline[p] & 0xff;
-                        int left = actline[p - bytesPerPixel] & 0xff;
-                        actline[p] = (byte) (sub + left);
-                    }
+                    decodeSub(actline, rowlength, bytesPerPixel);
                     break;
                 }
                 if (bitsPerComponent == 16)
                 {
-                    for (int p = bytesPerPixel; p < rowlength; p += 2)
-                    {
-                        int sub = ((actline[p] & 0xff) << 8) + (actline[p + 1] & 0xff);
-                        int left = (((actline[p - bytesPerPixel] & 0xff) << 8)
-                            + (actline[p - bytesPerPixel + 1] & 0xff));
-                        actline[p] = (byte) (((sub + left) >> 8) & 0xff);
-                        actline[p + 1] = (byte) ((sub + left) & 0xff);
-                    }
+                    decodeTiff16(actline, rowlength, bytesPerPixel);
                     break;
                 }
                 if (bitsPerComponent == 1 && colors == 1)
@@ -89,38 +79,7 @@ public final class Predictor
                     // "A row shall occupy a whole number of bytes, rounded up if necessary.
                     // Samples and their components shall be packed into bytes
                     // from high-order to low-order bits."
-                    for (int p = 0; p < rowlength; p++)
-                    {
-                        for (int bit = 7; bit >= 0; --bit)
-                        {
-                            int sub = (actline[p] >> bit) & 1;
-                            if (p == 0 && bit == 7)
-                            {
-                                continue;
-                            }
-                            int left;
-                            if (bit == 7)
-                            {
-                                // use bit #0 from previous byte
-                                left = actline[p - 1] & 1;
-                            }
-                            else
-                            {
-                                // use "previous" bit
-                                left = (actline[p] >> (bit + 1)) & 1;
-                            }
-                            if (((sub + left) & 1) == 0)
-                            {
-                                // reset bit
-                                actline[p] &= ~(1 << bit);
-                            }
-                            else
-                            {
-                                // set bit
-                                actline[p] |= 1 << bit;
-                            }
-                        }
-                    }
+                    decodeTiff1(actline, rowlength);
                     break;
                 }
                 // everything else, i.e. bpc 2 and 4, but has been tested for bpc 1 and 8 too
@@ -143,64 +102,169 @@ public final class Predictor
                 break;
             case 11:
                 // PRED SUB
-                for (int p = bytesPerPixel; p < rowlength; p++)
-                {
-                    int sub = actline[p];
-                    int left = actline[p - bytesPerPixel];
-                    actline[p] = (byte) (sub + left);
-                }
+                decodeSub(actline, rowlength, bytesPerPixel);
                 break;
             case 12:
                 // PRED UP
                 for (int p = 0; p < rowlength; p++)
                 {
-                    int up = actline[p] & 0xff;
-                    int prior = lastline[p] & 0xff;
-                    actline[p] = (byte) ((up + prior) & 0xff);
+                    actline[p] += lastline[p];
                 }
                 break;
             case 13:
                 // PRED AVG
-                for (int p = 0; p < rowlength; p++)
-                {
-                    int avg = actline[p] & 0xff;
-                    int left = p - bytesPerPixel >= 0 ? actline[p - bytesPerPixel] & 0xff : 0;
-                    int up = lastline[p] & 0xff;
-                    actline[p] = (byte) ((avg + (left + up) / 2) & 0xff);
-                }
+                decodeAverage(actline, lastline, rowlength, bytesPerPixel);
                 break;
             case 14:
                 // PRED PAETH
-                for (int p = 0; p < rowlength; p++)
+                decodePaeth(actline, lastline, rowlength, bytesPerPixel);
+                break;
+            default:
+                break;
+        }
+    }
+
+    // The rows are decoded with whole-row loops without per-byte branches for the first pixel,
+    // so that the JIT can unroll them. The most common pixel sizes get loops of their own which
+    // keep the left pixel in local variables.
+
+    private static void decodeSub(byte[] actline, int rowlength, int bytesPerPixel)
+    {
+        switch (bytesPerPixel)
+        {
+            case 1:
+            {
+                byte left = actline[0];
+                for (int p = 1; p < rowlength; p++)
                 {
-                    int paeth = actline[p] & 0xff;
-                    int a = p - bytesPerPixel >= 0 ? actline[p - bytesPerPixel] & 0xff : 0;// left
-                    int b = lastline[p] & 0xff;// upper
-                    int c = p - bytesPerPixel >= 0 ? lastline[p - bytesPerPixel] & 0xff : 0;// upperleft
-                    int value = a + b - c;
-                    int absa = Math.abs(value - a);
-                    int absb = Math.abs(value - b);
-                    int absc = Math.abs(value - c);
-
-                    if (absa <= absb && absa <= absc)
-                    {
-                        actline[p] = (byte) ((paeth + a) & 0xff);
-                    }
-                    else if (absb <= absc)
-                    {
-                        actline[p] = (byte) ((paeth + b) & 0xff);
-                    }
-                    else
-                    {
-                        actline[p] = (byte) ((paeth + c) & 0xff);
-                    }
+                    left += actline[p];
+                    actline[p] = left;
+                }
+                break;
+            }
+            case 3:
+            {
+                byte r = actline[0];
+                byte g = rowlength > 1 ? actline[1] : 0;
+                byte b = rowlength > 2 ? actline[2] : 0;
+                int p = 3;
+                for (; p + 2 < rowlength; p += 3)
+                {
+                    r += actline[p];
+                    g += actline[p + 1];
+                    b += actline[p + 2];
+                    actline[p] = r;
+                    actline[p + 1] = g;
+                    actline[p + 2] = b;
+                }
+                for (; p < rowlength; p++)
+                {
+                    actline[p] += actline[p - 3];
                 }
                 break;
+            }
+            case 4:
+            {
+                byte c0 = actline[0];
+                byte c1 = rowlength > 1 ? actline[1] : 0;
+                byte c2 = rowlength > 2 ? actline[2] : 0;
+                byte c3 = rowlength > 3 ? actline[3] : 0;
+                int p = 4;
+                for (; p + 3 < rowlength; p += 4)
+                {
+                    c0 += actline[p];
+                    c1 += actline[p + 1];
+                    c2 += actline[p + 2];
+                    c3 += actline[p + 3];
+                    actline[p] = c0;
+                    actline[p + 1] = c1;
+                    actline[p + 2] = c2;
+                    actline[p + 3] = c3;
+                }
+                for (; p < rowlength; p++)
+                {
+                    actline[p] += actline[p - 4];
+                }
+                break;
+            }
             default:
+                for (int p = bytesPerPixel; p < rowlength; p++)
+                {
+                    actline[p] += actline[p - bytesPerPixel];
+                }
                 break;
         }
     }
 
+    private static void decodeAverage(byte[] actline, byte[] lastline, int rowlength, int bytesPerPixel)
+    {
+        int first = Math.min(bytesPerPixel, rowlength);
+        for (int p = 0; p < first; p++)
+        {
+            actline[p] += (lastline[p] & 0xff) >>> 1;
+        }
+        for (int p = first; p < rowlength; p++)
+        {
+            actline[p] += ((actline[p - bytesPerPixel] & 0xff) + (lastline[p] & 0xff)) >>> 1;
+        }
+    }
+
+    private static void decodePaeth(byte[] actline, byte[] lastline, int rowlength, int bytesPerPixel)
+    {
+        // without a left pixel, the predictor is always the upper pixel
+        int first = Math.min(bytesPerPixel, rowlength);
+        for (int p = 0; p < first; p++)
+        {
+            actline[p] += lastline[p];
+        }
+        for (int p = first; p < rowlength; p++)
+        {
+            int a = actline[p - bytesPerPixel] & 0xff; // left
+            int b = lastline[p] & 0xff; // upper
+            int c = lastline[p - bytesPerPixel] & 0xff; // upperleft
+            // distances of a + b - c to a, b and c
+            int pa = Math.abs(b - c);
+            int pb = Math.abs(a - c);
+            int pc = Math.abs(a + b - c - c);
+            // select a if pa <= pb and pa <= pc, else b if pb <= pc, else c, without branches:
+            // the sign of the differences is used as mask
+            int notB = (pc - pb) >> 31;
+            int notA = (pb - pa) >> 31 | (pc - pa) >> 31;
+            int bc = b ^ ((b ^ c) & notB);
+            actline[p] += a ^ ((a ^ bc) & notA);
+        }
+    }
+
+    private static void decodeTiff16(byte[] actline, int rowlength, int bytesPerPixel)
+    {
+        for (int p = bytesPerPixel; p + 1 < rowlength; p += 2)
+        {
+            int sub = ((actline[p] & 0xff) << 8) + (actline[p + 1] & 0xff);
+            int left = ((actline[p - bytesPerPixel] & 0xff) << 8)
+                + (actline[p - bytesPerPixel + 1] & 0xff);
+            int sum = sub + left;
+            actline[p] = (byte) (sum >> 8);
+            actline[p + 1] = (byte) sum;
+        }
+    }
+
+    private static void decodeTiff1(byte[] actline, int rowlength)
+    {
+        // adding bits modulo 2 is xor, so each bit is the xor of all bits to its left: a prefix
+        // xor within the byte, inverted if the last bit of the previous byte is set
+        int carry = 0;
+        for (int p = 0; p < rowlength; p++)
+        {
+            int x = actline[p] & 0xff;
+            x ^= x >>> 1;
+            x ^= x >>> 2;
+            x ^= x >>> 4;
+            x ^= carry;
+            actline[p] = (byte) x;
+            carry = (x & 1) == 0 ? 0 : 0xff;
+        }
+    }
+
     static int calculateRowLength(int colors, int bitsPerComponent, int columns)
     {
         final int bitsPerPixel = colors * bitsPerComponent;
@@ -249,6 +313,182 @@ public final class Predictor
         }
     }
 
+    /**
+     * Wraps an <code>InputStream</code> in a predictor decoding stream as necessary.
+     * If no predictor is specified by the parameters, the original stream is returned as is.
+     *
+     * @param in The stream from which data with predictors should be read
+     * @param decodeParams Decode parameters for the stream
+     * @return An <code>InputStream</code> is returned, which will read decoded data from the
+     * given stream. If no predictor is specified, the original stream is returned.
+     */
+    static InputStream wrapPredictor(InputStream in, COSDictionary decodeParams)
+    {
+        int predictor = decodeParams.getInt(COSName.PREDICTOR);
+        if (predictor > 1)
+        {
+            int colors = Math.min(decodeParams.getInt(COSName.COLORS, 1), 32);
+            int bitsPerPixel = decodeParams.getInt(COSName.BITS_PER_COMPONENT, 8);
+            int columns = decodeParams.getInt(COSName.COLUMNS, 1);
+
+            return new PredictorInputStream(in, predictor, colors, bitsPerPixel, columns);
+        }
+        else
+        {
+            return in;
+        }
+    }
+
+    /**
+     * Input stream that implements predictor decoding. A complete row is read from the
+     * underlying stream and decoded whenever the previous row has been consumed, the previous
+     * row is retained for decoding the next row.
+     */
+    private static final class PredictorInputStream extends FilterInputStream
+    {
+        // current predictor type
+        private int predictor;
+        // image decode parameters
+        private final int colors;
+        private final int bitsPerComponent;
+        private final int columns;
+        private final int rowLength;
+        // PNG predictor (predictor>=10) means every row has a (potentially different)
+        // predictor value
+        private final boolean predictorPerRow;
+
+        // data buffers
+        private byte[] currentRow;
+        private byte[] lastRow;
+        // position of the next byte to be returned from the current row
+        private int currentRowPos;
+        private boolean eof;
+
+        PredictorInputStream(InputStream in, int predictor, int colors, int bitsPerComponent, int columns)
+        {
+            super(in);
+            this.predictor = predictor;
+            this.colors = colors;
+            this.bitsPerComponent = bitsPerComponent;
+            this.columns = columns;
+            this.rowLength = calculateRowLength(colors, bitsPerComponent, columns);
+            this.predictorPerRow = predictor >= 10;
+            currentRow = new byte[rowLength];
+            lastRow = new byte[rowLength];
+            currentRowPos = rowLength;
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            if (currentRowPos >= rowLength && !readRow())
+            {
+                return -1;
+            }
+            return currentRow[currentRowPos++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] bytes, int off, int len) throws IOException
+        {
+            if (len == 0)
+            {
+                return 0;
+            }
+            int total = 0;
+            while (total < len)
+            {
+                if (currentRowPos >= rowLength && !readRow())
+                {
+                    break;
+                }
+                int n = Math.min(rowLength - currentRowPos, len - total);
+                System.arraycopy(currentRow, currentRowPos, bytes, off + total, n);
+                currentRowPos += n;
+                total += n;
+            }
+            return total == 0 ? -1 : total;
+        }
+
+        /**
+         * Reads and decodes the next row. The last row is allowed to be incomplete, and is
+         * completed with zeros.
+         */
+        private boolean readRow() throws IOException
+        {
+            if (eof || rowLength == 0)
+            {
+                return false;
+            }
+            if (predictorPerRow)
+            {
+                // PNG predictor; each row starts with predictor type (0, 1, 2, 3, 4)
+                // read per line predictor, add 10 to tread value 0 as 10, 1 as 11, ...
+                int value = in.read();
+                if (value == -1)
+                {
+                    eof = true;
+                    return false;
+                }
+                predictor = (byte) value + 10;
+            }
+
+            // flip the row buffers to avoid copying
+            byte[] temp = lastRow;
+            lastRow = currentRow;
+            currentRow = temp;
+
+            int rowData = 0;
+            while (rowData < rowLength)
+            {
+                int n = in.read(currentRow, rowData, rowLength - rowData);
+                if (n == -1)
+                {
+                    eof = true;
+                    break;
+                }
+                rowData += n;
+            }
+            if (rowData == 0)
+            {
+                return false;
+            }
+            Arrays.fill(currentRow, rowData, rowLength, (byte) 0);
+            decodePredictorRow(predictor, colors, bitsPerComponent, columns, currentRow, lastRow);
+            currentRowPos = 0;
+            return true;
+        }
+
+        @Override
+        public long skip(long n) throws IOException
+        {
+            long skipped = 0;
+            while (skipped < n)
+            {
+                if (currentRowPos >= rowLength && !readRow())
+                {
+                    break;
+                }
+                int count = (int) Math.min(rowLength - currentRowPos, n - skipped);
+                currentRowPos += count;
+                skipped += count;
+            }
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException
+        {
+            return rowLength - currentRowPos;
+        }
+
+        @Override
+        public boolean markSupported()
+        {
+            return false;
+        }
+    }
+
     /**
      * Output stream that implements predictor decoding. Data is buffered until a complete
      * row is available, which is then decoded and written to the underlying stream.
@@ -18,9 +18,11 @@ package com.tom_roush.pdfbox.filter;
 
 import android.util.Log;
 
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Arrays;
 
 import com.tom_roush.pdfbox.cos.COSDictionary;
 
@@ -38,41 +40,162 @@ final class RunLengthDecodeFilter extends Filter
     public DecodeResult decode(InputStream encoded, OutputStream decoded,
         COSDictionary parameters, int index) throws IOException
     {
-        int dupAmount;
+        InputStream in = new RunLengthInputStream(encoded);
         byte[] buffer = new byte[128];
-        while ((dupAmount = encoded.read()) != -1 && dupAmount != RUN_LENGTH_EOD)
+        int read;
+        while ((read = in.read(buffer)) != -1)
         {
-            if (dupAmount <= 127)
+            decoded.write(buffer, 0, read);
+        }
+        return new DecodeResult(parameters);
+    }
+
+    @Override
+    public InputStream createDecoderStream(InputStream encoded, COSDictionary parameters,
+        int index, DecodeOptions options) throws IOException
+    {
+        return new RunLengthInputStream(encoded);
+    }
+
+    /**
+     * Decodes one run at a time while the data is being read.
+     */
+    private static final class RunLengthInputStream extends FilterInputStream
+    {
+        // bytes left in the current literal run
+        private int literalCount;
+        // bytes left in the current replicate run, and the byte to be replicated
+        private int repeatCount;
+        private int repeatByte;
+        private boolean eod;
+
+        RunLengthInputStream(InputStream in)
+        {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            if (literalCount == 0 && repeatCount == 0 && !nextRun())
             {
-                int amountToCopy = dupAmount + 1;
-                int compressedRead;
-                while (amountToCopy > 0)
+                return -1;
+            }
+            if (repeatCount > 0)
+            {
+                repeatCount--;
+                return repeatByte;
+            }
+            int value = in.read();
+            if (value == -1)
+            {
+                // EOF reached
+                eod = true;
+                literalCount = 0;
+                return -1;
+            }
+            literalCount--;
+            return value;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            if (len == 0)
+            {
+                return 0;
+            }
+            int total = 0;
+            while (total < len)
+            {
+                if (literalCount == 0 && repeatCount == 0 && !nextRun())
                 {
-                    compressedRead = encoded.read(buffer, 0, amountToCopy);
-                    // EOF reached?
-                    if (compressedRead == -1)
+                    break;
+                }
+                if (repeatCount > 0)
+                {
+                    int n = Math.min(repeatCount, len - total);
+                    Arrays.fill(b, off + total, off + total + n, (byte) repeatByte);
+                    repeatCount -= n;
+                    total += n;
+                }
+                else
+                {
+                    int n = in.read(b, off + total, Math.min(literalCount, len - total));
+                    if (n == -1)
                     {
+                        // EOF reached
+                        eod = true;
+                        literalCount = 0;
                         break;
                     }
-                    decoded.write(buffer, 0, compressedRead);
-                    amountToCopy -= compressedRead;
+                    literalCount -= n;
+                    total += n;
                 }
             }
-            else
+            return total == 0 ? -1 : total;
+        }
+
+        private boolean nextRun() throws IOException
+        {
+            while (!eod)
             {
-                int dupByte = encoded.read();
-                // EOF reached?
-                if (dupByte == -1)
+                int dupAmount = in.read();
+                if (dupAmount == -1 || dupAmount == RUN_LENGTH_EOD)
                 {
-                    break;
+                    eod = true;
+                }
+                else if (dupAmount <= 127)
+                {
+                    literalCount = dupAmount + 1;
+                    return true;
                 }
-                for (int i = 0; i < 257 - dupAmount; i++)
+                else
                 {
-                    decoded.write(dupByte);
+                    repeatByte = in.read();
+                    // EOF reached?
+                    if (repeatByte == -1)
+                    {
+                        eod = true;
+                    }
+                    else
+                    {
+                        repeatCount = 257 - dupAmount;
+                        return true;
+                    }
                 }
             }
+            return false;
+        }
+
+        @Override
+        public long skip(long n) throws IOException
+        {
+            byte[] skipBuf = new byte[(int) Math.min(n, 128)];
+            long skipped = 0;
+            while (skipped < n)
+            {
+                int read = read(skipBuf, 0, (int) Math.min(n - skipped, skipBuf.length));
+                if (read == -1)
+                {
+                    break;
+                }
+                skipped += read;
+            }
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException
+        {
+            return repeatCount;
+        }
+
+        @Override
+        public boolean markSupported()
+        {
+            return false;
         }
-        return new DecodeResult(parameters);
     }
 
     @Override
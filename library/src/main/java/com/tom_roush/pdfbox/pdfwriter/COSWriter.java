@@ -35,6 +35,7 @@ import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Hashtable;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
@@ -204,6 +205,13 @@ public class COSWriter implements ICOSVisitor, Closeable
     //actuals separately.
     private final Set<COSBase> actualsAdded = new HashSet<COSBase>();
 
+    // merging of byte-identical streams
+    private boolean mergeDuplicateStreams = false;
+    private StreamDigester streamDigester;
+    private final Map<String, COSObjectKey> streamKeys = new HashMap<String, COSObjectKey>();
+    private final Set<COSBase> mergedStreams =
+        Collections.newSetFromMap(new IdentityHashMap<COSBase, Boolean>());
+
     private COSObjectKey currentObjectKey = null;
     private PDDocument pdDocument = null;
     private FDFDocument fdfDocument = null;
@@ -558,6 +566,12 @@ public class COSWriter implements ICOSVisitor, Closeable
         writtenObjects.add( obj );
         // find the physical reference
         currentObjectKey = getObjectKey( obj );
+        if (!mergedStreams.isEmpty() && mergedStreams.contains(
+            obj instanceof COSObject ? ((COSObject) obj).getObject() : obj))
+        {
+            // an identical stream is written with this key
+            return;
+        }
         // add a x ref entry
         addXRefEntry( new COSWriterXRefEntry(getStandardOutput().getPos(), obj, currentObjectKey));
         // write the object
@@ -932,8 +946,9 @@ public class COSWriter implements ICOSVisitor, Closeable
      * @param obj The object to get the key for.
      *
      * @return The object key for the object.
+     * @throws IOException if the data of a stream to be merged could not be read
      */
-    private COSObjectKey getObjectKey( COSBase obj )
+    private COSObjectKey getObjectKey( COSBase obj ) throws IOException
     {
         COSBase actual = obj;
         if( actual instanceof COSObject )
@@ -947,19 +962,58 @@ public class COSWriter implements ICOSVisitor, Closeable
         {
             key = objectKeys.get(actual);
         }
-        if (key == null)
+        if (key == null && mergeDuplicateStreams && !incrementalUpdate &&
+            actual instanceof COSStream)
         {
-            setNumber(getNumber()+1);
-            key = new COSObjectKey(getNumber(),0);
-            objectKeys.put(obj, key);
-            if( actual != null )
+            String digest = streamDigester.digest((COSStream) actual);
+            key = streamKeys.get(digest);
+            if (key != null)
             {
+                // reference the identical stream which was seen before instead
+                objectKeys.put(obj, key);
                 objectKeys.put(actual, key);
+                mergedStreams.add(actual);
+                return key;
             }
+            key = createObjectKey(obj, actual);
+            streamKeys.put(digest, key);
+        }
+        if (key == null)
+        {
+            key = createObjectKey(obj, actual);
+        }
+        return key;
+    }
+
+    private COSObjectKey createObjectKey(COSBase obj, COSBase actual)
+    {
+        setNumber(getNumber()+1);
+        COSObjectKey key = new COSObjectKey(getNumber(),0);
+        objectKeys.put(obj, key);
+        if( actual != null )
+        {
+            objectKeys.put(actual, key);
         }
         return key;
     }
 
+    /**
+     * Sets whether streams with the same dictionary and the same data are written only once, with
+     * all references pointing to the same object. This makes files smaller which contain the same
+     * image or font many times, but costs a pass over the data of every stream. It has no effect
+     * on incremental updates. Off by default.
+     *
+     * @param mergeDuplicateStreams true to merge byte-identical streams
+     */
+    public void setMergeDuplicateStreams(boolean mergeDuplicateStreams)
+    {
+        this.mergeDuplicateStreams = mergeDuplicateStreams;
+        if (mergeDuplicateStreams && streamDigester == null)
+        {
+            streamDigester = new StreamDigester();
+        }
+    }
+
     @Override
     public Object visitFromArray( COSArray obj ) throws IOException
     {
@@ -0,0 +1,219 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tom_roush.pdfbox.pdfwriter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.tom_roush.pdfbox.cos.COSArray;
+import com.tom_roush.pdfbox.cos.COSBase;
+import com.tom_roush.pdfbox.cos.COSBoolean;
+import com.tom_roush.pdfbox.cos.COSDictionary;
+import com.tom_roush.pdfbox.cos.COSFloat;
+import com.tom_roush.pdfbox.cos.COSInteger;
+import com.tom_roush.pdfbox.cos.COSName;
+import com.tom_roush.pdfbox.cos.COSObject;
+import com.tom_roush.pdfbox.cos.COSStream;
+import com.tom_roush.pdfbox.cos.COSString;
+import com.tom_roush.pdfbox.pdmodel.ResourceRegistry;
+import com.tom_roush.pdfbox.util.Charsets;
+import com.tom_roush.pdfbox.util.Hex;
+
+/**
+ * Computes a hash of the content of a stream as written by the {@link COSWriter}: its dictionary
+ * without /Length, and its raw, i.e. still encoded, data. Streams referenced by the dictionary
+ * are hashed by their content too, so that e.g. two identical images with identical soft masks
+ * get the same hash. Other indirect objects are hashed by identity.
+ */
+final class StreamDigester
+{
+    private final Map<COSStream, String> digests = new IdentityHashMap<COSStream, String>();
+    private final Map<COSBase, Integer> identities = new IdentityHashMap<COSBase, Integer>();
+
+    /**
+     * Returns the hash of the given stream.
+     *
+     * @param stream the stream
+     * @return the hash as hex string
+     * @throws IOException if the stream data could not be read
+     */
+    String digest(COSStream stream) throws IOException
+    {
+        String digest = digests.get(stream);
+        if (digest != null)
+        {
+            return digest;
+        }
+        // mark as being hashed, a reference cycle back to this stream is hashed by identity
+        digests.put(stream, "");
+        MessageDigest md = ResourceRegistry.createMessageDigest();
+        updateDictionary(md, stream);
+        md.update((byte) 'D');
+        InputStream input = stream.createRawInputStream();
+        try
+        {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = input.read(buffer)) != -1)
+            {
+                md.update(buffer, 0, read);
+            }
+        }
+        finally
+        {
+            input.close();
+        }
+        digest = Hex.getString(md.digest());
+        digests.put(stream, digest);
+        return digest;
+    }
+
+    private void update(MessageDigest md, COSBase base) throws IOException
+    {
+        if (base instanceof COSObject)
+        {
+            COSBase object = ((COSObject) base).getObject();
+            if (object instanceof COSStream)
+            {
+                updateReference(md, (COSStream) object);
+            }
+            else
+            {
+                updateIdentity(md, object == null ? base : object);
+            }
+        }
+        else if (base instanceof COSStream)
+        {
+            // streams are always written as indirect objects
+            updateReference(md, (COSStream) base);
+        }
+        else if (base instanceof COSDictionary)
+        {
+            updateDictionary(md, (COSDictionary) base);
+        }
+        else if (base instanceof COSArray)
+        {
+            md.update((byte) '[');
+            for (COSBase item : (COSArray) base)
+            {
+                update(md, item);
+            }
+            md.update((byte) ']');
+        }
+        else if (base instanceof COSName)
+        {
+            md.update((byte) '/');
+            updateString(md, ((COSName) base).getName().getBytes(Charsets.UTF_8));
+        }
+        else if (base instanceof COSString)
+        {
+            md.update((byte) '(');
+            updateString(md, ((COSString) base).getBytes());
+        }
+        else if (base instanceof COSInteger)
+        {
+            md.update((byte) 'I');
+            updateString(md, Long.toString(((COSInteger) base).longValue())
+                .getBytes(Charsets.US_ASCII));
+        }
+        else if (base instanceof COSFloat)
+        {
+            md.update((byte) 'F');
+            updateString(md, Float.toString(((COSFloat) base).floatValue())
+                .getBytes(Charsets.US_ASCII));
+        }
+        else if (base instanceof COSBoolean)
+        {
+            md.update((byte) (((COSBoolean) base).getValue() ? 'T' : 'F'));
+        }
+        else
+        {
+            // null
+            md.update((byte) 'N');
+        }
+    }
+
+    private boolean isBeingHashed(COSBase stream)
+    {
+        return "".equals(digests.get(stream));
+    }
+
+    private void updateDictionary(MessageDigest md, COSDictionary dictionary) throws IOException
+    {
+        if (!dictionary.isDirect() && !(dictionary instanceof COSStream))
+        {
+            // written as an indirect object of its own
+            updateIdentity(md, dictionary);
+            return;
+        }
+        // sort the keys, the order of the entries doesn't matter
+        List<COSName> keys = new ArrayList<COSName>(dictionary.keySet());
+        Collections.sort(keys);
+        md.update((byte) '<');
+        for (COSName key : keys)
+        {
+            COSBase value = dictionary.getItem(key);
+            if (value == null || (dictionary instanceof COSStream && COSName.LENGTH.equals(key)))
+            {
+                continue;
+            }
+            update(md, key);
+            update(md, value);
+        }
+        md.update((byte) '>');
+    }
+
+    private void updateReference(MessageDigest md, COSStream stream) throws IOException
+    {
+        if (isBeingHashed(stream))
+        {
+            updateIdentity(md, stream);
+            return;
+        }
+        md.update((byte) 'R');
+        md.update(digest(stream).getBytes(Charsets.US_ASCII));
+    }
+
+    private void updateIdentity(MessageDigest md, COSBase base)
+    {
+        Integer identity = identities.get(base);
+        if (identity == null)
+        {
+            identity = identities.size();
+            identities.put(base, identity);
+        }
+        md.update((byte) '@');
+        updateString(md, Integer.toString(identity).getBytes(Charsets.US_ASCII));
+    }
+
+    private static void updateString(MessageDigest md, byte[] bytes)
+    {
+        // length prefix, so that different sequences of strings can't give the same input
+        int length = bytes.length;
+        md.update((byte) (length >>> 24));
+        md.update((byte) (length >>> 16));
+        md.update((byte) (length >>> 8));
+        md.update((byte) length);
+        md.update(bytes);
+    }
+}
@@ -148,6 +148,9 @@ public class PDDocument implements Closeable
     // document-wide cached resources
     private ResourceCache resourceCache = new DefaultResourceCache();
 
+    // registry of embedded images and fonts by content, null if resources are not deduplicated
+    private ResourceRegistry resourceRegistry;
+
     // to make sure only one signature is added
     private boolean signatureAdded = false;
 
@@ -1356,6 +1359,7 @@ public class PDDocument implements Closeable
 
         // save PDF
         COSWriter writer = new COSWriter(output);
+        writer.setMergeDuplicateStreams(resourceRegistry != null);
         try
         {
             writer.write(this);
@@ -1773,4 +1777,27 @@ public class PDDocument implements Closeable
     {
         this.resourceCache = resourceCache;
     }
+
+    /**
+     * Returns the registry of embedded images and fonts of this document, or null if there is
+     * none.
+     *
+     * @return the resource registry or null.
+     */
+    public ResourceRegistry getResourceRegistry()
+    {
+        return resourceRegistry;
+    }
+
+    /**
+     * Sets the registry of embedded images and fonts of this document. With a registry, images and
+     * fonts with the same content are embedded only once, and {@link #save(OutputStream)} also
+     * merges byte-identical streams. There is no registry by default.
+     *
+     * @param resourceRegistry A resource registry, or null.
+     */
+    public void setResourceRegistry(ResourceRegistry resourceRegistry)
+    {
+        this.resourceRegistry = resourceRegistry;
+    }
 }
@@ -40,6 +40,7 @@ import com.tom_roush.pdfbox.pdmodel.common.COSObjectable;
 import com.tom_roush.pdfbox.pdmodel.common.PDMetadata;
 import com.tom_roush.pdfbox.pdmodel.common.PDRectangle;
 import com.tom_roush.pdfbox.pdmodel.common.PDStream;
+import com.tom_roush.pdfbox.pdmodel.graphics.image.PDImageXObject;
 import com.tom_roush.pdfbox.pdmodel.interactive.action.PDPageAdditionalActions;
 import com.tom_roush.pdfbox.pdmodel.interactive.annotation.AnnotationFilter;
 import com.tom_roush.pdfbox.pdmodel.interactive.annotation.PDAnnotation;
@@ -585,6 +586,34 @@ public class PDPage implements COSObjectable, PDContentStream
         page.setItem(COSName.METADATA, meta);
     }
 
+    /**
+     * Get the thumbnail image of the page. This can return null.
+     *
+     * @return The thumbnail image or null if the page has none.
+     * @throws IOException If the thumbnail image can't be read.
+     */
+    public PDImageXObject getThumbnail() throws IOException
+    {
+        PDImageXObject retval = null;
+        COSBase base = page.getDictionaryObject(COSName.THUMB);
+        if (base instanceof COSStream)
+        {
+            retval = new PDImageXObject(new PDStream((COSStream) base), null);
+        }
+        return retval;
+    }
+
+    /**
+     * Set the thumbnail image of the page. This can be null. The color space of a thumbnail must
+     * be DeviceGray, DeviceRGB or an indexed color space based on one of these.
+     *
+     * @param thumbnail The thumbnail image.
+     */
+    public void setThumbnail(PDImageXObject thumbnail)
+    {
+        page.setItem(COSName.THUMB, thumbnail);
+    }
+
     /**
      * Get the page actions.
      *
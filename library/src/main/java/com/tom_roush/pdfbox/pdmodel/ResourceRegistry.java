@@ -0,0 +1,158 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tom_roush.pdfbox.pdmodel;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.tom_roush.pdfbox.pdmodel.font.PDFont;
+import com.tom_roush.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import com.tom_roush.pdfbox.util.Hex;
+
+/**
+ * A document-wide registry of the images and fonts which were created for embedding, keyed by a
+ * hash of their content. The image factories and {@code PDType0Font.load()} return the existing
+ * object when the same content is added again, so that it is embedded only once. Set it with
+ * {@link PDDocument#setResourceRegistry(ResourceRegistry)}.
+ * <p>
+ * Objects returned from the registry are shared, so they must not be changed by the caller.
+ */
+public final class ResourceRegistry
+{
+    private final Map<String, PDImageXObject> images = new HashMap<String, PDImageXObject>();
+    private final Map<String, PDFont> fonts = new HashMap<String, PDFont>();
+
+    /**
+     * Returns the image registered with the given key, or null.
+     *
+     * @param key the key, usually made with {@link #digest(byte[])}
+     * @return the image or null
+     */
+    public synchronized PDImageXObject getImage(String key)
+    {
+        return images.get(key);
+    }
+
+    /**
+     * Registers an image, unless there is one with the same key already.
+     *
+     * @param key the key, usually made with {@link #digest(byte[])}
+     * @param image the image
+     * @return the image which is registered with the key
+     */
+    public synchronized PDImageXObject putImage(String key, PDImageXObject image)
+    {
+        PDImageXObject existing = images.get(key);
+        if (existing != null)
+        {
+            return existing;
+        }
+        images.put(key, image);
+        return image;
+    }
+
+    /**
+     * Returns the font registered with the given key, or null.
+     *
+     * @param key the key, usually made with {@link #digest(byte[])}
+     * @return the font or null
+     */
+    public synchronized PDFont getFont(String key)
+    {
+        return fonts.get(key);
+    }
+
+    /**
+     * Registers a font, unless there is one with the same key already.
+     *
+     * @param key the key, usually made with {@link #digest(byte[])}
+     * @param font the font
+     * @return the font which is registered with the key
+     */
+    public synchronized PDFont putFont(String key, PDFont font)
+    {
+        PDFont existing = fonts.get(key);
+        if (existing != null)
+        {
+            return existing;
+        }
+        fonts.put(key, font);
+        return font;
+    }
+
+    /**
+     * Returns the number of registered images and fonts.
+     */
+    public synchronized int size()
+    {
+        return images.size() + fonts.size();
+    }
+
+    /**
+     * Returns the SHA-256 hash of the given bytes as hex string.
+     *
+     * @param bytes the bytes
+     * @return the hash
+     */
+    public static String digest(byte[] bytes)
+    {
+        MessageDigest md = createMessageDigest();
+        md.update(bytes);
+        return Hex.getString(md.digest());
+    }
+
+    /**
+     * Returns the SHA-256 hash of the bytes of the given stream as hex string. The stream is read
+     * to the end but not closed.
+     *
+     * @param input the stream
+     * @return the hash
+     * @throws IOException if the stream could not be read
+     */
+    public static String digest(InputStream input) throws IOException
+    {
+        MessageDigest md = createMessageDigest();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = input.read(buffer)) != -1)
+        {
+            md.update(buffer, 0, read);
+        }
+        return Hex.getString(md.digest());
+    }
+
+    /**
+     * Returns a SHA-256 message digest.
+     */
+    public static MessageDigest createMessageDigest()
+    {
+        try
+        {
+            return MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            // should never happen, every Java and Android platform supports SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -22,6 +22,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import com.tom_roush.pdfbox.cos.COSArray;
@@ -46,6 +47,9 @@ import com.tom_roush.pdfbox.pdmodel.common.filespecification.PDFileSpecification
  */
 public class PDStream implements COSObjectable
 {
+    // /DL values above this aren't trusted for allocating the decoded data at once
+    private static final int MAX_DECODED_LENGTH_HINT = 64 * 1024 * 1024;
+
     private final COSStream stream;
 
     /**
@@ -498,11 +502,34 @@ public class PDStream implements COSObjectable
      */
     public byte[] toByteArray() throws IOException
     {
-        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        int decodedLength = getDecodedStreamLength();
+        ByteArrayOutputStream output;
         InputStream is = null;
         try
         {
             is = createInputStream();
+            if (decodedLength > 0 && decodedLength <= MAX_DECODED_LENGTH_HINT)
+            {
+                // decode directly into an array of the size given by /DL, which is a hint only
+                byte[] bytes = new byte[decodedLength];
+                int read = (int) IOUtils.populateBuffer(is, bytes);
+                if (read < decodedLength)
+                {
+                    return Arrays.copyOf(bytes, read);
+                }
+                int next = is.read();
+                if (next == -1)
+                {
+                    return bytes;
+                }
+                output = new ByteArrayOutputStream(decodedLength + 1024);
+                output.write(bytes);
+                output.write(next);
+            }
+            else
+            {
+                output = new ByteArrayOutputStream();
+            }
             IOUtils.copy(is, output);
         }
         finally
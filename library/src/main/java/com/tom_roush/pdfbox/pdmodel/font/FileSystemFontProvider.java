@@ -32,6 +32,7 @@ import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
 
 import com.tom_roush.fontbox.FontBoxFont;
 import com.tom_roush.fontbox.cff.CFFCIDFont;
@@ -117,30 +118,37 @@ final class FileSystemFontProvider extends FontProvider
          *
          */
         @Override
-        public synchronized FontBoxFont getFont()
+        public FontBoxFont getFont()
         {
-            // synchronized to avoid race condition on cache access,
-            // which could result in an unreferenced but open font
-            FontBoxFont cached = parent.cache.getFont(this);
-            if (cached != null)
+            // the cache loads each font only once, even when it is requested by several threads,
+            // which could otherwise result in an unreferenced but open font
+            try
             {
-                return cached;
+                return parent.cache.getFont(this, new Callable<FontBoxFont>()
+                {
+                    @Override
+                    public FontBoxFont call()
+                    {
+                        return loadFont();
+                    }
+                });
             }
-            else
+            catch (IOException e)
             {
-                FontBoxFont font;
-                switch (format)
-                {
-                    case PFB: font = getType1Font(postScriptName, file); break;
-                    case TTF: font = getTrueTypeFont(postScriptName, file); break;
-                    case OTF: font = getOTFFont(postScriptName, file); break;
-                    default: throw new RuntimeException("can't happen");
-                }
-                if (font != null)
-                {
-                    parent.cache.addFont(this, font);
-                }
-                return font;
+                // can't happen, the loaders don't throw
+                Log.e("PdfBox-Android", "Could not load font file: " + file, e);
+                return null;
+            }
+        }
+
+        private FontBoxFont loadFont()
+        {
+            switch (format)
+            {
+                case PFB: return getType1Font(postScriptName, file);
+                case TTF: return getTrueTypeFont(postScriptName, file);
+                case OTF: return getOTFFont(postScriptName, file);
+                default: throw new RuntimeException("can't happen");
             }
         }
 
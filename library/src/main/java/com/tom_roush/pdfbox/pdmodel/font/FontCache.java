@@ -17,28 +17,98 @@
 
 package com.tom_roush.pdfbox.pdmodel.font;
 
-import java.lang.ref.SoftReference;
+import java.io.IOException;
 import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
 import com.tom_roush.fontbox.FontBoxFont;
+import com.tom_roush.fontbox.cff.CFFFont;
+import com.tom_roush.fontbox.ttf.TrueTypeFont;
+import com.tom_roush.fontbox.type1.Type1Font;
 
 /**
  * An in-memory cache for system fonts. This allows PDFBox to manage caching for a {@link FontProvider}.
  * PDFBox is free to purge this cache at will.
+ * <p>
+ * The cache is bounded by an estimate of the memory used by the cached fonts. When the budget is
+ * exceeded the least recently used fonts are evicted. Lookups don't take a lock, and concurrent
+ * requests for the same font via {@link #getFont(FontInfo, Callable)} load it only once.
  *
  * @author John Hewson
  */
 public final class FontCache
 {
-    private final Map<FontInfo, SoftReference<FontBoxFont>> cache =
-        new ConcurrentHashMap<FontInfo, SoftReference<FontBoxFont>>();
+    // upper limit of the default budget
+    private static final long MAX_DEFAULT_MAX_SIZE = 64L * 1024 * 1024;
+
+    /**
+     * Default memory budget of the cache, in bytes: an eighth of the maximum heap size, see
+     * {@link Runtime#maxMemory()}, but no more than 64 MB. Low-memory devices thus keep fewer
+     * fonts.
+     */
+    public static final long DEFAULT_MAX_SIZE =
+        getDefaultMaxSize(Runtime.getRuntime().maxMemory());
+
+    // size assumed for fonts whose size can't be estimated
+    private static final long DEFAULT_FONT_SIZE = 1024 * 1024;
+
+    private final Map<FontInfo, Entry> cache = new ConcurrentHashMap<FontInfo, Entry>();
+    private final ConcurrentMap<FontInfo, FutureTask<FontBoxFont>> pending =
+        new ConcurrentHashMap<FontInfo, FutureTask<FontBoxFont>>();
+
+    private final AtomicLong clock = new AtomicLong();
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong loadCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    private volatile long maxSize;
+    private long size;
+
+    /**
+     * Creates a cache with the default memory budget.
+     */
+    public FontCache()
+    {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Creates a cache with the given memory budget.
+     *
+     * @param maxSize the maximum estimated size of all cached fonts, in bytes
+     */
+    public FontCache(long maxSize)
+    {
+        if (maxSize < 0)
+        {
+            throw new IllegalArgumentException("maxSize must not be negative: " + maxSize);
+        }
+        this.maxSize = maxSize;
+    }
 
     /**
      * Adds the given FontBox font to the cache.
      */
     public void addFont(FontInfo info, FontBoxFont font)
     {
-        cache.put(info, new SoftReference<FontBoxFont>(font));
+        Entry entry = new Entry(font, estimateSize(font));
+        entry.lastAccess = clock.incrementAndGet();
+        synchronized (this)
+        {
+            Entry old = cache.put(info, entry);
+            if (old != null)
+            {
+                size -= old.size;
+            }
+            size += entry.size;
+            evict(info);
+        }
     }
 
     /**
@@ -46,7 +116,264 @@ public final class FontCache
      */
     public FontBoxFont getFont(FontInfo info)
     {
-        SoftReference<FontBoxFont> reference = cache.get(info);
-        return reference != null ? reference.get() : null;
+        Entry entry = cache.get(info);
+        if (entry == null)
+        {
+            missCount.incrementAndGet();
+            return null;
+        }
+        entry.lastAccess = clock.incrementAndGet();
+        hitCount.incrementAndGet();
+        return entry.font;
+    }
+
+    /**
+     * Returns the FontBox font associated with the given FontInfo, loading and caching it if
+     * necessary. When several threads ask for the same missing font at once, only one of them
+     * runs the loader and the others wait for its result.
+     *
+     * @param info the font info
+     * @param loader loads the font, may return null if the font can't be loaded
+     * @return the font, or null if it could not be loaded
+     * @throws IOException if the loader threw an exception
+     */
+    public FontBoxFont getFont(final FontInfo info, final Callable<FontBoxFont> loader)
+        throws IOException
+    {
+        FontBoxFont font = getFont(info);
+        if (font != null)
+        {
+            return font;
+        }
+
+        FutureTask<FontBoxFont> task = new FutureTask<FontBoxFont>(new Callable<FontBoxFont>()
+        {
+            @Override
+            public FontBoxFont call() throws Exception
+            {
+                // the font may have been added while the task was being registered
+                Entry entry = cache.get(info);
+                if (entry != null)
+                {
+                    return entry.font;
+                }
+                loadCount.incrementAndGet();
+                FontBoxFont loaded = loader.call();
+                if (loaded != null)
+                {
+                    addFont(info, loaded);
+                }
+                return loaded;
+            }
+        });
+        FutureTask<FontBoxFont> running = pending.putIfAbsent(info, task);
+        if (running == null)
+        {
+            running = task;
+            try
+            {
+                task.run();
+            }
+            finally
+            {
+                pending.remove(info, task);
+            }
+        }
+
+        try
+        {
+            return running.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while loading font " + info, e);
+        }
+        catch (ExecutionException e)
+        {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+            {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException)
+            {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error)
+            {
+                throw (Error) cause;
+            }
+            throw new IOException("Could not load font " + info, cause);
+        }
+    }
+
+    /**
+     * Removes all fonts from the cache. The statistics are not reset.
+     */
+    public synchronized void clear()
+    {
+        cache.clear();
+        size = 0;
+    }
+
+    /**
+     * Returns the maximum estimated size of all cached fonts, in bytes.
+     */
+    public long getMaxSize()
+    {
+        return maxSize;
+    }
+
+    /**
+     * Sets the maximum estimated size of all cached fonts, in bytes. Fonts are evicted immediately
+     * if the cache is over the new budget.
+     *
+     * @param maxSize the new budget
+     */
+    public synchronized void setMaxSize(long maxSize)
+    {
+        if (maxSize < 0)
+        {
+            throw new IllegalArgumentException("maxSize must not be negative: " + maxSize);
+        }
+        this.maxSize = maxSize;
+        evict(null);
+    }
+
+    /**
+     * Returns the estimated size of all cached fonts, in bytes.
+     */
+    public synchronized long getSize()
+    {
+        return size;
+    }
+
+    /**
+     * Returns the number of cached fonts.
+     */
+    public int getFontCount()
+    {
+        return cache.size();
+    }
+
+    /**
+     * Returns the number of lookups which found a cached font.
+     */
+    public long getHitCount()
+    {
+        return hitCount.get();
+    }
+
+    /**
+     * Returns the number of lookups which didn't find a cached font.
+     */
+    public long getMissCount()
+    {
+        return missCount.get();
+    }
+
+    /**
+     * Returns the number of times a font was loaded via {@link #getFont(FontInfo, Callable)}.
+     */
+    public long getLoadCount()
+    {
+        return loadCount.get();
+    }
+
+    /**
+     * Returns the number of fonts which were evicted to stay within the memory budget.
+     */
+    public long getEvictionCount()
+    {
+        return evictionCount.get();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "FontCache{fonts=" + getFontCount() + ", size=" + getSize() + ", maxSize=" + maxSize +
+            ", hits=" + getHitCount() + ", misses=" + getMissCount() + ", loads=" + getLoadCount() +
+            ", evictions=" + getEvictionCount() + "}";
+    }
+
+    /**
+     * Evicts the least recently used fonts until the cache fits into its budget. The font with
+     * the given info is kept even if it alone exceeds the budget, otherwise it would be parsed
+     * again on each use. Must be called while holding the lock.
+     */
+    private void evict(FontInfo keep)
+    {
+        while (size > maxSize && cache.size() > (keep != null ? 1 : 0))
+        {
+            FontInfo eldestInfo = null;
+            Entry eldest = null;
+            for (Map.Entry<FontInfo, Entry> e : cache.entrySet())
+            {
+                if (e.getKey() != keep && (eldest == null || e.getValue().lastAccess < eldest.lastAccess))
+                {
+                    eldestInfo = e.getKey();
+                    eldest = e.getValue();
+                }
+            }
+            if (eldest == null)
+            {
+                break;
+            }
+            // evicted fonts are not closed, they may still be in use by a PDFont
+            cache.remove(eldestInfo);
+            size -= eldest.size;
+            evictionCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Returns the default budget for the given maximum heap size.
+     */
+    static long getDefaultMaxSize(long maxMemory)
+    {
+        return Math.min(maxMemory / 8, MAX_DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Estimates the memory used by the given font. This is based on the size of the font program,
+     * which the parsed tables are roughly proportional to.
+     */
+    static long estimateSize(FontBoxFont font)
+    {
+        try
+        {
+            if (font instanceof TrueTypeFont)
+            {
+                return ((TrueTypeFont) font).getOriginalDataSize();
+            }
+            else if (font instanceof Type1Font)
+            {
+                Type1Font type1 = (Type1Font) font;
+                return type1.getASCIISegment().length + type1.getBinarySegment().length;
+            }
+            else if (font instanceof CFFFont)
+            {
+                return ((CFFFont) font).getData().length;
+            }
+        }
+        catch (IOException e)
+        {
+            // fall through
+        }
+        return DEFAULT_FONT_SIZE;
+    }
+
+    private static final class Entry
+    {
+        private final FontBoxFont font;
+        private final long size;
+        private volatile long lastAccess;
+
+        private Entry(FontBoxFont font, long size)
+        {
+            this.font = font;
+            this.size = size;
+        }
     }
 }
@@ -51,6 +51,8 @@ final class FontMapperImpl implements FontMapper
     private FontProvider fontProvider;
     private Map<String, FontInfo> fontInfoByName;
     private final TrueTypeFont lastResortFont;
+    private final FontMappingCache mappingCache =
+        new FontMappingCache(FontMappingCache.DEFAULT_MAX_ENTRIES);
 
     /** Map of PostScript name substitutes, in priority order. */
     private final Map<String, List<String>> substitutes = new HashMap<String, List<String>>();
@@ -157,6 +159,7 @@ final class FontMapperImpl implements FontMapper
     {
         fontInfoByName = createFontInfoByName(fontProvider.getFontInfo());
         this.fontProvider = fontProvider;
+        mappingCache.clear();
     }
 
     /**
@@ -180,6 +183,14 @@ final class FontMapperImpl implements FontMapper
         return fontCache;
     }
 
+    /**
+     * Returns the cache of font substitution results of this FontMapper.
+     */
+    public FontMappingCache getMappingCache()
+    {
+        return mappingCache;
+    }
+
     private Map<String, FontInfo> createFontInfoByName(List<? extends FontInfo> fontInfoList)
     {
         Map<String, FontInfo> map = new LinkedHashMap<String, FontInfo>();
@@ -230,6 +241,7 @@ final class FontMapperImpl implements FontMapper
             substitutes.put(match, new ArrayList<String>());
         }
         substitutes.get(match).add(replace);
+        mappingCache.clear();
     }
 
     /**
@@ -338,21 +350,38 @@ final class FontMapperImpl implements FontMapper
     public FontMapping<TrueTypeFont> getTrueTypeFont(String baseFont,
         PDFontDescriptor fontDescriptor)
     {
-        TrueTypeFont ttf = (TrueTypeFont)findFont(FontFormat.TTF, baseFont);
+        String fallbackName = getFallbackFontName(fontDescriptor);
+        String key = "TTF/" + baseFont + "/" + fallbackName;
+        FontMappingCache.Entry cached = mappingCache.get(key);
+        if (cached != null)
+        {
+            TrueTypeFont ttf = (TrueTypeFont) getFont(cached);
+            if (ttf != null)
+            {
+                return new FontMapping<TrueTypeFont>(ttf, cached.isFallback);
+            }
+            mappingCache.remove(key);
+        }
+
+        FontInfo info = findFontInfo(FontFormat.TTF, baseFont);
+        TrueTypeFont ttf = info != null ? (TrueTypeFont) info.getFont() : null;
         if (ttf != null)
         {
+            mappingCache.put(key, new FontMappingCache.Entry(info, false, false));
             return new FontMapping<TrueTypeFont>(ttf, false);
         }
         else
         {
             // fallback - todo: i.e. fuzzy match
-            String fontName = getFallbackFontName(fontDescriptor);
-            ttf = (TrueTypeFont) findFont(FontFormat.TTF, fontName);
+            info = findFontInfo(FontFormat.TTF, fallbackName);
+            ttf = info != null ? (TrueTypeFont) info.getFont() : null;
             if (ttf == null)
             {
                 // we have to return something here as TTFs aren't strictly required on the system
                 ttf = lastResortFont;
+                info = null;
             }
+            mappingCache.put(key, new FontMappingCache.Entry(info, true, false));
             return new FontMapping<TrueTypeFont>(ttf, true);
         }
     }
@@ -367,46 +396,70 @@ final class FontMapperImpl implements FontMapper
     public FontMapping<FontBoxFont> getFontBoxFont(String baseFont,
         PDFontDescriptor fontDescriptor)
     {
-        FontBoxFont font = findFontBoxFont(baseFont);
-        if (font != null)
+        String fallbackName = getFallbackFontName(fontDescriptor);
+        String key = "FontBox/" + baseFont + "/" + fallbackName;
+        FontMappingCache.Entry cached = mappingCache.get(key);
+        if (cached != null)
         {
-            return new FontMapping<FontBoxFont>(font, false);
+            FontBoxFont font = getFont(cached);
+            if (font != null)
+            {
+                return new FontMapping<FontBoxFont>(font, cached.isFallback);
+            }
+            mappingCache.remove(key);
+        }
+
+        FontInfo info = findFontBoxFontInfo(baseFont);
+        if (info != null)
+        {
+            mappingCache.put(key, new FontMappingCache.Entry(info, false, false));
+            return new FontMapping<FontBoxFont>(info.getFont(), false);
         }
         else
         {
             // fallback - todo: i.e. fuzzy match
-            String fallbackName = getFallbackFontName(fontDescriptor);
-            font = findFontBoxFont(fallbackName);
+            info = findFontBoxFontInfo(fallbackName);
+            FontBoxFont font = info != null ? info.getFont() : null;
             if (font == null)
             {
                 // we have to return something here as TTFs aren't strictly required on the system
                 font = lastResortFont;
+                info = null;
             }
+            mappingCache.put(key, new FontMappingCache.Entry(info, true, false));
             return new FontMapping<FontBoxFont>(font, true);
         }
     }
 
+    /**
+     * Returns the font of a remembered substitution, or null if it can't be loaded anymore.
+     */
+    private FontBoxFont getFont(FontMappingCache.Entry entry)
+    {
+        return entry.info != null ? entry.info.getFont() : lastResortFont;
+    }
+
     /**
      * Finds a font with the given PostScript name, or a suitable substitute, or null.
      *
      * @param postScriptName PostScript font name
      */
-    private FontBoxFont findFontBoxFont(String postScriptName)
+    private FontInfo findFontBoxFontInfo(String postScriptName)
     {
-        Type1Font t1 = (Type1Font)findFont(FontFormat.PFB, postScriptName);
-        if (t1 != null)
+        FontInfo t1 = findFontInfo(FontFormat.PFB, postScriptName);
+        if (t1 != null && t1.getFont() != null)
         {
             return t1;
         }
 
-        TrueTypeFont ttf = (TrueTypeFont)findFont(FontFormat.TTF, postScriptName);
-        if (ttf != null)
+        FontInfo ttf = findFontInfo(FontFormat.TTF, postScriptName);
+        if (ttf != null && ttf.getFont() != null)
         {
             return ttf;
         }
 
-        OpenTypeFont otf = (OpenTypeFont) findFont(FontFormat.OTF, postScriptName);
-        if (otf != null)
+        FontInfo otf = findFontInfo(FontFormat.OTF, postScriptName);
+        if (otf != null && otf.getFont() != null)
         {
             return otf;
         }
@@ -415,11 +468,11 @@ final class FontMapperImpl implements FontMapper
     }
 
     /**
-     * Finds a font with the given PostScript name, or a suitable substitute, or null.
+     * Finds the info of a font with the given PostScript name, or a suitable substitute, or null.
      *
      * @param postScriptName PostScript font name
      */
-    private FontBoxFont findFont(FontFormat format, String postScriptName)
+    private FontInfo findFontInfo(FontFormat format, String postScriptName)
     {
         // handle damaged PDFs, see PDFBOX-2884
         if (postScriptName == null)
@@ -437,14 +490,14 @@ final class FontMapperImpl implements FontMapper
         FontInfo info = getFont(format, postScriptName);
         if (info != null)
         {
-            return info.getFont();
+            return info;
         }
 
         // remove hyphens (e.g. Arial-Black -> ArialBlack)
         info = getFont(format, postScriptName.replace("-", ""));
         if (info != null)
         {
-            return info.getFont();
+            return info;
         }
 
         // then try named substitutes
@@ -453,7 +506,7 @@ final class FontMapperImpl implements FontMapper
             info = getFont(format, substituteName);
             if (info != null)
             {
-                return info.getFont();
+                return info;
             }
         }
 
@@ -461,17 +514,11 @@ final class FontMapperImpl implements FontMapper
         info = getFont(format, postScriptName.replace(",", "-"));
         if (info != null)
         {
-            return info.getFont();
+            return info;
         }
 
         // try appending "-Regular", works for Wingdings on windows
-        info = getFont(format, postScriptName + "-Regular");
-        if (info != null)
-        {
-            return info.getFont();
-        }
-        // no matches
-        return null;
+        return getFont(format, postScriptName + "-Regular");
     }
 
     /**
@@ -509,17 +556,35 @@ final class FontMapperImpl implements FontMapper
     public CIDFontMapping getCIDFont(String baseFont, PDFontDescriptor fontDescriptor,
         PDCIDSystemInfo cidSystemInfo)
     {
+        String key = getCIDMappingKey(baseFont, fontDescriptor, cidSystemInfo);
+        FontMappingCache.Entry cached = mappingCache.get(key);
+        if (cached != null)
+        {
+            FontBoxFont font = getFont(cached);
+            if (font != null)
+            {
+                return cached.isOpenType ?
+                    new CIDFontMapping((OpenTypeFont) font, null, cached.isFallback) :
+                    new CIDFontMapping(null, font, cached.isFallback);
+            }
+            mappingCache.remove(key);
+        }
+
         // try name match or substitute with OTF
-        OpenTypeFont otf1 = (OpenTypeFont)findFont(FontFormat.OTF, baseFont);
+        FontInfo info = findFontInfo(FontFormat.OTF, baseFont);
+        OpenTypeFont otf1 = info != null ? (OpenTypeFont) info.getFont() : null;
         if (otf1 != null)
         {
+            mappingCache.put(key, new FontMappingCache.Entry(info, false, true));
             return new CIDFontMapping(otf1, null, false);
         }
 
         // try name match or substitute with TTF
-        TrueTypeFont ttf = (TrueTypeFont)findFont(FontFormat.TTF, baseFont);
+        info = findFontInfo(FontFormat.TTF, baseFont);
+        TrueTypeFont ttf = info != null ? (TrueTypeFont) info.getFont() : null;
         if (ttf != null)
         {
+            mappingCache.put(key, new FontMappingCache.Entry(info, false, false));
             return new CIDFontMapping(null, ttf, false);
         }
 
@@ -546,10 +611,12 @@ final class FontMapperImpl implements FontMapper
                     FontBoxFont font = bestMatch.info.getFont();
                     if (font instanceof OpenTypeFont)
                     {
+                        mappingCache.put(key, new FontMappingCache.Entry(bestMatch.info, true, true));
                         return new CIDFontMapping((OpenTypeFont)font, null, true);
                     }
                     else if (font != null)
                     {
+                        mappingCache.put(key, new FontMappingCache.Entry(bestMatch.info, true, false));
                         return new CIDFontMapping(null, font, true);
                     }
                 }
@@ -557,9 +624,36 @@ final class FontMapperImpl implements FontMapper
         }
 
         // last-resort fallback
+        mappingCache.put(key, new FontMappingCache.Entry(null, true, false));
         return new CIDFontMapping(null, lastResortFont, true);
     }
 
+    /**
+     * Returns the key of a CIDFont substitution, made up of everything the substitution depends on.
+     */
+    private String getCIDMappingKey(String baseFont, PDFontDescriptor fontDescriptor,
+        PDCIDSystemInfo cidSystemInfo)
+    {
+        StringBuilder key = new StringBuilder("CID/").append(baseFont);
+        if (cidSystemInfo != null)
+        {
+            key.append('/').append(cidSystemInfo.getRegistry())
+                .append('-').append(cidSystemInfo.getOrdering());
+        }
+        if (fontDescriptor != null)
+        {
+            PDPanose panose = fontDescriptor.getPanose();
+            if (panose != null)
+            {
+                key.append("/panose=")
+                    .append(Arrays.toString(panose.getPanose().getBytes()));
+            }
+            key.append("/weight=").append(fontDescriptor.getFontWeight());
+            key.append("/barcode=").append(probablyBarcodeFont(fontDescriptor));
+        }
+        return key.toString();
+    }
+
     /**
      * Returns a list of matching fonts, scored by suitability. Positive scores indicate matches
      * for certain attributes, while negative scores indicate mismatches. Zero scores are neutral.
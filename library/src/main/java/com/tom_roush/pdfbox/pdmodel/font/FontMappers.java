@@ -55,4 +55,20 @@ public final class FontMappers
     {
         instance = fontMapper;
     }
+
+    /**
+     * Returns the cache of font substitution results of the current FontMapper, e.g. to monitor
+     * its hit rate.
+     *
+     * @return the cache, or null if a custom FontMapper is used
+     */
+    public static FontMappingCache getMappingCache()
+    {
+        FontMapper fontMapper = instance();
+        if (fontMapper instanceof FontMapperImpl)
+        {
+            return ((FontMapperImpl) fontMapper).getMappingCache();
+        }
+        return null;
+    }
 }
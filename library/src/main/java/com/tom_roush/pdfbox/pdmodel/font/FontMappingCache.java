@@ -0,0 +1,138 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tom_roush.pdfbox.pdmodel.font;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded cache of font substitution results, used by the default {@link FontMapper} so that
+ * the same unembedded font is not matched against all installed fonts again and again.
+ * <p>
+ * Only the chosen {@link FontInfo} is remembered, the font itself is still obtained via the
+ * {@link FontCache}. The cache is cleared whenever the {@link FontProvider} or the substitutes
+ * change.
+ */
+public final class FontMappingCache
+{
+    /**
+     * Default maximum number of remembered substitutions.
+     */
+    public static final int DEFAULT_MAX_ENTRIES = 512;
+
+    private final Map<String, Entry> entries;
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    FontMappingCache(final int maxEntries)
+    {
+        entries = new LinkedHashMap<String, Entry>(16, 0.75f, true)
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest)
+            {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    synchronized Entry get(String key)
+    {
+        Entry entry = entries.get(key);
+        if (entry != null)
+        {
+            hitCount.incrementAndGet();
+        }
+        else
+        {
+            missCount.incrementAndGet();
+        }
+        return entry;
+    }
+
+    synchronized void put(String key, Entry entry)
+    {
+        entries.put(key, entry);
+    }
+
+    synchronized void remove(String key)
+    {
+        entries.remove(key);
+    }
+
+    /**
+     * Removes all remembered substitutions. The statistics are not reset.
+     */
+    public synchronized void clear()
+    {
+        entries.clear();
+    }
+
+    /**
+     * Returns the number of remembered substitutions.
+     */
+    public synchronized int size()
+    {
+        return entries.size();
+    }
+
+    /**
+     * Returns the number of lookups which could reuse a previous substitution.
+     */
+    public long getHitCount()
+    {
+        return hitCount.get();
+    }
+
+    /**
+     * Returns the number of lookups which had to search the installed fonts.
+     */
+    public long getMissCount()
+    {
+        return missCount.get();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "FontMappingCache{entries=" + size() + ", hits=" + getHitCount() +
+            ", misses=" + getMissCount() + "}";
+    }
+
+    /**
+     * A remembered substitution.
+     */
+    static final class Entry
+    {
+        /** the chosen font, or null for the last resort font */
+        final FontInfo info;
+        final boolean isFallback;
+        /** true if the font is to be used as CFF-based OpenType font for a CIDFont */
+        final boolean isOpenType;
+
+        Entry(FontInfo info, boolean isFallback, boolean isOpenType)
+        {
+            this.info = info;
+            this.isFallback = isFallback;
+            this.isOpenType = isOpenType;
+        }
+    }
+}
@@ -19,7 +19,9 @@ package com.tom_roush.pdfbox.pdmodel.font;
 import android.graphics.Path;
 import android.util.Log;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.HashSet;
@@ -33,7 +35,9 @@ import com.tom_roush.pdfbox.cos.COSArray;
 import com.tom_roush.pdfbox.cos.COSBase;
 import com.tom_roush.pdfbox.cos.COSDictionary;
 import com.tom_roush.pdfbox.cos.COSName;
+import com.tom_roush.pdfbox.io.IOUtils;
 import com.tom_roush.pdfbox.pdmodel.PDDocument;
+import com.tom_roush.pdfbox.pdmodel.ResourceRegistry;
 import com.tom_roush.pdfbox.util.Matrix;
 import com.tom_roush.pdfbox.util.Vector;
 
@@ -63,7 +67,7 @@ public class PDType0Font extends PDFont implements PDVectorFont
      */
     public static PDType0Font load(PDDocument doc, File file) throws IOException
     {
-        return new PDType0Font(doc, new TTFParser().parse(file), true, true, false);
+        return load(doc, file, false);
     }
 
     /**
@@ -93,7 +97,7 @@ public class PDType0Font extends PDFont implements PDVectorFont
     public static PDType0Font load(PDDocument doc, InputStream input, boolean embedSubset)
         throws IOException
     {
-        return new PDType0Font(doc, new TTFParser().parse(input), embedSubset, true, false);
+        return load(doc, input, embedSubset, false);
     }
 
     /**
@@ -122,27 +126,27 @@ public class PDType0Font extends PDFont implements PDVectorFont
      */
     public static PDType0Font loadVertical(PDDocument doc, File file) throws IOException
     {
-        return new PDType0Font(doc, new TTFParser().parse(file), true, true, true);
+        return load(doc, file, true);
     }
 
     /**
      * Loads a TTF to be embedded into a document as a vertical Type 0 font.
      *
      * @param doc The PDF document that will hold the embedded font.
-     * @param input A TrueType font.
+     * @param input An input stream of a TrueType font. It will be closed before returning.
      * @return A Type0 font with a CIDFontType2 descendant.
      * @throws IOException If there is an error reading the font stream.
      */
     public static PDType0Font loadVertical(PDDocument doc, InputStream input) throws IOException
     {
-        return new PDType0Font(doc, new TTFParser().parse(input), true, true, true);
+        return load(doc, input, true, true);
     }
 
     /**
      * Loads a TTF to be embedded into a document as a vertical Type 0 font.
      *
      * @param doc The PDF document that will hold the embedded font.
-     * @param input A TrueType font.
+     * @param input An input stream of a TrueType font. It will be closed before returning.
      * @param embedSubset True if the font will be subset before embedding
      * @return A Type0 font with a CIDFontType2 descendant.
      * @throws IOException If there is an error reading the font stream.
@@ -150,7 +154,7 @@ public class PDType0Font extends PDFont implements PDVectorFont
     public static PDType0Font loadVertical(PDDocument doc, InputStream input, boolean embedSubset)
         throws IOException
     {
-        return new PDType0Font(doc, new TTFParser().parse(input), embedSubset, true, true);
+        return load(doc, input, embedSubset, true);
     }
 
     /**
@@ -168,6 +172,76 @@ public class PDType0Font extends PDFont implements PDVectorFont
         return new PDType0Font(doc, ttf, embedSubset, false, true);
     }
 
+    /**
+     * Loads a font file. If the document has a {@link ResourceRegistry}, a font which was loaded
+     * from the same data before is returned instead.
+     */
+    private static PDType0Font load(PDDocument doc, File file, boolean vertical)
+        throws IOException
+    {
+        ResourceRegistry registry = doc.getResourceRegistry();
+        if (registry == null)
+        {
+            return new PDType0Font(doc, new TTFParser().parse(file), true, true, vertical);
+        }
+        InputStream input = new FileInputStream(file);
+        String key;
+        try
+        {
+            key = getRegistryKey(ResourceRegistry.digest(input), true, vertical);
+        }
+        finally
+        {
+            input.close();
+        }
+        PDFont font = registry.getFont(key);
+        if (font == null)
+        {
+            font = registry.putFont(key,
+                new PDType0Font(doc, new TTFParser().parse(file), true, true, vertical));
+        }
+        return (PDType0Font) font;
+    }
+
+    /**
+     * Loads a font stream. If the document has a {@link ResourceRegistry}, a font which was loaded
+     * from the same data before is returned instead.
+     */
+    private static PDType0Font load(PDDocument doc, InputStream input, boolean embedSubset,
+        boolean vertical) throws IOException
+    {
+        ResourceRegistry registry = doc.getResourceRegistry();
+        byte[] bytes;
+        try
+        {
+            if (registry == null)
+            {
+                return new PDType0Font(doc, new TTFParser().parse(input), embedSubset, true,
+                    vertical);
+            }
+            bytes = IOUtils.toByteArray(input);
+        }
+        finally
+        {
+            // the stream is closed in both cases, also if it couldn't be read
+            input.close();
+        }
+        String key = getRegistryKey(ResourceRegistry.digest(bytes), embedSubset, vertical);
+        PDFont font = registry.getFont(key);
+        if (font == null)
+        {
+            font = registry.putFont(key, new PDType0Font(doc,
+                new TTFParser().parse(new ByteArrayInputStream(bytes)), embedSubset, true, vertical));
+        }
+        return (PDType0Font) font;
+    }
+
+    private static String getRegistryKey(String digest, boolean embedSubset, boolean vertical)
+    {
+        return "Type0/" + (embedSubset ? "Subset" : "Full") + "/" +
+            (vertical ? "Vertical" : "Horizontal") + "/" + digest;
+    }
+
     /**
      * Constructor for reading a Type0 font from a PDF file.
      *
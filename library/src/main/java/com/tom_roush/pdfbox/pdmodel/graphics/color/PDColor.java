@@ -113,7 +113,7 @@ public final class PDColor
      */
     public float[] getComponents()
     {
-        if (/*colorSpace instanceof PDPattern || TODO: PdfBox-Android*/ colorSpace == null)
+        if (colorSpace instanceof PDPattern || colorSpace == null)
         {
             // colorspace of the pattern color isn't known, so just clone
             // null colorspace can happen with empty annotation color
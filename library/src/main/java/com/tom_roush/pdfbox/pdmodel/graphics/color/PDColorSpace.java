@@ -135,9 +135,7 @@ public abstract class PDColorSpace implements COSObjectable
             }
             else if (name == COSName.PATTERN)
             {
-//                return new PDPattern(resources);
-                Log.e("PdfBox-Android", "Unsupported color space kind: " + name + ". Will try DeviceRGB instead");
-                return PDDeviceRGB.INSTANCE;
+                return new PDPattern(resources);
             }
             else if (resources != null)
             {
@@ -214,14 +212,12 @@ public abstract class PDColorSpace implements COSObjectable
             {
                 if (array.size() == 1)
                 {
-//                    return new PDPattern(resources);
+                    return new PDPattern(resources);
                 }
                 else
                 {
-//                    return new PDPattern(resources, PDColorSpace.create(array.get(1)));
+                    return new PDPattern(resources, PDColorSpace.create(array.get(1)));
                 }
-                Log.e("PdfBox-Android", "Unsupported color space kind: " + name + ". Will try DeviceRGB instead");
-                return PDDeviceRGB.INSTANCE;
             }
             else if (name == COSName.DEVICECMYK ||
                 name == COSName.DEVICERGB ||
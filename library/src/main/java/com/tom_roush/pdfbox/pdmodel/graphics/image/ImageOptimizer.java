@@ -0,0 +1,636 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tom_roush.pdfbox.pdmodel.graphics.image;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import com.tom_roush.pdfbox.contentstream.PDFStreamEngine;
+import com.tom_roush.pdfbox.contentstream.operator.DrawObject;
+import com.tom_roush.pdfbox.contentstream.operator.Operator;
+import com.tom_roush.pdfbox.contentstream.operator.OperatorName;
+import com.tom_roush.pdfbox.contentstream.operator.state.Concatenate;
+import com.tom_roush.pdfbox.contentstream.operator.state.Restore;
+import com.tom_roush.pdfbox.contentstream.operator.state.Save;
+import com.tom_roush.pdfbox.contentstream.operator.state.SetMatrix;
+import com.tom_roush.pdfbox.cos.COSBase;
+import com.tom_roush.pdfbox.cos.COSDictionary;
+import com.tom_roush.pdfbox.cos.COSName;
+import com.tom_roush.pdfbox.cos.COSStream;
+import com.tom_roush.pdfbox.io.IOUtils;
+import com.tom_roush.pdfbox.pdmodel.PDDocument;
+import com.tom_roush.pdfbox.pdmodel.PDPage;
+import com.tom_roush.pdfbox.pdmodel.graphics.PDXObject;
+import com.tom_roush.pdfbox.pdmodel.interactive.annotation.PDAnnotation;
+import com.tom_roush.pdfbox.util.Matrix;
+
+/**
+ * Downsamples and recompresses the images of a document. The content streams of all pages and
+ * of their annotation appearances are scanned to find where each image is drawn, and images
+ * whose effective resolution on the page is above a threshold are resampled to the target
+ * resolution and encoded again, with {@link JPEGFactory} for DCT images and with
+ * {@link LosslessFactory} for all others.
+ *
+ * <p>The new data replaces the data of the original image stream, so that all references to the
+ * image see the change. An image is only replaced if the new data is smaller, and images which
+ * aren't replaced are left byte-identical. Stencil masks, 1 bit images and images which are
+ * only used in patterns, Type 3 glyphs or soft masks aren't changed. Resampled images are
+ * stored in DeviceRGB, as the image factories create them.
+ *
+ * <p>Resampling and encoding can run on an {@link ExecutorService} supplied by the caller. A
+ * document isn't thread-safe, so the workers only read it while holding a lock, e.g. to decode
+ * an image, and encode into a temporary document of their own. The new data is copied into the
+ * document on the calling thread.
+ */
+public final class ImageOptimizer
+{
+    private final float targetDpi;
+    private float thresholdDpi;
+    private float jpegQuality = 0.75f;
+    private ExecutorService executor;
+
+    /**
+     * Creates an optimizer which downsamples images to the given resolution. Images are only
+     * downsampled if their resolution is above 1.5 times the target resolution.
+     *
+     * @param targetDpi the resolution of downsampled images, in pixels per inch on the page
+     * @throws IllegalArgumentException if the resolution isn't positive
+     */
+    public ImageOptimizer(float targetDpi)
+    {
+        if (!(targetDpi > 0))
+        {
+            throw new IllegalArgumentException("targetDpi must be positive: " + targetDpi);
+        }
+        this.targetDpi = targetDpi;
+        this.thresholdDpi = targetDpi * 1.5f;
+    }
+
+    /**
+     * Sets the resolution above which images are downsampled. It can't be below the target
+     * resolution.
+     *
+     * @param thresholdDpi the threshold in pixels per inch on the page
+     * @throws IllegalArgumentException if the threshold is below the target resolution
+     */
+    public void setThresholdDpi(float thresholdDpi)
+    {
+        if (!(thresholdDpi >= targetDpi))
+        {
+            throw new IllegalArgumentException("thresholdDpi must not be below " + targetDpi);
+        }
+        this.thresholdDpi = thresholdDpi;
+    }
+
+    /**
+     * Sets the quality used to encode DCT images again, default is 0.75.
+     *
+     * @param quality the quality between 0 and 1
+     */
+    public void setJpegQuality(float quality)
+    {
+        if (quality < 0 || quality > 1)
+        {
+            throw new IllegalArgumentException("quality must be between 0 and 1: " + quality);
+        }
+        this.jpegQuality = quality;
+    }
+
+    /**
+     * Sets the executor on which images are decoded and encoded. With null, which is the
+     * default, all work is done on the calling thread.
+     *
+     * @param executor the executor, or null
+     */
+    public void setExecutor(ExecutorService executor)
+    {
+        this.executor = executor;
+    }
+
+    /**
+     * Optimizes the images of the given document. The document has to be saved by the caller.
+     *
+     * @param document the document
+     * @return one result for each distinct image which was found on the pages, in page order
+     * @throws IOException if a content stream could not be read or the document could not be
+     * changed. Images which can't be decoded are logged and left as they are.
+     */
+    public List<Result> optimize(PDDocument document) throws IOException
+    {
+        PlacementScanner scanner = new PlacementScanner();
+        int pageIndex = 0;
+        for (PDPage page : document.getPages())
+        {
+            scanner.scan(page, pageIndex++);
+        }
+
+        List<Result> results = new ArrayList<Result>();
+        List<Boolean> candidates = new ArrayList<Boolean>();
+        for (Placement placement : scanner.placements)
+        {
+            results.add(new Result(placement));
+            candidates.add(isCandidate(placement.image));
+        }
+
+        // from here on the document is only accessed while holding the lock
+        final Object lock = new Object();
+        List<Future<EncodedImage>> futures = new ArrayList<Future<EncodedImage>>();
+        for (int i = 0; i < results.size(); i++)
+        {
+            if (!candidates.get(i))
+            {
+                futures.add(null);
+                continue;
+            }
+            final Placement placement = scanner.placements.get(i);
+            final Result result = results.get(i);
+            Callable<EncodedImage> task = new Callable<EncodedImage>()
+            {
+                @Override
+                public EncodedImage call() throws IOException
+                {
+                    return resample(lock, placement, result);
+                }
+            };
+            futures.add(executor != null ? executor.submit(task) : new ImmediateFuture(task));
+        }
+
+        for (int i = 0; i < results.size(); i++)
+        {
+            Future<EncodedImage> future = futures.get(i);
+            if (future == null)
+            {
+                continue;
+            }
+            Result result = results.get(i);
+            EncodedImage replacement;
+            try
+            {
+                replacement = future.get();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            }
+            catch (ExecutionException e)
+            {
+                Log.w("PdfBox-Android", "Could not optimize image on page " +
+                    (result.pageIndex + 1) + ", image left as is", e.getCause());
+                continue;
+            }
+            if (replacement != null)
+            {
+                synchronized (lock)
+                {
+                    replace(document, result.image.getCOSObject(), replacement);
+                }
+                result.replaced = true;
+            }
+        }
+        return results;
+    }
+
+    private static boolean isCandidate(PDImageXObject image)
+    {
+        return !image.isStencil() && image.getBitsPerComponent() > 1;
+    }
+
+    /**
+     * Decodes, resamples and encodes the image if its resolution is above the threshold. Returns
+     * the new image data if it is smaller than the original one, and null otherwise. The image
+     * is decoded while holding the lock, it is encoded into a temporary document so that the
+     * document of the image isn't changed.
+     */
+    private EncodedImage resample(Object lock, Placement placement, Result result)
+        throws IOException
+    {
+        PDImageXObject image = placement.image;
+        int width = placement.width;
+        int height = placement.height;
+        float dpi = Math.min(width / placement.maxWidthInches, height / placement.maxHeightInches);
+        result.effectiveDpi = dpi;
+        if (!(dpi > thresholdDpi) || Float.isInfinite(dpi))
+        {
+            synchronized (lock)
+            {
+                result.originalBytes = getEncodedLength(image);
+            }
+            return null;
+        }
+
+        float factor = targetDpi / dpi;
+        int newWidth = Math.max(1, Math.round(width * factor));
+        int newHeight = Math.max(1, Math.round(height * factor));
+        // let the decoder drop whole rows and columns first, the rest is filtered by the scaling
+        int subsampling = Math.max(1, (int) (1 / factor / 2));
+        Bitmap decoded;
+        boolean jpeg;
+        synchronized (lock)
+        {
+            result.originalBytes = getEncodedLength(image);
+            decoded = image.getImage(null, subsampling);
+            jpeg = "jpg".equals(image.getSuffix());
+        }
+        Bitmap scaled = Bitmap.createScaledBitmap(decoded, newWidth, newHeight, true);
+
+        PDDocument scratch = new PDDocument();
+        try
+        {
+            PDImageXObject replacement;
+            if (jpeg)
+            {
+                replacement = JPEGFactory.createFromImage(scratch, scaled, jpegQuality);
+            }
+            else
+            {
+                replacement = LosslessFactory.createFromImage(scratch, scaled);
+            }
+            long newBytes = getEncodedLength(replacement);
+            if (newBytes >= result.originalBytes)
+            {
+                return null;
+            }
+            result.newWidth = replacement.getWidth();
+            result.newHeight = replacement.getHeight();
+            result.newBytes = newBytes;
+            return new EncodedImage(replacement);
+        }
+        finally
+        {
+            scratch.close();
+        }
+    }
+
+    /**
+     * Returns the length of the encoded image data including the data of its masks.
+     */
+    private static long getEncodedLength(PDImageXObject image) throws IOException
+    {
+        long length = image.getCOSObject().getLength();
+        PDImageXObject softMask = image.getSoftMask();
+        if (softMask != null)
+        {
+            length += softMask.getCOSObject().getLength();
+        }
+        PDImageXObject mask = image.getMask();
+        if (mask != null)
+        {
+            length += mask.getCOSObject().getLength();
+        }
+        return length;
+    }
+
+    private static final COSName[] IMAGE_KEYS = {
+        COSName.FILTER, COSName.F, COSName.DECODE_PARMS, COSName.DP, COSName.F_FILTER,
+        COSName.F_DECODE_PARMS, COSName.DL, COSName.WIDTH, COSName.HEIGHT,
+        COSName.BITS_PER_COMPONENT, COSName.COLORSPACE, COSName.DECODE, COSName.SMASK,
+        COSName.MASK, COSName.getPDFName("SMaskInData"), COSName.LENGTH
+    };
+
+    /**
+     * Replaces the image data and the image attributes of the original stream with those of the
+     * new image. Other entries, e.g. /Metadata, /Intent or /Interpolate, are kept. The soft mask
+     * of the new image is added to the document as a new stream.
+     */
+    private static void replace(PDDocument document, COSStream original,
+        EncodedImage replacement) throws IOException
+    {
+        for (COSName key : IMAGE_KEYS)
+        {
+            original.removeItem(key);
+        }
+        for (Map.Entry<COSName, COSBase> entry : replacement.dictionary.entrySet())
+        {
+            COSName key = entry.getKey();
+            if (!COSName.TYPE.equals(key) && !COSName.SUBTYPE.equals(key))
+            {
+                original.setItem(key, entry.getValue());
+            }
+        }
+        write(original, replacement.data);
+        if (replacement.softMask != null)
+        {
+            COSStream softMask = document.getDocument().createCOSStream();
+            softMask.addAll(replacement.softMask.dictionary);
+            write(softMask, replacement.softMask.data);
+            original.setItem(COSName.SMASK, softMask);
+        }
+    }
+
+    private static void write(COSStream stream, byte[] data) throws IOException
+    {
+        OutputStream out = stream.createRawOutputStream();
+        try
+        {
+            out.write(data);
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    /**
+     * The attributes and the encoded data of a new image and of its soft mask, copied from the
+     * temporary document in which it was created.
+     */
+    private static final class EncodedImage
+    {
+        private final COSDictionary dictionary = new COSDictionary();
+        private final byte[] data;
+        private final EncodedImage softMask;
+
+        EncodedImage(PDImageXObject image) throws IOException
+        {
+            COSStream stream = image.getCOSObject();
+            for (Map.Entry<COSName, COSBase> entry : stream.entrySet())
+            {
+                COSName key = entry.getKey();
+                if (!COSName.LENGTH.equals(key) && !COSName.SMASK.equals(key))
+                {
+                    dictionary.setItem(key, entry.getValue());
+                }
+            }
+            InputStream in = stream.createRawInputStream();
+            try
+            {
+                data = IOUtils.toByteArray(in);
+            }
+            finally
+            {
+                in.close();
+            }
+            PDImageXObject mask = image.getSoftMask();
+            softMask = mask != null ? new EncodedImage(mask) : null;
+        }
+    }
+
+    /**
+     * The size on the page of each image, collected from the Do operators of the content
+     * streams.
+     */
+    private static final class PlacementScanner extends PDFStreamEngine
+    {
+        private final Map<COSStream, Placement> byStream =
+            new IdentityHashMap<COSStream, Placement>();
+        private final List<Placement> placements = new ArrayList<Placement>();
+        private int pageIndex;
+
+        PlacementScanner()
+        {
+            addOperator(new Concatenate());
+            addOperator(new DrawObject());
+            addOperator(new SetMatrix());
+            addOperator(new Save());
+            addOperator(new Restore());
+        }
+
+        void scan(PDPage page, int pageIndex) throws IOException
+        {
+            this.pageIndex = pageIndex;
+            processPage(page);
+            for (PDAnnotation annotation : page.getAnnotations())
+            {
+                showAnnotation(annotation);
+            }
+        }
+
+        @Override
+        protected void processOperator(Operator operator, List<COSBase> operands)
+            throws IOException
+        {
+            if (OperatorName.DRAW_OBJECT.equals(operator.getName()) && !operands.isEmpty() &&
+                operands.get(0) instanceof COSName &&
+                getResources().isImageXObject((COSName) operands.get(0)))
+            {
+                PDXObject xobject = getResources().getXObject((COSName) operands.get(0));
+                if (xobject instanceof PDImageXObject)
+                {
+                    record((PDImageXObject) xobject);
+                }
+                return;
+            }
+            super.processOperator(operator, operands);
+        }
+
+        private void record(PDImageXObject image)
+        {
+            COSStream stream = image.getCOSObject();
+            Placement placement = byStream.get(stream);
+            if (placement == null)
+            {
+                placement = new Placement(image, pageIndex);
+                byStream.put(stream, placement);
+                placements.add(placement);
+            }
+            // the unit square of the image is mapped to the page by the CTM
+            Matrix ctm = getGraphicsState().getCurrentTransformationMatrix();
+            placement.maxWidthInches = Math.max(placement.maxWidthInches,
+                ctm.getScalingFactorX() / 72);
+            placement.maxHeightInches = Math.max(placement.maxHeightInches,
+                ctm.getScalingFactorY() / 72);
+        }
+    }
+
+    private static final class Placement
+    {
+        private final PDImageXObject image;
+        private final int pageIndex;
+        private final int width;
+        private final int height;
+        private float maxWidthInches;
+        private float maxHeightInches;
+
+        Placement(PDImageXObject image, int pageIndex)
+        {
+            this.image = image;
+            this.pageIndex = pageIndex;
+            this.width = image.getWidth();
+            this.height = image.getHeight();
+        }
+    }
+
+    /**
+     * Runs a task when its result is asked for, on the calling thread.
+     */
+    private static final class ImmediateFuture implements Future<EncodedImage>
+    {
+        private final Callable<EncodedImage> task;
+
+        ImmediateFuture(Callable<EncodedImage> task)
+        {
+            this.task = task;
+        }
+
+        @Override
+        public EncodedImage get() throws ExecutionException
+        {
+            try
+            {
+                return task.call();
+            }
+            catch (Exception e)
+            {
+                throw new ExecutionException(e);
+            }
+        }
+
+        @Override
+        public EncodedImage get(long timeout, TimeUnit unit)
+            throws ExecutionException
+        {
+            return get();
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning)
+        {
+            return false;
+        }
+
+        @Override
+        public boolean isCancelled()
+        {
+            return false;
+        }
+
+        @Override
+        public boolean isDone()
+        {
+            return false;
+        }
+    }
+
+    /**
+     * The outcome for one image.
+     */
+    public static final class Result
+    {
+        private final PDImageXObject image;
+        private final int pageIndex;
+        private final int originalWidth;
+        private final int originalHeight;
+        private int newWidth;
+        private int newHeight;
+        private float effectiveDpi;
+        private long originalBytes;
+        private long newBytes;
+        private boolean replaced;
+
+        private Result(Placement placement)
+        {
+            this.image = placement.image;
+            this.pageIndex = placement.pageIndex;
+            this.originalWidth = placement.width;
+            this.originalHeight = placement.height;
+            this.newWidth = originalWidth;
+            this.newHeight = originalHeight;
+        }
+
+        /**
+         * Returns the image, which has the new data if it was replaced.
+         */
+        public PDImageXObject getImage()
+        {
+            return image;
+        }
+
+        /**
+         * Returns the 0-based index of the first page on which the image is drawn.
+         */
+        public int getPageIndex()
+        {
+            return pageIndex;
+        }
+
+        public int getOriginalWidth()
+        {
+            return originalWidth;
+        }
+
+        public int getOriginalHeight()
+        {
+            return originalHeight;
+        }
+
+        public int getNewWidth()
+        {
+            return newWidth;
+        }
+
+        public int getNewHeight()
+        {
+            return newHeight;
+        }
+
+        /**
+         * Returns the lowest resolution of the image on the pages, in pixels per inch. 0 if the
+         * image wasn't examined.
+         */
+        public float getEffectiveDpi()
+        {
+            return effectiveDpi;
+        }
+
+        /**
+         * Returns the length of the encoded image data including its masks, before optimizing.
+         * 0 if the image wasn't examined.
+         */
+        public long getOriginalBytes()
+        {
+            return originalBytes;
+        }
+
+        /**
+         * Returns the length of the encoded image data including its masks, after optimizing.
+         */
+        public long getNewBytes()
+        {
+            return replaced ? newBytes : originalBytes;
+        }
+
+        /**
+         * Returns the number of bytes saved, 0 if the image wasn't replaced.
+         */
+        public long getSavedBytes()
+        {
+            return replaced ? originalBytes - newBytes : 0;
+        }
+
+        /**
+         * Returns whether the image data was replaced.
+         */
+        public boolean isReplaced()
+        {
+            return replaced;
+        }
+    }
+}
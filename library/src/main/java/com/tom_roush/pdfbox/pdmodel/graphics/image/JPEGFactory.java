@@ -34,6 +34,7 @@ import com.tom_roush.pdfbox.filter.Filter;
 import com.tom_roush.pdfbox.filter.FilterFactory;
 import com.tom_roush.pdfbox.io.IOUtils;
 import com.tom_roush.pdfbox.pdmodel.PDDocument;
+import com.tom_roush.pdfbox.pdmodel.ResourceRegistry;
 import com.tom_roush.pdfbox.pdmodel.graphics.color.PDColorSpace;
 import com.tom_roush.pdfbox.pdmodel.graphics.color.PDDeviceGray;
 import com.tom_roush.pdfbox.pdmodel.graphics.color.PDDeviceRGB;
@@ -65,7 +66,9 @@ public final class JPEGFactory
     }
 
     /**
-     * Creates a new JPEG Image XObject from a byte array containing JPEG data.
+     * Creates a new JPEG Image XObject from a byte array containing JPEG data. If the document has
+     * a {@link ResourceRegistry}, an image which was created from the same data before is
+     * returned instead.
      *
      * @param document the document where the image will be created
      * @param byteArray bytes of JPEG image
@@ -75,6 +78,23 @@ public final class JPEGFactory
      */
     public static PDImageXObject createFromByteArray(PDDocument document, byte[] byteArray)
         throws IOException
+    {
+        ResourceRegistry registry = document.getResourceRegistry();
+        if (registry == null)
+        {
+            return createFromByteArrayUnregistered(document, byteArray);
+        }
+        String key = "DCT/" + ResourceRegistry.digest(byteArray);
+        PDImageXObject pdImage = registry.getImage(key);
+        if (pdImage == null)
+        {
+            pdImage = registry.putImage(key, createFromByteArrayUnregistered(document, byteArray));
+        }
+        return pdImage;
+    }
+
+    private static PDImageXObject createFromByteArrayUnregistered(PDDocument document,
+        byte[] byteArray) throws IOException
     {
         // copy stream
         ByteArrayInputStream byteStream = new ByteArrayInputStream(byteArray);
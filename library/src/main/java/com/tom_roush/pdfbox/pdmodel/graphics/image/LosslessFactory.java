@@ -17,14 +17,26 @@ package com.tom_roush.pdfbox.pdmodel.graphics.image;
 
 import android.graphics.Bitmap;
 import android.graphics.Color;
+import android.os.Build;
 import android.util.Log;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Adler32;
 import java.util.zip.Deflater;
-import java.util.zip.DeflaterOutputStream;
 
 import com.tom_roush.harmony.javax.imageio.stream.MemoryCacheImageOutputStream;
 import com.tom_roush.pdfbox.cos.COSDictionary;
@@ -33,10 +45,12 @@ import com.tom_roush.pdfbox.cos.COSName;
 import com.tom_roush.pdfbox.filter.Filter;
 import com.tom_roush.pdfbox.filter.FilterFactory;
 import com.tom_roush.pdfbox.pdmodel.PDDocument;
+import com.tom_roush.pdfbox.pdmodel.ResourceRegistry;
 import com.tom_roush.pdfbox.pdmodel.graphics.color.PDColorSpace;
 import com.tom_roush.pdfbox.pdmodel.graphics.color.PDDeviceColorSpace;
 import com.tom_roush.pdfbox.pdmodel.graphics.color.PDDeviceGray;
 import com.tom_roush.pdfbox.pdmodel.graphics.color.PDDeviceRGB;
+import com.tom_roush.pdfbox.util.Hex;
 
 /**
  * Factory for creating a PDImageXObject containing a lossless compressed image.
@@ -50,6 +64,28 @@ public final class LosslessFactory
      */
     static boolean usePredictorEncoder = false;
 
+    /**
+     * Whether large data is compressed in chunks, which needs
+     * {@link Deflater#deflate(byte[], int, int, int)} with {@link Deflater#SYNC_FLUSH}. It is
+     * only available from API 19 on; before, the data is compressed as a single stream.
+     */
+    static boolean useChunkedDeflate = Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT;
+
+    /**
+     * Minimum number of uncompressed bytes per task when compressing in parallel.
+     */
+    private static final int MIN_CHUNK_SIZE = 1 << 18;
+
+    /**
+     * Minimum number of predictor encoded bytes per task when encoding rows in parallel.
+     */
+    private static final int MIN_BAND_SIZE = 1 << 16;
+
+    /**
+     * Size of the deflate window, which is primed with the data preceding a chunk.
+     */
+    private static final int DICTIONARY_SIZE = 1 << 15;
+
     private LosslessFactory()
     {
     }
@@ -65,6 +101,9 @@ public final class LosslessFactory
      * colorspace with a common object to save space. This is done with
      * {@link PDImageXObject#getColorSpace()} and
      * {@link PDImageXObject#setColorSpace(com.tom_roush.pdfbox.pdmodel.graphics.color.PDColorSpace) PDImageXObject.setColorSpace()}
+     * <p>
+     * If the document has a {@link ResourceRegistry}, an image which was created from the same
+     * pixels before is returned instead.
      *
      * @param document the document where the image will be created
      * @param image the Bitmap to embed
@@ -73,16 +112,38 @@ public final class LosslessFactory
      */
     public static PDImageXObject createFromImage(PDDocument document, Bitmap image)
         throws IOException
+    {
+        int compressionLevel = Filter.getCompressionLevel();
+        ResourceRegistry registry = document.getResourceRegistry();
+        String key = null;
+        if (registry != null)
+        {
+            key = getRegistryKey(image, usePredictorEncoder ? "Predictor" : "Flate",
+                compressionLevel);
+            PDImageXObject pdImageXObject = registry.getImage(key);
+            if (pdImageXObject != null)
+            {
+                return pdImageXObject;
+            }
+        }
+        PDImageXObject pdImageXObject = createFromImage(document, image, compressionLevel,
+            usePredictorEncoder);
+        return registry != null ? registry.putImage(key, pdImageXObject) : pdImageXObject;
+    }
+
+    private static PDImageXObject createFromImage(PDDocument document, Bitmap image,
+        int compressionLevel, boolean predictor) throws IOException
     {
         if (isGrayImage(image))
         {
-            return createFromGrayImage(image, document);
+            return createFromGrayImage(image, document, compressionLevel);
         }
 
         // We try to encode the image with predictor
-        if (usePredictorEncoder)
+        if (predictor)
         {
-            PDImageXObject pdImageXObject = new PredictorEncoder(document, image).encode();
+            PDImageXObject pdImageXObject =
+                new PredictorEncoder(document, image, compressionLevel).encode();
             if (pdImageXObject != null)
             {
                 if (pdImageXObject.getColorSpace() == PDDeviceRGB.INSTANCE &&
@@ -90,7 +151,8 @@ public final class LosslessFactory
                     image.getWidth() * image.getHeight() <= 50 * 50)
                 {
                     // also create classic compressed image, compare sizes
-                    PDImageXObject pdImageXObjectClassic = createFromRGBImage(image, document);
+                    PDImageXObject pdImageXObjectClassic =
+                        createFromRGBImage(image, document, compressionLevel);
                     if (pdImageXObjectClassic.getCOSObject().getLength() <
                         pdImageXObject.getCOSObject().getLength())
                     {
@@ -109,7 +171,75 @@ public final class LosslessFactory
         }
 
         // Fallback: We export the image as 8-bit sRGB and might loose color information
-        return createFromRGBImage(image, document);
+        return createFromRGBImage(image, document, compressionLevel);
+    }
+
+    /**
+     * Creates a new lossless encoded image XObject from a Bitmap, choosing a PNG predictor for
+     * each row. This usually gives a much smaller image than
+     * {@link #createFromImage(PDDocument, Bitmap)} for screenshots and charts. Large images are
+     * split into bands of rows which are predicted and compressed in parallel; the result is a
+     * single Flate stream. If the document has a {@link ResourceRegistry}, an image which was
+     * created from the same pixels and with the same compression level before is returned
+     * instead.
+     *
+     * @param document the document where the image will be created
+     * @param image the Bitmap to embed
+     * @param compressionLevel the compression level, from {@link Deflater#NO_COMPRESSION} to
+     * {@link Deflater#BEST_COMPRESSION}, or {@link Deflater#DEFAULT_COMPRESSION}
+     * @return a new image XObject
+     * @throws IOException if something goes wrong
+     * @throws IllegalArgumentException if the compression level is invalid
+     */
+    public static PDImageXObject createFromImage(PDDocument document, Bitmap image,
+        int compressionLevel) throws IOException
+    {
+        if (compressionLevel < Deflater.DEFAULT_COMPRESSION ||
+            compressionLevel > Deflater.BEST_COMPRESSION)
+        {
+            throw new IllegalArgumentException("Invalid compression level " + compressionLevel);
+        }
+        ResourceRegistry registry = document.getResourceRegistry();
+        String key = null;
+        if (registry != null)
+        {
+            key = getRegistryKey(image, "Predictor", compressionLevel);
+            PDImageXObject pdImageXObject = registry.getImage(key);
+            if (pdImageXObject != null)
+            {
+                return pdImageXObject;
+            }
+        }
+        PDImageXObject pdImageXObject = createFromImage(document, image, compressionLevel, true);
+        return registry != null ? registry.putImage(key, pdImageXObject) : pdImageXObject;
+    }
+
+    /**
+     * Returns the key of an image in the {@link ResourceRegistry}: a hash of its pixels and of the
+     * encoding parameters. Hashing the pixels is much cheaper than encoding them again.
+     */
+    private static String getRegistryKey(Bitmap image, String encoding, int compressionLevel)
+    {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        MessageDigest md = ResourceRegistry.createMessageDigest();
+        int[] rgbLineBuffer = new int[width];
+        byte[] bytes = new byte[width * 4];
+        for (int y = 0; y < height; ++y)
+        {
+            image.getPixels(rgbLineBuffer, 0, width, 0, y, width, 1);
+            for (int x = 0, i = 0; x < width; ++x)
+            {
+                int pixel = rgbLineBuffer[x];
+                bytes[i++] = (byte) (pixel >>> 24);
+                bytes[i++] = (byte) (pixel >>> 16);
+                bytes[i++] = (byte) (pixel >>> 8);
+                bytes[i++] = (byte) pixel;
+            }
+            md.update(bytes);
+        }
+        return "Lossless/" + encoding + "/" + compressionLevel + "/" + image.getConfig() + "/" +
+            image.hasAlpha() + "/" + width + "x" + height + "/" + Hex.getString(md.digest());
     }
 
     private static boolean isGrayImage(Bitmap image)
@@ -118,8 +248,8 @@ public final class LosslessFactory
     }
 
     // grayscale images need one color per sample
-    private static PDImageXObject createFromGrayImage(Bitmap image, PDDocument document)
-        throws IOException
+    private static PDImageXObject createFromGrayImage(Bitmap image, PDDocument document,
+        int compressionLevel) throws IOException
     {
         int height = image.getHeight();
         int width = image.getWidth();
@@ -144,10 +274,11 @@ public final class LosslessFactory
         mcios.flush();
         mcios.close();
         return prepareImageXObject(document, baos.toByteArray(),
-            image.getWidth(), image.getHeight(), bpc, PDDeviceGray.INSTANCE);
+            image.getWidth(), image.getHeight(), bpc, PDDeviceGray.INSTANCE, compressionLevel);
     }
 
-    private static PDImageXObject createFromRGBImage(Bitmap image, PDDocument document) throws IOException
+    private static PDImageXObject createFromRGBImage(Bitmap image, PDDocument document,
+        int compressionLevel) throws IOException
     {
         int height = image.getHeight();
         int width = image.getWidth();
@@ -188,11 +319,12 @@ public final class LosslessFactory
             }
         }
         PDImageXObject pdImage = prepareImageXObject(document, imageData,
-            image.getWidth(), image.getHeight(), bpc, deviceColorSpace);
+            image.getWidth(), image.getHeight(), bpc, deviceColorSpace, compressionLevel);
         if (image.hasAlpha())
         {
             PDImageXObject pdMask = prepareImageXObject(document, alphaImageData,
-                image.getWidth(), image.getHeight(), apbc, PDDeviceGray.INSTANCE);
+                image.getWidth(), image.getHeight(), apbc, PDDeviceGray.INSTANCE,
+                compressionLevel);
             pdImage.getCOSObject().setItem(COSName.SMASK, pdMask);
         }
         return pdImage;
@@ -225,39 +357,290 @@ public final class LosslessFactory
             width, height, bitsPerComponent, initColorSpace);
     }
 
+    /**
+     * Create a PDImageXObject using the Flate filter with the given compression level. Large
+     * data is compressed in parallel, see {@link #deflate(byte[], int)}.
+     */
+    private static PDImageXObject prepareImageXObject(PDDocument document,
+        byte[] byteArray, int width, int height, int bitsPerComponent,
+        PDColorSpace initColorSpace, int compressionLevel) throws IOException
+    {
+        ByteArrayInputStream encodedByteStream =
+            new ByteArrayInputStream(deflate(byteArray, compressionLevel));
+        return new PDImageXObject(document, encodedByteStream, COSName.FLATE_DECODE,
+            width, height, bitsPerComponent, initColorSpace);
+    }
+
+    /**
+     * Compresses the data into a zlib stream. Data larger than {@link #MIN_CHUNK_SIZE} is split
+     * into chunks which are compressed in parallel, like pigz does: each chunk is a raw deflate
+     * stream ending on a byte boundary (sync flush), its window is primed with the 32 KB
+     * preceding it so that the compression ratio hardly suffers, and the Adler-32 checksums of the
+     * chunks are combined. The chunks are concatenated behind a zlib header. Before API 19 the
+     * data is always compressed as a single stream, see {@link #useChunkedDeflate}.
+     *
+     * @param data the data to compress
+     * @param compressionLevel the compression level
+     * @return the zlib stream
+     * @throws IOException if the compression was interrupted
+     */
+    static byte[] deflate(final byte[] data, final int compressionLevel) throws IOException
+    {
+        int chunkCount = !useChunkedDeflate ? 1 : Math.max(1,
+            Math.min(EncoderPool.THREADS * 2, data.length / MIN_CHUNK_SIZE));
+        final int chunkSize = (data.length + chunkCount - 1) / chunkCount;
+        chunkCount = chunkSize == 0 ? 1 : (data.length + chunkSize - 1) / chunkSize;
+        final long[] checksums = new long[chunkCount];
+        List<Callable<byte[]>> tasks = new ArrayList<Callable<byte[]>>(chunkCount);
+        for (int i = 0; i < chunkCount; i++)
+        {
+            final int chunk = i;
+            final boolean last = i == chunkCount - 1;
+            tasks.add(new Callable<byte[]>()
+            {
+                @Override
+                public byte[] call()
+                {
+                    int off = chunk * chunkSize;
+                    int len = Math.min(chunkSize, data.length - off);
+                    Adler32 adler32 = new Adler32();
+                    adler32.update(data, off, len);
+                    checksums[chunk] = adler32.getValue();
+                    return deflateChunk(data, off, len, compressionLevel, last);
+                }
+            });
+        }
+        List<byte[]> chunks = EncoderPool.invokeAll(tasks);
+
+        //pre-size the output stream to half of the input
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(data.length / 2 + 16);
+        int header = 0x78 << 8 | getLevelFlags(compressionLevel) << 6;
+        header += 31 - header % 31;
+        baos.write(header >> 8);
+        baos.write(header & 0xff);
+        long checksum = checksums[0];
+        for (int i = 0; i < chunkCount; i++)
+        {
+            byte[] chunk = chunks.get(i);
+            baos.write(chunk, 0, chunk.length);
+            if (i > 0)
+            {
+                int len = Math.min(chunkSize, data.length - i * chunkSize);
+                checksum = combineAdler32(checksum, checksums[i], len);
+            }
+        }
+        baos.write((int) (checksum >>> 24) & 0xff);
+        baos.write((int) (checksum >>> 16) & 0xff);
+        baos.write((int) (checksum >>> 8) & 0xff);
+        baos.write((int) checksum & 0xff);
+        return baos.toByteArray();
+    }
+
+    private static byte[] deflateChunk(byte[] data, int off, int len, int compressionLevel,
+        boolean last)
+    {
+        // raw deflate, the zlib header and checksum are written for the stream as a whole
+        Deflater deflater = new Deflater(compressionLevel, true);
+        try
+        {
+            if (off > 0)
+            {
+                int dictionaryLength = Math.min(DICTIONARY_SIZE, off);
+                deflater.setDictionary(data, off - dictionaryLength, dictionaryLength);
+            }
+            ByteArrayOutputStream baos = new ByteArrayOutputStream(len / 2 + 16);
+            byte[] buffer = new byte[0x4000];
+            deflater.setInput(data, off, len);
+            if (last)
+            {
+                deflater.finish();
+                while (!deflater.finished())
+                {
+                    int length = deflater.deflate(buffer, 0, buffer.length);
+                    baos.write(buffer, 0, length);
+                }
+            }
+            else
+            {
+                // end on a byte boundary so that the next chunk can be appended
+                int length;
+                do
+                {
+                    length = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                    baos.write(buffer, 0, length);
+                }
+                while (length == buffer.length);
+            }
+            return baos.toByteArray();
+        }
+        finally
+        {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Returns the FLEVEL field of the zlib header, as zlib sets it.
+     */
+    private static int getLevelFlags(int compressionLevel)
+    {
+        if (compressionLevel == Deflater.DEFAULT_COMPRESSION || compressionLevel == 6)
+        {
+            return 2;
+        }
+        if (compressionLevel < 2)
+        {
+            return 0;
+        }
+        return compressionLevel < 6 ? 1 : 3;
+    }
+
+    /**
+     * Returns the Adler-32 checksum of two concatenated blocks of data, as adler32_combine() of
+     * zlib does.
+     *
+     * @param adler1 the checksum of the first block
+     * @param adler2 the checksum of the second block
+     * @param len2 the length of the second block
+     */
+    static long combineAdler32(long adler1, long adler2, long len2)
+    {
+        final long base = 65521;
+        long rem = len2 % base;
+        long sum1 = adler1 & 0xffff;
+        long sum2 = rem * sum1 % base;
+        sum1 += (adler2 & 0xffff) + base - 1;
+        sum2 += (adler1 >> 16 & 0xffff) + (adler2 >> 16 & 0xffff) + base - rem;
+        if (sum1 >= base)
+        {
+            sum1 -= base;
+        }
+        if (sum1 >= base)
+        {
+            sum1 -= base;
+        }
+        if (sum2 >= base << 1)
+        {
+            sum2 -= base << 1;
+        }
+        if (sum2 >= base)
+        {
+            sum2 -= base;
+        }
+        return sum1 | sum2 << 16;
+    }
+
+    /**
+     * The threads which encode images in parallel. They are created when first needed and are
+     * daemon threads, so that they don't keep the application alive.
+     */
+    private static final class EncoderPool
+    {
+        static final int THREADS = Runtime.getRuntime().availableProcessors();
+
+        private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(THREADS,
+            new ThreadFactory()
+            {
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable runnable)
+                {
+                    Thread thread = new Thread(runnable,
+                        "PdfBox-LosslessFactory-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+        private EncoderPool()
+        {
+        }
+
+        /**
+         * Runs the tasks and returns their results in the same order. A single task is run on the
+         * calling thread.
+         */
+        static <T> List<T> invokeAll(List<Callable<T>> tasks) throws IOException
+        {
+            List<T> results = new ArrayList<T>(tasks.size());
+            try
+            {
+                if (tasks.size() == 1 || THREADS == 1)
+                {
+                    for (Callable<T> task : tasks)
+                    {
+                        results.add(task.call());
+                    }
+                    return results;
+                }
+                for (Future<T> future : EXECUTOR.invokeAll(tasks))
+                {
+                    results.add(future.get());
+                }
+                return results;
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Image encoding was interrupted");
+            }
+            catch (ExecutionException e)
+            {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException)
+                {
+                    throw (IOException) cause;
+                }
+                if (cause instanceof RuntimeException)
+                {
+                    throw (RuntimeException) cause;
+                }
+                if (cause instanceof Error)
+                {
+                    throw (Error) cause;
+                }
+                throw new IOException(cause);
+            }
+            catch (IOException e)
+            {
+                throw e;
+            }
+            catch (RuntimeException e)
+            {
+                throw e;
+            }
+            catch (Exception e)
+            {
+                throw new IOException(e);
+            }
+        }
+    }
+
     private static class PredictorEncoder
     {
         private final PDDocument document;
         private final Bitmap image;
+        private final int compressionLevel;
         private final int bytesPerComponent;
         private final int bytesPerPixel;
 
         private final int height;
         private final int width;
-
-        private final byte[] dataRawRowNone;
-        private final byte[] dataRawRowSub;
-        private final byte[] dataRawRowUp;
-        private final byte[] dataRawRowAverage;
-        private final byte[] dataRawRowPaeth;
+        private final int dataRowByteCount;
 
         final Bitmap.Config imageType;
         final boolean hasAlpha;
         final byte[] alphaImageData;
 
-        final byte[] aValues;
-        final byte[] cValues;
-        final byte[] bValues;
-        final byte[] xValues;
-        final byte[] tmpResultValues;
-
         /**
          * Initialize the encoder and set all final fields
          */
-        PredictorEncoder(PDDocument document, Bitmap image)
+        PredictorEncoder(PDDocument document, Bitmap image, int compressionLevel)
         {
             this.document = document;
             this.image = image;
+            this.compressionLevel = compressionLevel;
 
             // The raw count of components per pixel including optional alpha
             this.bytesPerComponent = 1;
@@ -272,135 +655,192 @@ public final class LosslessFactory
             this.alphaImageData = hasAlpha ? new byte[width * height * bytesPerComponent] : null;
 
             // The rows have 1-byte encoding marker and width * BYTES_PER_PIXEL pixel-bytes
-            int dataRowByteCount = width * bytesPerPixel + 1;
-            this.dataRawRowNone = new byte[dataRowByteCount];
-            this.dataRawRowSub = new byte[dataRowByteCount];
-            this.dataRawRowUp = new byte[dataRowByteCount];
-            this.dataRawRowAverage = new byte[dataRowByteCount];
-            this.dataRawRowPaeth = new byte[dataRowByteCount];
-
-            // Write the encoding markers
-            dataRawRowNone[0] = 0;
-            dataRawRowSub[0] = 1;
-            dataRawRowUp[0] = 2;
-            dataRawRowAverage[0] = 3;
-            dataRawRowPaeth[0] = 4;
-
-            // c | b
-            // -----
-            // a | x
-            //
-            // x => current pixel
-            this.aValues = new byte[bytesPerPixel];
-            this.cValues = new byte[bytesPerPixel];
-            this.bValues = new byte[bytesPerPixel];
-            this.xValues = new byte[bytesPerPixel];
-            this.tmpResultValues = new byte[bytesPerPixel];
+            this.dataRowByteCount = width * bytesPerPixel + 1;
         }
 
         /**
-         * Tries to compress the image using a predictor.
+         * Tries to compress the image using a predictor. The rows are encoded in bands, which
+         * are independent of each other as a band only needs the pixels of the row above it,
+         * and are encoded in parallel for large images.
          *
          * @return the image or null if it is not possible to encoded the image (e.g. not supported
          * raster format etc.)
          */
         PDImageXObject encode() throws IOException
         {
-            final int elementsInRowPerPixel;
-
-            // These variables store a row of the image each, the exact type depends
-            // on the image encoding. Can be a int[], short[] or byte[]
-            int[] prevRow;
-            int[] transferRow;
-
             switch (imageType)
             {
                 case ARGB_8888:
                 case RGB_565:
-                {
-                    elementsInRowPerPixel = 1;
-                    prevRow = new int[width * elementsInRowPerPixel];
-                    transferRow = new int[width * elementsInRowPerPixel];
                     break;
-                }
 
                 default:
                     // We can not handle this unknown format
                     return null;
             }
 
-            final int elementsInTransferRow = width * elementsInRowPerPixel;
+            final byte[] encoded = new byte[height * dataRowByteCount];
+            int rowsPerBand = Math.max((MIN_BAND_SIZE + dataRowByteCount - 1) / dataRowByteCount,
+                (height + EncoderPool.THREADS * 4 - 1) / (EncoderPool.THREADS * 4));
+            List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+            for (int startRow = 0; startRow < height; startRow += rowsPerBand)
+            {
+                final int bandStart = startRow;
+                final int bandEnd = Math.min(height, startRow + rowsPerBand);
+                tasks.add(new Callable<Void>()
+                {
+                    @Override
+                    public Void call()
+                    {
+                        new BandEncoder().encodeRows(bandStart, bandEnd, encoded);
+                        return null;
+                    }
+                });
+            }
+            EncoderPool.invokeAll(tasks);
+
+            return preparePredictorPDImage(deflate(encoded, compressionLevel),
+                bytesPerComponent * 8);
+        }
 
-            // pre-size the output stream to half of the maximum size
-            ByteArrayOutputStream stream = new ByteArrayOutputStream(
-                height * width * bytesPerPixel / 2);
-            Deflater deflater = new Deflater(Filter.getCompressionLevel());
-            DeflaterOutputStream zip = new DeflaterOutputStream(stream, deflater);
+        /**
+         * Encodes a band of rows, with its own row buffers so that bands can be encoded
+         * concurrently.
+         */
+        private final class BandEncoder
+        {
+            private final byte[] dataRawRowNone = new byte[dataRowByteCount];
+            private final byte[] dataRawRowSub = new byte[dataRowByteCount];
+            private final byte[] dataRawRowUp = new byte[dataRowByteCount];
+            private final byte[] dataRawRowAverage = new byte[dataRowByteCount];
+            private final byte[] dataRawRowPaeth = new byte[dataRowByteCount];
 
-            int alphaPtr = 0;
+            // c | b
+            // -----
+            // a | x
+            //
+            // x => current pixel
+            private final byte[] aValues = new byte[bytesPerPixel];
+            private final byte[] cValues = new byte[bytesPerPixel];
+            private final byte[] bValues = new byte[bytesPerPixel];
+            private final byte[] xValues = new byte[bytesPerPixel];
 
-            for (int rowNum = 0; rowNum < height; rowNum++)
+            BandEncoder()
             {
-                image.getPixels(transferRow, 0, width, 0, rowNum, width, 1);
-
-                // We start to write at index one, as the predictor marker is in index zero
-                int writerPtr = 1;
-                Arrays.fill(aValues, (byte) 0);
-                Arrays.fill(cValues, (byte) 0);
+                // Write the encoding markers
+                dataRawRowNone[0] = 0;
+                dataRawRowSub[0] = 1;
+                dataRawRowUp[0] = 2;
+                dataRawRowAverage[0] = 3;
+                dataRawRowPaeth[0] = 4;
+            }
 
-                final int[] transferRowInt;
-                final int[] prevRowInt;
+            /**
+             * Encodes the rows from startRow (inclusive) to endRow (exclusive) into their place
+             * in the target array.
+             */
+            void encodeRows(int startRow, int endRow, byte[] target)
+            {
+                final int elementsInRowPerPixel = 1;
+                final int elementsInTransferRow = width * elementsInRowPerPixel;
 
+                // These variables store a row of the image each
+                int[] prevRow = new int[elementsInTransferRow];
+                int[] transferRow = new int[elementsInTransferRow];
+                if (startRow > 0)
                 {
-                    transferRowInt = (int[]) transferRow;
-                    prevRowInt = (int[]) prevRow;
+                    image.getPixels(prevRow, 0, width, 0, startRow - 1, width, 1);
                 }
 
-                for (int indexInTransferRow = 0; indexInTransferRow < elementsInTransferRow;
-                     indexInTransferRow += elementsInRowPerPixel, alphaPtr += bytesPerComponent)
+                int alphaPtr = startRow * width * bytesPerComponent;
+
+                for (int rowNum = startRow; rowNum < endRow; rowNum++)
                 {
-                    // Copy the pixel values into the byte array
+                    image.getPixels(transferRow, 0, width, 0, rowNum, width, 1);
+
+                    // We start to write at index one, as the predictor marker is in index zero
+                    int writerPtr = 1;
+                    Arrays.fill(aValues, (byte) 0);
+                    Arrays.fill(cValues, (byte) 0);
+
+                    for (int indexInTransferRow = 0; indexInTransferRow < elementsInTransferRow;
+                         indexInTransferRow += elementsInRowPerPixel, alphaPtr += bytesPerComponent)
                     {
-                        copyIntToBytes(transferRowInt, indexInTransferRow, xValues, alphaImageData,
+                        // Copy the pixel values into the byte array
+                        copyIntToBytes(transferRow, indexInTransferRow, xValues, alphaImageData,
                             alphaPtr);
-                        copyIntToBytes(prevRowInt, indexInTransferRow, bValues, null, 0);
+                        copyIntToBytes(prevRow, indexInTransferRow, bValues, null, 0);
+
+                        // Encode the pixel values in the different encodings
+                        int length = xValues.length;
+                        for (int bytePtr = 0; bytePtr < length; bytePtr++)
+                        {
+                            int x = xValues[bytePtr] & 0xFF;
+                            int a = aValues[bytePtr] & 0xFF;
+                            int b = bValues[bytePtr] & 0xFF;
+                            int c = cValues[bytePtr] & 0xFF;
+                            dataRawRowNone[writerPtr] = (byte) x;
+                            dataRawRowSub[writerPtr] = pngFilterSub(x, a);
+                            dataRawRowUp[writerPtr] = pngFilterUp(x, b);
+                            dataRawRowAverage[writerPtr] = pngFilterAverage(x, a, b);
+                            dataRawRowPaeth[writerPtr] = pngFilterPaeth(x, a, b, c);
+                            writerPtr++;
+                        }
+
+                        //  We shift the values into the prev / upper left values for the next pixel
+                        System.arraycopy(xValues, 0, aValues, 0, bytesPerPixel);
+                        System.arraycopy(bValues, 0, cValues, 0, bytesPerPixel);
                     }
 
-                    // Encode the pixel values in the different encodings
-                    int length = xValues.length;
-                    for (int bytePtr = 0; bytePtr < length; bytePtr++)
-                    {
-                        int x = xValues[bytePtr] & 0xFF;
-                        int a = aValues[bytePtr] & 0xFF;
-                        int b = bValues[bytePtr] & 0xFF;
-                        int c = cValues[bytePtr] & 0xFF;
-                        dataRawRowNone[writerPtr] = (byte) x;
-                        dataRawRowSub[writerPtr] = pngFilterSub(x, a);
-                        dataRawRowUp[writerPtr] = pngFilterUp(x, b);
-                        dataRawRowAverage[writerPtr] = pngFilterAverage(x, a, b);
-                        dataRawRowPaeth[writerPtr] = pngFilterPaeth(x, a, b, c);
-                        writerPtr++;
-                    }
+                    byte[] rowToWrite = chooseDataRowToWrite();
+                    System.arraycopy(rowToWrite, 0, target, rowNum * dataRowByteCount,
+                        dataRowByteCount);
 
-                    //  We shift the values into the prev / upper left values for the next pixel
-                    System.arraycopy(xValues, 0, aValues, 0, bytesPerPixel);
-                    System.arraycopy(bValues, 0, cValues, 0, bytesPerPixel);
+                    // We swap prev and transfer row, so that we have the prev row for the next row.
+                    int[] temp = prevRow;
+                    prevRow = transferRow;
+                    transferRow = temp;
                 }
-
-                byte[] rowToWrite = chooseDataRowToWrite();
-
-                // Write and compress the row as long it is hot (CPU cache wise)
-                zip.write(rowToWrite, 0, rowToWrite.length);
-
-                // We swap prev and transfer row, so that we have the prev row for the next row.
-                int[] temp = prevRow;
-                prevRow = transferRow;
-                transferRow = temp;
             }
-            zip.close();
-            deflater.end();
 
-            return preparePredictorPDImage(stream, bytesPerComponent * 8);
+            /**
+             * We look which row encoding is the "best" one, ie. has the lowest sum. We don't
+             * implement anything fancier to choose the right row encoding. This is just the
+             * recommend algorithm in the spec. The get the perfect encoding you would need to do
+             * a brute force check how all the different encoded rows compress in the zip stream
+             * together. You have would have to check 5*image-height permutations...
+             *
+             * @return the "best" row encoding of the row encodings
+             */
+            private byte[] chooseDataRowToWrite()
+            {
+                byte[] rowToWrite = dataRawRowNone;
+                long estCompressSum = estCompressSum(dataRawRowNone);
+                long estCompressSumSub = estCompressSum(dataRawRowSub);
+                long estCompressSumUp = estCompressSum(dataRawRowUp);
+                long estCompressSumAvg = estCompressSum(dataRawRowAverage);
+                long estCompressSumPaeth = estCompressSum(dataRawRowPaeth);
+                if (estCompressSum > estCompressSumSub)
+                {
+                    rowToWrite = dataRawRowSub;
+                    estCompressSum = estCompressSumSub;
+                }
+                if (estCompressSum > estCompressSumUp)
+                {
+                    rowToWrite = dataRawRowUp;
+                    estCompressSum = estCompressSumUp;
+                }
+                if (estCompressSum > estCompressSumAvg)
+                {
+                    rowToWrite = dataRawRowAverage;
+                    estCompressSum = estCompressSumAvg;
+                }
+                if (estCompressSum > estCompressSumPaeth)
+                {
+                    rowToWrite = dataRawRowPaeth;
+                }
+                return rowToWrite;
+            }
         }
 
         private void copyIntToBytes(int[] transferRow, int indexInTranferRow, byte[] targetValues,
@@ -439,7 +879,7 @@ public final class LosslessFactory
 //        private static void copyShortsToBytes(short[] transferRow, int indexInTranferRow,
 //            byte[] targetValues, byte[] alphaImageData, int alphaPtr)
 
-        private PDImageXObject preparePredictorPDImage(ByteArrayOutputStream stream,
+        private PDImageXObject preparePredictorPDImage(byte[] encoded,
             int bitsPerComponent) throws IOException
         {
             int h = image.getHeight();
@@ -457,7 +897,7 @@ public final class LosslessFactory
 //            if (srcCspace instanceof ICC_ColorSpace) TODO: PdfBox-Android
 
             PDImageXObject imageXObject = new PDImageXObject(document,
-                new ByteArrayInputStream(stream.toByteArray()), COSName.FLATE_DECODE, w,
+                new ByteArrayInputStream(encoded), COSName.FLATE_DECODE, w,
                 h, bitsPerComponent, pdColorSpace);
 
             COSDictionary decodeParms = new COSDictionary();
@@ -469,51 +909,13 @@ public final class LosslessFactory
 
             if (hasAlpha) {
                 PDImageXObject pdMask = prepareImageXObject(document, alphaImageData,
-                    image.getWidth(), image.getHeight(), 8 * bytesPerComponent, PDDeviceGray.INSTANCE);
+                    image.getWidth(), image.getHeight(), 8 * bytesPerComponent, PDDeviceGray.INSTANCE,
+                    compressionLevel);
                 imageXObject.getCOSObject().setItem(COSName.SMASK, pdMask);
             }
             return imageXObject;
         }
 
-        /**
-         * We look which row encoding is the "best" one, ie. has the lowest sum. We don't implement
-         * anything fancier to choose the right row encoding. This is just the recommend algorithm
-         * in the spec. The get the perfect encoding you would need to do a brute force check how
-         * all the different encoded rows compress in the zip stream together. You have would have
-         * to check 5*image-height permutations...
-         *
-         * @return the "best" row encoding of the row encodings
-         */
-        private byte[] chooseDataRowToWrite()
-        {
-            byte[] rowToWrite = dataRawRowNone;
-            long estCompressSum = estCompressSum(dataRawRowNone);
-            long estCompressSumSub = estCompressSum(dataRawRowSub);
-            long estCompressSumUp = estCompressSum(dataRawRowUp);
-            long estCompressSumAvg = estCompressSum(dataRawRowAverage);
-            long estCompressSumPaeth = estCompressSum(dataRawRowPaeth);
-            if (estCompressSum > estCompressSumSub)
-            {
-                rowToWrite = dataRawRowSub;
-                estCompressSum = estCompressSumSub;
-            }
-            if (estCompressSum > estCompressSumUp)
-            {
-                rowToWrite = dataRawRowUp;
-                estCompressSum = estCompressSumUp;
-            }
-            if (estCompressSum > estCompressSumAvg)
-            {
-                rowToWrite = dataRawRowAverage;
-                estCompressSum = estCompressSumAvg;
-            }
-            if (estCompressSum > estCompressSumPaeth)
-            {
-                rowToWrite = dataRawRowPaeth;
-            }
-            return rowToWrite;
-        }
-
         /*
          * PNG Filters, see https://www.w3.org/TR/PNG-Filters.html
          */
@@ -18,6 +18,7 @@ package com.tom_roush.pdfbox.pdmodel.graphics.image;
 
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
@@ -26,16 +27,14 @@ import android.util.Log;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.nio.ByteBuffer;
 import java.util.Arrays;
 
-import com.tom_roush.harmony.javax.imageio.stream.ImageInputStream;
-import com.tom_roush.harmony.javax.imageio.stream.MemoryCacheImageInputStream;
 import com.tom_roush.pdfbox.cos.COSArray;
 import com.tom_roush.pdfbox.cos.COSNumber;
 import com.tom_roush.pdfbox.filter.DecodeOptions;
 import com.tom_roush.pdfbox.io.IOUtils;
 import com.tom_roush.pdfbox.pdmodel.graphics.color.PDColorSpace;
+import com.tom_roush.pdfbox.pdmodel.graphics.color.PDDeviceGray;
 
 /**
  * Reads a sampled image from a PDF file.
@@ -75,10 +74,10 @@ final class SampledImageReader
         // avoid getting a Bitmap for the mask to lessen memory footprint.
         // Such masks are always bpc=1 and have no colorspace, but have a decode.
         // (see 8.9.6.2 Stencil Masking)
-        ImageInputStream iis = null;
+        InputStream iis = null;
         try
         {
-            iis = new MemoryCacheImageInputStream(pdImage.createInputStream());
+            iis = pdImage.createInputStream();
             final float[] decode = getDecodeArray(pdImage);
             int value = decode[0] < decode[1] ? 1 : 0;
             int rowLen = width / 8;
@@ -90,7 +89,7 @@ final class SampledImageReader
             for (int y = 0; y < height; y++)
             {
                 int x = 0;
-                int readLen = iis.read(buff);
+                int readLen = (int) IOUtils.populateBuffer(iis, buff);
                 for (int r = 0; r < rowLen && r < readLen; r++)
                 {
                     int byteValue = buff[r];
@@ -156,7 +155,7 @@ final class SampledImageReader
             int y = Math.max(0, region.top);
             int width = Math.min(region.width(), pdImage.getWidth() - x);
             int height = Math.min(region.height(), pdImage.getHeight() - y);
-            return new Rect(x, y, width, height);
+            return new Rect(x, y, x + width, y + height);
         }
     }
 
@@ -208,9 +207,9 @@ final class SampledImageReader
             // in depth to 8bpc as they will be drawn to TYPE_INT_RGB images anyway. All code
             // in PDColorSpace#toRGBImage expects an 8-bit range, i.e. 0-255.
             final float[] defaultDecode = pdImage.getColorSpace().getDefaultDecode(8);
-            if (pdImage.getSuffix() != null && pdImage.getSuffix().equals("jpg") && subsampling == 1)
+            if (pdImage.getSuffix() != null && pdImage.getSuffix().equals("jpg"))
             {
-                return BitmapFactory.decodeStream(pdImage.createInputStream());
+                return fromJPEG(pdImage, clipped, subsampling, width, height);
             }
             else if (bitsPerComponent == 8 && Arrays.equals(decode, defaultDecode) &&
                 colorKey == null)
@@ -218,9 +217,7 @@ final class SampledImageReader
                 // convert image, faster path for non-decoded, non-colormasked 8-bit images
                 return from8bit(pdImage, clipped, subsampling, width, height);
             }
-            Log.e("PdfBox-Android", "Trying to create other-bit image not supported");
-//        return fromAny(pdImage, colorKey, clipped, subsampling, width, height);
-            return from8bit(pdImage, clipped, subsampling, width, height);
+            return fromAny(pdImage, colorKey, clipped, subsampling, width, height);
         }
         catch (NegativeArraySizeException ex)
         {
@@ -228,6 +225,54 @@ final class SampledImageReader
         }
     }
 
+    // JPEG images are decoded by Android, which decodes only the requested region and skips the
+    // detail that isn't needed for a subsampled image, instead of decoding the full image first
+    private static Bitmap fromJPEG(PDImage pdImage, Rect clipped, int subsampling,
+        int width, int height) throws IOException
+    {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        // the decoder supports powers of 2 only
+        options.inSampleSize = Integer.highestOneBit(subsampling);
+        InputStream input = pdImage.createInputStream();
+        Bitmap image;
+        try
+        {
+            if (clipped.left == 0 && clipped.top == 0 && clipped.width() == pdImage.getWidth()
+                && clipped.height() == pdImage.getHeight())
+            {
+                image = BitmapFactory.decodeStream(input, null, options);
+            }
+            else
+            {
+                BitmapRegionDecoder decoder = BitmapRegionDecoder.newInstance(input, false);
+                try
+                {
+                    image = decoder.decodeRegion(clipped, options);
+                }
+                finally
+                {
+                    decoder.recycle();
+                }
+            }
+        }
+        finally
+        {
+            IOUtils.closeQuietly(input);
+        }
+        if (image != null && options.inSampleSize != subsampling
+            && (image.getWidth() != width || image.getHeight() != height))
+        {
+            // reduce the remaining factor, which is less than 2
+            Bitmap scaled = Bitmap.createScaledBitmap(image, width, height, true);
+            if (scaled != image)
+            {
+                image.recycle();
+            }
+            image = scaled;
+        }
+        return image;
+    }
+
 //    public static WritableRaster getRawRaster(PDImage pdImage) throws IOException TODO: PdfBox-Android
 
 //    private static void readRasterFromAny(PDImage pdImage, WritableRaster raster) TODO: PdfBox-Android
@@ -238,10 +283,11 @@ final class SampledImageReader
         int currentSubsampling = subsampling;
         final PDColorSpace colorSpace = pdImage.getColorSpace();
         final float[] decode = getDecodeArray(pdImage);
-        Bitmap raster = Bitmap.createBitmap(width, height, Bitmap.Config.ALPHA_8);
-        ByteBuffer buffer = ByteBuffer.allocate(raster.getRowBytes() * height);
-        raster.copyPixelsToBuffer(buffer);
-        byte[] output;
+        // gray images are written directly into the final image, other color spaces convert
+        // an alpha raster of the same size
+        final boolean isGray = colorSpace instanceof PDDeviceGray;
+        Bitmap raster = Bitmap.createBitmap(width, height,
+            isGray ? Bitmap.Config.ARGB_8888 : Bitmap.Config.ALPHA_8);
 
         DecodeOptions options = new DecodeOptions(currentSubsampling);
         options.setSourceRegion(clipped);
@@ -276,7 +322,6 @@ final class SampledImageReader
                 scanWidth = clipped.width();
                 scanHeight = clipped.height();
             }
-            output = buffer.array();
             final boolean isIndexed = false; // colorSpace instanceof PDIndexed; TODO: PdfBox-Android
 
             int rowLen = inputWidth / 8;
@@ -286,59 +331,49 @@ final class SampledImageReader
             }
 
             // read stream
-            byte value0;
-            byte value1;
+            int value0;
+            int value1;
             if (isIndexed || decode[0] < decode[1])
             {
                 value0 = 0;
-                value1 = (byte) 255;
+                value1 = 255;
             }
             else
             {
-                value0 = (byte) 255;
+                value0 = 255;
                 value1 = 0;
             }
+            int pixel0 = isGray ? Color.argb(255, value0, value0, value0) : Color.argb(value0, 0, 0, 0);
+            int pixel1 = isGray ? Color.argb(255, value1, value1, value1) : Color.argb(value1, 0, 0, 0);
             byte[] buff = new byte[rowLen];
-            int idx = 0;
-            for (int y = 0; y < starty + scanHeight; y++)
+            int[] row = new int[width];
+            int outY = 0;
+            for (int y = 0; y < starty + scanHeight && outY < height; y++)
             {
-                int x = 0;
-                int readLen = (int) IOUtils.populateBuffer(iis, buff);
-                if (y < starty || y % currentSubsampling > 0)
+                // rows which aren't needed are skipped, so that a decoder can avoid unpacking them
+                boolean skipRow = y < starty || y % currentSubsampling > 0;
+                int readLen = skipRow ? (int) skipRow(iis, buff)
+                    : (int) IOUtils.populateBuffer(iis, buff);
+                if (readLen != rowLen)
                 {
-                    continue;
+                    Log.w("PdfBox-Android", "premature EOF, image will be incomplete");
+                    break;
                 }
-                for (int r = 0; r < rowLen && r < readLen; r++)
+                if (skipRow)
                 {
-                    int value = buff[r];
-                    int mask = 128;
-                    for (int i = 0; i < 8; i++)
-                    {
-                        if (x >= startx + scanWidth)
-                        {
-                            break;
-                        }
-                        int bit = value & mask;
-                        mask >>= 1;
-                        if (x >= startx && x % currentSubsampling == 0)
-                        {
-                            output[idx++] = bit == 0 ? value0 : value1;
-                        }
-                        x++;
-                    }
+                    continue;
                 }
-                if (readLen != rowLen)
+                int i = 0;
+                for (int x = startx; x < startx + scanWidth && i < width; x += currentSubsampling)
                 {
-                    Log.w("PdfBox-Android", "premature EOF, image will be incomplete");
-                    break;
+                    int bit = buff[x >> 3] & 0x80 >> (x & 7);
+                    row[i++] = bit == 0 ? pixel0 : pixel1;
                 }
+                raster.setPixels(row, 0, width, 0, outY++, width, 1);
             }
 
-            buffer.rewind();
-            raster.copyPixelsFromBuffer(buffer);
-
             // use the color space to convert the image to RGB
-            return colorSpace.toRGBImage(raster);
+            return isGray ? raster : colorSpace.toRGBImage(raster);
         }
         finally
         {
@@ -349,6 +384,27 @@ final class SampledImageReader
         }
     }
 
+    // skips a row, returns the number of bytes skipped
+    private static long skipRow(InputStream input, byte[] buff) throws IOException
+    {
+        long skipped = 0;
+        while (skipped < buff.length)
+        {
+            long n = input.skip(buff.length - skipped);
+            if (n <= 0)
+            {
+                // skip() doesn't have to make progress, read instead
+                n = input.read(buff, 0, (int) (buff.length - skipped));
+                if (n == -1)
+                {
+                    break;
+                }
+            }
+            skipped += n;
+        }
+        return skipped;
+    }
+
     // faster, 8-bit non-decoded, non-colormasked image conversion
     private static Bitmap from8bit(PDImage pdImage, Rect clipped, final int subsampling,
         final int width, final int height) throws IOException
@@ -384,40 +440,42 @@ final class SampledImageReader
                 scanHeight = clipped.height();
             }
             final int numComponents = pdImage.getColorSpace().getNumberOfComponents();
-            // get the raster's underlying byte buffer
-            int[] banks = new int[width * height];
-//            byte[][] banks = ((DataBufferByte) raster.getDataBuffer()).getBankData();
+            // the rows are written into the image one at a time, so that only the image of the
+            // final size and a row of the source are held in memory
+            Bitmap raster = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            int[] row = new int[width];
             byte[] tempBytes = new byte[numComponents * inputWidth];
-            // compromise between memory and time usage:
-            // reading the whole image consumes too much memory
-            // reading one pixel at a time makes it slow in our buffering infrastructure 
-            int i = 0;
-            for (int y = 0; y < starty + scanHeight; ++y)
+            int outY = 0;
+            for (int y = 0; y < starty + scanHeight && outY < height; ++y)
             {
-                IOUtils.populateBuffer(input, tempBytes);
+                if (IOUtils.populateBuffer(input, tempBytes) != tempBytes.length)
+                {
+                    Log.w("PdfBox-Android", "premature EOF, image will be incomplete");
+                    break;
+                }
                 if (y < starty || y % currentSubsampling > 0)
                 {
                     continue;
                 }
 
-                for (int x = startx; x < startx + scanWidth; x += currentSubsampling)
+                int i = 0;
+                for (int x = startx; x < startx + scanWidth && i < width; x += currentSubsampling)
                 {
                     int tempBytesIdx = x * numComponents;
                     if (numComponents == 3)
                     {
-                        banks[i] = Color.argb(255, tempBytes[tempBytesIdx] & 0xFF,
+                        row[i] = Color.argb(255, tempBytes[tempBytesIdx] & 0xFF,
                             tempBytes[tempBytesIdx + 1] & 0xFF, tempBytes[tempBytesIdx + 2] & 0xFF);
                     }
                     else if (numComponents == 1)
                     {
                         int in = tempBytes[tempBytesIdx] & 0xFF;
-                        banks[i] = Color.argb(in, in, in, in);
+                        row[i] = Color.argb(in, in, in, in);
                     }
                     ++i;
                 }
+                raster.setPixels(row, 0, width, 0, outY++, width, 1);
             }
-            Bitmap raster = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
-            raster.setPixels(banks, 0, width, 0 ,0, width, height);
 
             // use the color space to convert the image to RGB
 //            return pdImage.getColorSpace().toRGBImage(raster); TODO: PdfBox-Android
@@ -429,12 +487,175 @@ final class SampledImageReader
         }
     }
 
-    // slower, general-purpose image conversion from any image format
-//    private static BufferedImage fromAny(PDImage pdImage, WritableRaster raster, COSArray colorKey, Rectangle clipped,
-//        final int subsampling, final int width, final int height) TODO: Pdfbox-Android
+    // slower, general-purpose image conversion from any image format, with decode array and
+    // color key mask: the samples are unpacked, decoded and masked one row at a time
+    private static Bitmap fromAny(PDImage pdImage, COSArray colorKey, Rect clipped,
+        final int subsampling, final int width, final int height) throws IOException
+    {
+        int currentSubsampling = subsampling;
+        final PDColorSpace colorSpace = pdImage.getColorSpace();
+        final int numComponents = colorSpace.getNumberOfComponents();
+        final int bitsPerComponent = pdImage.getBitsPerComponent();
+        final float[] decode = getDecodeArray(pdImage);
 
-    // color key mask: RGB + Binary -> ARGB
-//    private static BufferedImage applyColorKeyMask(BufferedImage image, BufferedImage mask) TODO: PdfBox-Android
+        DecodeOptions options = new DecodeOptions(currentSubsampling);
+        options.setSourceRegion(clipped);
+        InputStream input = pdImage.createInputStream(options);
+        try
+        {
+            final int inputWidth;
+            final int startx;
+            final int starty;
+            final int scanWidth;
+            final int scanHeight;
+            if (options.isFilterSubsampled())
+            {
+                // Decode options were honored, and so there is no need for additional clipping or subsampling
+                inputWidth = width;
+                startx = 0;
+                starty = 0;
+                scanWidth = width;
+                scanHeight = height;
+                currentSubsampling = 1;
+            }
+            else
+            {
+                // Decode options not honored, so we need to clip and subsample ourselves.
+                inputWidth = pdImage.getWidth();
+                startx = clipped.left;
+                starty = clipped.top;
+                scanWidth = clipped.width();
+                scanHeight = clipped.height();
+            }
+
+            // the decode array is applied to samples reduced to 8 bits with a lookup table
+            final int maxSample = (1 << Math.min(bitsPerComponent, 8)) - 1;
+            final int[][] lookup = new int[numComponents][maxSample + 1];
+            for (int c = 0; c < numComponents; c++)
+            {
+                float dMin = decode.length > c * 2 + 1 ? decode[c * 2] : 0;
+                float dMax = decode.length > c * 2 + 1 ? decode[c * 2 + 1] : 1;
+                for (int s = 0; s <= maxSample; s++)
+                {
+                    float value = dMin + s * (dMax - dMin) / maxSample;
+                    lookup[c][s] = Math.round(Math.max(0, Math.min(1, value)) * 255);
+                }
+            }
+            final int[] colorKeyRanges = getColorKeyRanges(colorKey, numComponents);
+
+            final int rowLen = (inputWidth * numComponents * bitsPerComponent + 7) / 8;
+            byte[] buff = new byte[rowLen];
+            int[] raw = new int[numComponents];
+            int[] samples = new int[numComponents];
+            float[] components = new float[numComponents];
+            int[] row = new int[width];
+            Bitmap raster = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            int outY = 0;
+            for (int y = 0; y < starty + scanHeight && outY < height; y++)
+            {
+                int readLen = (int) IOUtils.populateBuffer(input, buff);
+                if (readLen != rowLen)
+                {
+                    Log.w("PdfBox-Android", "premature EOF, image will be incomplete");
+                    break;
+                }
+                if (y < starty || y % currentSubsampling > 0)
+                {
+                    continue;
+                }
+                int i = 0;
+                for (int x = startx; x < startx + scanWidth && i < width; x += currentSubsampling)
+                {
+                    long bitPos = (long) x * numComponents * bitsPerComponent;
+                    for (int c = 0; c < numComponents; c++)
+                    {
+                        raw[c] = readSample(buff, bitPos, bitsPerComponent);
+                        samples[c] = lookup[c][bitsPerComponent > 8 ? raw[c] >> (bitsPerComponent - 8) : raw[c]];
+                        bitPos += bitsPerComponent;
+                    }
+                    int alpha = isColorKeyed(raw, colorKeyRanges) ? 0 : 255;
+                    if (numComponents == 3)
+                    {
+                        row[i] = Color.argb(alpha, samples[0], samples[1], samples[2]);
+                    }
+                    else if (numComponents == 1)
+                    {
+                        // same convention as for 8-bit gray images
+                        row[i] = Color.argb(Math.min(alpha, samples[0]), samples[0], samples[0], samples[0]);
+                    }
+                    else
+                    {
+                        for (int c = 0; c < numComponents; c++)
+                        {
+                            components[c] = samples[c] / 255f;
+                        }
+                        float[] rgb = colorSpace.toRGB(components);
+                        row[i] = Color.argb(alpha, Math.round(rgb[0] * 255),
+                            Math.round(rgb[1] * 255), Math.round(rgb[2] * 255));
+                    }
+                    i++;
+                }
+                raster.setPixels(row, 0, width, 0, outY++, width, 1);
+            }
+            return raster;
+        }
+        finally
+        {
+            IOUtils.closeQuietly(input);
+        }
+    }
+
+    // reads a sample of 1, 2, 4, 8 or 16 bits, samples don't cross byte boundaries otherwise
+    private static int readSample(byte[] buff, long bitPos, int bitsPerComponent)
+    {
+        int pos = (int) (bitPos >> 3);
+        if (bitsPerComponent == 8)
+        {
+            return buff[pos] & 0xff;
+        }
+        if (bitsPerComponent == 16)
+        {
+            return (buff[pos] & 0xff) << 8 | buff[pos + 1] & 0xff;
+        }
+        int shift = 8 - (int) (bitPos & 7) - bitsPerComponent;
+        return (buff[pos] >> shift) & ((1 << bitsPerComponent) - 1);
+    }
+
+    // color key mask: the min and max sample of each component, or null
+    private static int[] getColorKeyRanges(COSArray colorKey, int numComponents)
+    {
+        if (colorKey == null)
+        {
+            return null;
+        }
+        float[] values = colorKey.toFloatArray();
+        if (values.length < numComponents * 2)
+        {
+            return null;
+        }
+        int[] ranges = new int[numComponents * 2];
+        for (int i = 0; i < ranges.length; i++)
+        {
+            ranges[i] = Math.round(values[i]);
+        }
+        return ranges;
+    }
+
+    private static boolean isColorKeyed(int[] raw, int[] colorKeyRanges)
+    {
+        if (colorKeyRanges == null)
+        {
+            return false;
+        }
+        for (int c = 0; c < raw.length; c++)
+        {
+            if (raw[c] < colorKeyRanges[c * 2] || raw[c] > colorKeyRanges[c * 2 + 1])
+            {
+                return false;
+            }
+        }
+        return true;
+    }
 
     // gets decode array from dictionary or returns default
     private static float[] getDecodeArray(PDImage pdImage) throws IOException
@@ -22,6 +22,10 @@ import android.graphics.Rect;
 import android.graphics.RectF;
 import android.graphics.Region;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 import com.tom_roush.pdfbox.cos.COSBase;
 import com.tom_roush.pdfbox.pdmodel.common.PDRectangle;
 import com.tom_roush.pdfbox.pdmodel.graphics.PDLineDashPattern;
@@ -40,6 +44,7 @@ public class PDGraphicsState implements Cloneable
 {
     private boolean isClippingPathDirty;
     private Region clippingPath;
+    private List<Path> clippingPaths = Collections.emptyList();
     private Matrix currentTransformationMatrix = new Matrix();
     private PDColor strokingColor = PDDeviceGray.INSTANCE.getInitialColor();
     private PDColor nonStrokingColor = PDDeviceGray.INSTANCE.getInitialColor();
@@ -608,6 +613,12 @@ public class PDGraphicsState implements Cloneable
         r.setPath(path, new Region(boundsRounded));
         intersectClippingPath(r);
         // TODO: PdfBox-Android Verify correct behavior
+
+        // the list is shared with clones, so it is copied instead of modified
+        List<Path> paths = new ArrayList<Path>(clippingPaths.size() + 1);
+        paths.addAll(clippingPaths);
+        paths.add(new Path(path));
+        clippingPaths = Collections.unmodifiableList(paths);
     }
 
     /**
@@ -641,6 +652,18 @@ public class PDGraphicsState implements Cloneable
         return clippingPath;
     }
 
+    /**
+     * Returns the paths which were intersected with the clipping path of the page by
+     * {@link #intersectClippingPath(Path)}, at full precision. The clipping area is the
+     * intersection of all of them and the page. Do not modify these paths!
+     *
+     * @return The clipping paths, never null.
+     */
+    public List<Path> getCurrentClippingPaths()
+    {
+        return clippingPaths;
+    }
+
 //    public Composite getStrokingJavaComposite() TODO: PdfBox-Android
 
 //    public Composite getNonStrokingJavaComposite() TODO: PdfBox-Android
@@ -0,0 +1,162 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tom_roush.pdfbox.rendering;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A pool of bitmaps for the temporary buffers of the renderer, e.g. for blend modes and transfer
+ * functions, so that rendering many pages of the same size doesn't allocate these buffers again
+ * and again. Bitmaps are reused only with the same width, height and config. The total size of
+ * the idle bitmaps is limited; when it is exceeded, the bitmaps which were released first are
+ * dropped. The pool can be shared by several renderers and threads.
+ */
+public final class BitmapPool
+{
+    private final long maxBytes;
+    private final Map<String, Deque<Bitmap>> idle = new LinkedHashMap<String, Deque<Bitmap>>(16,
+        0.75f, true);
+    private long idleBytes;
+
+    /**
+     * Creates a pool.
+     *
+     * @param maxBytes the maximum number of bytes of the idle bitmaps
+     */
+    public BitmapPool(long maxBytes)
+    {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Returns a mutable bitmap of the given size and config, cleared to transparent. It is
+     * taken from the pool if possible, and created otherwise.
+     *
+     * @param width the width
+     * @param height the height
+     * @param config the config
+     * @return the bitmap
+     */
+    public Bitmap acquire(int width, int height, Bitmap.Config config)
+    {
+        Bitmap bitmap = null;
+        synchronized (this)
+        {
+            Deque<Bitmap> bitmaps = idle.get(key(width, height, config));
+            if (bitmaps != null)
+            {
+                bitmap = bitmaps.poll();
+                if (bitmap != null)
+                {
+                    idleBytes -= bitmap.getByteCount();
+                }
+            }
+        }
+        if (bitmap == null)
+        {
+            return Bitmap.createBitmap(width, height, config);
+        }
+        bitmap.eraseColor(Color.TRANSPARENT);
+        return bitmap;
+    }
+
+    /**
+     * Returns a bitmap to the pool. It must not be used by the caller afterwards. Immutable
+     * and recycled bitmaps are ignored.
+     *
+     * @param bitmap the bitmap, may be null
+     */
+    public void release(Bitmap bitmap)
+    {
+        if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable())
+        {
+            return;
+        }
+        int bytes = bitmap.getByteCount();
+        if (bytes > maxBytes)
+        {
+            return;
+        }
+        synchronized (this)
+        {
+            String key = key(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig());
+            Deque<Bitmap> bitmaps = idle.get(key);
+            if (bitmaps == null)
+            {
+                bitmaps = new ArrayDeque<Bitmap>();
+                idle.put(key, bitmaps);
+            }
+            for (Bitmap b : bitmaps)
+            {
+                if (b == bitmap)
+                {
+                    return;
+                }
+            }
+            bitmaps.push(bitmap);
+            idleBytes += bytes;
+            trim();
+        }
+    }
+
+    /**
+     * Drops all idle bitmaps.
+     */
+    public synchronized void clear()
+    {
+        idle.clear();
+        idleBytes = 0;
+    }
+
+    /**
+     * Returns the number of bytes of the idle bitmaps.
+     */
+    public synchronized long getIdleBytes()
+    {
+        return idleBytes;
+    }
+
+    // drops the oldest bitmaps of the least recently used sizes
+    private void trim()
+    {
+        Iterator<Deque<Bitmap>> iterator = idle.values().iterator();
+        while (idleBytes > maxBytes && iterator.hasNext())
+        {
+            Deque<Bitmap> bitmaps = iterator.next();
+            while (idleBytes > maxBytes && !bitmaps.isEmpty())
+            {
+                idleBytes -= bitmaps.removeLast().getByteCount();
+            }
+            if (bitmaps.isEmpty())
+            {
+                iterator.remove();
+            }
+        }
+    }
+
+    private static String key(int width, int height, Bitmap.Config config)
+    {
+        return width + "x" + height + "/" + config;
+    }
+}
@@ -0,0 +1,307 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tom_roush.pdfbox.rendering;
+
+import android.graphics.LinearGradient;
+import android.graphics.Path;
+import android.graphics.RadialGradient;
+import android.graphics.Shader;
+
+import java.io.IOException;
+
+import com.tom_roush.pdfbox.cos.COSArray;
+import com.tom_roush.pdfbox.cos.COSBase;
+import com.tom_roush.pdfbox.cos.COSBoolean;
+import com.tom_roush.pdfbox.cos.COSNumber;
+import com.tom_roush.pdfbox.pdmodel.graphics.shading.PDShading;
+import com.tom_roush.pdfbox.pdmodel.graphics.shading.PDShadingType2;
+
+/**
+ * Paints axial (type 2) and radial (type 3) shadings. Axial shadings and radial shadings with
+ * concentric circles are drawn by Android's gradient shaders, other radial shadings are
+ * rasterized per pixel. The colors come from a {@link ShadingLookupTable} in both cases, so that
+ * the shading function isn't evaluated per pixel.
+ *
+ * <p>All coordinates are in the shading space, i.e. before the matrix of the {@code sh} operator
+ * or the shading pattern is applied.
+ */
+final class GradientShading
+{
+    private final ShadingLookupTable lookupTable;
+    private final boolean radial;
+    private final double x0;
+    private final double y0;
+    private final double r0;
+    private final double x1;
+    private final double y1;
+    private final double r1;
+    private final boolean extendStart;
+    private final boolean extendEnd;
+
+    /**
+     * Creates the painter for the given shading.
+     *
+     * @param shading an axial or radial shading
+     * @param lookupTable the colors of the shading function over its domain, see
+     * {@link #getDomain(PDShadingType2)}
+     * @throws IOException if the coordinates of the shading are invalid
+     */
+    GradientShading(PDShadingType2 shading, ShadingLookupTable lookupTable) throws IOException
+    {
+        this.lookupTable = lookupTable;
+        radial = shading.getShadingType() == PDShading.SHADING_TYPE3;
+        COSArray coordsArray = shading.getCoords();
+        int count = radial ? 6 : 4;
+        if (coordsArray == null || coordsArray.size() < count)
+        {
+            throw new IOException("Shading needs " + count + " coordinates: " + coordsArray);
+        }
+        float[] coords = coordsArray.toFloatArray();
+        x0 = coords[0];
+        y0 = coords[1];
+        r0 = radial ? coords[2] : 0;
+        x1 = radial ? coords[3] : coords[2];
+        y1 = radial ? coords[4] : coords[3];
+        r1 = radial ? coords[5] : 0;
+        COSArray extend = shading.getExtend();
+        extendStart = isTrue(extend, 0);
+        extendEnd = isTrue(extend, 1);
+    }
+
+    /**
+     * Returns the domain of the shading function, [0 1] by default.
+     */
+    static float[] getDomain(PDShadingType2 shading)
+    {
+        COSArray domain = shading.getDomain();
+        if (domain != null && domain.size() >= 2 && domain.getObject(0) instanceof COSNumber &&
+            domain.getObject(1) instanceof COSNumber)
+        {
+            return new float[] { ((COSNumber) domain.getObject(0)).floatValue(),
+                ((COSNumber) domain.getObject(1)).floatValue() };
+        }
+        return new float[] { 0, 1 };
+    }
+
+    private static boolean isTrue(COSArray array, int index)
+    {
+        if (array == null || array.size() <= index)
+        {
+            return false;
+        }
+        COSBase value = array.getObject(index);
+        return value instanceof COSBoolean && ((COSBoolean) value).getValue();
+    }
+
+    /**
+     * Returns true if the shading paints nothing, i.e. the axis has length 0, or the circles are
+     * the same.
+     */
+    boolean isEmpty()
+    {
+        return x0 == x1 && y0 == y1 && r0 == r1;
+    }
+
+    /**
+     * Returns true if the shading can be drawn by {@link #createShader()}, false if it must be
+     * rasterized.
+     */
+    boolean canUseShader()
+    {
+        return !isEmpty() && (!radial || x0 == x1 && y0 == y1);
+    }
+
+    /**
+     * Returns the shader for the shading, which paints the extended shading everywhere; the
+     * area where the shading isn't extended must be excluded with {@link #createShape(float)}.
+     */
+    Shader createShader()
+    {
+        int[] colors = lookupTable.getColors();
+        if (!radial)
+        {
+            return new LinearGradient((float) x0, (float) y0, (float) x1, (float) y1, colors,
+                null, Shader.TileMode.CLAMP);
+        }
+        // concentric circles, the positions are fractions of the larger radius
+        double radius = Math.max(r0, r1);
+        int size = colors.length;
+        int[] sortedColors = new int[size];
+        float[] positions = new float[size];
+        for (int i = 0; i < size; i++)
+        {
+            // the positions must increase, so colors go from the smaller circle to the larger
+            int index = r0 < r1 ? i : size - 1 - i;
+            sortedColors[i] = colors[index];
+            positions[i] = (float) ((r0 + (r1 - r0) * index / (size - 1)) / radius);
+        }
+        return new RadialGradient((float) x0, (float) y0, (float) radius, sortedColors,
+            positions, Shader.TileMode.CLAMP);
+    }
+
+    /**
+     * Returns the area which the shading paints, with the extensions reaching at least the given
+     * distance from the shading's coordinates.
+     *
+     * @param extent the extent, see {@link #getExtent(float[])}
+     * @return the path in shading space
+     */
+    Path createShape(float extent)
+    {
+        Path path = new Path();
+        if (!radial)
+        {
+            double length = Math.hypot(x1 - x0, y1 - y0);
+            double ux = (x1 - x0) / length;
+            double uy = (y1 - y0) / length;
+            double start = extendStart ? -extent : 0;
+            double end = extendEnd ? length + extent : length;
+            // perpendicular to the axis
+            double nx = -uy * extent;
+            double ny = ux * extent;
+            path.moveTo((float) (x0 + ux * start + nx), (float) (y0 + uy * start + ny));
+            path.lineTo((float) (x0 + ux * end + nx), (float) (y0 + uy * end + ny));
+            path.lineTo((float) (x0 + ux * end - nx), (float) (y0 + uy * end - ny));
+            path.lineTo((float) (x0 + ux * start - nx), (float) (y0 + uy * start - ny));
+            path.close();
+            return path;
+        }
+        double inner = Math.min(r0, r1);
+        double outer = Math.max(r0, r1);
+        boolean extendInner = r0 < r1 ? extendStart : extendEnd;
+        boolean extendOuter = r0 < r1 ? extendEnd : extendStart;
+        path.addCircle((float) x0, (float) y0,
+            (float) (extendOuter ? Math.max(outer, extent) : outer), Path.Direction.CW);
+        if (!extendInner && inner > 0)
+        {
+            path.addCircle((float) x0, (float) y0, (float) inner, Path.Direction.CW);
+            path.setFillType(Path.FillType.EVEN_ODD);
+        }
+        return path;
+    }
+
+    /**
+     * Returns a distance from the shading's coordinates which reaches beyond all of the given
+     * points.
+     *
+     * @param points x and y coordinates of points in shading space
+     * @return the distance
+     */
+    float getExtent(float[] points)
+    {
+        double max = 0;
+        for (int i = 0; i + 1 < points.length; i += 2)
+        {
+            max = Math.max(max, Math.hypot(points[i] - x0, points[i + 1] - y0));
+        }
+        return (float) (max + Math.hypot(x1 - x0, y1 - y0) + Math.max(r0, r1) + 1);
+    }
+
+    /**
+     * Returns the position of the given point in the shading, between 0 (start) and 1 (end), or
+     * NaN if the shading doesn't paint it.
+     *
+     * @param x the x coordinate in shading space
+     * @param y the y coordinate in shading space
+     * @return the position or NaN
+     */
+    float getPosition(double x, double y)
+    {
+        double s;
+        if (!radial)
+        {
+            double dx = x1 - x0;
+            double dy = y1 - y0;
+            double lengthSquared = dx * dx + dy * dy;
+            if (lengthSquared == 0)
+            {
+                return Float.NaN;
+            }
+            s = ((x - x0) * dx + (y - y0) * dy) / lengthSquared;
+            return isValid(s) ? clamp(s) : Float.NaN;
+        }
+
+        // find the largest s for which the point is on the circle with center
+        // c0 + s * (c1 - c0) and radius r0 + s * (r1 - r0) >= 0,
+        // i.e. solve a * s^2 - 2 * b * s + c = 0
+        double cdx = x1 - x0;
+        double cdy = y1 - y0;
+        double dr = r1 - r0;
+        double pdx = x - x0;
+        double pdy = y - y0;
+        double a = cdx * cdx + cdy * cdy - dr * dr;
+        double b = pdx * cdx + pdy * cdy + r0 * dr;
+        double c = pdx * pdx + pdy * pdy - r0 * r0;
+        if (Math.abs(a) < 1e-9)
+        {
+            if (b == 0)
+            {
+                return Float.NaN;
+            }
+            s = c / (2 * b);
+            return isValid(s) ? clamp(s) : Float.NaN;
+        }
+        double discriminant = b * b - a * c;
+        if (discriminant < 0)
+        {
+            return Float.NaN;
+        }
+        double root = Math.sqrt(discriminant);
+        double s1 = (b + root) / a;
+        double s2 = (b - root) / a;
+        if (s1 < s2)
+        {
+            double swap = s1;
+            s1 = s2;
+            s2 = swap;
+        }
+        if (isValid(s1))
+        {
+            return clamp(s1);
+        }
+        return isValid(s2) ? clamp(s2) : Float.NaN;
+    }
+
+    private boolean isValid(double s)
+    {
+        return (s >= 0 || extendStart) && (s <= 1 || extendEnd) && r0 + s * (r1 - r0) >= 0;
+    }
+
+    private static float clamp(double s)
+    {
+        return s < 0 ? 0 : (s > 1 ? 1 : (float) s);
+    }
+
+    /**
+     * Rasterizes a row of pixels. Pixels which the shading doesn't paint are transparent.
+     *
+     * @param row the packed ARGB values to fill
+     * @param width the number of pixels
+     * @param x the x coordinate of the center of the first pixel in shading space
+     * @param y the y coordinate of the center of the first pixel in shading space
+     * @param dx the x distance of neighbouring pixels in shading space
+     * @param dy the y distance of neighbouring pixels in shading space
+     */
+    void rasterizeRow(int[] row, int width, double x, double y, double dx, double dy)
+    {
+        for (int i = 0; i < width; i++)
+        {
+            float s = getPosition(x + i * dx, y + i * dy);
+            row[i] = Float.isNaN(s) ? 0 : lookupTable.getColor(s);
+        }
+    }
+}
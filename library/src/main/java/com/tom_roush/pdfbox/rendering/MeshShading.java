@@ -0,0 +1,844 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tom_roush.pdfbox.rendering;
+
+import android.graphics.RectF;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.tom_roush.harmony.awt.geom.AffineTransform;
+import com.tom_roush.harmony.javax.imageio.stream.ImageInputStream;
+import com.tom_roush.harmony.javax.imageio.stream.MemoryCacheImageInputStream;
+import com.tom_roush.pdfbox.cos.COSArray;
+import com.tom_roush.pdfbox.cos.COSBase;
+import com.tom_roush.pdfbox.cos.COSDictionary;
+import com.tom_roush.pdfbox.cos.COSName;
+import com.tom_roush.pdfbox.cos.COSStream;
+import com.tom_roush.pdfbox.io.IOUtils;
+import com.tom_roush.pdfbox.pdmodel.graphics.color.PDColorSpace;
+import com.tom_roush.pdfbox.pdmodel.graphics.shading.PDShading;
+
+/**
+ * Paints free-form (type 4) and lattice-form (type 5) triangle meshes, and Coons (type 6) and
+ * tensor-product (type 7) patch meshes. The mesh data is decoded once; each patch is divided
+ * into triangles at a level of detail chosen from its own size on the device, so that the number
+ * of triangles grows with the device area of the mesh. The most recent division is kept if it is
+ * small, so that rendering again at the same scale doesn't repeat the work. The triangles are
+ * filled
+ * with Gouraud shading, i.e. the colors of the vertices are interpolated linearly; if the
+ * shading has a function, its parameter is interpolated and the color comes from a
+ * {@link ShadingLookupTable}.
+ *
+ * <p>All coordinates are in the shading space, i.e. before the matrix of the {@code sh} operator
+ * or the shading pattern is applied.
+ */
+final class MeshShading
+{
+    // patches are divided into at most 2^MAX_LEVEL x 2^MAX_LEVEL cells
+    private static final int MAX_LEVEL = 6;
+
+    // the level of detail aims at cells of about this many device pixels
+    private static final float CELL_SIZE = 4;
+
+    // the triangles of patch meshes are kept only up to this many floats, i.e. 1 MB
+    private static final int MAX_CACHED_FLOATS = 1 << 18;
+
+    // the indices of the control points of a patch in the order of the mesh data, on a
+    // 4 x 4 grid where p(i, j) has the index 4 * i + j
+    private static final int[] GRID_INDICES = { 0, 1, 2, 3, 7, 11, 15, 14, 13, 12, 8, 4,
+        5, 6, 10, 9 };
+
+    private final PDColorSpace colorSpace;
+    private final ShadingLookupTable lookupTable;
+    private final float t0;
+    private final float t1;
+    // 1 for the normalized function parameter, 3 for red, green and blue
+    private final int channels;
+    // 2 coordinates and the channels per vertex, 3 vertices per triangle
+    private final int stride;
+    // the triangles of a triangle mesh, null for patch meshes
+    private final float[] triangles;
+    // the 16 control points on the 4 x 4 grid and the 4 corner colors of each patch
+    private final List<float[]> patchPoints = new ArrayList<float[]>();
+    private final List<float[][]> patchColors = new ArrayList<float[][]>();
+    // the most recent triangles of a patch mesh and the levels of detail of its patches
+    private int[] cachedLevels;
+    private float[] cachedTriangles;
+    private final RectF bounds = new RectF();
+    private boolean hasBounds;
+
+    /**
+     * Decodes the mesh of the given shading.
+     *
+     * @param shading a shading of type 4, 5, 6 or 7
+     * @param lookupTable the colors of the shading function over the range of its parameter,
+     * see {@link #getParameterRange(PDShading)}, or null if the shading has no function
+     * @throws IOException if the mesh data can't be read or is invalid
+     */
+    MeshShading(PDShading shading, ShadingLookupTable lookupTable) throws IOException
+    {
+        this.lookupTable = lookupTable;
+        colorSpace = shading.getColorSpace();
+        channels = lookupTable != null ? 1 : 3;
+        stride = 2 + channels;
+
+        COSDictionary dictionary = shading.getCOSObject();
+        if (!(dictionary instanceof COSStream))
+        {
+            throw new IOException("Shading type " + shading.getShadingType() +
+                " needs a stream");
+        }
+        float[] decode = getDecode(dictionary);
+        int components = lookupTable != null ? 1 : (decode.length - 4) / 2;
+        if (components < 1)
+        {
+            throw new IOException("Decode array is too short: " + decode.length);
+        }
+        float[] range = getParameterRange(shading);
+        t0 = range[0];
+        t1 = range[1];
+        MeshReader reader = new MeshReader((COSStream) dictionary, decode, components);
+        try
+        {
+            switch (shading.getShadingType())
+            {
+                case PDShading.SHADING_TYPE4:
+                    triangles = readFreeForm(reader,
+                        dictionary.getInt(COSName.BITS_PER_FLAG, -1));
+                    break;
+                case PDShading.SHADING_TYPE5:
+                    triangles = readLattice(reader,
+                        dictionary.getInt(COSName.VERTICES_PER_ROW, -1));
+                    break;
+                case PDShading.SHADING_TYPE6:
+                case PDShading.SHADING_TYPE7:
+                    triangles = null;
+                    readPatches(reader, dictionary.getInt(COSName.BITS_PER_FLAG, -1),
+                        shading.getShadingType() == PDShading.SHADING_TYPE7);
+                    break;
+                default:
+                    throw new IOException("Not a mesh shading: " + shading.getShadingType());
+            }
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+
+    /**
+     * Returns the range of the function parameter of a mesh shading, taken from its Decode
+     * array, [0 1] by default.
+     */
+    static float[] getParameterRange(PDShading shading)
+    {
+        COSBase decode = shading.getCOSObject().getDictionaryObject(COSName.DECODE);
+        if (decode instanceof COSArray && ((COSArray) decode).size() >= 6)
+        {
+            float[] values = ((COSArray) decode).toFloatArray();
+            return new float[] { values[4], values[5] };
+        }
+        return new float[] { 0, 1 };
+    }
+
+    private static float[] getDecode(COSDictionary dictionary) throws IOException
+    {
+        COSBase decode = dictionary.getDictionaryObject(COSName.DECODE);
+        if (!(decode instanceof COSArray) || ((COSArray) decode).size() < 6)
+        {
+            throw new IOException("Mesh shading needs a Decode array: " + decode);
+        }
+        return ((COSArray) decode).toFloatArray();
+    }
+
+    /**
+     * Returns true if the mesh has no triangles or patches.
+     */
+    boolean isEmpty()
+    {
+        return triangles != null ? triangles.length == 0 : patchPoints.isEmpty();
+    }
+
+    /**
+     * Returns the bounds of the mesh. Do not modify the rectangle.
+     */
+    RectF getBounds()
+    {
+        return bounds;
+    }
+
+    /**
+     * Returns the number of bytes of the decoded mesh, including the triangles which may be kept.
+     */
+    long getByteCount()
+    {
+        if (triangles != null)
+        {
+            return 4L * triangles.length;
+        }
+        int colorSize = patchColors.isEmpty() ? 0 : 4 * patchColors.get(0)[0].length;
+        return 4L * patchPoints.size() * (32 + colorSize) + 4L * MAX_CACHED_FLOATS;
+    }
+
+    /**
+     * Returns the levels of detail of the patches for painting with the given transformation:
+     * each patch is divided into 2^level x 2^level cells, according to its own size on the
+     * device. Triangle meshes have no patches.
+     *
+     * @param shadingToDevice maps the shading space to device pixels
+     * @return the level of each patch
+     */
+    int[] getLevels(AffineTransform shadingToDevice)
+    {
+        double scaleX = Math.hypot(shadingToDevice.getScaleX(), shadingToDevice.getShearY());
+        double scaleY = Math.hypot(shadingToDevice.getShearX(), shadingToDevice.getScaleY());
+        double scale = Math.max(scaleX, scaleY);
+        int[] levels = new int[triangles != null ? 0 : patchPoints.size()];
+        for (int patch = 0; patch < levels.length; patch++)
+        {
+            double size = getPatchSize(patchPoints.get(patch)) * scale;
+            int level = 0;
+            while (level < MAX_LEVEL && (1 << level) * CELL_SIZE < size)
+            {
+                level++;
+            }
+            levels[patch] = level;
+        }
+        return levels;
+    }
+
+    // the larger side of the bounds of the control points
+    private static float getPatchSize(float[] grid)
+    {
+        float minX = grid[0];
+        float minY = grid[1];
+        float maxX = minX;
+        float maxY = minY;
+        for (int i = 2; i < grid.length; i += 2)
+        {
+            minX = Math.min(minX, grid[i]);
+            maxX = Math.max(maxX, grid[i]);
+            minY = Math.min(minY, grid[i + 1]);
+            maxY = Math.max(maxY, grid[i + 1]);
+        }
+        return Math.max(maxX - minX, maxY - minY);
+    }
+
+    /**
+     * Returns the triangles of the mesh with the patches divided at the given levels of detail.
+     * Each triangle has 3 vertices, each vertex has its coordinates and color channels, see
+     * {@link #getTriangleCount(float[])}. Do not modify the array.
+     *
+     * @param levels the level of each patch, see {@link #getLevels(AffineTransform)}
+     * @return the triangles
+     * @throws IOException if the colors can't be converted
+     */
+    float[] getTriangles(int[] levels) throws IOException
+    {
+        if (triangles != null)
+        {
+            return triangles;
+        }
+        synchronized (this)
+        {
+            if (Arrays.equals(levels, cachedLevels))
+            {
+                return cachedTriangles;
+            }
+        }
+        float[] result = tessellate(levels);
+        if (result.length <= MAX_CACHED_FLOATS)
+        {
+            synchronized (this)
+            {
+                cachedLevels = levels.clone();
+                cachedTriangles = result;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the number of triangles in the given array.
+     */
+    int getTriangleCount(float[] triangles)
+    {
+        return triangles.length / (3 * stride);
+    }
+
+    /**
+     * Fills triangles into an ARGB pixel buffer. Triangles cover the pixels whose centers are
+     * inside them, so that adjacent triangles neither overlap nor leave gaps; later triangles
+     * paint over earlier ones.
+     *
+     * @param triangles the triangles, see {@link #getTriangles(int)}
+     * @param from the index of the first triangle to fill
+     * @param to the index after the last triangle to fill
+     * @param shadingToBitmap maps the shading space to pixels
+     * @param pixels the pixel buffer, row by row
+     * @param width the width of the buffer
+     * @param height the height of the buffer
+     */
+    void rasterize(float[] triangles, int from, int to, AffineTransform shadingToBitmap,
+        int[] pixels, int width, int height)
+    {
+        double[] xy = new double[6];
+        float[][] values = new float[3][];
+        int[] order = new int[3];
+        double[] gradientX = new double[channels];
+        double[] gradientY = new double[channels];
+        for (int triangle = from; triangle < to; triangle++)
+        {
+            int offset = triangle * 3 * stride;
+            for (int i = 0; i < 3; i++)
+            {
+                xy[2 * i] = triangles[offset + i * stride];
+                xy[2 * i + 1] = triangles[offset + i * stride + 1];
+            }
+            shadingToBitmap.transform(xy, 0, xy, 0, 3);
+            double dx1 = xy[2] - xy[0];
+            double dy1 = xy[3] - xy[1];
+            double dx2 = xy[4] - xy[0];
+            double dy2 = xy[5] - xy[1];
+            double det = dx1 * dy2 - dx2 * dy1;
+            if (Math.abs(det) < 1e-9)
+            {
+                continue;
+            }
+            // the channels are linear functions of the pixel coordinates
+            for (int c = 0; c < channels; c++)
+            {
+                float v0 = triangles[offset + 2 + c];
+                float dv1 = triangles[offset + stride + 2 + c] - v0;
+                float dv2 = triangles[offset + 2 * stride + 2 + c] - v0;
+                gradientX[c] = (dv1 * dy2 - dv2 * dy1) / det;
+                gradientY[c] = (dv2 * dx1 - dv1 * dx2) / det;
+            }
+            sortByY(xy, order);
+            double xTop = xy[2 * order[0]];
+            double yTop = xy[2 * order[0] + 1];
+            double xMiddle = xy[2 * order[1]];
+            double yMiddle = xy[2 * order[1] + 1];
+            double xBottom = xy[2 * order[2]];
+            double yBottom = xy[2 * order[2] + 1];
+            int rowStart = Math.max(0, (int) Math.ceil(yTop - 0.5));
+            int rowEnd = Math.min(height, (int) Math.ceil(yBottom - 0.5));
+            for (int row = rowStart; row < rowEnd; row++)
+            {
+                double y = row + 0.5;
+                double xLong = edgeX(xTop, yTop, xBottom, yBottom, y);
+                double xShort = y < yMiddle ? edgeX(xTop, yTop, xMiddle, yMiddle, y) :
+                    edgeX(xMiddle, yMiddle, xBottom, yBottom, y);
+                double left = Math.min(xLong, xShort);
+                double right = Math.max(xLong, xShort);
+                int columnStart = Math.max(0, (int) Math.ceil(left - 0.5));
+                int columnEnd = Math.min(width, (int) Math.ceil(right - 0.5));
+                int index = row * width + columnStart;
+                for (int column = columnStart; column < columnEnd; column++)
+                {
+                    double px = column + 0.5 - xy[0];
+                    double py = y - xy[1];
+                    pixels[index++] = getColor(triangles, offset, gradientX, gradientY, px, py);
+                }
+            }
+        }
+    }
+
+    // the x coordinate of the edge from the upper to the lower point at the given y
+    private static double edgeX(double x0, double y0, double x1, double y1, double y)
+    {
+        return x0 + (y - y0) * (x1 - x0) / (y1 - y0);
+    }
+
+    private static void sortByY(double[] xy, int[] order)
+    {
+        order[0] = 0;
+        order[1] = 1;
+        order[2] = 2;
+        for (int i = 1; i < 3; i++)
+        {
+            for (int j = i; j > 0 && xy[2 * order[j] + 1] < xy[2 * order[j - 1] + 1]; j--)
+            {
+                int swap = order[j];
+                order[j] = order[j - 1];
+                order[j - 1] = swap;
+            }
+        }
+    }
+
+    // the color at the given offset from the first vertex of the triangle
+    private int getColor(float[] triangles, int offset, double[] gradientX, double[] gradientY,
+        double px, double py)
+    {
+        if (lookupTable != null)
+        {
+            return lookupTable.getColor((float) (triangles[offset + 2] + gradientX[0] * px +
+                gradientY[0] * py));
+        }
+        int r = toByte(triangles[offset + 2] + gradientX[0] * px + gradientY[0] * py);
+        int g = toByte(triangles[offset + 3] + gradientX[1] * px + gradientY[1] * py);
+        int b = toByte(triangles[offset + 4] + gradientX[2] * px + gradientY[2] * py);
+        return 0xFF000000 | (r << 16) | (g << 8) | b;
+    }
+
+    private static int toByte(double value)
+    {
+        int b = (int) (value + 0.5);
+        return b < 0 ? 0 : (b > 255 ? 255 : b);
+    }
+
+    private float[] readFreeForm(MeshReader reader, int bitsPerFlag) throws IOException
+    {
+        if (bitsPerFlag != 2 && bitsPerFlag != 4 && bitsPerFlag != 8)
+        {
+            throw new IOException("Invalid BitsPerFlag: " + bitsPerFlag);
+        }
+        List<float[]> vertices = new ArrayList<float[]>();
+        float[] a = null;
+        float[] b = null;
+        float[] c = null;
+        try
+        {
+            while (true)
+            {
+                int flag = (int) (reader.readBits(bitsPerFlag) & 3);
+                float[] vertex = readVertex(reader);
+                if (flag == 0)
+                {
+                    a = vertex;
+                    reader.readBits(bitsPerFlag);
+                    b = readVertex(reader);
+                    reader.readBits(bitsPerFlag);
+                    c = readVertex(reader);
+                }
+                else if (a == null)
+                {
+                    throw new IOException("First triangle of mesh has flag " + flag);
+                }
+                else if (flag == 1)
+                {
+                    a = b;
+                    b = c;
+                    c = vertex;
+                }
+                else
+                {
+                    b = c;
+                    c = vertex;
+                }
+                vertices.add(a);
+                vertices.add(b);
+                vertices.add(c);
+            }
+        }
+        catch (EOFException e)
+        {
+            // end of the mesh
+        }
+        return toArray(vertices);
+    }
+
+    private float[] readLattice(MeshReader reader, int verticesPerRow) throws IOException
+    {
+        if (verticesPerRow < 2)
+        {
+            throw new IOException("Invalid VerticesPerRow: " + verticesPerRow);
+        }
+        List<float[]> lattice = new ArrayList<float[]>();
+        try
+        {
+            while (true)
+            {
+                lattice.add(readVertex(reader));
+            }
+        }
+        catch (EOFException e)
+        {
+            // end of the mesh
+        }
+        List<float[]> vertices = new ArrayList<float[]>();
+        int rows = lattice.size() / verticesPerRow;
+        for (int row = 0; row + 1 < rows; row++)
+        {
+            for (int column = 0; column + 1 < verticesPerRow; column++)
+            {
+                int index = row * verticesPerRow + column;
+                float[] upperLeft = lattice.get(index);
+                float[] upperRight = lattice.get(index + 1);
+                float[] lowerLeft = lattice.get(index + verticesPerRow);
+                float[] lowerRight = lattice.get(index + verticesPerRow + 1);
+                vertices.add(upperLeft);
+                vertices.add(upperRight);
+                vertices.add(lowerLeft);
+                vertices.add(upperRight);
+                vertices.add(lowerRight);
+                vertices.add(lowerLeft);
+            }
+        }
+        return toArray(vertices);
+    }
+
+    // reads the coordinates and color of a vertex, which ends at a byte boundary
+    private float[] readVertex(MeshReader reader) throws IOException
+    {
+        float[] vertex = new float[stride];
+        vertex[0] = reader.readCoordinate(0);
+        vertex[1] = reader.readCoordinate(1);
+        toChannels(reader.readColor(), vertex, 2);
+        reader.alignToByte();
+        addToBounds(vertex[0], vertex[1], vertex[0], vertex[1]);
+        return vertex;
+    }
+
+    private float[] toArray(List<float[]> vertices)
+    {
+        float[] array = new float[vertices.size() * stride];
+        for (int i = 0; i < vertices.size(); i++)
+        {
+            System.arraycopy(vertices.get(i), 0, array, i * stride, stride);
+        }
+        return array;
+    }
+
+    private void readPatches(MeshReader reader, int bitsPerFlag, boolean tensor)
+        throws IOException
+    {
+        if (bitsPerFlag != 2 && bitsPerFlag != 4 && bitsPerFlag != 8)
+        {
+            throw new IOException("Invalid BitsPerFlag: " + bitsPerFlag);
+        }
+        int pointCount = tensor ? 16 : 12;
+        float[] previousPoints = null;
+        float[][] previousColors = null;
+        try
+        {
+            while (true)
+            {
+                int flag = (int) (reader.readBits(bitsPerFlag) & 3);
+                // the control points in the order of the mesh data
+                float[] points = new float[32];
+                float[][] colors = new float[4][];
+                int firstPoint = 0;
+                int firstColor = 0;
+                if (flag != 0)
+                {
+                    if (previousPoints == null)
+                    {
+                        throw new IOException("First patch of mesh has flag " + flag);
+                    }
+                    // the new patch shares an edge with the previous one
+                    for (int i = 0; i < 4; i++)
+                    {
+                        int index = (3 * flag + i) % 12;
+                        points[2 * i] = previousPoints[2 * index];
+                        points[2 * i + 1] = previousPoints[2 * index + 1];
+                    }
+                    colors[0] = previousColors[flag];
+                    colors[1] = previousColors[(flag + 1) % 4];
+                    firstPoint = 4;
+                    firstColor = 2;
+                }
+                for (int i = firstPoint; i < pointCount; i++)
+                {
+                    points[2 * i] = reader.readCoordinate(0);
+                    points[2 * i + 1] = reader.readCoordinate(1);
+                }
+                for (int i = firstColor; i < 4; i++)
+                {
+                    colors[i] = reader.readColor();
+                }
+                reader.alignToByte();
+                addPatch(points, colors, tensor);
+                previousPoints = points;
+                previousColors = colors;
+            }
+        }
+        catch (EOFException e)
+        {
+            // end of the mesh
+        }
+    }
+
+    private void addPatch(float[] points, float[][] colors, boolean tensor)
+    {
+        float[] grid = new float[32];
+        int count = tensor ? 16 : 12;
+        for (int i = 0; i < count; i++)
+        {
+            grid[2 * GRID_INDICES[i]] = points[2 * i];
+            grid[2 * GRID_INDICES[i] + 1] = points[2 * i + 1];
+        }
+        if (!tensor)
+        {
+            // the inner control points which make the tensor-product patch a Coons patch
+            for (int axis = 0; axis < 2; axis++)
+            {
+                setInner(grid, axis, 1, 1, 0, 0, 0, 1, 1, 0, 0, 3, 3, 0, 3, 1, 1, 3, 3, 3);
+                setInner(grid, axis, 1, 2, 0, 3, 0, 2, 1, 3, 0, 0, 3, 3, 3, 2, 1, 0, 3, 0);
+                setInner(grid, axis, 2, 1, 3, 0, 3, 1, 2, 0, 3, 3, 0, 0, 0, 1, 2, 3, 0, 3);
+                setInner(grid, axis, 2, 2, 3, 3, 3, 2, 2, 3, 3, 0, 0, 3, 0, 2, 2, 0, 0, 0);
+            }
+        }
+        float minX = Float.MAX_VALUE;
+        float minY = Float.MAX_VALUE;
+        float maxX = -Float.MAX_VALUE;
+        float maxY = -Float.MAX_VALUE;
+        for (int i = 0; i < 16; i++)
+        {
+            minX = Math.min(minX, grid[2 * i]);
+            maxX = Math.max(maxX, grid[2 * i]);
+            minY = Math.min(minY, grid[2 * i + 1]);
+            maxY = Math.max(maxY, grid[2 * i + 1]);
+        }
+        addToBounds(minX, minY, maxX, maxY);
+        patchPoints.add(grid);
+        patchColors.add(colors);
+    }
+
+    // RectF.union() ignores empty rectangles, which single points are
+    private void addToBounds(float left, float top, float right, float bottom)
+    {
+        if (hasBounds)
+        {
+            bounds.set(Math.min(bounds.left, left), Math.min(bounds.top, top),
+                Math.max(bounds.right, right), Math.max(bounds.bottom, bottom));
+        }
+        else
+        {
+            bounds.set(left, top, right, bottom);
+            hasBounds = true;
+        }
+    }
+
+    // p(i, j) = (-4 p(a) + 6 (p(b) + p(c)) - 2 (p(d) + p(e)) + 3 (p(f) + p(g)) - p(h)) / 9,
+    // see the description of type 7 shadings in the PDF specification
+    private static void setInner(float[] grid, int axis, int i, int j, int ai, int aj, int bi,
+        int bj, int ci, int cj, int di, int dj, int ei, int ej, int fi, int fj, int gi, int gj,
+        int hi, int hj)
+    {
+        grid[2 * (4 * i + j) + axis] = (-4 * grid[2 * (4 * ai + aj) + axis] +
+            6 * (grid[2 * (4 * bi + bj) + axis] + grid[2 * (4 * ci + cj) + axis]) -
+            2 * (grid[2 * (4 * di + dj) + axis] + grid[2 * (4 * ei + ej) + axis]) +
+            3 * (grid[2 * (4 * fi + fj) + axis] + grid[2 * (4 * gi + gj) + axis]) -
+            grid[2 * (4 * hi + hj) + axis]) / 9;
+    }
+
+    // divides each patch into n x n cells of 2 triangles
+    private float[] tessellate(int[] levels) throws IOException
+    {
+        int size = 0;
+        for (int level : levels)
+        {
+            size += (1 << (2 * level)) * 6 * stride;
+        }
+        float[] result = new float[size];
+        // the Bernstein polynomials at the cell boundaries, by level
+        float[][][] bases = new float[MAX_LEVEL + 1][][];
+        int offset = 0;
+        for (int patch = 0; patch < patchPoints.size(); patch++)
+        {
+            int n = 1 << levels[patch];
+            float[][] basis = bases[levels[patch]];
+            if (basis == null)
+            {
+                basis = getBasis(n);
+                bases[levels[patch]] = basis;
+            }
+            float[][] vertices = new float[(n + 1) * (n + 1)][];
+            float[] grid = patchPoints.get(patch);
+            float[][] colors = patchColors.get(patch);
+            float[] color = new float[colors[0].length];
+            for (int u = 0; u <= n; u++)
+            {
+                for (int v = 0; v <= n; v++)
+                {
+                    float[] vertex = new float[stride];
+                    for (int i = 0; i < 4; i++)
+                    {
+                        for (int j = 0; j < 4; j++)
+                        {
+                            float weight = basis[u][i] * basis[v][j];
+                            vertex[0] += grid[2 * (4 * i + j)] * weight;
+                            vertex[1] += grid[2 * (4 * i + j) + 1] * weight;
+                        }
+                    }
+                    // bilinear color between the corners p00, p03, p33 and p30
+                    float su = (float) u / n;
+                    float sv = (float) v / n;
+                    for (int k = 0; k < color.length; k++)
+                    {
+                        color[k] = (1 - su) * (1 - sv) * colors[0][k] +
+                            (1 - su) * sv * colors[1][k] + su * sv * colors[2][k] +
+                            su * (1 - sv) * colors[3][k];
+                    }
+                    toChannels(color, vertex, 2);
+                    vertices[u * (n + 1) + v] = vertex;
+                }
+            }
+            for (int u = 0; u < n; u++)
+            {
+                for (int v = 0; v < n; v++)
+                {
+                    float[] a = vertices[u * (n + 1) + v];
+                    float[] b = vertices[u * (n + 1) + v + 1];
+                    float[] c = vertices[(u + 1) * (n + 1) + v];
+                    float[] d = vertices[(u + 1) * (n + 1) + v + 1];
+                    for (float[] vertex : new float[][] { a, b, c, b, d, c })
+                    {
+                        System.arraycopy(vertex, 0, result, offset, stride);
+                        offset += stride;
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    // the cubic Bernstein polynomials at k / n for k = 0..n
+    private static float[][] getBasis(int n)
+    {
+        float[][] basis = new float[n + 1][4];
+        for (int k = 0; k <= n; k++)
+        {
+            float t = (float) k / n;
+            float s = 1 - t;
+            basis[k][0] = s * s * s;
+            basis[k][1] = 3 * t * s * s;
+            basis[k][2] = 3 * t * t * s;
+            basis[k][3] = t * t * t;
+        }
+        return basis;
+    }
+
+    // converts a decoded color to the channels of a vertex
+    private void toChannels(float[] color, float[] vertex, int offset) throws IOException
+    {
+        if (lookupTable != null)
+        {
+            vertex[offset] = t1 == t0 ? 0 : (color[0] - t0) / (t1 - t0);
+        }
+        else
+        {
+            int argb = ShadingLookupTable.toARGB(colorSpace, color);
+            vertex[offset] = (argb >> 16) & 0xFF;
+            vertex[offset + 1] = (argb >> 8) & 0xFF;
+            vertex[offset + 2] = argb & 0xFF;
+        }
+    }
+
+    /**
+     * Reads the packed coordinates and colors of the mesh data.
+     */
+    private static final class MeshReader
+    {
+        private final ImageInputStream stream;
+        private final long length;
+        private final float[] decode;
+        private final int components;
+        private final int bitsPerCoordinate;
+        private final int bitsPerComponent;
+        private final double maxCoordinate;
+        private final double maxComponent;
+
+        MeshReader(COSStream data, float[] decode, int components) throws IOException
+        {
+            this.decode = decode;
+            this.components = components;
+            bitsPerCoordinate = data.getInt(COSName.BITS_PER_COORDINATE, -1);
+            bitsPerComponent = data.getInt(COSName.BITS_PER_COMPONENT, -1);
+            if (bitsPerCoordinate < 1 || bitsPerCoordinate > 32)
+            {
+                throw new IOException("Invalid BitsPerCoordinate: " + bitsPerCoordinate);
+            }
+            if (bitsPerComponent < 1 || bitsPerComponent > 16)
+            {
+                throw new IOException("Invalid BitsPerComponent: " + bitsPerComponent);
+            }
+            if (decode.length < 4 + 2 * components)
+            {
+                throw new IOException("Decode array is too short: " + decode.length);
+            }
+            maxCoordinate = (1L << bitsPerCoordinate) - 1;
+            maxComponent = (1L << bitsPerComponent) - 1;
+            InputStream input = data.createInputStream();
+            byte[] bytes;
+            try
+            {
+                bytes = IOUtils.toByteArray(input);
+            }
+            finally
+            {
+                input.close();
+            }
+            length = bytes.length;
+            stream = new MemoryCacheImageInputStream(new ByteArrayInputStream(bytes));
+        }
+
+        // the stream returns zeros after the end of the data, so the end is detected here
+        long readBits(int bits) throws IOException
+        {
+            long value = stream.readBits(bits);
+            long position = stream.getStreamPosition();
+            if (position > length || position == length && stream.getBitOffset() != 0)
+            {
+                throw new EOFException();
+            }
+            return value;
+        }
+
+        float readCoordinate(int index) throws IOException
+        {
+            return decode(readBits(bitsPerCoordinate), maxCoordinate, index);
+        }
+
+        float[] readColor() throws IOException
+        {
+            float[] color = new float[components];
+            for (int i = 0; i < components; i++)
+            {
+                color[i] = decode(readBits(bitsPerComponent), maxComponent, 2 + i);
+            }
+            return color;
+        }
+
+        private float decode(long value, double max, int index)
+        {
+            float min = decode[2 * index];
+            return (float) (min + value * (decode[2 * index + 1] - min) / max);
+        }
+
+        void alignToByte() throws IOException
+        {
+            int bitOffset = stream.getBitOffset();
+            if (bitOffset != 0)
+            {
+                readBits(8 - bitOffset);
+            }
+        }
+
+        void close() throws IOException
+        {
+            stream.close();
+        }
+    }
+}
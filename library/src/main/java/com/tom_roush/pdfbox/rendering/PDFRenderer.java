@@ -19,18 +19,32 @@ package com.tom_roush.pdfbox.rendering;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
+import android.graphics.Matrix;
 import android.graphics.Paint;
+import android.graphics.Picture;
+import android.graphics.Rect;
+import android.util.Log;
 
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
+import com.tom_roush.pdfbox.contentstream.CancellationToken;
+import com.tom_roush.pdfbox.contentstream.ProcessingCancelledException;
+import com.tom_roush.pdfbox.cos.COSDictionary;
 import com.tom_roush.pdfbox.cos.COSName;
 import com.tom_roush.pdfbox.pdmodel.PDDocument;
 import com.tom_roush.pdfbox.pdmodel.PDPage;
 import com.tom_roush.pdfbox.pdmodel.PDResources;
 import com.tom_roush.pdfbox.pdmodel.common.PDRectangle;
 import com.tom_roush.pdfbox.pdmodel.graphics.blend.BlendMode;
+import com.tom_roush.pdfbox.pdmodel.graphics.image.JPEGFactory;
+import com.tom_roush.pdfbox.pdmodel.graphics.image.PDImageXObject;
 import com.tom_roush.pdfbox.pdmodel.graphics.optionalcontent.PDOptionalContentGroup;
 import com.tom_roush.pdfbox.pdmodel.graphics.optionalcontent.PDOptionalContentProperties;
+import com.tom_roush.pdfbox.pdmodel.graphics.shading.PDShading;
 import com.tom_roush.pdfbox.pdmodel.graphics.state.PDExtendedGraphicsState;
 import com.tom_roush.pdfbox.pdmodel.interactive.annotation.AnnotationFilter;
 import com.tom_roush.pdfbox.pdmodel.interactive.annotation.PDAnnotation;
@@ -66,6 +80,29 @@ public class PDFRenderer
 
     private float imageDownscalingOptimizationThreshold = 0.5f;
 
+    private BitmapPool bitmapPool;
+
+    private CancellationToken cancellationToken;
+
+    // colors of the shading functions of the document, by shading dictionary
+    private final Map<COSDictionary, ShadingLookupTable> shadingLookupTables =
+        new HashMap<COSDictionary, ShadingLookupTable>();
+
+    // decoded meshes of the mesh shadings of the document, by shading dictionary, least recently
+    // used first
+    private final Map<COSDictionary, MeshShading> meshShadings =
+        new LinkedHashMap<COSDictionary, MeshShading>(16, 0.75f, true);
+    private long meshShadingBytes;
+
+    // the meshes are kept up to this many bytes, the most recently used one in any case
+    private static final long MAX_MESH_SHADING_BYTES = 16L << 20;
+
+    // images in generated thumbnails may be subsampled this much
+    private static final int THUMBNAIL_MAX_SUBSAMPLING = 64;
+
+    // an embedded thumbnail whose aspect ratio differs more from the page's is ignored as stale
+    private static final float THUMBNAIL_ASPECT_TOLERANCE = 0.05f;
+
     /**
      * Creates a new PDFRenderer.
      * @param document the document to render
@@ -164,6 +201,51 @@ public class PDFRenderer
         this.imageDownscalingOptimizationThreshold = imageDownscalingOptimizationThreshold;
     }
 
+    /**
+     * Returns the pool for temporary bitmaps, null if there is none.
+     *
+     * @return the bitmap pool
+     */
+    public BitmapPool getBitmapPool()
+    {
+        return bitmapPool;
+    }
+
+    /**
+     * Sets a pool for the temporary bitmaps which are needed for rendering, e.g. for blend modes
+     * and transfer functions. Without a pool, which is the default, these are allocated for each
+     * page.
+     *
+     * @param bitmapPool the bitmap pool, may be null
+     */
+    public void setBitmapPool(BitmapPool bitmapPool)
+    {
+        this.bitmapPool = bitmapPool;
+    }
+
+    /**
+     * Returns the cancellation token, null if there is none.
+     *
+     * @return the cancellation token
+     */
+    public CancellationToken getCancellationToken()
+    {
+        return cancellationToken;
+    }
+
+    /**
+     * Sets a token which stops rendering when it is cancelled or its deadline has passed. The
+     * rendering methods then throw a {@link ProcessingCancelledException}; a bitmap or canvas
+     * supplied by the caller keeps what was drawn until then. As the token applies to all
+     * subsequent rendering calls, use a renderer per request, or set a new token for each one.
+     *
+     * @param cancellationToken the token, may be null
+     */
+    public void setCancellationToken(CancellationToken cancellationToken)
+    {
+        this.cancellationToken = cancellationToken;
+    }
+
     /**
      * Returns the given page as an RGB image at 72 DPI
      * @param pageIndex the zero-based index of the page to be converted.
@@ -242,14 +324,177 @@ public class PDFRenderer
         throws IOException
     {
         PDPage page = document.getPage(pageIndex);
+        checkPageImageSize(page, scale);
+        return renderRegion(page, scale, getPageRegion(page, scale), imageType, destination,
+            null, false, false);
+    }
+
+    /**
+     * Renders the given page in two passes and passes both images to the listener: first a
+     * draft, which is drawn much faster for pages with large images, and then the page in full
+     * quality like {@link #renderImage(int, float, ImageType)}. In the draft, images are
+     * subsampled further, nothing is anti-aliased and small text is drawn as bars. Both passes
+     * run on the calling thread; a {@link #setCancellationToken(CancellationToken) cancellation
+     * token} stops the second pass after the draft was delivered.
+     *
+     * @param pageIndex the zero-based index of the page to be converted
+     * @param scale the scaling factor, where 1 = 72 DPI
+     * @param imageType the type of image to return
+     * @param listener the listener which receives the draft and the final image
+     * @return the final image
+     * @throws IOException if the PDF cannot be read
+     */
+    public Bitmap renderImageProgressive(int pageIndex, float scale, ImageType imageType,
+        ProgressiveRenderListener listener) throws IOException
+    {
+        PDPage page = document.getPage(pageIndex);
+        checkPageImageSize(page, scale);
+        RenderDestination destination =
+            defaultDestination == null ? RenderDestination.EXPORT : defaultDestination;
+        Rect region = getPageRegion(page, scale);
+
+        Bitmap draft = renderRegion(page, scale, region, imageType, destination, null, true,
+            false);
+        listener.onDraftRendered(pageIndex, draft);
+
+        Bitmap image = renderRegion(page, scale, region, imageType, destination, null, false,
+            false);
+        listener.onPageRendered(pageIndex, image);
+        return image;
+    }
+
+    /**
+     * Returns a thumbnail of the given page which fits into a square of the given size, with the
+     * page rotation applied. The thumbnail embedded in the page ({@code /Thumb}) is used if it is
+     * at least as large as the requested one, and scaled down if needed. Otherwise the page is
+     * rendered at the reduced scale, with images subsampled much more than by
+     * {@link #setSubsamplingAllowed(boolean)}, which makes thumbnails of pages with large scans
+     * cheap to create.
+     *
+     * @param pageIndex the zero-based index of the page
+     * @param maxSize the maximum width and height of the thumbnail in pixels
+     * @return the thumbnail as an RGB image
+     * @throws IOException if the PDF cannot be read
+     * @throws IllegalArgumentException if the size isn't positive
+     */
+    public Bitmap renderThumbnail(int pageIndex, int maxSize) throws IOException
+    {
+        if (maxSize <= 0)
+        {
+            throw new IllegalArgumentException("Thumbnail size must be positive: " + maxSize);
+        }
+        PDPage page = document.getPage(pageIndex);
+        PDRectangle cropBox = page.getCropBox();
+        float scale = maxSize / Math.max(cropBox.getWidth(), cropBox.getHeight());
+        Rect region = getPageRegion(page, scale);
+
+        Bitmap thumbnail = getEmbeddedThumbnail(page, region.width(), region.height());
+        if (thumbnail != null)
+        {
+            return thumbnail;
+        }
+        return renderRegion(page, scale, region, ImageType.RGB,
+            defaultDestination == null ? RenderDestination.EXPORT : defaultDestination, null,
+            false, true);
+    }
 
+    /**
+     * Renders thumbnails for all pages which don't have an embedded thumbnail and stores them in
+     * the pages ({@code /Thumb}) as JPEG images, so that they are written when the document is
+     * saved and can be used by {@link #renderThumbnail(int, int)} later on.
+     *
+     * @param maxSize the maximum width and height of the thumbnails in pixels
+     * @return the number of pages which got a thumbnail
+     * @throws IOException if the PDF cannot be read or a thumbnail can't be encoded
+     */
+    public int createThumbnails(int maxSize) throws IOException
+    {
+        int count = 0;
+        for (int i = 0; i < document.getNumberOfPages(); i++)
+        {
+            PDPage page = document.getPage(i);
+            if (page.getCOSObject().getDictionaryObject(COSName.THUMB) != null)
+            {
+                continue;
+            }
+            page.setThumbnail(JPEGFactory.createFromImage(document, renderThumbnail(i, maxSize)));
+            count++;
+        }
+        return count;
+    }
+
+    // returns the embedded thumbnail at the given size, or null if there is none which is large
+    // enough
+    private Bitmap getEmbeddedThumbnail(PDPage page, int width, int height)
+    {
+        try
+        {
+            PDImageXObject thumb = page.getThumbnail();
+            if (thumb == null)
+            {
+                return null;
+            }
+            int thumbWidth = thumb.getWidth();
+            int thumbHeight = thumb.getHeight();
+            if (thumbWidth <= 0 || thumbHeight <= 0 ||
+                Math.max(thumbWidth, thumbHeight) < Math.max(width, height))
+            {
+                return null;
+            }
+
+            // thumbnails are written both with and without the page rotation
+            int rotation = 0;
+            if (!hasAspectRatio(thumbWidth, thumbHeight, width, height))
+            {
+                rotation = page.getRotation();
+                if (rotation != 90 && rotation != 270 ||
+                    !hasAspectRatio(thumbHeight, thumbWidth, width, height))
+                {
+                    // a transposed thumbnail only fits a page rotated by 90 or 270 degrees
+                    return null;
+                }
+                int swap = width;
+                width = height;
+                height = swap;
+            }
+
+            int subsampling = Math.max(1, Math.min(thumbWidth / width, thumbHeight / height));
+            Bitmap image = thumb.getImage(null, subsampling);
+            if (image == null)
+            {
+                return null;
+            }
+            image = Bitmap.createScaledBitmap(image, width, height, true);
+            if (rotation != 0)
+            {
+                Matrix matrix = new Matrix();
+                matrix.postRotate(rotation);
+                image = Bitmap.createBitmap(image, 0, 0, width, height, matrix, false);
+            }
+            return image;
+        }
+        catch (IOException e)
+        {
+            Log.w("PdfBox-Android", "Could not read the thumbnail, rendering the page", e);
+            return null;
+        }
+    }
+
+    private static boolean hasAspectRatio(int width, int height, int expectedWidth,
+        int expectedHeight)
+    {
+        float expected = (float) expectedWidth / expectedHeight;
+        return Math.abs((float) width / height - expected) <= expected * THUMBNAIL_ASPECT_TOLERANCE;
+    }
+
+    private static void checkPageImageSize(PDPage page, float scale) throws IOException
+    {
         PDRectangle cropbBox = page.getCropBox();
         float widthPt = cropbBox.getWidth();
         float heightPt = cropbBox.getHeight();
 
-        // PDFBOX-4306 avoid single blank pixel line on the right or on the bottom
-        int widthPx = (int) Math.max(Math.floor(widthPt * scale), 1);
-        int heightPx = (int) Math.max(Math.floor(heightPt * scale), 1);
+        int widthPx = toPixels(widthPt, scale);
+        int heightPx = toPixels(heightPt, scale);
 
         // PDFBOX-4518 the maximum size (w*h) of a buffered image is limited to Integer.MAX_VALUE
         if ((long) widthPx * (long) heightPx > Integer.MAX_VALUE)
@@ -257,9 +502,139 @@ public class PDFRenderer
             throw new IOException("Maximum size of image exceeded (w * h * scale ^ 2) = "//
                 + widthPt + " * " + heightPt + " * " + scale + " ^ 2 > " + Integer.MAX_VALUE);
         }
+    }
 
-        int rotationAngle = page.getRotation();
+    /**
+     * Returns a region of the given page as an RGB image at the given scale. The region is given
+     * in pixels of the whole page image at this scale, i.e. of the image which
+     * {@link #renderImage(int, float)} would return, so that a page can be rendered in tiles,
+     * see {@link TileGrid}. The returned image has the size of the region, content outside of
+     * the region isn't drawn and images outside of it aren't decoded.
+     *
+     * @param pageIndex the zero-based index of the page to be converted
+     * @param scale the scaling factor, where 1 = 72 DPI
+     * @param region the region of the page image to render
+     * @return the rendered region
+     * @throws IOException if the PDF cannot be read
+     */
+    public Bitmap renderImage(int pageIndex, float scale, Rect region) throws IOException
+    {
+        return renderImage(pageIndex, scale, region, ImageType.RGB);
+    }
+
+    /**
+     * Returns a region of the given page as an RGB or ARGB image at the given scale, see
+     * {@link #renderImage(int, float, Rect)}.
+     *
+     * @param pageIndex the zero-based index of the page to be converted
+     * @param scale the scaling factor, where 1 = 72 DPI
+     * @param region the region of the page image to render
+     * @param imageType the type of image to return
+     * @return the rendered region
+     * @throws IOException if the PDF cannot be read
+     */
+    public Bitmap renderImage(int pageIndex, float scale, Rect region, ImageType imageType)
+        throws IOException
+    {
+        return renderImage(pageIndex, scale, region, imageType,
+            defaultDestination == null ? RenderDestination.EXPORT : defaultDestination);
+    }
+
+    /**
+     * Returns a region of the given page as an RGB or ARGB image at the given scale, see
+     * {@link #renderImage(int, float, Rect)}.
+     *
+     * @param pageIndex the zero-based index of the page to be converted
+     * @param scale the scaling factor, where 1 = 72 DPI
+     * @param region the region of the page image to render
+     * @param imageType the type of image to return
+     * @param destination controlling visibility of optional content groups
+     * @return the rendered region
+     * @throws IOException if the PDF cannot be read
+     * @throws IllegalArgumentException if the region is empty
+     */
+    public Bitmap renderImage(int pageIndex, float scale, Rect region, ImageType imageType,
+        RenderDestination destination) throws IOException
+    {
+        if (region.isEmpty())
+        {
+            throw new IllegalArgumentException("Empty region " + region);
+        }
+        if ((long) region.width() * (long) region.height() > Integer.MAX_VALUE)
+        {
+            throw new IOException("Maximum size of image exceeded (w * h) = "
+                + region.width() + " * " + region.height() + " > " + Integer.MAX_VALUE);
+        }
+        return renderRegion(document.getPage(pageIndex), scale, region, imageType, destination,
+            null, false, false);
+    }
+
+    /**
+     * Renders the given page as an RGB image at the given scale into the given bitmap, which must
+     * have the size of the page image at this scale, i.e. of the image which
+     * {@link #renderImage(int, float)} would return, and the config ARGB_8888. Reusing the
+     * bitmap avoids allocating a new one for each page.
+     *
+     * @param pageIndex the zero-based index of the page to be converted
+     * @param scale the scaling factor, where 1 = 72 DPI
+     * @param bitmap the mutable bitmap to render into, it is cleared first
+     * @throws IOException if the PDF cannot be read
+     * @throws IllegalArgumentException if the bitmap doesn't have the expected size or config,
+     * or isn't mutable
+     */
+    public void renderImage(int pageIndex, float scale, Bitmap bitmap) throws IOException
+    {
+        renderImage(pageIndex, scale, getPageRegion(document.getPage(pageIndex), scale), bitmap,
+            ImageType.RGB);
+    }
+
+    /**
+     * Renders a region of the given page at the given scale into the given bitmap, see
+     * {@link #renderImage(int, float, Rect)}. The bitmap must have the size of the region and
+     * the config of the image type, i.e. ARGB_8888 for {@link ImageType#RGB} and
+     * {@link ImageType#ARGB}, and ALPHA_8 for {@link ImageType#GRAY} and
+     * {@link ImageType#BINARY}.
+     *
+     * @param pageIndex the zero-based index of the page to be converted
+     * @param scale the scaling factor, where 1 = 72 DPI
+     * @param region the region of the page image to render
+     * @param bitmap the mutable bitmap to render into, it is cleared first
+     * @param imageType the type of image to render
+     * @throws IOException if the PDF cannot be read
+     * @throws IllegalArgumentException if the bitmap doesn't have the expected size or config,
+     * or isn't mutable
+     */
+    public void renderImage(int pageIndex, float scale, Rect region, Bitmap bitmap,
+        ImageType imageType) throws IOException
+    {
+        if (region.isEmpty())
+        {
+            throw new IllegalArgumentException("Empty region " + region);
+        }
+        if (bitmap.getWidth() != region.width() || bitmap.getHeight() != region.height())
+        {
+            throw new IllegalArgumentException("Bitmap size " + bitmap.getWidth() + " x " +
+                bitmap.getHeight() + " doesn't match the region " + region);
+        }
+        if (bitmap.getConfig() != imageType.toBitmapConfig())
+        {
+            throw new IllegalArgumentException("Bitmap config " + bitmap.getConfig() +
+                " doesn't match the image type " + imageType);
+        }
+        if (!bitmap.isMutable() || bitmap.isRecycled())
+        {
+            throw new IllegalArgumentException("Bitmap isn't mutable");
+        }
+        renderRegion(document.getPage(pageIndex), scale, region, imageType,
+            defaultDestination == null ? RenderDestination.EXPORT : defaultDestination, bitmap,
+            false, false);
+    }
 
+    // renders into the target bitmap if given, and into a new one otherwise
+    private Bitmap renderRegion(PDPage page, float scale, Rect region, ImageType imageType,
+        RenderDestination destination, Bitmap target, boolean draft, boolean thumbnail)
+        throws IOException
+    {
         Bitmap.Config bimType = imageType.toBitmapConfig();
         if (imageType != ImageType.ARGB && hasBlendMode(page))
         {
@@ -270,57 +645,110 @@ public class PDFRenderer
             bimType = Bitmap.Config.ARGB_8888;
         }
 
-        // swap width and height
         Bitmap image;
-        if (rotationAngle == 90 || rotationAngle == 270)
+        if (bimType != imageType.toBitmapConfig())
         {
-            image = Bitmap.createBitmap(heightPx, widthPx, bimType);
+            // temporary image, drawn onto the result below
+            image = acquireBitmap(region.width(), region.height(), bimType);
+        }
+        else if (target != null)
+        {
+            image = target;
         }
         else
         {
-            image = Bitmap.createBitmap(widthPx, heightPx, bimType);
+            image = Bitmap.createBitmap(region.width(), region.height(), bimType);
         }
 
         pageImage = image;
-
-        // use a transparent background if the image type supports alpha
-        Paint paint = new Paint();
-        Canvas canvas = new Canvas(image);
-        if (imageType == ImageType.ARGB)
+        Bitmap temporary = image.getConfig() != imageType.toBitmapConfig() ? image : null;
+        try
         {
-            paint.setColor(Color.TRANSPARENT);
+            // use a transparent background if the image type supports alpha
+            Paint paint = new Paint();
+            Canvas canvas = new Canvas(image);
+            image.eraseColor(imageType == ImageType.ARGB ? Color.TRANSPARENT : Color.WHITE);
+
+            // move the region to the origin and don't draw beyond the page, which a region at the
+            // right or bottom edge may extend past
+            canvas.translate(-region.left, -region.top);
+            canvas.clipRect(getPageRegion(page, scale));
+
+            transform(canvas, page, scale, scale);
+
+            // the end-user may provide a custom PageDrawer
+            PageDrawerParameters parameters =
+                new PageDrawerParameters(this, page, subsamplingAllowed || thumbnail, destination,
+                    imageDownscalingOptimizationThreshold, bitmapPool, draft, thumbnail ?
+                    THUMBNAIL_MAX_SUBSAMPLING : PageDrawerParameters.DEFAULT_MAX_SUBSAMPLING);
+            PageDrawer drawer = createPageDrawer(parameters);
+            drawer.setCancellationToken(cancellationToken);
+            drawer.drawPage(paint, canvas, page.getCropBox());
+
+            if (image.getConfig() != imageType.toBitmapConfig())
+            {
+                // PDFBOX-4095: draw temporary transparent image on white background
+                Bitmap newImage = target != null ? target :
+                    Bitmap.createBitmap(image.getWidth(), image.getHeight(), imageType.toBitmapConfig());
+                Canvas dstCanvas = new Canvas(newImage);
+                paint.setColor(Color.WHITE);
+                paint.setStyle(Paint.Style.FILL);
+                dstCanvas.drawRect(0, 0, image.getWidth(), image.getHeight(), paint);
+                dstCanvas.drawBitmap(image, 0.0f, 0.0f, paint);
+                image = newImage;
+            }
         }
-        else
+        finally
         {
-            paint.setColor(Color.WHITE);
+            // the temporary image goes back to the pool also when drawing failed
+            if (temporary != null)
+            {
+                pageImage = null;
+                releaseBitmap(temporary);
+            }
         }
-        paint.setStyle(Paint.Style.FILL);
-        canvas.drawRect(0, 0, image.getWidth(), image.getHeight(), paint);
-        paint.reset();
 
-        transform(canvas, page, scale, scale);
+        return image;
+    }
 
-        // the end-user may provide a custom PageDrawer
-        PageDrawerParameters parameters =
-            new PageDrawerParameters(this, page, subsamplingAllowed, destination,
-                imageDownscalingOptimizationThreshold);
-        PageDrawer drawer = createPageDrawer(parameters);
-        drawer.drawPage(paint, canvas, page.getCropBox());
+    private Bitmap acquireBitmap(int width, int height, Bitmap.Config config)
+    {
+        return bitmapPool != null ? bitmapPool.acquire(width, height, config) :
+            Bitmap.createBitmap(width, height, config);
+    }
 
-        if (image.getConfig() != imageType.toBitmapConfig())
+    private void releaseBitmap(Bitmap bitmap)
+    {
+        if (bitmapPool != null)
         {
-            // PDFBOX-4095: draw temporary transparent image on white background
-            Bitmap newImage =
-                Bitmap.createBitmap(image.getWidth(), image.getHeight(), imageType.toBitmapConfig());
-            Canvas dstCanvas = new Canvas(newImage);
-            paint.setColor(Color.WHITE);
-            paint.setStyle(Paint.Style.FILL);
-            dstCanvas.drawRect(0, 0, image.getWidth(), image.getHeight(), paint);
-            dstCanvas.drawBitmap(image, 0.0f, 0.0f, paint);
-            image = newImage;
+            bitmapPool.release(bitmap);
         }
+    }
 
-        return image;
+    /**
+     * Returns the bounds of the whole page image at the given scale, with width and height
+     * swapped for rotated pages.
+     */
+    private static Rect getPageRegion(PDPage page, float scale)
+    {
+        PDRectangle cropBox = page.getCropBox();
+        int widthPx = toPixels(cropBox.getWidth(), scale);
+        int heightPx = toPixels(cropBox.getHeight(), scale);
+        int rotationAngle = page.getRotation();
+        if (rotationAngle == 90 || rotationAngle == 270)
+        {
+            return new Rect(0, 0, heightPx, widthPx);
+        }
+        return new Rect(0, 0, widthPx, heightPx);
+    }
+
+    /**
+     * Returns the number of pixels of a page side at the given scale.
+     */
+    static int toPixels(float lengthPt, float scale)
+    {
+        // PDFBOX-4306 avoid single blank pixel line on the right or on the bottom
+        return (int) Math.max(Math.floor(lengthPt * scale), 1);
     }
 
     /**
@@ -402,11 +830,183 @@ public class PDFRenderer
         // the end-user may provide a custom PageDrawer
         PageDrawerParameters parameters =
             new PageDrawerParameters(this, page, subsamplingAllowed, destination,
-                imageDownscalingOptimizationThreshold);
+                imageDownscalingOptimizationThreshold, bitmapPool, false,
+                PageDrawerParameters.DEFAULT_MAX_SUBSAMPLING);
         PageDrawer drawer = createPageDrawer(parameters);
+        drawer.setCancellationToken(cancellationToken);
         drawer.drawPage(paint, canvas, cropBox);
     }
 
+    /**
+     * Records the drawing commands of the given page, so that it can be drawn at different
+     * scales without processing the page again, see {@link PageDisplayList}.
+     *
+     * <p>Content which can't be drawn as vectors is rasterized at a scale of 1, i.e. 72 DPI,
+     * while recording: soft masks, transparency groups with an alpha constant or soft mask,
+     * radial shadings with two centers and mesh shadings. It blurs or shows facets when the
+     * display list is drawn zoomed in; use {@link #recordDisplayList(int, float)} with the
+     * largest scale at which the display list will be drawn to avoid this.
+     *
+     * @param pageIndex the zero-based index of the page to be recorded
+     * @return the display list of the page
+     * @throws IOException if the PDF cannot be read
+     */
+    public PageDisplayList recordDisplayList(int pageIndex) throws IOException
+    {
+        return recordDisplayList(pageIndex, 1);
+    }
+
+    /**
+     * Records the drawing commands of the given page, see {@link #recordDisplayList(int)}.
+     * Content which can't be drawn as vectors is rasterized at the given scale.
+     *
+     * @param pageIndex the zero-based index of the page to be recorded
+     * @param rasterScale the scale at which content is rasterized while recording, where 1 = 72
+     * DPI
+     * @return the display list of the page
+     * @throws IOException if the PDF cannot be read
+     */
+    public PageDisplayList recordDisplayList(int pageIndex, float rasterScale) throws IOException
+    {
+        return recordDisplayList(pageIndex, rasterScale,
+            defaultDestination == null ? RenderDestination.VIEW : defaultDestination);
+    }
+
+    /**
+     * Records the drawing commands of the given page, see {@link #recordDisplayList(int)}.
+     *
+     * @param pageIndex the zero-based index of the page to be recorded
+     * @param destination controlling visibility of optional content groups
+     * @return the display list of the page
+     * @throws IOException if the PDF cannot be read
+     */
+    public PageDisplayList recordDisplayList(int pageIndex, RenderDestination destination)
+        throws IOException
+    {
+        return recordDisplayList(pageIndex, 1, destination);
+    }
+
+    /**
+     * Records the drawing commands of the given page, see {@link #recordDisplayList(int, float)}.
+     *
+     * @param pageIndex the zero-based index of the page to be recorded
+     * @param rasterScale the scale at which content is rasterized while recording, where 1 = 72
+     * DPI
+     * @param destination controlling visibility of optional content groups
+     * @return the display list of the page
+     * @throws IOException if the PDF cannot be read
+     * @throws IllegalArgumentException if the raster scale isn't positive
+     */
+    public PageDisplayList recordDisplayList(int pageIndex, float rasterScale,
+        RenderDestination destination) throws IOException
+    {
+        if (!(rasterScale > 0))
+        {
+            throw new IllegalArgumentException("Raster scale must be positive: " + rasterScale);
+        }
+        PDPage page = document.getPage(pageIndex);
+        PDRectangle cropBox = page.getCropBox();
+        float width = cropBox.getWidth();
+        float height = cropBox.getHeight();
+        int rotationAngle = page.getRotation();
+        if (rotationAngle == 90 || rotationAngle == 270)
+        {
+            float swap = width;
+            width = height;
+            height = swap;
+        }
+
+        Picture picture = new Picture();
+        Canvas canvas = picture.beginRecording((int) Math.ceil(width * rasterScale),
+            (int) Math.ceil(height * rasterScale));
+        // there is no page image to use as backdrop
+        pageImage = null;
+        try
+        {
+            // the recording is made at the raster scale, so that layers and rasterized
+            // shadings have that resolution
+            transform(canvas, page, rasterScale, rasterScale);
+
+            // images are recorded at full resolution, as the scale isn't known yet; temporary
+            // bitmaps aren't pooled because the recording keeps them
+            PageDrawerParameters parameters =
+                new PageDrawerParameters(this, page, false, destination,
+                    imageDownscalingOptimizationThreshold, null, false,
+                    PageDrawerParameters.DEFAULT_MAX_SUBSAMPLING);
+            PageDrawer drawer = createPageDrawer(parameters);
+            drawer.setCancellationToken(cancellationToken);
+            drawer.drawPage(new Paint(), canvas, cropBox);
+        }
+        finally
+        {
+            picture.endRecording();
+        }
+        return new PageDisplayList(picture, width, height, rasterScale);
+    }
+
+    /**
+     * Returns the colors of the function of the given shading between the given values. They are
+     * computed once per shading and document, as the same shading is often painted many times.
+     */
+    ShadingLookupTable getShadingLookupTable(PDShading shading, float t0, float t1)
+        throws IOException
+    {
+        ShadingLookupTable lookupTable;
+        synchronized (shadingLookupTables)
+        {
+            lookupTable = shadingLookupTables.get(shading.getCOSObject());
+        }
+        if (lookupTable == null)
+        {
+            lookupTable = ShadingLookupTable.create(shading, t0, t1);
+            synchronized (shadingLookupTables)
+            {
+                shadingLookupTables.put(shading.getCOSObject(), lookupTable);
+            }
+        }
+        return lookupTable;
+    }
+
+    /**
+     * Returns the decoded mesh of the given shading of type 4 to 7, with its triangles. The
+     * most recently used meshes are kept up to {@link #MAX_MESH_SHADING_BYTES}, so that the mesh
+     * data isn't parsed and the patches aren't divided again for every page image.
+     */
+    MeshShading getMeshShading(PDShading shading) throws IOException
+    {
+        MeshShading mesh;
+        synchronized (meshShadings)
+        {
+            mesh = meshShadings.get(shading.getCOSObject());
+        }
+        if (mesh == null)
+        {
+            ShadingLookupTable lookupTable = null;
+            if (shading.getFunction() != null)
+            {
+                float[] range = MeshShading.getParameterRange(shading);
+                lookupTable = getShadingLookupTable(shading, range[0], range[1]);
+            }
+            mesh = new MeshShading(shading, lookupTable);
+            synchronized (meshShadings)
+            {
+                MeshShading old = meshShadings.put(shading.getCOSObject(), mesh);
+                if (old != null)
+                {
+                    meshShadingBytes -= old.getByteCount();
+                }
+                meshShadingBytes += mesh.getByteCount();
+                Iterator<MeshShading> iterator = meshShadings.values().iterator();
+                while (meshShadingBytes > MAX_MESH_SHADING_BYTES && meshShadings.size() > 1)
+                {
+                    meshShadingBytes -= iterator.next().getByteCount();
+                    iterator.remove();
+                }
+            }
+        }
+        return mesh;
+    }
+
     /**
      * Indicates whether an optional content group is enabled.
      * @param group the group
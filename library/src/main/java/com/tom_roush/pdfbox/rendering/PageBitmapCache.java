@@ -0,0 +1,575 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tom_roush.pdfbox.rendering;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.ref.WeakReference;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.tom_roush.pdfbox.cos.COSArray;
+import com.tom_roush.pdfbox.cos.COSBase;
+import com.tom_roush.pdfbox.cos.COSDictionary;
+import com.tom_roush.pdfbox.cos.COSName;
+import com.tom_roush.pdfbox.cos.COSString;
+import com.tom_roush.pdfbox.cos.COSUpdateInfo;
+import com.tom_roush.pdfbox.pdmodel.PDDocument;
+import com.tom_roush.pdfbox.pdmodel.PDPage;
+import com.tom_roush.pdfbox.pdmodel.common.PDRectangle;
+import com.tom_roush.pdfbox.pdmodel.interactive.annotation.AnnotationFilter;
+import com.tom_roush.pdfbox.util.Hex;
+
+/**
+ * A cache of rendered page images for viewers which render the same pages at a few zoom levels
+ * again and again. Images are kept in memory up to a given number of bytes, dropping the least
+ * recently used ones, and optionally in a directory as PNG files, up to a given number of bytes
+ * too.
+ *
+ * <p>Images are cached per document, page, scale, image type, destination and annotation filter.
+ * The scale is rounded to a multiple of 1/{@value #SCALE_BUCKETS} and the page is rendered at the
+ * rounded scale, so that nearly equal zoom levels share an image. The cached images of a page are
+ * dropped when the page is requested after it, its contents, resources or annotations were
+ * replaced or marked as updated (see {@link COSUpdateInfo}), or its crop box or rotation
+ * changed. Changes within a content stream which isn't marked as updated aren't noticed; call
+ * {@link #invalidate(PDDocument)} then.
+ *
+ * <p>The cache doesn't keep documents or annotation filters from being garbage collected, their
+ * images are dropped with the next page which has to be rendered. Call
+ * {@link #invalidate(PDDocument)} when closing a document to release its images right away.
+ *
+ * <p>The disk tier is only used for documents with an ID, for pages which aren't marked as
+ * updated, and for RGB and ARGB images. On disk, annotation filters are told apart by their
+ * class only.
+ *
+ * <p>The returned images are shared and must neither be modified nor recycled. The cache can be
+ * shared by several renderers and threads.
+ */
+public final class PageBitmapCache
+{
+    /**
+     * The scale is rounded to a multiple of the reciprocal of this.
+     */
+    public static final int SCALE_BUCKETS = 64;
+
+    private final long maxMemoryBytes;
+    private final Map<Key, Bitmap> memory = new LinkedHashMap<Key, Bitmap>(16, 0.75f, true);
+    private long memoryBytes;
+
+    private File diskDirectory;
+    private long maxDiskBytes;
+
+    private long memoryHits;
+    private long diskHits;
+    private long misses;
+
+    /**
+     * Creates a cache without a disk tier.
+     *
+     * @param maxMemoryBytes the maximum number of bytes of the images kept in memory
+     */
+    public PageBitmapCache(long maxMemoryBytes)
+    {
+        this.maxMemoryBytes = maxMemoryBytes;
+    }
+
+    /**
+     * Enables the disk tier, which keeps compressed images in the given directory. The directory
+     * should be used by this cache only, as files in it are deleted when the size is exceeded.
+     *
+     * @param directory the directory, it is created if needed; null disables the disk tier
+     * @param maxBytes the maximum number of bytes of the files
+     */
+    public synchronized void setDiskCache(File directory, long maxBytes)
+    {
+        if (directory != null && !directory.isDirectory() && !directory.mkdirs())
+        {
+            Log.w("PdfBox-Android", "Could not create the cache directory " + directory);
+            directory = null;
+        }
+        diskDirectory = directory;
+        maxDiskBytes = maxBytes;
+    }
+
+    /**
+     * Returns the given page as an image at the given scale, from the cache if possible, and
+     * rendered by the given renderer otherwise, see
+     * {@link PDFRenderer#renderImage(int, float, ImageType, RenderDestination)}.
+     *
+     * @param renderer the renderer of the document
+     * @param pageIndex the zero-based index of the page
+     * @param scale the scaling factor, where 1 = 72 DPI; it is rounded, see above
+     * @param imageType the type of image to return
+     * @param destination controlling visibility of optional content groups
+     * @return the page image, which must not be modified
+     * @throws IOException if the PDF cannot be read
+     */
+    public Bitmap renderImage(PDFRenderer renderer, int pageIndex, float scale,
+        ImageType imageType, RenderDestination destination) throws IOException
+    {
+        int bucket = Math.max(1, Math.round(scale * SCALE_BUCKETS));
+        PDDocument document = renderer.document;
+        PDPage page = document.getPage(pageIndex);
+        AnnotationFilter annotationFilter = renderer.getAnnotationsFilter();
+        Key key = new Key(document, pageIndex, bucket, imageType, destination, annotationFilter,
+            renderer.isSubsamplingAllowed(), getUpdateState(page));
+
+        Bitmap image;
+        File diskFile;
+        synchronized (this)
+        {
+            image = memory.get(key);
+            if (image != null)
+            {
+                memoryHits++;
+                return image;
+            }
+            removeStale(document, pageIndex, key.updateState);
+            diskFile = getDiskFile(key, document, page, annotationFilter);
+        }
+
+        if (diskFile != null && diskFile.isFile())
+        {
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inPreferredConfig = imageType.toBitmapConfig();
+            image = BitmapFactory.decodeFile(diskFile.getPath(), options);
+            if (image != null)
+            {
+                diskFile.setLastModified(System.currentTimeMillis());
+                synchronized (this)
+                {
+                    diskHits++;
+                    putMemory(key, image);
+                }
+                return image;
+            }
+        }
+
+        image = renderer.renderImage(pageIndex, (float) bucket / SCALE_BUCKETS, imageType,
+            destination);
+        synchronized (this)
+        {
+            misses++;
+            putMemory(key, image);
+        }
+        if (diskFile != null)
+        {
+            writeDiskFile(diskFile, image);
+        }
+        return image;
+    }
+
+    /**
+     * Drops the images of the given document from memory, e.g. before it is closed. Files on
+     * disk are kept.
+     *
+     * @param document the document
+     */
+    public synchronized void invalidate(PDDocument document)
+    {
+        Iterator<Map.Entry<Key, Bitmap>> iterator = memory.entrySet().iterator();
+        while (iterator.hasNext())
+        {
+            Map.Entry<Key, Bitmap> entry = iterator.next();
+            if (entry.getKey().document.get() == document)
+            {
+                memoryBytes -= entry.getValue().getByteCount();
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Drops all images from memory and deletes the files of the disk tier.
+     */
+    public synchronized void clear()
+    {
+        memory.clear();
+        memoryBytes = 0;
+        if (diskDirectory != null)
+        {
+            File[] files = diskDirectory.listFiles();
+            if (files != null)
+            {
+                for (File file : files)
+                {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the number of bytes of the images in memory.
+     */
+    public synchronized long getMemoryBytes()
+    {
+        return memoryBytes;
+    }
+
+    /**
+     * Returns the number of requests which were served from memory.
+     */
+    public synchronized long getMemoryHitCount()
+    {
+        return memoryHits;
+    }
+
+    /**
+     * Returns the number of requests which were served from disk.
+     */
+    public synchronized long getDiskHitCount()
+    {
+        return diskHits;
+    }
+
+    /**
+     * Returns the number of requests for which the page was rendered.
+     */
+    public synchronized long getMissCount()
+    {
+        return misses;
+    }
+
+    /**
+     * Returns the share of the requests which were served from memory or disk, between 0 and 1.
+     */
+    public synchronized float getHitRate()
+    {
+        long requests = memoryHits + diskHits + misses;
+        return requests == 0 ? 0 : (float) (memoryHits + diskHits) / requests;
+    }
+
+    /**
+     * Sets the hit and miss counts to 0.
+     */
+    public synchronized void resetStatistics()
+    {
+        memoryHits = 0;
+        diskHits = 0;
+        misses = 0;
+    }
+
+    private void putMemory(Key key, Bitmap image)
+    {
+        long bytes = image.getByteCount();
+        if (bytes > maxMemoryBytes)
+        {
+            return;
+        }
+        Bitmap old = memory.put(key, image);
+        if (old != null)
+        {
+            memoryBytes -= old.getByteCount();
+        }
+        memoryBytes += bytes;
+        Iterator<Bitmap> iterator = memory.values().iterator();
+        while (memoryBytes > maxMemoryBytes && iterator.hasNext())
+        {
+            memoryBytes -= iterator.next().getByteCount();
+            iterator.remove();
+        }
+    }
+
+    // drops the images of the page which were rendered before it changed, and the images of
+    // documents and annotation filters which were garbage collected
+    private void removeStale(PDDocument document, int pageIndex, int updateState)
+    {
+        Iterator<Map.Entry<Key, Bitmap>> iterator = memory.entrySet().iterator();
+        while (iterator.hasNext())
+        {
+            Map.Entry<Key, Bitmap> entry = iterator.next();
+            Key key = entry.getKey();
+            PDDocument keyDocument = key.document.get();
+            if (keyDocument == null || key.annotationFilter.get() == null ||
+                keyDocument == document && key.pageIndex == pageIndex &&
+                key.updateState != updateState)
+            {
+                memoryBytes -= entry.getValue().getByteCount();
+                iterator.remove();
+            }
+        }
+    }
+
+    // returns the file of the disk tier for the key, null if it can't be stored on disk
+    private File getDiskFile(Key key, PDDocument document, PDPage page,
+        AnnotationFilter annotationFilter)
+    {
+        if (diskDirectory == null || key.imageType == ImageType.GRAY ||
+            key.imageType == ImageType.BINARY || isUpdated(page))
+        {
+            return null;
+        }
+        COSArray ids = document.getDocument().getDocumentID();
+        if (ids == null || ids.size() == 0)
+        {
+            return null;
+        }
+        StringBuilder name = new StringBuilder();
+        for (int i = 0; i < ids.size(); i++)
+        {
+            COSBase id = ids.getObject(i);
+            if (id instanceof COSString)
+            {
+                name.append(((COSString) id).toHexString()).append('/');
+            }
+        }
+        name.append(key.pageIndex).append('/').append(key.bucket).append('/')
+            .append(key.imageType).append('/').append(key.destination).append('/')
+            .append(annotationFilter.getClass().getName()).append('/')
+            .append(key.subsamplingAllowed).append('/').append(getGeometryState(page));
+        try
+        {
+            MessageDigest md = MessageDigest.getInstance("MD5");
+            byte[] digest = md.digest(name.toString().getBytes(Charset.forName("UTF-8")));
+            return new File(diskDirectory, Hex.getString(digest) + ".png");
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            // should never happen, every Java and Android platform supports MD5
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void writeDiskFile(File file, Bitmap image)
+    {
+        File temp = new File(file.getPath() + ".tmp");
+        try
+        {
+            OutputStream out = new FileOutputStream(temp);
+            try
+            {
+                image.compress(Bitmap.CompressFormat.PNG, 100, out);
+            }
+            finally
+            {
+                out.close();
+            }
+            if (!temp.renameTo(file))
+            {
+                temp.delete();
+                return;
+            }
+        }
+        catch (IOException e)
+        {
+            Log.w("PdfBox-Android", "Could not write the cache file " + file, e);
+            temp.delete();
+            return;
+        }
+        trimDisk();
+    }
+
+    // deletes the least recently used files until the size is below the maximum
+    private synchronized void trimDisk()
+    {
+        if (diskDirectory == null)
+        {
+            return;
+        }
+        File[] files = diskDirectory.listFiles();
+        if (files == null)
+        {
+            return;
+        }
+        long bytes = 0;
+        for (File file : files)
+        {
+            bytes += file.length();
+        }
+        if (bytes <= maxDiskBytes)
+        {
+            return;
+        }
+        final long[] lastModified = new long[files.length];
+        Integer[] order = new Integer[files.length];
+        for (int i = 0; i < files.length; i++)
+        {
+            lastModified[i] = files[i].lastModified();
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>()
+        {
+            @Override
+            public int compare(Integer a, Integer b)
+            {
+                return lastModified[a] < lastModified[b] ? -1 :
+                    lastModified[a] > lastModified[b] ? 1 : 0;
+            }
+        });
+        for (int i = 0; i < order.length && bytes > maxDiskBytes; i++)
+        {
+            File file = files[order[i]];
+            long length = file.length();
+            if (file.delete())
+            {
+                bytes -= length;
+            }
+        }
+    }
+
+    // whether the page or the objects it is drawn from are marked as updated
+    private static boolean isUpdated(PDPage page)
+    {
+        COSDictionary dict = page.getCOSObject();
+        if (dict.isNeedToBeUpdated())
+        {
+            return true;
+        }
+        for (COSBase base : getDependencies(dict))
+        {
+            if (base instanceof COSUpdateInfo && ((COSUpdateInfo) base).isNeedToBeUpdated())
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // changes when the page or the objects it is drawn from are replaced or marked as updated,
+    // or the size or rotation of the page changes
+    private static int getUpdateState(PDPage page)
+    {
+        COSDictionary dict = page.getCOSObject();
+        int state = System.identityHashCode(dict);
+        state = 31 * state + (dict.isNeedToBeUpdated() ? 1 : 0);
+        for (COSBase base : getDependencies(dict))
+        {
+            state = 31 * state + System.identityHashCode(base);
+            if (base instanceof COSUpdateInfo)
+            {
+                state = 31 * state + (((COSUpdateInfo) base).isNeedToBeUpdated() ? 1 : 0);
+            }
+        }
+        return 31 * state + getGeometryState(page);
+    }
+
+    // changes when the size or rotation of the page changes
+    private static int getGeometryState(PDPage page)
+    {
+        PDRectangle cropBox = page.getCropBox();
+        int state = Float.floatToIntBits(cropBox.getLowerLeftX());
+        state = 31 * state + Float.floatToIntBits(cropBox.getLowerLeftY());
+        state = 31 * state + Float.floatToIntBits(cropBox.getUpperRightX());
+        state = 31 * state + Float.floatToIntBits(cropBox.getUpperRightY());
+        return 31 * state + page.getRotation();
+    }
+
+    // the content streams, resources and annotations of a page
+    private static COSBase[] getDependencies(COSDictionary dict)
+    {
+        COSBase contents = dict.getDictionaryObject(COSName.CONTENTS);
+        COSBase[] dependencies;
+        if (contents instanceof COSArray)
+        {
+            COSArray array = (COSArray) contents;
+            dependencies = new COSBase[array.size() + 3];
+            for (int i = 0; i < array.size(); i++)
+            {
+                dependencies[i + 3] = array.getObject(i);
+            }
+        }
+        else
+        {
+            dependencies = new COSBase[3];
+        }
+        dependencies[0] = contents;
+        dependencies[1] = dict.getDictionaryObject(COSName.RESOURCES);
+        dependencies[2] = dict.getDictionaryObject(COSName.ANNOTS);
+        return dependencies;
+    }
+
+    /**
+     * The key of a cached image. The document and the annotation filter, which usually refers to
+     * its renderer, are only referenced weakly; a key whose referents were garbage collected
+     * equals no other key.
+     */
+    private static final class Key
+    {
+        private final WeakReference<PDDocument> document;
+        private final int pageIndex;
+        private final int bucket;
+        private final ImageType imageType;
+        private final RenderDestination destination;
+        private final WeakReference<AnnotationFilter> annotationFilter;
+        private final boolean subsamplingAllowed;
+        private final int updateState;
+        private final int hash;
+
+        Key(PDDocument document, int pageIndex, int bucket, ImageType imageType,
+            RenderDestination destination, AnnotationFilter annotationFilter,
+            boolean subsamplingAllowed, int updateState)
+        {
+            this.document = new WeakReference<PDDocument>(document);
+            this.pageIndex = pageIndex;
+            this.bucket = bucket;
+            this.imageType = imageType;
+            this.destination = destination;
+            this.annotationFilter = new WeakReference<AnnotationFilter>(annotationFilter);
+            this.subsamplingAllowed = subsamplingAllowed;
+            this.updateState = updateState;
+            int hash = System.identityHashCode(document);
+            hash = 31 * hash + pageIndex;
+            hash = 31 * hash + bucket;
+            hash = 31 * hash + imageType.hashCode();
+            hash = 31 * hash + (destination == null ? 0 : destination.hashCode());
+            hash = 31 * hash + System.identityHashCode(annotationFilter);
+            hash = 31 * hash + (subsamplingAllowed ? 1 : 0);
+            this.hash = 31 * hash + updateState;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (this == obj)
+            {
+                return true;
+            }
+            if (!(obj instanceof Key))
+            {
+                return false;
+            }
+            Key other = (Key) obj;
+            PDDocument doc = document.get();
+            AnnotationFilter filter = annotationFilter.get();
+            return doc != null && doc == other.document.get() && pageIndex == other.pageIndex &&
+                bucket == other.bucket && imageType == other.imageType &&
+                destination == other.destination &&
+                filter != null && filter == other.annotationFilter.get() &&
+                subsamplingAllowed == other.subsamplingAllowed &&
+                updateState == other.updateState;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tom_roush.pdfbox.rendering;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Picture;
+import android.graphics.Rect;
+
+/**
+ * The recorded drawing commands of a page, created by
+ * {@link PDFRenderer#recordDisplayList(int)}. The display list holds the paths, the transformed
+ * glyph outlines and the decoded images of the page with their transformations, clips and paint
+ * changes, so that it can be drawn again at any scale without parsing the content streams,
+ * resolving resources or building glyph paths. Images are kept at their full resolution, which
+ * is why a display list can need a lot of memory for pages with large images. Soft masks,
+ * transparency groups with an alpha constant or soft mask, radial shadings with two centers and
+ * mesh shadings are rasterized at the raster scale given when recording, see
+ * {@link PDFRenderer#recordDisplayList(int, float)}, and blur when drawn at a larger scale.
+ *
+ * <p>The coordinates are those of the page image at a scale of 1, i.e. 72 DPI, with the page
+ * rotation applied. A display list must not be drawn by several threads at the same time.
+ */
+public final class PageDisplayList
+{
+    private final Picture picture;
+    private final float width;
+    private final float height;
+    private final float rasterScale;
+
+    PageDisplayList(Picture picture, float width, float height, float rasterScale)
+    {
+        this.picture = picture;
+        this.width = width;
+        this.height = height;
+        this.rasterScale = rasterScale;
+    }
+
+    /**
+     * Returns the width of the page at a scale of 1, with the page rotation applied.
+     */
+    public float getWidth()
+    {
+        return width;
+    }
+
+    /**
+     * Returns the height of the page at a scale of 1, with the page rotation applied.
+     */
+    public float getHeight()
+    {
+        return height;
+    }
+
+    /**
+     * Returns the scale at which content which can't be drawn as vectors was rasterized.
+     */
+    public float getRasterScale()
+    {
+        return rasterScale;
+    }
+
+    /**
+     * Draws the page onto the given canvas at the given scale. The page is clipped to the same
+     * pixels as {@link PDFRenderer#renderImage(int, float)} at that scale, no background is
+     * drawn.
+     *
+     * @param canvas the canvas
+     * @param scale the scaling factor, where 1 = 72 DPI
+     */
+    public void draw(Canvas canvas, float scale)
+    {
+        int saveCount = canvas.save();
+        try
+        {
+            canvas.clipRect(0, 0, PDFRenderer.toPixels(width, scale),
+                PDFRenderer.toPixels(height, scale));
+            // the picture was recorded at the raster scale
+            canvas.scale(scale / rasterScale, scale / rasterScale);
+            canvas.drawPicture(picture);
+        }
+        finally
+        {
+            canvas.restoreToCount(saveCount);
+        }
+    }
+
+    /**
+     * Returns the page as an RGB image at the given scale, like
+     * {@link PDFRenderer#renderImage(int, float)}.
+     *
+     * @param scale the scaling factor, where 1 = 72 DPI
+     * @return the page image
+     */
+    public Bitmap renderImage(float scale)
+    {
+        return renderImage(scale, new Rect(0, 0, PDFRenderer.toPixels(width, scale),
+            PDFRenderer.toPixels(height, scale)));
+    }
+
+    /**
+     * Returns a region of the page as an RGB image at the given scale, like
+     * {@link PDFRenderer#renderImage(int, float, Rect)}.
+     *
+     * @param scale the scaling factor, where 1 = 72 DPI
+     * @param region the region of the page image to render
+     * @return the image of the region
+     * @throws IllegalArgumentException if the region is empty
+     */
+    public Bitmap renderImage(float scale, Rect region)
+    {
+        if (region.isEmpty())
+        {
+            throw new IllegalArgumentException("Empty region " + region);
+        }
+        Bitmap image = Bitmap.createBitmap(region.width(), region.height(),
+            ImageType.RGB.toBitmapConfig());
+        image.eraseColor(Color.WHITE);
+        Canvas canvas = new Canvas(image);
+        canvas.translate(-region.left, -region.top);
+        draw(canvas, scale);
+        return image;
+    }
+}
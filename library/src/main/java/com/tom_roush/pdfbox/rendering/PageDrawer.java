@@ -22,20 +22,23 @@ import android.graphics.Color;
 import android.graphics.DashPathEffect;
 import android.graphics.Paint;
 import android.graphics.Path;
+import android.graphics.Point;
 import android.graphics.PointF;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+import android.graphics.Rect;
 import android.graphics.RectF;
 import android.graphics.Region;
+import android.graphics.Shader;
 import android.util.Log;
 
 import java.io.IOException;
-import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Deque;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.StringTokenizer;
 
 import com.tom_roush.harmony.awt.geom.AffineTransform;
@@ -44,7 +47,6 @@ import com.tom_roush.pdfbox.cos.COSArray;
 import com.tom_roush.pdfbox.cos.COSBase;
 import com.tom_roush.pdfbox.cos.COSDictionary;
 import com.tom_roush.pdfbox.cos.COSName;
-import com.tom_roush.pdfbox.pdmodel.PDResources;
 import com.tom_roush.pdfbox.pdmodel.common.PDRectangle;
 import com.tom_roush.pdfbox.pdmodel.common.function.PDFunction;
 import com.tom_roush.pdfbox.pdmodel.documentinterchange.markedcontent.PDPropertyList;
@@ -57,11 +59,10 @@ import com.tom_roush.pdfbox.pdmodel.font.PDType1CFont;
 import com.tom_roush.pdfbox.pdmodel.font.PDType1Font;
 import com.tom_roush.pdfbox.pdmodel.font.PDType3Font;
 import com.tom_roush.pdfbox.pdmodel.graphics.PDLineDashPattern;
-import com.tom_roush.pdfbox.pdmodel.graphics.PDXObject;
-import com.tom_roush.pdfbox.pdmodel.graphics.blend.BlendMode;
 import com.tom_roush.pdfbox.pdmodel.graphics.color.PDColor;
 import com.tom_roush.pdfbox.pdmodel.graphics.color.PDColorSpace;
-import com.tom_roush.pdfbox.pdmodel.graphics.color.PDDeviceGray;
+import com.tom_roush.pdfbox.pdmodel.graphics.color.PDDeviceRGB;
+import com.tom_roush.pdfbox.pdmodel.graphics.color.PDPattern;
 import com.tom_roush.pdfbox.pdmodel.graphics.form.PDFormXObject;
 import com.tom_roush.pdfbox.pdmodel.graphics.form.PDTransparencyGroup;
 import com.tom_roush.pdfbox.pdmodel.graphics.image.PDImage;
@@ -69,8 +70,10 @@ import com.tom_roush.pdfbox.pdmodel.graphics.image.PDImageXObject;
 import com.tom_roush.pdfbox.pdmodel.graphics.optionalcontent.PDOptionalContentGroup;
 import com.tom_roush.pdfbox.pdmodel.graphics.optionalcontent.PDOptionalContentGroup.RenderState;
 import com.tom_roush.pdfbox.pdmodel.graphics.optionalcontent.PDOptionalContentMembershipDictionary;
+import com.tom_roush.pdfbox.pdmodel.graphics.pattern.PDAbstractPattern;
+import com.tom_roush.pdfbox.pdmodel.graphics.pattern.PDShadingPattern;
 import com.tom_roush.pdfbox.pdmodel.graphics.shading.PDShading;
-import com.tom_roush.pdfbox.pdmodel.graphics.state.PDExtendedGraphicsState;
+import com.tom_roush.pdfbox.pdmodel.graphics.shading.PDShadingType2;
 import com.tom_roush.pdfbox.pdmodel.graphics.state.PDGraphicsState;
 import com.tom_roush.pdfbox.pdmodel.graphics.state.PDSoftMask;
 import com.tom_roush.pdfbox.pdmodel.graphics.state.RenderingMode;
@@ -101,6 +104,24 @@ public class PageDrawer extends PDFGraphicsStreamEngine
 
     private final boolean subsamplingAllowed;
 
+    // images are never subsampled more than this, except in draft mode
+    private final int maxSubsampling;
+
+    // draft rendering: no anti-aliasing, images subsampled further, small text greeked
+    private final boolean draft;
+
+    // in draft mode, images are subsampled this many times more
+    private static final int DRAFT_SUBSAMPLING = 4;
+
+    // in draft mode, shadings which can't be drawn by shaders are rasterized at a lower resolution
+    private static final int DRAFT_SHADING_SUBSAMPLING = 2;
+
+    // mesh shadings check for cancellation after filling this many triangles
+    private static final int MESH_TRIANGLES_PER_CHECK = 4096;
+
+    // in draft mode, text with a smaller font size in device pixels is drawn as bars
+    private static final float DRAFT_GREEKING_SIZE = 8;
+
     // the graphics device to draw to, xform is the initial transform of the device (i.e. DPI)
     private Paint paint;
     private Canvas canvas;
@@ -109,9 +130,27 @@ public class PageDrawer extends PDFGraphicsStreamEngine
     // the page box to draw (usually the crop box but may be another)
     private PDRectangle pageSize;
 
-    // whether image of a transparency group must be flipped
-    // needed when in a tiling pattern
-    private boolean flipTG = false;
+    // the clip of the canvas in default user space, content outside of it isn't drawn;
+    // null if nothing is culled
+    private RectF cullBounds;
+
+    // the clip of the canvas in device pixels when drawPage() is called
+    private Rect deviceClip;
+
+    // the position and clip of the canvas in device pixels, which differ while drawing into a layer
+    private int layerLeft;
+    private int layerTop;
+    private Rect layerBounds;
+
+    // the rendered soft masks of the page, by activation in a graphics state (PDSoftMask has
+    // identity equality), least recently used first
+    private final Map<PDSoftMask, SoftMaskImage> softMaskImages =
+        new LinkedHashMap<PDSoftMask, SoftMaskImage>(16, 0.75f, true);
+    private long softMaskBytes;
+
+    // rendered soft masks are kept up to this many bytes, the least recently used ones are
+    // dropped and rendered again if they are still in use
+    private static final long MAX_SOFT_MASK_BYTES = 8L << 20;
 
     // clipping winding rule used for the clipping path
     private Path.FillType clipWindingRule = null;
@@ -131,14 +170,15 @@ public class PageDrawer extends PDFGraphicsStreamEngine
 
     private PointF currentPoint = new PointF();
 
-    private final Deque<TransparencyGroup> transparencyGroupStack = new ArrayDeque<>();
-
     // if greater zero the content is hidden and will not be rendered
     private int nestedHiddenOCGCount;
 
     private final RenderDestination destination;
     private final float imageDownscalingOptimizationThreshold;
 
+    // pool for temporary bitmaps, may be null
+    private final BitmapPool bitmapPool;
+
     static final int JAVA_VERSION = PageDrawer.getJavaVersion();
 
     /**
@@ -163,10 +203,13 @@ public class PageDrawer extends PDFGraphicsStreamEngine
     {
         super(parameters.getPage());
         this.renderer = parameters.getRenderer();
-        this.subsamplingAllowed = parameters.isSubsamplingAllowed();
+        this.draft = parameters.isDraft();
+        this.subsamplingAllowed = parameters.isSubsamplingAllowed() || draft;
+        this.maxSubsampling = parameters.getMaxSubsampling();
         this.destination = parameters.getDestination();
         this.imageDownscalingOptimizationThreshold =
             parameters.getImageDownscalingOptimizationThreshold();
+        this.bitmapPool = parameters.getBitmapPool();
     }
 
     /**
@@ -224,7 +267,8 @@ public class PageDrawer extends PDFGraphicsStreamEngine
 //            RenderingHints.VALUE_INTERPOLATION_BICUBIC);
 //        graphics.setRenderingHint(RenderingHints.KEY_RENDERING,
 //            RenderingHints.VALUE_RENDER_QUALITY);
-        paint.setAntiAlias(true);
+        paint.setAntiAlias(!draft);
+        paint.setFilterBitmap(!draft);
     }
 
     /**
@@ -252,11 +296,43 @@ public class PageDrawer extends PDFGraphicsStreamEngine
         canvas.translate(-pageSize.getLowerLeftX(), -pageSize.getLowerLeftY());
         canvas.save();
 
-        processPage(getPage());
+        // when only a tile of the page is rendered, most of the content is outside of the clip
+        Rect clipBounds = new Rect();
+        if (canvas.getClipBounds(clipBounds))
+        {
+            cullBounds = new RectF(clipBounds);
+            cullBounds.inset(-1, -1);
+        }
+        else
+        {
+            cullBounds = new RectF();
+        }
+        RectF deviceArea = new RectF(cullBounds);
+        canvas.getMatrix().mapRect(deviceArea);
+        deviceClip = new Rect();
+        deviceArea.roundOut(deviceClip);
+        layerLeft = 0;
+        layerTop = 0;
+        layerBounds = deviceClip;
+
+        try
+        {
+            processPage(getPage());
 
-        for (PDAnnotation annotation : getPage().getAnnotations(annotationFilter))
+            for (PDAnnotation annotation : getPage().getAnnotations(annotationFilter))
+            {
+                checkCancelled();
+                showAnnotation(annotation);
+            }
+        }
+        finally
         {
-            showAnnotation(annotation);
+            for (SoftMaskImage maskImage : softMaskImages.values())
+            {
+                releaseBitmap(maskImage.image);
+            }
+            softMaskImages.clear();
+            softMaskBytes = 0;
         }
     }
 
@@ -268,12 +344,66 @@ public class PageDrawer extends PDFGraphicsStreamEngine
         return color < 0 ? 0 : (color > 1 ? 1 : color);
     }
 
+    /**
+     * Returns true if the given bounds in default user space are entirely outside of the clip of
+     * the canvas, so that drawing them can be skipped.
+     */
+    private boolean isCulled(RectF bounds)
+    {
+        return cullBounds != null && !RectF.intersects(cullBounds, bounds);
+    }
+
+    /**
+     * Returns true if the given path is entirely outside of the clip of the canvas.
+     */
+    private boolean isPathCulled(Path path)
+    {
+        return cullBounds != null && isCulled(getPathBounds(path));
+    }
+
+    /**
+     * Returns the bounds of the given path.
+     */
+    private static RectF getPathBounds(Path path)
+    {
+        RectF bounds = new RectF();
+        path.computeBounds(bounds, false);
+        return bounds;
+    }
+
+    /**
+     * Returns true if the given path, stroked with the current line width, is entirely outside
+     * of the clip of the canvas.
+     */
+    private boolean isStrokeCulled(Path path)
+    {
+        return cullBounds != null && isCulled(getStrokeBounds(path));
+    }
+
+    /**
+     * Returns the bounds of the given path, stroked with the current line width.
+     */
+    private RectF getStrokeBounds(Path path)
+    {
+        RectF bounds = getPathBounds(path);
+        // miter joins may extend up to half the miter limit times the line width
+        float outset = paint.getStrokeWidth() *
+            Math.max(getGraphicsState().getMiterLimit(), 1) / 2 + 1;
+        bounds.inset(-outset, -outset);
+        return bounds;
+    }
+
 //    protected Paint getPaint(PDColor color) throws IOException TODO: PdfBox-Android
 
     // returns an integer for color that Android understands from the PDColor
     // TODO: alpha?
     private int getColor(PDColor color) throws IOException {
         PDColorSpace colorSpace = color.getColorSpace();
+        if (colorSpace instanceof PDPattern)
+        {
+            // patterns are painted by fillWithPattern(), this is for everything else
+            return Color.BLACK;
+        }
         float[] floats = colorSpace.toRGB(color.getComponents());
         int r = Math.round(floats[0] * 255);
         int g = Math.round(floats[1] * 255);
@@ -298,6 +428,18 @@ public class PageDrawer extends PDFGraphicsStreamEngine
         }
     }
 
+    @Override
+    public void restoreGraphicsState()
+    {
+        PDSoftMask softMask = getGraphicsState().getSoftMask();
+        super.restoreGraphicsState();
+        if (softMask != null && getGraphicsState().getSoftMask() != softMask)
+        {
+            // the soft mask was activated in the popped state, so no other state refers to it
+            releaseSoftMaskImage(softMask);
+        }
+    }
+
     @Override
     public void beginText() throws IOException
     {
@@ -352,12 +494,53 @@ public class PageDrawer extends PDFGraphicsStreamEngine
         Vector displacement) throws IOException
     {
         AffineTransform at = textRenderingMatrix.createAffineTransform();
+        // clipping text is drawn as usual, as the clip matters
+        if (draft && isGreeked(textRenderingMatrix) &&
+            !getGraphicsState().getTextState().getRenderingMode().isClip())
+        {
+            drawGreekedGlyph(at, displacement);
+            return;
+        }
         at.concatenate(font.getFontMatrix().createAffineTransform());
 
         Glyph2D glyph2D = createGlyph2D(font);
         drawGlyph2D(glyph2D, font, code, displacement, at);
     }
 
+    /**
+     * Returns true if text with the given text rendering matrix is too small to be read in a
+     * draft, i.e. its font size in device pixels is below {@link #DRAFT_GREEKING_SIZE}.
+     */
+    private boolean isGreeked(Matrix textRenderingMatrix)
+    {
+        double deviceScale = Math.sqrt(Math.abs(xform.getDeterminant()));
+        return textRenderingMatrix.getScalingFactorY() * deviceScale < DRAFT_GREEKING_SIZE;
+    }
+
+    /**
+     * Draws a bar in place of a glyph, from the baseline to about the x-height and as wide as
+     * the glyph advance, so that the glyph path doesn't have to be built.
+     */
+    private void drawGreekedGlyph(AffineTransform at, Vector displacement) throws IOException
+    {
+        RenderingMode renderingMode = getGraphicsState().getTextState().getRenderingMode();
+        if (!renderingMode.isFill() && !renderingMode.isStroke())
+        {
+            return;
+        }
+        Path path = new Path();
+        path.addRect(0, 0.1f, displacement.getX(), 0.5f, Path.Direction.CW);
+        path.transform(at.toMatrix());
+        if (isPathCulled(path) || !isContentRendered())
+        {
+            return;
+        }
+        paint.setColor(renderingMode.isFill() ? getNonStrokingColor() : getStrokingColor());
+        paint.setStyle(Paint.Style.FILL);
+        setClip();
+        canvas.drawPath(path, paint);
+    }
+
     /**
      * Render the font using the Glyph2D interface.
      *
@@ -395,36 +578,69 @@ public class PageDrawer extends PDFGraphicsStreamEngine
 //            Shape glyph = at.createTransformedShape(path);
             path.transform(at.toMatrix());
 
-            if (renderingMode.isFill())
+            if (!renderingMode.isClip() && (renderingMode.isStroke() ?
+                isStrokeCulled(path) : isPathCulled(path)))
             {
+                return;
+            }
+
+            Layer maskLayer = null;
+            if (isContentRendered() && (renderingMode.isFill() || renderingMode.isStroke()))
+            {
+                maskLayer = beginSoftMask(renderingMode.isStroke() ? getStrokeBounds(path) :
+                    getPathBounds(path));
+            }
+            try
+            {
+                drawGlyphPath(path, renderingMode);
+            }
+            finally
+            {
+                endSoftMask(maskLayer);
+            }
+
+            if (renderingMode.isClip())
+            {
+//                textClippings.add(glyph); TODO: PdfBox-Android
+            }
+        }
+    }
+
+    // fills and strokes a glyph according to the rendering mode
+    private void drawGlyphPath(Path path, RenderingMode renderingMode) throws IOException
+    {
+        PDGraphicsState state = getGraphicsState();
+        if (renderingMode.isFill())
+        {
 //                graphics.setComposite(state.getNonStrokingJavaComposite());
 //                graphics.setPaint(getNonStrokingPaint());
-                paint.setColor(getNonStrokingColor());
-                setClip();
-                if (isContentRendered())
+            paint.setColor(getNonStrokingColor());
+            setClip();
+            if (isContentRendered())
+            {
+                if (isPattern(state.getNonStrokingColor()))
+                {
+                    fillWithPattern(state.getNonStrokingColor(), path);
+                }
+                else
                 {
                     paint.setStyle(Paint.Style.FILL);
                     canvas.drawPath(path, paint);
                 }
             }
+        }
 
-            if (renderingMode.isStroke())
-            {
+        if (renderingMode.isStroke())
+        {
 //                graphics.setComposite(state.getStrokingJavaComposite());
 //                graphics.setPaint(getStrokingPaint());
-                paint.setColor(getStrokingColor());
+            paint.setColor(getStrokingColor());
 //                graphics.setStroke(getStroke());
-                setClip();
-                if (isContentRendered())
-                {
-                    paint.setStyle(Paint.Style.STROKE);
-                    canvas.drawPath(path, paint);
-                }
-            }
-
-            if (renderingMode.isClip())
+            setClip();
+            if (isContentRendered())
             {
-//                textClippings.add(glyph); TODO: PdfBox-Android
+                paint.setStyle(Paint.Style.STROKE);
+                canvas.drawPath(path, paint);
             }
         }
     }
@@ -637,9 +853,28 @@ public class PageDrawer extends PDFGraphicsStreamEngine
         paint.setColor(getStrokingColor());
         setClip();
         //TODO bbox of shading pattern should be used here? (see fillPath)
-        if (isContentRendered())
+        RectF bounds = getStrokeBounds(linePath);
+        if (isContentRendered() && !isCulled(bounds))
         {
-            canvas.drawPath(linePath, paint);
+            Layer maskLayer = beginSoftMask(bounds);
+            try
+            {
+                PDColor color = getGraphicsState().getStrokingColor();
+                if (isPattern(color))
+                {
+                    Path outline = new Path();
+                    paint.getFillPath(linePath, outline);
+                    fillWithPattern(color, outline);
+                }
+                else
+                {
+                    canvas.drawPath(linePath, paint);
+                }
+            }
+            finally
+            {
+                endSoftMask(maskLayer);
+            }
         }
         linePath.reset();
     }
@@ -665,10 +900,26 @@ public class PageDrawer extends PDFGraphicsStreamEngine
             paint.setAntiAlias(false);
         }
 
-        if (isContentRendered())
+        if (isContentRendered() && !isCulled(bounds))
         {
-            paint.setStyle(Paint.Style.FILL);
-            canvas.drawPath(linePath, paint);
+            Layer maskLayer = beginSoftMask(bounds);
+            try
+            {
+                PDColor color = getGraphicsState().getNonStrokingColor();
+                if (isPattern(color))
+                {
+                    fillWithPattern(color, linePath);
+                }
+                else
+                {
+                    paint.setStyle(Paint.Style.FILL);
+                    canvas.drawPath(linePath, paint);
+                }
+            }
+            finally
+            {
+                endSoftMask(maskLayer);
+            }
         }
 
         linePath.reset();
@@ -752,6 +1003,13 @@ public class PageDrawer extends PDFGraphicsStreamEngine
     public void endPath()
     {
 //        TODO: PdfBox-Android adding clipping causes rendering issues
+        if (clipWindingRule != null)
+        {
+            // the clip isn't applied to the canvas, but shadings paint the clipping area
+            linePath.setFillType(clipWindingRule);
+            getGraphicsState().intersectClippingPath(linePath);
+            clipWindingRule = null;
+        }
         linePath.reset();
     }
 
@@ -767,8 +1025,20 @@ public class PageDrawer extends PDFGraphicsStreamEngine
         {
             return;
         }
+        // decoding may take long, don't start it if the rendering is cancelled
+        checkCancelled();
         Matrix ctm = getGraphicsState().getCurrentTransformationMatrix();
         AffineTransform at = ctm.createAffineTransform();
+        if (cullBounds != null)
+        {
+            // the image is drawn into the unit square, don't decode it if that isn't visible
+            RectF bounds = new RectF(0, 0, 1, 1);
+            at.toMatrix().mapRect(bounds);
+            if (isCulled(bounds))
+            {
+                return;
+            }
+        }
 
         if (!pdImage.getInterpolate())
         {
@@ -840,9 +1110,13 @@ public class PageDrawer extends PDFGraphicsStreamEngine
         double scale = Math.abs(at.getDeterminant() * xform.getDeterminant());
 
         int subsampling = (int) Math.floor(Math.sqrt(pdImage.getWidth() * pdImage.getHeight() / scale));
-        if (subsampling > 8)
+        if (subsampling > maxSubsampling)
+        {
+            subsampling = maxSubsampling;
+        }
+        if (draft)
         {
-            subsampling = 8;
+            subsampling *= DRAFT_SUBSAMPLING;
         }
         if (subsampling < 1)
         {
@@ -867,69 +1141,450 @@ public class PageDrawer extends PDFGraphicsStreamEngine
         imageTransform.scale(1.0 / width, -1.0 / height);
         imageTransform.translate(0, -height);
 
-        PDSoftMask softMask = getGraphicsState().getSoftMask();
-        if( softMask != null )
-        {
-            RectF rectangle = new RectF(0, 0, width, height);
-//            Paint awtPaint; TODO: PdfBox-Android
-        }
-        else
+        // the image covers the unit square
+        RectF bounds = new RectF(0, 0, 1, 1);
+        at.toMatrix().mapRect(bounds);
+        Layer maskLayer = beginSoftMask(bounds);
+        try
         {
             COSBase transfer = getGraphicsState().getTransfer();
             if (transfer instanceof COSArray || transfer instanceof COSDictionary)
             {
-                image = applyTransferFunction(image, transfer);
+                Bitmap transferred = applyTransferFunction(image, transfer);
+                canvas.drawBitmap(transferred, imageTransform.toMatrix(), paint);
+                releaseBitmap(transferred);
             }
+            else
+            {
+                canvas.drawBitmap(image, imageTransform.toMatrix(), paint);
+            }
+        }
+        finally
+        {
+            endSoftMask(maskLayer);
+        }
+    }
+
+    /**
+     * Returns a bitmap for temporary use, from the pool if there is one.
+     */
+    private Bitmap acquireBitmap(int width, int height, Bitmap.Config config)
+    {
+        return bitmapPool != null ? bitmapPool.acquire(width, height, config) :
+            Bitmap.createBitmap(width, height, config);
+    }
 
-            canvas.drawBitmap(image, imageTransform.toMatrix(), paint);
+    /**
+     * Returns a bitmap from {@link #acquireBitmap(int, int, Bitmap.Config)} to the pool.
+     */
+    private void releaseBitmap(Bitmap bitmap)
+    {
+        if (bitmapPool != null)
+        {
+            bitmapPool.release(bitmap);
         }
     }
 
-    private Bitmap applyTransferFunction(Bitmap image, COSBase transfer) throws IOException
+    /**
+     * Returns the transformation from default user space to the device pixels of the page,
+     * also while drawing into a layer.
+     */
+    private android.graphics.Matrix getDeviceMatrix()
     {
-        Bitmap bim = Bitmap.createBitmap(image.getWidth(), image.getHeight(), Bitmap.Config.ARGB_8888);
-        // TODO: Pdfbox-Android - does this always need to be ARGB_8888?
+        android.graphics.Matrix deviceMatrix = canvas.getMatrix();
+        deviceMatrix.postTranslate(layerLeft, layerTop);
+        return deviceMatrix;
+    }
 
-        // prepare transfer functions (either one per color or one for all) 
-        // and maps (actually arrays[256] to be faster) to avoid calculating values several times
-        Integer[] rMap;
-        Integer[] gMap;
-        Integer[] bMap;
-        PDFunction rf;
-        PDFunction gf;
-        PDFunction bf;
-        if (transfer instanceof COSArray)
+    /**
+     * Returns the device pixels covered by the given bounds in default user space, intersected
+     * with the given clip, or null if nothing is left.
+     */
+    private Rect getDeviceBounds(RectF bounds, Rect clip)
+    {
+        RectF deviceArea = new RectF(bounds);
+        getDeviceMatrix().mapRect(deviceArea);
+        Rect deviceBounds = new Rect();
+        deviceArea.roundOut(deviceBounds);
+        return deviceBounds.intersect(clip) ? deviceBounds : null;
+    }
+
+    /**
+     * Redirects drawing into a transparent offscreen bitmap covering the given device pixels,
+     * until {@link #endLayer(Layer)} is called.
+     */
+    private Layer beginLayer(Rect bounds)
+    {
+        Layer layer = new Layer(bounds,
+            acquireBitmap(bounds.width(), bounds.height(), Bitmap.Config.ARGB_8888));
+        android.graphics.Matrix layerMatrix = getDeviceMatrix();
+        layerMatrix.postTranslate(-bounds.left, -bounds.top);
+        canvas = new Canvas(layer.bitmap);
+        canvas.setMatrix(layerMatrix);
+        layerLeft = bounds.left;
+        layerTop = bounds.top;
+        layerBounds = bounds;
+
+        android.graphics.Matrix inverse = new android.graphics.Matrix();
+        if (layerMatrix.invert(inverse))
+        {
+            cullBounds = new RectF(0, 0, bounds.width(), bounds.height());
+            inverse.mapRect(cullBounds);
+            cullBounds.inset(-1, -1);
+        }
+        return layer;
+    }
+
+    /**
+     * Restores drawing to where it was before {@link #beginLayer(Rect)}. The bitmap of the layer
+     * is kept, it must be released by the caller.
+     */
+    private void endLayer(Layer layer)
+    {
+        canvas = layer.savedCanvas;
+        layerLeft = layer.savedLeft;
+        layerTop = layer.savedTop;
+        layerBounds = layer.savedBounds;
+        cullBounds = layer.savedCullBounds;
+    }
+
+    /**
+     * Draws a bitmap covering the given device pixels onto the current canvas, pixel by pixel.
+     */
+    private void drawLayer(Bitmap bitmap, Rect bounds, Paint layerPaint)
+    {
+        android.graphics.Matrix matrix = new android.graphics.Matrix();
+        if (getDeviceMatrix().invert(matrix))
         {
-            COSArray ar = (COSArray) transfer;
-            rf = PDFunction.create(ar.getObject(0));
-            gf = PDFunction.create(ar.getObject(1));
-            bf = PDFunction.create(ar.getObject(2));
-            rMap = new Integer[256];
-            gMap = new Integer[256];
-            bMap = new Integer[256];
+            matrix.preTranslate(bounds.left, bounds.top);
+            canvas.drawBitmap(bitmap, matrix, layerPaint);
         }
-        else
+    }
+
+    /**
+     * Begins drawing an element through the current soft mask. Returns null if there is no soft
+     * mask, or if it doesn't change the element, which is then drawn directly.
+     *
+     * @param bounds the bounds of the element in default user space
+     * @return the layer to pass to {@link #endSoftMask(Layer)}, or null
+     */
+    private Layer beginSoftMask(RectF bounds) throws IOException
+    {
+        PDSoftMask softMask = getGraphicsState().getSoftMask();
+        if (softMask == null)
         {
-            rf = PDFunction.create(transfer);
-            gf = rf;
-            bf = rf;
-            rMap = new Integer[256];
-            gMap = rMap;
-            bMap = rMap;
+            return null;
+        }
+        SoftMaskImage mask = getSoftMaskImage(softMask);
+        if (mask.isOpaque())
+        {
+            return null;
+        }
+        Rect deviceBounds = getDeviceBounds(bounds, layerBounds);
+        if (deviceBounds == null)
+        {
+            return null;
         }
+        Layer layer = beginLayer(deviceBounds);
+        layer.softMask = softMask;
+        return layer;
+    }
 
-        // apply the transfer function to each color, but keep alpha
-        float[] input = new float[1];
-        for (int x = 0; x < image.getWidth(); ++x)
+    /**
+     * Ends drawing an element through the soft mask, i.e. applies the mask to the layer and
+     * draws it.
+     *
+     * @param layer the layer returned by {@link #beginSoftMask(RectF)}, may be null
+     */
+    private void endSoftMask(Layer layer) throws IOException
+    {
+        if (layer == null)
         {
-            for (int y = 0; y < image.getHeight(); ++y)
+            return;
+        }
+        endLayer(layer);
+        try
+        {
+            // looked up again, as drawing the element may have dropped it from the cache
+            applySoftMask(layer.bitmap, layer.bounds, getSoftMaskImage(layer.softMask));
+            drawLayer(layer.bitmap, layer.bounds, new Paint());
+        }
+        finally
+        {
+            releaseBitmap(layer.bitmap);
+        }
+    }
+
+    /**
+     * Multiplies the alpha of a bitmap covering the given device pixels with the soft mask.
+     */
+    private static void applySoftMask(Bitmap bitmap, Rect bounds, SoftMaskImage mask)
+    {
+        Canvas maskCanvas = new Canvas(bitmap);
+        Paint maskPaint = new Paint();
+        maskPaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.DST_IN));
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        Rect inside = new Rect();
+        if (mask.image != null)
+        {
+            inside.set(mask.bounds);
+            inside.offset(-bounds.left, -bounds.top);
+            maskCanvas.drawBitmap(mask.image, inside.left, inside.top, maskPaint);
+            if (!inside.intersect(0, 0, width, height))
             {
-                int rgb = image.getPixel(x, y);
-                int ri = (rgb >> 16) & 0xFF;
-                int gi = (rgb >> 8) & 0xFF;
-                int bi = rgb & 0xFF;
-                int ro;
-                int go;
+                inside.setEmpty();
+            }
+        }
+        if (mask.outside == 255)
+        {
+            return;
+        }
+        // the mask has a constant value outside of its bitmap
+        maskPaint.setColor(mask.outside << 24);
+        if (inside.isEmpty())
+        {
+            maskCanvas.drawRect(0, 0, width, height, maskPaint);
+            return;
+        }
+        maskCanvas.drawRect(0, 0, width, inside.top, maskPaint);
+        maskCanvas.drawRect(0, inside.bottom, width, height, maskPaint);
+        maskCanvas.drawRect(0, inside.top, inside.left, inside.bottom, maskPaint);
+        maskCanvas.drawRect(inside.right, inside.top, width, inside.bottom, maskPaint);
+    }
+
+    /**
+     * Returns the rendered soft mask, which is rendered only once for each activation of a soft
+     * mask in a graphics state.
+     */
+    private SoftMaskImage getSoftMaskImage(PDSoftMask softMask) throws IOException
+    {
+        SoftMaskImage mask = softMaskImages.get(softMask);
+        if (mask == null)
+        {
+            mask = createSoftMaskImage(softMask);
+            softMaskImages.put(softMask, mask);
+            softMaskBytes += mask.getByteCount();
+            Iterator<SoftMaskImage> iterator = softMaskImages.values().iterator();
+            while (softMaskBytes > MAX_SOFT_MASK_BYTES && softMaskImages.size() > 1)
+            {
+                SoftMaskImage eldest = iterator.next();
+                iterator.remove();
+                softMaskBytes -= eldest.getByteCount();
+                releaseBitmap(eldest.image);
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * Drops the rendered soft mask, if there is one.
+     */
+    private void releaseSoftMaskImage(PDSoftMask softMask)
+    {
+        SoftMaskImage mask = softMaskImages.remove(softMask);
+        if (mask != null)
+        {
+            softMaskBytes -= mask.getByteCount();
+            releaseBitmap(mask.image);
+        }
+    }
+
+    private SoftMaskImage createSoftMaskImage(PDSoftMask softMask) throws IOException
+    {
+        PDTransparencyGroup form = softMask.getGroup();
+        if (form == null)
+        {
+            Log.w("PdfBox-Android", "Soft mask without transparency group is ignored");
+            return new SoftMaskImage(null, null, 255);
+        }
+
+        int[] transfer = null;
+        PDFunction transferFunction = softMask.getTransferFunction();
+        if (transferFunction != null)
+        {
+            transfer = new int[256];
+            float[] input = new float[1];
+            for (int i = 0; i < 256; i++)
+            {
+                input[0] = i / 255f;
+                float value = transferFunction.eval(input)[0];
+                transfer[i] = Math.max(0, Math.min(255, Math.round(value * 255)));
+            }
+        }
+
+        boolean luminosity = COSName.LUMINOSITY.equals(softMask.getSubType());
+        int backdrop = Color.TRANSPARENT;
+        int outside = 0;
+        if (luminosity)
+        {
+            // "If the subtype is Luminosity, the transparency group XObject G shall be
+            // composited with a fully opaque backdrop whose colour is everywhere defined
+            // by the soft-mask dictionary's BC entry."
+            backdrop = Color.BLACK;
+            COSArray backdropColor = softMask.getBackdropColor();
+            if (backdropColor != null)
+            {
+                PDColorSpace colorSpace = null;
+                if (form.getGroup() != null)
+                {
+                    colorSpace = form.getGroup().getColorSpace(form.getResources());
+                }
+                backdrop = ShadingLookupTable.toARGB(
+                    colorSpace != null ? colorSpace : PDDeviceRGB.INSTANCE,
+                    backdropColor.toFloatArray());
+            }
+            outside = getLuminosity(backdrop);
+        }
+        if (transfer != null)
+        {
+            outside = transfer[outside];
+        }
+
+        TransparencyGroup group = new TransparencyGroup(form, true,
+            softMask.getInitialTransformationMatrix(), backdrop);
+        Bitmap image = group.getImage();
+        if (image == null)
+        {
+            return new SoftMaskImage(null, null, outside);
+        }
+        try
+        {
+            int width = image.getWidth();
+            int height = image.getHeight();
+            int[] pixels = new int[width * height];
+            image.getPixels(pixels, 0, width, 0, 0, width, height);
+            boolean isUniform = true;
+            for (int i = 0; i < pixels.length; i++)
+            {
+                int value = luminosity ? getLuminosity(pixels[i]) : pixels[i] >>> 24;
+                if (transfer != null)
+                {
+                    value = transfer[value];
+                }
+                isUniform &= value == outside;
+                pixels[i] = value << 24;
+            }
+            if (isUniform)
+            {
+                return new SoftMaskImage(null, null, outside);
+            }
+            Bitmap maskImage = acquireBitmap(width, height, Bitmap.Config.ALPHA_8);
+            maskImage.setPixels(pixels, 0, width, 0, 0, width, height);
+            return new SoftMaskImage(maskImage, group.getBounds(), outside);
+        }
+        finally
+        {
+            group.release();
+        }
+    }
+
+    private static int getLuminosity(int color)
+    {
+        return (77 * Color.red(color) + 151 * Color.green(color) + 28 * Color.blue(color)) >> 8;
+    }
+
+    /**
+     * An offscreen bitmap which is drawn into instead of the canvas, with the drawing state to
+     * restore afterwards.
+     */
+    private final class Layer
+    {
+        private final Rect bounds;
+        private final Bitmap bitmap;
+        private final Canvas savedCanvas;
+        private final int savedLeft;
+        private final int savedTop;
+        private final Rect savedBounds;
+        private final RectF savedCullBounds;
+        private PDSoftMask softMask;
+
+        private Layer(Rect bounds, Bitmap bitmap)
+        {
+            this.bounds = bounds;
+            this.bitmap = bitmap;
+            savedCanvas = canvas;
+            savedLeft = layerLeft;
+            savedTop = layerTop;
+            savedBounds = layerBounds;
+            savedCullBounds = cullBounds;
+        }
+    }
+
+    /**
+     * A rendered soft mask: the mask values in the alpha of a bitmap covering some device
+     * pixels, and the constant value outside of them.
+     */
+    private static final class SoftMaskImage
+    {
+        // null if the mask has the same value everywhere
+        private final Bitmap image;
+        private final Rect bounds;
+        private final int outside;
+
+        private SoftMaskImage(Bitmap image, Rect bounds, int outside)
+        {
+            this.image = image;
+            this.bounds = bounds;
+            this.outside = outside;
+        }
+
+        private boolean isOpaque()
+        {
+            return image == null && outside == 255;
+        }
+
+        private long getByteCount()
+        {
+            return image != null ? image.getByteCount() : 0;
+        }
+    }
+
+    private Bitmap applyTransferFunction(Bitmap image, COSBase transfer) throws IOException
+    {
+        Bitmap bim = acquireBitmap(image.getWidth(), image.getHeight(), Bitmap.Config.ARGB_8888);
+        // TODO: Pdfbox-Android - does this always need to be ARGB_8888?
+
+        // prepare transfer functions (either one per color or one for all) 
+        // and maps (actually arrays[256] to be faster) to avoid calculating values several times
+        Integer[] rMap;
+        Integer[] gMap;
+        Integer[] bMap;
+        PDFunction rf;
+        PDFunction gf;
+        PDFunction bf;
+        if (transfer instanceof COSArray)
+        {
+            COSArray ar = (COSArray) transfer;
+            rf = PDFunction.create(ar.getObject(0));
+            gf = PDFunction.create(ar.getObject(1));
+            bf = PDFunction.create(ar.getObject(2));
+            rMap = new Integer[256];
+            gMap = new Integer[256];
+            bMap = new Integer[256];
+        }
+        else
+        {
+            rf = PDFunction.create(transfer);
+            gf = rf;
+            bf = rf;
+            rMap = new Integer[256];
+            gMap = rMap;
+            bMap = rMap;
+        }
+
+        // apply the transfer function to each color, but keep alpha
+        float[] input = new float[1];
+        for (int x = 0; x < image.getWidth(); ++x)
+        {
+            for (int y = 0; y < image.getHeight(); ++y)
+            {
+                int rgb = image.getPixel(x, y);
+                int ri = (rgb >> 16) & 0xFF;
+                int gi = (rgb >> 8) & 0xFF;
+                int bi = rgb & 0xFF;
+                int ro;
+                int go;
                 int bo;
                 if (rMap[ri] != null)
                 {
@@ -976,30 +1631,319 @@ public class PageDrawer extends PDFGraphicsStreamEngine
             Log.e("PdfBox-Android", "shading " + shadingName + " does not exist in resources dictionary");
             return;
         }
+        if (!isContentRendered())
+        {
+            return;
+        }
         Matrix ctm = getGraphicsState().getCurrentTransformationMatrix();
-//        Paint paint = shading.toPaint(ctm);
-//        paint = applySoftMaskToPaint(paint, getGraphicsState().getSoftMask());
 
-//        graphics.setComposite(getGraphicsState().getNonStrokingJavaComposite());
-//        graphics.setPaint(paint);
-//        graphics.setClip(null);
-//        lastClip = null;
+        Layer maskLayer = beginSoftMask(
+            new RectF(getGraphicsState().getCurrentClippingPath().getBounds()));
+        try
+        {
+            // the shading paints the clipping area, intersected with its bbox
+            canvas.save();
+            try
+            {
+                for (Path clip : getGraphicsState().getCurrentClippingPaths())
+                {
+                    canvas.clipPath(clip);
+                }
+                PDRectangle bbox = shading.getBBox();
+                if (bbox != null)
+                {
+                    canvas.clipPath(bbox.transform(ctm));
+                }
+                drawShading(shading, ctm);
+            }
+            finally
+            {
+                canvas.restore();
+            }
+        }
+        finally
+        {
+            endSoftMask(maskLayer);
+        }
+    }
+
+    private static boolean isPattern(PDColor color)
+    {
+        return color.getColorSpace() instanceof PDPattern;
+    }
+
+    /**
+     * Fills the given shape with a pattern color. Only shading patterns are supported.
+     */
+    private void fillWithPattern(PDColor color, Path shape) throws IOException
+    {
+        if (!color.isPattern())
+        {
+            // no pattern has been selected yet
+            return;
+        }
+        PDAbstractPattern pattern = ((PDPattern) color.getColorSpace()).getPattern(color);
+        if (!(pattern instanceof PDShadingPattern))
+        {
+            Log.w("PdfBox-Android", "Tiling patterns are not supported");
+            return;
+        }
+        PDShading shading = ((PDShadingPattern) pattern).getShading();
+        if (shading == null)
+        {
+            return;
+        }
+        // the pattern matrix maps to the default space of the page or form
+        Matrix patternMatrix = Matrix.concatenate(getInitialMatrix(), pattern.getMatrix());
+
+        canvas.save();
+        try
+        {
+            canvas.clipPath(shape);
+            PDRectangle bbox = shading.getBBox();
+            if (bbox != null)
+            {
+                canvas.clipPath(bbox.transform(patternMatrix));
+            }
+            COSArray background = shading.getBackground();
+            if (background != null)
+            {
+                canvas.drawColor(ShadingLookupTable.toARGB(shading.getColorSpace(),
+                    background.toFloatArray()));
+            }
+            drawShading(shading, patternMatrix);
+        }
+        finally
+        {
+            canvas.restore();
+        }
+    }
+
+    /**
+     * Paints the given shading within the clip of the canvas.
+     *
+     * @param shading the shading
+     * @param matrix maps the shading space to the coordinates of the page
+     */
+    private void drawShading(PDShading shading, Matrix matrix) throws IOException
+    {
+        Rect clipBounds = new Rect();
+        if (!canvas.getClipBounds(clipBounds))
+        {
+            return;
+        }
+        int shadingType = shading.getShadingType();
+        boolean gradientShading = shading instanceof PDShadingType2;
+        boolean meshShading = shadingType >= PDShading.SHADING_TYPE4 &&
+            shadingType <= PDShading.SHADING_TYPE7;
+        if (!gradientShading && !meshShading)
+        {
+            Log.w("PdfBox-Android", "Shading type " + shadingType + " is not supported");
+            return;
+        }
 
-        // get the transformed BBox and intersect with current clipping path
-        // need to do it here and not in shading getRaster() because it may have been rotated
-        PDRectangle bbox = shading.getBBox();
-        if (bbox != null)
+        AffineTransform shadingToPage = matrix.createAffineTransform();
+        AffineTransform pageToShading;
+        try
+        {
+            pageToShading = shadingToPage.createInverse();
+        }
+        catch (AffineTransform.NoninvertibleTransformException e)
         {
-//            Area bboxArea = new Area(bbox.transform(ctm));
-//            bboxArea.intersect(getGraphicsState().getCurrentClippingPath());
-//            graphics.fill(bboxArea);
+            return;
+        }
+        RectF area = new RectF(clipBounds);
+
+        if (meshShading)
+        {
+            MeshShading mesh = renderer.getMeshShading(shading);
+            if (mesh.isEmpty())
+            {
+                return;
+            }
+            RectF meshArea = new RectF(mesh.getBounds());
+            shadingToPage.toMatrix().mapRect(meshArea);
+            if (area.intersect(meshArea))
+            {
+                rasterizeMeshShading(mesh, shadingToPage, area);
+            }
+            return;
+        }
+
+        PDShadingType2 axialOrRadial = (PDShadingType2) shading;
+        float[] domain = GradientShading.getDomain(axialOrRadial);
+        GradientShading gradient = new GradientShading(axialOrRadial,
+            renderer.getShadingLookupTable(shading, domain[0], domain[1]));
+        if (gradient.isEmpty())
+        {
+            return;
+        }
+        if (gradient.canUseShader())
+        {
+            float[] corners = { area.left, area.top, area.right, area.top,
+                area.right, area.bottom, area.left, area.bottom };
+            pageToShading.transform(corners, 0, corners, 0, 4);
+            android.graphics.Matrix androidMatrix = shadingToPage.toMatrix();
+            Shader shader = gradient.createShader();
+            shader.setLocalMatrix(androidMatrix);
+            Path shape = gradient.createShape(gradient.getExtent(corners));
+            shape.transform(androidMatrix);
+
+            Paint shadingPaint = new Paint(paint);
+            shadingPaint.setPathEffect(null);
+            shadingPaint.setStyle(Paint.Style.FILL);
+            shadingPaint.setColor(Color.BLACK);
+            shadingPaint.setShader(shader);
+            canvas.drawPath(shape, shadingPaint);
         }
         else
         {
-//            graphics.fill(getGraphicsState().getCurrentClippingPath());
+            rasterizeShading(gradient, shadingToPage, area);
+        }
+    }
+
+    /**
+     * Rasterizes a shading which can't be drawn by a shader into a bitmap with the device
+     * resolution, or half of it in draft mode, and draws it within the clip of the canvas.
+     */
+    private void rasterizeShading(GradientShading gradient, AffineTransform shadingToPage,
+        RectF area) throws IOException
+    {
+        Point size = new Point();
+        AffineTransform bitmapToPage = createShadingBitmapTransform(area, size);
+        if (bitmapToPage == null)
+        {
+            return;
+        }
+        int width = size.x;
+        int height = size.y;
+        AffineTransform bitmapToShading;
+        try
+        {
+            bitmapToShading = shadingToPage.createInverse();
+            bitmapToShading.concatenate(bitmapToPage);
+        }
+        catch (AffineTransform.NoninvertibleTransformException e)
+        {
+            return;
+        }
+        double[] origin = { 0.5, 0.5, 1.5, 0.5, 0.5, 1.5 };
+        bitmapToShading.transform(origin, 0, origin, 0, 3);
+        double dxColumn = origin[2] - origin[0];
+        double dyColumn = origin[3] - origin[1];
+        double dxRow = origin[4] - origin[0];
+        double dyRow = origin[5] - origin[1];
+
+        Bitmap bitmap = acquireBitmap(width, height, Bitmap.Config.ARGB_8888);
+        try
+        {
+            int[] row = new int[width];
+            for (int y = 0; y < height; y++)
+            {
+                if (y % 64 == 0)
+                {
+                    checkCancelled();
+                }
+                gradient.rasterizeRow(row, width, origin[0] + y * dxRow, origin[1] + y * dyRow,
+                    dxColumn, dyColumn);
+                bitmap.setPixels(row, 0, width, 0, y, width, 1);
+            }
+            drawShadingBitmap(bitmap, bitmapToPage);
+        }
+        finally
+        {
+            releaseBitmap(bitmap);
         }
     }
 
+    /**
+     * Rasterizes the triangles of a mesh shading with Gouraud shading into a bitmap with the
+     * device resolution, or half of it in draft mode, and draws it within the clip of the canvas.
+     * Patches are divided according to their size in that bitmap.
+     */
+    private void rasterizeMeshShading(MeshShading mesh, AffineTransform shadingToPage,
+        RectF area) throws IOException
+    {
+        Point size = new Point();
+        AffineTransform bitmapToPage = createShadingBitmapTransform(area, size);
+        if (bitmapToPage == null)
+        {
+            return;
+        }
+        int width = size.x;
+        int height = size.y;
+        AffineTransform shadingToBitmap;
+        try
+        {
+            shadingToBitmap = bitmapToPage.createInverse();
+            shadingToBitmap.concatenate(shadingToPage);
+        }
+        catch (AffineTransform.NoninvertibleTransformException e)
+        {
+            return;
+        }
+        float[] triangles = mesh.getTriangles(mesh.getLevels(shadingToBitmap));
+        int count = mesh.getTriangleCount(triangles);
+
+        Bitmap bitmap = acquireBitmap(width, height, Bitmap.Config.ARGB_8888);
+        try
+        {
+            int[] pixels = new int[width * height];
+            for (int from = 0; from < count; from += MESH_TRIANGLES_PER_CHECK)
+            {
+                checkCancelled();
+                mesh.rasterize(triangles, from, Math.min(count, from + MESH_TRIANGLES_PER_CHECK),
+                    shadingToBitmap, pixels, width, height);
+            }
+            bitmap.setPixels(pixels, 0, width, 0, 0, width, height);
+            drawShadingBitmap(bitmap, bitmapToPage);
+        }
+        finally
+        {
+            releaseBitmap(bitmap);
+        }
+    }
+
+    /**
+     * Returns the transformation from the pixels of a bitmap covering the given area of the page
+     * with the device resolution, or half of it in draft mode, to the page, and stores the size
+     * of that bitmap in the given point. Returns null if the area is empty.
+     */
+    private AffineTransform createShadingBitmapTransform(RectF area, Point size)
+    {
+        android.graphics.Matrix deviceMatrix = canvas.getMatrix();
+        RectF deviceArea = new RectF(area);
+        deviceMatrix.mapRect(deviceArea);
+        Rect deviceBounds = new Rect();
+        deviceArea.roundOut(deviceBounds);
+        int factor = draft ? DRAFT_SHADING_SUBSAMPLING : 1;
+        size.x = (deviceBounds.width() + factor - 1) / factor;
+        size.y = (deviceBounds.height() + factor - 1) / factor;
+        if (size.x <= 0 || size.y <= 0)
+        {
+            return null;
+        }
+        try
+        {
+            AffineTransform bitmapToPage = new AffineTransform(deviceMatrix).createInverse();
+            bitmapToPage.translate(deviceBounds.left, deviceBounds.top);
+            bitmapToPage.scale(factor, factor);
+            return bitmapToPage;
+        }
+        catch (AffineTransform.NoninvertibleTransformException e)
+        {
+            return null;
+        }
+    }
+
+    private void drawShadingBitmap(Bitmap bitmap, AffineTransform bitmapToPage)
+    {
+        Paint bitmapPaint = new Paint(paint);
+        bitmapPaint.setShader(null);
+        bitmapPaint.setColor(Color.BLACK);
+        canvas.drawBitmap(bitmap, bitmapToPage.toMatrix(), bitmapPaint);
+    }
+
     @Override
     public void showAnnotation(PDAnnotation annotation) throws IOException
     {
@@ -1040,7 +1984,17 @@ public class PageDrawer extends PDFGraphicsStreamEngine
             //  default user space; the annotation pivots around that point."
             canvas.rotate(getCurrentPage().getRotation(),
                 rect.getLowerLeftX(), rect.getUpperRightY());
-            super.showAnnotation(annotation);
+            // the cull bounds aren't valid in the rotated space
+            RectF savedCullBounds = cullBounds;
+            cullBounds = null;
+            try
+            {
+                super.showAnnotation(annotation);
+            }
+            finally
+            {
+                cullBounds = savedCullBounds;
+            }
             canvas.setMatrix(savedTransform);
         }
         else
@@ -1088,76 +2042,65 @@ public class PageDrawer extends PDFGraphicsStreamEngine
         {
             return;
         }
-        TransparencyGroup group =
-            new TransparencyGroup(form, false, getGraphicsState().getCurrentTransformationMatrix(), null);
-//        Bitmap image = group.getImage();
-//        if (image == null)
-//        {
-            // image is empty, don't bother
-//            return;
-//        }
-
-//        graphics.setComposite(getGraphicsState().getNonStrokingJavaComposite());
-        setClip();
-
-        // both the DPI xform and the CTM were already applied to the group, so all we do
-        // here is draw it directly onto the Graphics2D device at the appropriate position
-//        PDRectangle bbox = group.getBBox();
-//        AffineTransform savedTransform = graphics.getTransform();
-
-        Matrix m = new Matrix(xform);
-        float xScale = Math.abs(m.getScalingFactorX());
-        float yScale = Math.abs(m.getScalingFactorY());
-
-        AffineTransform transform = new AffineTransform(xform);
-        transform.scale(1.0 / xScale, 1.0 / yScale);
-//        graphics.setTransform(transform);
-
-        // adjust bbox (x,y) position at the initial scale + cropbox
-//        float x = bbox.getLowerLeftX() - pageSize.getLowerLeftX();
-//        float y = pageSize.getUpperRightY() - bbox.getUpperRightY();
-
-        if (flipTG)
+        PDGraphicsState state = getGraphicsState();
+        float alpha = (float) state.getNonStrokeAlphaConstant();
+        PDSoftMask softMask = state.getSoftMask();
+        SoftMaskImage mask = null;
+        if (softMask != null)
         {
-//            graphics.translate(0, image.getHeight());
-//            graphics.scale(1, -1);
+            mask = getSoftMaskImage(softMask);
+            if (mask.isOpaque())
+            {
+                mask = null;
+            }
         }
-        else
+        if (alpha <= 0 || mask != null && mask.image == null && mask.outside == 0)
         {
-//            graphics.translate(x * xScale, y * yScale);
+            return;
         }
+        setClip();
 
-        PDSoftMask softMask = getGraphicsState().getSoftMask();
-        if (softMask != null)
+        if (alpha >= 1 && mask == null)
         {
-//            Paint awtPaint = new TexturePaint(image,
-//                new Rectangle2D.Float(0, 0, image.getWidth(), image.getHeight()));
-//            awtPaint = applySoftMaskToPaint(awtPaint, softMask);
-//            graphics.setPaint(awtPaint);
-            if (isContentRendered())
+            // the group isn't composited with anything, so its content is drawn directly
+            Path.FillType clipWindingRuleOriginal = clipWindingRule;
+            clipWindingRule = null;
+            Path linePathOriginal = linePath;
+            linePath = new Path();
+            try
+            {
+                processTransparencyGroup(form);
+            }
+            finally
             {
-//                graphics.fill(
-//                    new Rectangle2D.Float(0, 0, bbox.getWidth() * xScale, bbox.getHeight() * yScale));
+                clipWindingRule = clipWindingRuleOriginal;
+                linePath = linePathOriginal;
             }
+            return;
         }
-        else
+
+        TransparencyGroup group = new TransparencyGroup(form, false,
+            state.getCurrentTransformationMatrix(), Color.TRANSPARENT);
+        if (group.getImage() == null)
         {
-            if (isContentRendered())
+            // the group is outside of the clip, don't bother
+            return;
+        }
+        try
+        {
+            if (mask != null)
             {
-//                try
-//                {
-//                    graphics.drawImage(image, null, null);
-//                }
-//                catch (InternalError ie)
-//                {
-//                    Log.e("PdfBox-Android", "Exception drawing image, see JDK-6689349, " +
-//                        "try rendering into a BufferedImage instead", ie);
-//                }
+                // looked up again, as the group may have dropped it from the cache
+                applySoftMask(group.getImage(), group.getBounds(), getSoftMaskImage(softMask));
             }
-
+            Paint groupPaint = new Paint();
+            groupPaint.setAlpha(Math.round(Math.min(alpha, 1) * 255));
+            drawLayer(group.getImage(), group.getBounds(), groupPaint);
+        }
+        finally
+        {
+            group.release();
         }
-
-//        graphics.setTransform(savedTransform);
     }
 
     /**
@@ -1165,20 +2108,13 @@ public class PageDrawer extends PDFGraphicsStreamEngine
      **/
     private final class TransparencyGroup
     {
-//        private final Bitmap image;
-//        private final PDRectangle bbox;
-
-//        private final int minX;
-//        private final int minY;
-//        private final int maxX;
-//        private final int maxY;
-//        private final int width;
-//        private final int height;
-        private final float scaleX;
-        private final float scaleY;
+        private final Bitmap image;
+        private final Rect bounds;
 
         /**
-         * Creates a buffered image for a transparency group result.
+         * Renders a transparency group into an offscreen bitmap at the device resolution. The
+         * bitmap covers only the device pixels of the group's bbox, intersected with the clip for
+         * groups which aren't soft masks.
          *
          * @param form the transparency group of the form or soft mask.
          * @param isSoftMask true if this is a soft mask.
@@ -1186,137 +2122,49 @@ public class PageDrawer extends PDFGraphicsStreamEngine
          * the time the soft mask is set (not at the time the soft mask is used for fill/stroke!),
          * for forms, this is the CTM at the time the form is invoked.
          * @param backdropColor the color according to the /bc entry to be used for luminosity soft
-         * masks.
+         * masks, transparent otherwise.
          * @throws IOException
          */
         private TransparencyGroup(PDTransparencyGroup form, boolean isSoftMask, Matrix ctm,
-            PDColor backdropColor) throws IOException
+            int backdropColor) throws IOException
         {
-//            Graphics2D savedGraphics = graphics;
-//            Area savedLastClip = lastClip;
-//            Shape savedInitialClip = initialClip;
-
             // get the CTM x Form Matrix transform
             Matrix transform = Matrix.concatenate(ctm, form.getMatrix());
 
             // transform the bbox
-            Path transformedBox = form.getBBox().transform(transform);
+            RectF area = getPathBounds(form.getBBox().transform(transform));
 
             // clip the bbox to prevent giant bboxes from consuming all memory
-//            Area clip = (Area)getGraphicsState().getCurrentClippingPath().clone();
-//            clip.intersect(new Area(transformedBox));
-//            Rectangle2D clipRect = clip.getBounds2D();
-            Matrix m = new Matrix(xform);
-            scaleX = Math.abs(m.getScalingFactorX());
-            scaleY = Math.abs(m.getScalingFactorY());
-//            if (clipRect.isEmpty())
-//            {
-//                image = null;
-//                bbox = null;
-//                minX = 0;
-//                minY = 0;
-//                maxX = 0;
-//                maxY = 0;
-//                width = 0;
-//                height = 0;
-//                return;
-//            }
-//            this.bbox = new PDRectangle((float)clipRect.getX(), (float)clipRect.getY(),
-//                (float)clipRect.getWidth(), (float)clipRect.getHeight());
-
-            // apply the underlying Graphics2D device's DPI transform
-            AffineTransform dpiTransform = AffineTransform.getScaleInstance(scaleX, scaleY);
-//            Rectangle2D bounds = dpiTransform.createTransformedShape(clip.getBounds2D()).getBounds2D();
-
-//            minX = (int) Math.floor(bounds.getMinX());
-//            minY = (int) Math.floor(bounds.getMinY());
-//            maxX = (int) Math.floor(bounds.getMaxX()) + 1;
-//            maxY = (int) Math.floor(bounds.getMaxY()) + 1;
-
-//            width = maxX - minX;
-//            height = maxY - minY;
-
-            // FIXME - color space
-            if (isGray(form.getGroup().getColorSpace(form.getResources())))
+            Rect deviceBounds = null;
+            if (isSoftMask)
             {
-//                image = create2ByteGrayAlphaImage(width, height);
+                deviceBounds = getDeviceBounds(area, deviceClip);
             }
-            else
+            else if (area.intersect(new RectF(getGraphicsState().getCurrentClippingPath().getBounds())))
             {
-//                image = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+                deviceBounds = getDeviceBounds(area, layerBounds);
             }
-//            Graphics2D g = image.createGraphics();
-
-            boolean needsBackdrop = !isSoftMask && !form.getGroup().isIsolated() &&
-                hasBlendMode(form, new HashSet<COSBase>());
-            Bitmap backdropImage = null;
-            // Position of this group in parent group's coordinates
-            int backdropX = 0;
-            int backdropY = 0;
-            if (needsBackdrop)
+            if (deviceBounds == null)
             {
-                if (transparencyGroupStack.isEmpty())
-                {
-                    // Use the current page as the parent group.
-                    backdropImage = renderer.getPageImage();
-                    needsBackdrop = backdropImage != null;
-//                    backdropX = minX;
-//                    backdropY = (backdropImage != null) ? (backdropImage.getHeight() - maxY) : 0;
-                }
-                else
-                {
-                    TransparencyGroup parentGroup = transparencyGroupStack.peek();
-//                    backdropImage = parentGroup.image;
-//                    backdropX = minX - parentGroup.minX;
-//                    backdropY = parentGroup.maxY - maxY;
-                }
+                image = null;
+                bounds = null;
+                return;
             }
+            bounds = deviceBounds;
 
-//            Graphics2D g = image.createGraphics();
-            if (needsBackdrop)
+            Layer layer = beginLayer(bounds);
+            image = layer.bitmap;
+            if (backdropColor != Color.TRANSPARENT)
             {
-                // backdropImage must be included in group image but not in group alpha.
-//                g.drawImage(backdropImage, 0, 0, width, height,
-//                    backdropX, backdropY, backdropX + width, backdropY + height, null);
-//                g = new GroupGraphics(image, g);
+                image.eraseColor(backdropColor);
             }
-            if (isSoftMask && backdropColor != null)
-            {
-                // "If the subtype is Luminosity, the transparency group XObject G shall be
-                // composited with a fully opaque backdrop whose colour is everywhere defined
-                // by the soft-mask dictionary's BC entry."
-//                g.setBackground(new Color(backdropColor.toRGB()));
-//                g.clearRect(0, 0, width, height);
-            }
-
-            // flip y-axis
-//            g.translate(0, image.getHeight());
-//            g.scale(1, -1);
-
-            boolean savedFlipTG = flipTG;
-            flipTG = false;
 
-            // apply device transform (DPI)
-            // the initial translation is ignored, because we're not writing into the initial graphics device
-//            g.transform(dpiTransform);
-
-            AffineTransform xformOriginal = xform;
-            xform = AffineTransform.getScaleInstance(scaleX, scaleY);
-            PDRectangle pageSizeOriginal = pageSize;
-//            pageSize = new PDRectangle(minX / scaleX,
-//                minY / scaleY,
-//                (float) bounds.getWidth() / scaleX,
-//                (float) bounds.getHeight() / scaleY);
             Path.FillType clipWindingRuleOriginal = clipWindingRule;
             clipWindingRule = null;
             Path linePathOriginal = linePath;
             linePath = new Path();
 
-            // adjust the origin
-//            g.translate(-clipRect.getX(), -clipRect.getY());
-
-//            graphics = g;
-            setRenderingHints();
+            boolean isRendered = false;
             try
             {
                 if (isSoftMask)
@@ -1325,127 +2173,45 @@ public class PageDrawer extends PDFGraphicsStreamEngine
                 }
                 else
                 {
-                    transparencyGroupStack.push(this);
                     processTransparencyGroup(form);
-                    if (!transparencyGroupStack.isEmpty())
-                    {
-                        transparencyGroupStack.pop();
-                    }
                 }
+                isRendered = true;
             }
             finally
             {
-                flipTG = savedFlipTG;
-//                lastClip = savedLastClip;
-//                graphics.dispose();
-//                graphics = savedGraphics;
-//                initialClip = savedInitialClip;
                 clipWindingRule = clipWindingRuleOriginal;
                 linePath = linePathOriginal;
-                pageSize = pageSizeOriginal;
-                xform = xformOriginal;
-
-                if (needsBackdrop)
+                endLayer(layer);
+                if (!isRendered)
                 {
-//                    ((GroupGraphics) g).removeBackdrop(backdropImage, backdropX, backdropY);
+                    releaseBitmap(image);
                 }
             }
         }
 
-        // http://stackoverflow.com/a/21181943/535646
-//        private BufferedImage create2ByteGrayAlphaImage(int width, int height) TODO: PdfBox-Android
-
-        private boolean isGray(PDColorSpace colorSpace)
-        {
-            if (colorSpace instanceof PDDeviceGray)
-            {
-                return true;
-            }
-//            if (colorSpace instanceof PDICCBased)
-//            {
-//                try
-//                {
-//                    return ((PDICCBased) colorSpace).getAlternateColorSpace() instanceof PDDeviceGray;
-//                }
-//                catch (IOException ex)
-//                {
-//                    return false;
-//                }
-//            } TODO: PdfBox-Android
-            return false;
-        }
-
-//        public Bitmap getImage()
-//        {
-//            return image;
-//        }
-
-//        public PDRectangle getBBox()
-//        {
-//            return bbox;
-//        }
-
-//        public RectF getBounds()
-//        {
-//            PointF size = new PointF(pageSize.getWidth(), pageSize.getHeight());
-//            // apply the underlying Graphics2D device's DPI transform and y-axis flip
-//            AffineTransform dpiTransform = AffineTransform.getScaleInstance(scaleX, scaleY);
-//            size = dpiTransform.transform(size, size);
-//            // Flip y
-//            return new RectF(minX - pageSize.getLowerLeftX() * scaleX,
-//                size.y - minY - height + pageSize.getLowerLeftY() * scaleY,
-//                width, height);
-//        }
-    }
-
-    private boolean hasBlendMode(PDTransparencyGroup group, Set<COSBase> groupsDone)
-    {
-        if (groupsDone.contains(group.getCOSObject()))
+        /**
+         * Returns the rendered group, or null if it is outside of the clip.
+         */
+        public Bitmap getImage()
         {
-            // The group was already processed. Avoid endless recursion.
-            return false;
+            return image;
         }
-        groupsDone.add(group.getCOSObject());
 
-        PDResources resources = group.getResources();
-        if (resources == null)
+        /**
+         * Returns the device pixels covered by the image.
+         */
+        public Rect getBounds()
         {
-            return false;
-        }
-        for (COSName name : resources.getExtGStateNames())
-        {
-            PDExtendedGraphicsState extGState = resources.getExtGState(name);
-            if (extGState == null)
-            {
-                continue;
-            }
-            BlendMode blendMode = extGState.getBlendMode();
-            if (blendMode != BlendMode.NORMAL)
-            {
-                return true;
-            }
+            return bounds;
         }
 
-        // Recursively process nested transparency groups
-        for (COSName name : resources.getXObjectNames())
+        /**
+         * Returns the image to the bitmap pool.
+         */
+        public void release()
         {
-            PDXObject xObject;
-            try
-            {
-                xObject = resources.getXObject(name);
-            }
-            catch (IOException ex)
-            {
-                continue;
-            }
-            if (xObject instanceof PDTransparencyGroup &&
-                hasBlendMode((PDTransparencyGroup)xObject, groupsDone))
-            {
-                return true;
-            }
+            releaseBitmap(image);
         }
-
-        return false;
     }
 
     /**
@@ -28,24 +28,34 @@ import com.tom_roush.pdfbox.pdmodel.PDPage;
  */
 public final class PageDrawerParameters
 {
+    // images are subsampled at most this much, unless a thumbnail is rendered
+    static final int DEFAULT_MAX_SUBSAMPLING = 8;
+
     private final PDFRenderer renderer;
     private final PDPage page;
     private final boolean subsamplingAllowed;
     private final RenderDestination destination;
     private final float imageDownscalingOptimizationThreshold;
+    private final BitmapPool bitmapPool;
+    private final boolean draft;
+    private final int maxSubsampling;
 
     /**
      * Package-private constructor.
      */
     PageDrawerParameters(PDFRenderer renderer, PDPage page, boolean subsamplingAllowed,
         RenderDestination destination,
-        float imageDownscalingOptimizationThreshold)
+        float imageDownscalingOptimizationThreshold, BitmapPool bitmapPool, boolean draft,
+        int maxSubsampling)
     {
         this.renderer = renderer;
         this.page = page;
         this.subsamplingAllowed = subsamplingAllowed;
         this.destination = destination;
         this.imageDownscalingOptimizationThreshold = imageDownscalingOptimizationThreshold;
+        this.bitmapPool = bitmapPool;
+        this.draft = draft;
+        this.maxSubsampling = maxSubsampling;
     }
 
     /**
@@ -89,4 +99,30 @@ public final class PageDrawerParameters
     {
         return imageDownscalingOptimizationThreshold;
     }
+
+    /**
+     * Returns the pool for temporary bitmaps, may be null.
+     */
+    public BitmapPool getBitmapPool()
+    {
+        return bitmapPool;
+    }
+
+    /**
+     * Returns whether to draw a quick draft, with images subsampled further, without
+     * anti-aliasing and with small text drawn as bars.
+     */
+    public boolean isDraft()
+    {
+        return draft;
+    }
+
+    /**
+     * Returns the largest subsampling factor for images, before the further subsampling of a
+     * draft.
+     */
+    public int getMaxSubsampling()
+    {
+        return maxSubsampling;
+    }
 }
@@ -0,0 +1,43 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tom_roush.pdfbox.rendering;
+
+import android.graphics.Bitmap;
+
+/**
+ * Receives the images of {@link PDFRenderer#renderImageProgressive(int, float, ImageType,
+ * ProgressiveRenderListener) progressive rendering}. The methods are called on the rendering
+ * thread.
+ */
+public interface ProgressiveRenderListener
+{
+    /**
+     * Called when the draft of a page has been rendered.
+     *
+     * @param pageIndex the zero-based index of the page
+     * @param draft the draft image, it has the size of the final image
+     */
+    void onDraftRendered(int pageIndex, Bitmap draft);
+
+    /**
+     * Called when a page has been rendered in full quality.
+     *
+     * @param pageIndex the zero-based index of the page
+     * @param image the final image
+     */
+    void onPageRendered(int pageIndex, Bitmap image);
+}
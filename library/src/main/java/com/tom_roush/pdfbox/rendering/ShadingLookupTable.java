@@ -0,0 +1,147 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tom_roush.pdfbox.rendering;
+
+import java.io.IOException;
+
+import com.tom_roush.pdfbox.pdmodel.graphics.color.PDColorSpace;
+import com.tom_roush.pdfbox.pdmodel.graphics.shading.PDShading;
+
+/**
+ * The colors of a shading function, evaluated once at evenly spaced points of its domain and
+ * converted to packed ARGB values, so that shadings can be painted without calling the function
+ * and the color space per pixel.
+ */
+final class ShadingLookupTable
+{
+    /**
+     * The number of entries, enough for smooth gradients with 8-bit color components.
+     */
+    static final int SIZE = 1024;
+
+    private final int[] colors;
+
+    private ShadingLookupTable(int[] colors)
+    {
+        this.colors = colors;
+    }
+
+    /**
+     * Evaluates the function of the given shading at {@link #SIZE} points between the given
+     * values.
+     *
+     * @param shading the shading, which must have a function with one input value
+     * @param t0 the value of the first entry
+     * @param t1 the value of the last entry
+     * @return the lookup table
+     * @throws IOException if the function can't be evaluated
+     */
+    static ShadingLookupTable create(PDShading shading, float t0, float t1) throws IOException
+    {
+        PDColorSpace colorSpace = shading.getColorSpace();
+        int[] colors = new int[SIZE];
+        float[] input = new float[1];
+        for (int i = 0; i < SIZE; i++)
+        {
+            input[0] = t0 + (t1 - t0) * i / (SIZE - 1);
+            colors[i] = toARGB(colorSpace, shading.evalFunction(input));
+        }
+        return new ShadingLookupTable(colors);
+    }
+
+    /**
+     * Returns the color at the given position.
+     *
+     * @param s the position between 0 (first entry) and 1 (last entry), clamped
+     * @return the color as packed ARGB value
+     */
+    int getColor(float s)
+    {
+        int index = (int) (s * (SIZE - 1) + 0.5f);
+        if (index < 0)
+        {
+            index = 0;
+        }
+        else if (index >= SIZE)
+        {
+            index = SIZE - 1;
+        }
+        return colors[index];
+    }
+
+    /**
+     * Returns all colors, from the first to the last entry. Do not modify the array.
+     */
+    int[] getColors()
+    {
+        return colors;
+    }
+
+    /**
+     * Converts color components to an opaque packed ARGB value. As this port supports only few
+     * color spaces, unsupported ones fall back to DeviceRGB; the number of components then tells
+     * whether they are gray, RGB or CMYK values.
+     *
+     * @param colorSpace the color space of the components
+     * @param components the color components, each between 0 and 1
+     * @return the color as packed ARGB value
+     * @throws IOException if the color can't be converted
+     */
+    static int toARGB(PDColorSpace colorSpace, float[] components) throws IOException
+    {
+        float r;
+        float g;
+        float b;
+        if (components.length == colorSpace.getNumberOfComponents() &&
+            components.length > 0)
+        {
+            float[] rgb = colorSpace.toRGB(components);
+            r = rgb[0];
+            g = rgb[1];
+            b = rgb[2];
+        }
+        else if (components.length == 3)
+        {
+            r = components[0];
+            g = components[1];
+            b = components[2];
+        }
+        else if (components.length == 4)
+        {
+            // naive CMYK conversion
+            float k = 1 - components[3];
+            r = (1 - components[0]) * k;
+            g = (1 - components[1]) * k;
+            b = (1 - components[2]) * k;
+        }
+        else if (components.length > 0)
+        {
+            r = g = b = components[0];
+        }
+        else
+        {
+            r = g = b = 0;
+        }
+        return 0xFF000000 | (toByte(r) << 16) | (toByte(g) << 8) | toByte(b);
+    }
+
+    private static int toByte(float value)
+    {
+        int b = Math.round(value * 255);
+        return b < 0 ? 0 : (b > 255 ? 255 : b);
+    }
+}
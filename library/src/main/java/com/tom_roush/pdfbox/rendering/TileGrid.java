@@ -0,0 +1,160 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tom_roush.pdfbox.rendering;
+
+import android.graphics.Rect;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.tom_roush.pdfbox.pdmodel.PDPage;
+import com.tom_roush.pdfbox.pdmodel.common.PDRectangle;
+
+/**
+ * Divides the image of a page at a given scale into square tiles, which can be rendered with
+ * {@link PDFRenderer#renderImage(int, float, Rect)}. The tiles in the last column and row are
+ * cut off at the edge of the page.
+ */
+public final class TileGrid
+{
+    private final int pageWidth;
+    private final int pageHeight;
+    private final int tileSize;
+    private final int columns;
+    private final int rows;
+
+    /**
+     * Creates the tile grid of a page.
+     *
+     * @param page the page
+     * @param scale the scaling factor, where 1 = 72 DPI
+     * @param tileSize the width and height of the tiles in pixels
+     * @throws IllegalArgumentException if the tile size isn't positive
+     */
+    public TileGrid(PDPage page, float scale, int tileSize)
+    {
+        if (tileSize <= 0)
+        {
+            throw new IllegalArgumentException("tileSize must be positive: " + tileSize);
+        }
+        PDRectangle cropBox = page.getCropBox();
+        int width = PDFRenderer.toPixels(cropBox.getWidth(), scale);
+        int height = PDFRenderer.toPixels(cropBox.getHeight(), scale);
+        int rotationAngle = page.getRotation();
+        if (rotationAngle == 90 || rotationAngle == 270)
+        {
+            pageWidth = height;
+            pageHeight = width;
+        }
+        else
+        {
+            pageWidth = width;
+            pageHeight = height;
+        }
+        this.tileSize = tileSize;
+        columns = (pageWidth + tileSize - 1) / tileSize;
+        rows = (pageHeight + tileSize - 1) / tileSize;
+    }
+
+    /**
+     * Returns the width of the whole page image in pixels.
+     */
+    public int getPageWidth()
+    {
+        return pageWidth;
+    }
+
+    /**
+     * Returns the height of the whole page image in pixels.
+     */
+    public int getPageHeight()
+    {
+        return pageHeight;
+    }
+
+    /**
+     * Returns the width and height of the tiles in pixels.
+     */
+    public int getTileSize()
+    {
+        return tileSize;
+    }
+
+    /**
+     * Returns the number of tile columns.
+     */
+    public int getColumns()
+    {
+        return columns;
+    }
+
+    /**
+     * Returns the number of tile rows.
+     */
+    public int getRows()
+    {
+        return rows;
+    }
+
+    /**
+     * Returns the region of a tile in pixels of the page image.
+     *
+     * @param column the 0-based column
+     * @param row the 0-based row
+     * @return the region of the tile
+     * @throws IndexOutOfBoundsException if there is no such tile
+     */
+    public Rect getTile(int column, int row)
+    {
+        if (column < 0 || column >= columns || row < 0 || row >= rows)
+        {
+            throw new IndexOutOfBoundsException("No tile at column " + column + ", row " + row +
+                " in a grid of " + columns + " x " + rows);
+        }
+        int left = column * tileSize;
+        int top = row * tileSize;
+        return new Rect(left, top, Math.min(left + tileSize, pageWidth),
+            Math.min(top + tileSize, pageHeight));
+    }
+
+    /**
+     * Returns the tiles which intersect the given viewport, row by row.
+     *
+     * @param viewport the visible region in pixels of the page image
+     * @return the regions of the visible tiles, empty if the viewport is outside of the page
+     */
+    public List<Rect> getTiles(Rect viewport)
+    {
+        List<Rect> tiles = new ArrayList<Rect>();
+        if (viewport.right <= 0 || viewport.bottom <= 0)
+        {
+            return tiles;
+        }
+        int firstColumn = Math.max(0, viewport.left / tileSize);
+        int firstRow = Math.max(0, viewport.top / tileSize);
+        int lastColumn = Math.min(columns - 1, (viewport.right - 1) / tileSize);
+        int lastRow = Math.min(rows - 1, (viewport.bottom - 1) / tileSize);
+        for (int row = firstRow; row <= lastRow; row++)
+        {
+            for (int column = firstColumn; column <= lastColumn; column++)
+            {
+                tiles.add(getTile(column, row));
+            }
+        }
+        return tiles;
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tom_roush.fontbox.ttf;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the glyph cache used by {@link GlyphTable}.
+ */
+public class GlyphCacheTest
+{
+    @Test
+    public void testEvictsByCount()
+    {
+        GlyphCache cache = new GlyphCache(8, Long.MAX_VALUE);
+        for (int gid = 0; gid < 8; gid++)
+        {
+            cache.put(gid, new GlyphData(), 10);
+        }
+        // keep GID 0 in use
+        assertNotNull(cache.get(0));
+        cache.put(8, new GlyphData(), 10);
+
+        assertEquals(6, cache.size());
+        assertNotNull(cache.get(0));
+        assertNotNull(cache.get(8));
+        assertNull(cache.get(1));
+        assertNull(cache.get(2));
+        assertNull(cache.get(3));
+    }
+
+    @Test
+    public void testEvictsBySize()
+    {
+        GlyphCache cache = new GlyphCache(Integer.MAX_VALUE, 100);
+        for (int gid = 0; gid < 10; gid++)
+        {
+            cache.put(gid, new GlyphData(), 10);
+        }
+        assertEquals(100, cache.getBytes());
+
+        cache.put(10, new GlyphData(), 10);
+        assertTrue(cache.getBytes() <= 75);
+        assertNotNull(cache.get(10));
+        assertNull(cache.get(0));
+
+        // larger than the whole budget, not cached
+        cache.put(11, new GlyphData(), 101);
+        assertNull(cache.get(11));
+    }
+
+    @Test
+    public void testGlyphTableReusesParsedGlyphs() throws IOException
+    {
+        TrueTypeFont ttf = new TTFParser().parse(
+            new File("src/test/resources/fontbox/ttf/LiberationSans-Regular.ttf"));
+        try
+        {
+            GlyphTable glyphTable = ttf.getGlyph();
+            int numGlyphs = ttf.getNumberOfGlyphs();
+            assertTrue(numGlyphs > 100);
+            for (int gid = 1; gid < numGlyphs; gid++)
+            {
+                GlyphData glyph = glyphTable.getGlyph(gid);
+                if (glyph != null)
+                {
+                    assertSame(glyph, glyphTable.getGlyph(gid));
+                }
+            }
+        }
+        finally
+        {
+            ttf.close();
+        }
+    }
+}
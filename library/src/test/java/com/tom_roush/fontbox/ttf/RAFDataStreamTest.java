@@ -16,9 +16,20 @@
  */
 package com.tom_roush.fontbox.ttf;
 
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 import org.junit.Test;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
 /**
  *
  * @author Tilman Hausherr
@@ -37,4 +48,78 @@ public class RAFDataStreamTest
         raf.close();
         raf.close();
     }
+
+    /**
+     * Views have their own position and don't move the position of the stream.
+     *
+     * @throws IOException
+     */
+    @Test
+    public void testView() throws IOException
+    {
+        RAFDataStream raf = new RAFDataStream("src/test/resources/fontbox/ttf/LiberationSans-Regular.ttf", "r");
+        MemoryTTFDataStream memory = new MemoryTTFDataStream(
+            new FileInputStream("src/test/resources/fontbox/ttf/LiberationSans-Regular.ttf"));
+        try
+        {
+            raf.seek(12);
+            TTFDataStream view = raf.createView();
+            view.seek(1000);
+            assertEquals(12, raf.getCurrentPosition());
+
+            memory.seek(1000);
+            assertEquals(memory.readLong(), view.readLong());
+            assertEquals(memory.readUnsignedShort(), view.readUnsignedShort());
+            assertEquals(memory.readSignedShort(), view.readSignedShort());
+            assertArrayEquals(memory.read(10000), view.read(10000));
+            assertEquals(memory.getCurrentPosition(), view.getCurrentPosition());
+        }
+        finally
+        {
+            raf.close();
+            memory.close();
+        }
+    }
+
+    /**
+     * Tables of the same font can be read by several threads at the same time.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testConcurrentTableAccess() throws Exception
+    {
+        final TrueTypeFont ttf = new TTFParser(false, true).parse(
+            "src/test/resources/fontbox/ttf/LiberationSans-Regular.ttf");
+        final byte[] expected = ttf.getTableBytes(ttf.getTableMap().get(GlyphTable.TAG));
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try
+        {
+            List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+            for (int i = 0; i < 8; i++)
+            {
+                results.add(executor.submit(new Callable<Integer>()
+                {
+                    @Override
+                    public Integer call() throws IOException
+                    {
+                        assertArrayEquals(expected,
+                            ttf.getTableBytes(ttf.getTableMap().get(GlyphTable.TAG)));
+                        return ttf.getHorizontalMetrics().getAdvanceWidth(36) +
+                            ttf.getUnicodeCmapLookup().getGlyphId('A');
+                    }
+                }));
+            }
+            int first = results.get(0).get();
+            for (Future<Integer> result : results)
+            {
+                assertEquals(first, (int) result.get());
+            }
+        }
+        finally
+        {
+            executor.shutdown();
+            ttf.close();
+        }
+    }
 }
@@ -18,6 +18,7 @@ package com.tom_roush.fontbox.ttf;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.net.URI;
 import java.util.ArrayList;
@@ -26,12 +27,15 @@ import java.util.Locale;
 import java.util.Map.Entry;
 
 import com.tom_roush.fontbox.util.autodetect.FontFileFinder;
+import com.tom_roush.pdfbox.io.IOUtils;
 
 import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assume.assumeTrue;
 
 /**
@@ -120,6 +124,93 @@ public class TTFSubsetterTest
         subset.close();
     }
 
+    /**
+     * Test that the components of a composite glyph are added and renumbered, and that the
+     * checksum of the glyphs, which are written directly from the original font, is correct.
+     *
+     * @throws java.io.IOException
+     */
+    @Test
+    public void testCompositeGlyphSubset() throws IOException
+    {
+        TrueTypeFont full = new TTFParser().parse("src/test/resources/fontbox/ttf/LiberationSans-Regular.ttf");
+        int fullGid = full.nameToGID("eacute");
+        GlyphData fullGlyph = full.getGlyph().getGlyph(fullGid);
+        assertTrue(fullGlyph.getDescription().isComposite());
+
+        TTFSubsetter ttfSubsetter = new TTFSubsetter(full);
+        ttfSubsetter.add(0xE9);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ttfSubsetter.writeToStream(baos);
+        TrueTypeFont subset = new TTFParser(true).parse(new ByteArrayInputStream(baos.toByteArray()));
+
+        // .notdef, eacute, e, acute
+        assertEquals(4, subset.getNumberOfGlyphs());
+        int subsetGid = subset.nameToGID("eacute");
+        GlyphData subsetGlyph = subset.getGlyph().getGlyph(subsetGid);
+        assertTrue(subsetGlyph.getDescription().isComposite());
+        assertEquals(fullGlyph.getDescription().getPointCount(),
+            subsetGlyph.getDescription().getPointCount());
+        assertEquals(fullGlyph.getBoundingBox().getUpperRightX(),
+            subsetGlyph.getBoundingBox().getUpperRightX(), 0);
+
+        TTFTable glyf = subset.getTableMap().get("glyf");
+        byte[] bytes = subset.getTableBytes(glyf);
+        long checksum = 0;
+        for (int i = 0; i < bytes.length; i++)
+        {
+            checksum += (bytes[i] & 0xffL) << 24 - i % 4 * 8;
+        }
+        assertEquals(checksum & 0xffffffffL, glyf.getCheckSum());
+
+        // the glyph index is kept by the font and reused by later subsets
+        assertSame(full.getGlyphComponentIndex(), full.getGlyphComponentIndex());
+        subset.close();
+        full.close();
+    }
+
+    /**
+     * Test that a malformed composite glyph only affects subsets which use it: glyphs outside of
+     * the subset aren't read, and a malformed glyph in the subset is left empty.
+     *
+     * @throws java.io.IOException
+     */
+    @Test
+    public void testMalformedCompositeGlyph() throws IOException
+    {
+        File file = new File("src/test/resources/fontbox/ttf/LiberationSans-Regular.ttf");
+        byte[] bytes = IOUtils.toByteArray(new FileInputStream(file));
+        TrueTypeFont full = new TTFParser().parse(new ByteArrayInputStream(bytes));
+        int gid = full.nameToGID("aacute");
+        assertTrue(full.getGlyph().getGlyph(gid).getDescription().isComposite());
+        int offset = (int) (full.getGlyph().getOffset() + full.getIndexToLocation().getOffsets()[gid]);
+        full.close();
+
+        // the first component refers to a glyph which doesn't exist
+        bytes[offset + 12] = (byte) 0xff;
+        bytes[offset + 13] = (byte) 0xff;
+        full = new TTFParser().parse(new ByteArrayInputStream(bytes));
+
+        TTFSubsetter ttfSubsetter = new TTFSubsetter(full);
+        ttfSubsetter.add('a');
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ttfSubsetter.writeToStream(baos);
+        TrueTypeFont subset = new TTFParser(true).parse(new ByteArrayInputStream(baos.toByteArray()));
+        assertEquals(2, subset.getNumberOfGlyphs());
+        assertEquals(0, full.getGlyphComponentIndex().getLength(gid));
+        subset.close();
+
+        ttfSubsetter = new TTFSubsetter(full);
+        ttfSubsetter.add(0xE1);
+        baos = new ByteArrayOutputStream();
+        ttfSubsetter.writeToStream(baos);
+        subset = new TTFParser(true).parse(new ByteArrayInputStream(baos.toByteArray()));
+        assertEquals(2, subset.getNumberOfGlyphs());
+        assertNull(subset.getGlyph().getGlyph(subset.nameToGID("aacute")));
+        subset.close();
+        full.close();
+    }
+
     /**
      * Test of PDFBOX-3319: check that widths and left side bearings in partially monospaced font
      * are kept.
@@ -0,0 +1,164 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tom_roush.pdfbox.contentstream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+import com.tom_roush.pdfbox.contentstream.operator.Operator;
+import com.tom_roush.pdfbox.contentstream.operator.state.Restore;
+import com.tom_roush.pdfbox.contentstream.operator.state.Save;
+import com.tom_roush.pdfbox.cos.COSBase;
+import com.tom_roush.pdfbox.cos.COSName;
+import com.tom_roush.pdfbox.pdmodel.PDDocument;
+import com.tom_roush.pdfbox.pdmodel.PDPage;
+import com.tom_roush.pdfbox.pdmodel.common.PDStream;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests stopping a {@link PDFStreamEngine} with a {@link CancellationToken}.
+ */
+public class CancellationTokenTest
+{
+    private static final int OPERATORS = 20000;
+
+    @Test
+    public void testToken() throws InterruptedException
+    {
+        CancellationToken token = new CancellationToken();
+        assertFalse(token.isCancelled());
+        token.cancel();
+        assertTrue(token.isCancelled());
+
+        token = CancellationToken.withTimeout(10000);
+        assertFalse(token.isCancelled());
+        token = CancellationToken.withTimeout(1);
+        Thread.sleep(5);
+        assertTrue(token.isCancelled());
+    }
+
+    @Test
+    public void testCancelDuringProcessing() throws IOException
+    {
+        PDDocument document = createDocument();
+        try
+        {
+            final CancellationToken token = new CancellationToken();
+            CountingEngine engine = new CountingEngine()
+            {
+                @Override
+                protected void processOperator(Operator operator, List<COSBase> operands)
+                    throws IOException
+                {
+                    super.processOperator(operator, operands);
+                    if (count == 1000)
+                    {
+                        token.cancel();
+                    }
+                }
+            };
+            engine.setCancellationToken(token);
+            try
+            {
+                engine.processPage(document.getPage(0));
+                fail("processing wasn't cancelled");
+            }
+            catch (ProcessingCancelledException e)
+            {
+                // expected
+            }
+            assertTrue(engine.count >= 1000);
+            assertTrue(engine.count < 1100);
+
+            // without token the whole page is processed
+            engine = new CountingEngine();
+            engine.processPage(document.getPage(0));
+            assertEquals(OPERATORS, engine.count);
+        }
+        finally
+        {
+            document.close();
+        }
+    }
+
+    @Test
+    public void testExpiredDeadline() throws IOException
+    {
+        PDDocument document = createDocument();
+        try
+        {
+            CountingEngine engine = new CountingEngine();
+            engine.setCancellationToken(CancellationToken.withTimeout(-1));
+            try
+            {
+                engine.processPage(document.getPage(0));
+                fail("processing wasn't cancelled");
+            }
+            catch (ProcessingCancelledException e)
+            {
+                // expected
+            }
+            assertEquals(0, engine.count);
+        }
+        finally
+        {
+            document.close();
+        }
+    }
+
+    private static PDDocument createDocument() throws IOException
+    {
+        PDDocument document = new PDDocument();
+        PDPage page = new PDPage();
+        document.addPage(page);
+        PDStream contents = new PDStream(document);
+        OutputStream out = contents.createOutputStream(COSName.FLATE_DECODE);
+        for (int i = 0; i < OPERATORS / 2; i++)
+        {
+            out.write("q\nQ\n".getBytes("US-ASCII"));
+        }
+        out.close();
+        page.setContents(contents);
+        return document;
+    }
+
+    private static class CountingEngine extends PDFStreamEngine
+    {
+        int count;
+
+        CountingEngine()
+        {
+            addOperator(new Save());
+            addOperator(new Restore());
+        }
+
+        @Override
+        protected void processOperator(Operator operator, List<COSBase> operands)
+            throws IOException
+        {
+            count++;
+            super.processOperator(operator, operands);
+        }
+    }
+}
@@ -15,6 +15,15 @@
  */
 package com.tom_roush.pdfbox.filter;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+
+import com.tom_roush.pdfbox.cos.COSDictionary;
+import com.tom_roush.pdfbox.cos.COSName;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -86,4 +95,152 @@ public class PredictorTest
         // check truncation
         Assert.assertEquals(Integer.parseInt("00000010", 2), calcSetBitSeq(Integer.parseInt("00000000", 2), 1, 1, 3));
     }
+
+    /**
+     * Test that the predictor input stream decodes the same data as the predictor output stream,
+     * including an incomplete last row.
+     */
+    @Test
+    public void testPredictorInputStream() throws IOException
+    {
+        Random random = new Random(4711);
+        int[][] configs = { { 15, 3, 8, 17 }, { 12, 1, 16, 5 }, { 2, 4, 8, 9 }, { 2, 1, 1, 30 },
+            { 2, 2, 4, 7 }, { 11, 1, 1, 8 } };
+        for (int[] config : configs)
+        {
+            COSDictionary decodeParams = new COSDictionary();
+            decodeParams.setInt(COSName.PREDICTOR, config[0]);
+            decodeParams.setInt(COSName.COLORS, config[1]);
+            decodeParams.setInt(COSName.BITS_PER_COMPONENT, config[2]);
+            decodeParams.setInt(COSName.COLUMNS, config[3]);
+            int rowLength = Predictor.calculateRowLength(config[1], config[2], config[3]);
+            int stride = config[0] >= 10 ? rowLength + 1 : rowLength;
+
+            byte[] encoded = new byte[stride * 20 + stride / 2];
+            random.nextBytes(encoded);
+            if (config[0] == 15)
+            {
+                // optimum: a predictor per row
+                for (int i = 0; i < encoded.length; i += stride)
+                {
+                    encoded[i] = (byte) random.nextInt(5);
+                }
+            }
+
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            OutputStream out = Predictor.wrapPredictor(expected, decodeParams);
+            out.write(encoded, 0, encoded.length);
+            out.flush();
+
+            InputStream in = Predictor.wrapPredictor(new ByteArrayInputStream(encoded), decodeParams);
+            ByteArrayOutputStream actual = new ByteArrayOutputStream();
+            byte[] buf = new byte[7];
+            int read;
+            while ((read = in.read(buf, 0, 1 + random.nextInt(buf.length))) != -1)
+            {
+                actual.write(buf, 0, read);
+            }
+            Assert.assertArrayEquals(expected.toByteArray(), actual.toByteArray());
+        }
+    }
+
+    /**
+     * Test the row decoding fast paths against a straightforward sample by sample implementation,
+     * for all predictors and the common layouts.
+     */
+    @Test
+    public void testDecodePredictorRowFastPaths()
+    {
+        Random random = new Random(815);
+        int[][] layouts = { { 1, 8 }, { 2, 8 }, { 3, 8 }, { 4, 8 }, { 5, 8 }, { 1, 16 }, { 3, 16 },
+            { 1, 1 }, { 3, 1 }, { 1, 2 }, { 1, 4 }, { 3, 4 } };
+        int[] predictors = { 2, 10, 11, 12, 13, 14 };
+        for (int[] layout : layouts)
+        {
+            int colors = layout[0];
+            int bpc = layout[1];
+            for (int columns = 1; columns <= 19; columns++)
+            {
+                int rowLength = Predictor.calculateRowLength(colors, bpc, columns);
+                for (int predictor : predictors)
+                {
+                    byte[] lastline = new byte[rowLength];
+                    byte[] actline = new byte[rowLength];
+                    random.nextBytes(lastline);
+                    random.nextBytes(actline);
+                    byte[] expected = actline.clone();
+                    decodeRowReference(predictor, colors, bpc, columns, expected, lastline);
+                    Predictor.decodePredictorRow(predictor, colors, bpc, columns, actline, lastline);
+                    Assert.assertArrayEquals("predictor " + predictor + ", colors " + colors
+                        + ", bpc " + bpc + ", columns " + columns, expected, actline);
+                }
+            }
+        }
+    }
+
+    private static void decodeRowReference(int predictor, int colors, int bpc, int columns,
+        byte[] actline, byte[] lastline)
+    {
+        int bytesPerPixel = (colors * bpc + 7) / 8;
+        if (predictor == 2)
+        {
+            // add each sample to the sample on its left, modulo 2^bpc
+            int mask = (1 << bpc) - 1;
+            // single bit samples are decoded up to the end of the last byte
+            int elements = bpc == 1 && colors == 1 ? actline.length * 8 : columns * colors;
+            for (int i = colors; i < elements; i++)
+            {
+                int sum = (getSample(actline, i, bpc) + getSample(actline, i - colors, bpc)) & mask;
+                for (int bit = 0; bit < bpc; bit++)
+                {
+                    int pos = i * bpc + bit;
+                    int value = (sum >> (bpc - 1 - bit)) & 1;
+                    actline[pos / 8] = (byte) (actline[pos / 8] & ~(0x80 >> pos % 8)
+                        | value << 7 - pos % 8);
+                }
+            }
+            return;
+        }
+        for (int p = 0; p < actline.length; p++)
+        {
+            int a = p >= bytesPerPixel ? actline[p - bytesPerPixel] & 0xff : 0;
+            int b = lastline[p] & 0xff;
+            int c = p >= bytesPerPixel ? lastline[p - bytesPerPixel] & 0xff : 0;
+            int predicted;
+            switch (predictor)
+            {
+                case 11:
+                    predicted = a;
+                    break;
+                case 12:
+                    predicted = b;
+                    break;
+                case 13:
+                    predicted = (a + b) / 2;
+                    break;
+                case 14:
+                    int value = a + b - c;
+                    int pa = Math.abs(value - a);
+                    int pb = Math.abs(value - b);
+                    int pc = Math.abs(value - c);
+                    predicted = pa <= pb && pa <= pc ? a : (pb <= pc ? b : c);
+                    break;
+                default:
+                    predicted = 0;
+                    break;
+            }
+            actline[p] = (byte) (actline[p] + predicted);
+        }
+    }
+
+    private static int getSample(byte[] row, int index, int bpc)
+    {
+        int value = 0;
+        for (int bit = 0; bit < bpc; bit++)
+        {
+            int pos = index * bpc + bit;
+            value = value << 1 | (row[pos / 8] >> 7 - pos % 8) & 1;
+        }
+        return value;
+    }
 }
@@ -20,6 +20,7 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.Arrays;
 import java.util.Random;
 
@@ -30,7 +31,10 @@ import com.tom_roush.pdfbox.pdmodel.PDDocument;
 
 import org.junit.Test;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.junit.Assume.assumeTrue;
 
 /**
@@ -151,6 +155,107 @@ public class TestFilters
         checkEncodeDecode(lzwFilter, byteArray);
     }
 
+    /**
+     * Test the LZW filter with the example of the PDF specification, and with data that fills
+     * the code table several times.
+     *
+     * @throws IOException
+     */
+    @Test
+    public void testLZWCodeTable() throws IOException
+    {
+        Filter lzwFilter = FilterFactory.INSTANCE.getFilter(COSName.LZW_DECODE);
+        byte[] original = new byte[] { 45, 45, 45, 45, 45, 65, 45, 45, 45, 66 };
+        byte[] specEncoded = new byte[] { (byte) 0x80, 0x0B, 0x60, 0x50, 0x22, 0x0C, 0x0C,
+            (byte) 0x85, 0x01 };
+
+        ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+        lzwFilter.decode(new ByteArrayInputStream(specEncoded), decoded, new COSDictionary(), 0);
+        assertArrayEquals(original, decoded.toByteArray());
+
+        // the encoder pads the data with 7 zero bits after the EOD code
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        lzwFilter.encode(new ByteArrayInputStream(original), encoded, new COSDictionary());
+        assertArrayEquals(Arrays.copyOf(specEncoded, specEncoded.length + 1),
+            encoded.toByteArray());
+
+        // runs of a few different bytes need codes that are defined by the code itself
+        Random random = new Random(1977);
+        byte[] runs = new byte[300000];
+        for (int i = 0; i < runs.length; i++)
+        {
+            runs[i] = random.nextInt(8) == 0 ? (byte) random.nextInt(3) : runs[Math.max(i - 1, 0)];
+        }
+        checkEncodeDecode(lzwFilter, runs);
+    }
+
+    /**
+     * Test that the incremental CCITT decoder gives the same rows as the buffered one, also when
+     * rows are skipped.
+     *
+     * @throws IOException
+     */
+    @Test
+    public void testCCITTFaxDecoderStream() throws IOException
+    {
+        Filter filter = FilterFactory.INSTANCE.getFilter(COSName.CCITTFAX_DECODE);
+        int cols = 203;
+        int rows = 97;
+        int rowLength = (cols + 7) / 8;
+        Random random = new Random(1728);
+        byte[] original = new byte[rowLength * rows];
+        for (int i = 0; i < 200; i++)
+        {
+            // black rectangles
+            int x0 = random.nextInt(cols - 20);
+            int y0 = random.nextInt(rows - 10);
+            int w = 1 + random.nextInt(20);
+            int h = 1 + random.nextInt(10);
+            for (int y = y0; y < y0 + h; y++)
+            {
+                for (int x = x0; x < x0 + w; x++)
+                {
+                    original[y * rowLength + x / 8] |= 0x80 >> (x % 8);
+                }
+            }
+        }
+        COSDictionary encodeParameters = new COSDictionary();
+        encodeParameters.setInt(COSName.COLUMNS, cols);
+        encodeParameters.setInt(COSName.ROWS, rows);
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        filter.encode(new ByteArrayInputStream(original), encoded, encodeParameters);
+
+        COSDictionary decodeParms = new COSDictionary();
+        decodeParms.setInt(COSName.K, -1);
+        decodeParms.setInt(COSName.COLUMNS, cols);
+        decodeParms.setInt(COSName.ROWS, rows);
+        decodeParms.setBoolean(COSName.BLACK_IS_1, true);
+        COSDictionary parameters = new COSDictionary();
+        parameters.setItem(COSName.FILTER, COSName.CCITTFAX_DECODE);
+        parameters.setItem(COSName.DECODE_PARMS, decodeParms);
+
+        ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+        filter.decode(new ByteArrayInputStream(encoded.toByteArray()), decoded, parameters, 0);
+        assertArrayEquals(original, decoded.toByteArray());
+
+        InputStream decoder = filter.createDecoderStream(
+            new ByteArrayInputStream(encoded.toByteArray()), parameters, 0, DecodeOptions.DEFAULT);
+        byte[] row = new byte[rowLength];
+        for (int y = 0; y < rows; y++)
+        {
+            if (y % 3 == 0)
+            {
+                assertEquals(rowLength, IOUtils.populateBuffer(decoder, row));
+                assertArrayEquals(Arrays.copyOfRange(original, y * rowLength, (y + 1) * rowLength), row);
+            }
+            else
+            {
+                assertEquals(rowLength, decoder.skip(rowLength));
+            }
+        }
+        assertEquals(-1, decoder.read());
+    }
+
     private void checkEncodeDecode(Filter filter, byte[] original) throws IOException
     {
         ByteArrayOutputStream encoded = new ByteArrayOutputStream();
@@ -163,5 +268,165 @@ public class TestFilters
             "Data that is encoded and then decoded through "
                 + filter.getClass() + " does not match the original data",
             Arrays.equals(original, decoded.toByteArray()));
+
+        InputStream decoder = filter.createDecoderStream(
+            new ByteArrayInputStream(encoded.toByteArray()), new COSDictionary(), 0,
+            DecodeOptions.DEFAULT);
+        if (decoder != null)
+        {
+            assertTrue(
+                "Data that is encoded and then decoded incrementally through "
+                    + filter.getClass() + " does not match the original data",
+                Arrays.equals(original, readInChunks(decoder, new Random(original.length))));
+        }
+    }
+
+    /**
+     * Test that the incremental RunLength decoder gives the same result as the buffered one.
+     *
+     * @throws IOException
+     */
+    @Test
+    public void testRunLengthDecoderStream() throws IOException
+    {
+        Filter filter = FilterFactory.INSTANCE.getFilter(COSName.RUN_LENGTH_DECODE);
+        // literal run of 3, replicate run of 5, literal run of 1, EOD, garbage
+        byte[] encoded = new byte[] { 2, 'a', 'b', 'c', (byte) 252, 'x', 0, 'z', (byte) 128, 'q' };
+        byte[] expected = "abcxxxxxz".getBytes("US-ASCII");
+
+        ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+        filter.decode(new ByteArrayInputStream(encoded), decoded, new COSDictionary(), 0);
+        assertArrayEquals(expected, decoded.toByteArray());
+
+        InputStream decoder = filter.createDecoderStream(new ByteArrayInputStream(encoded),
+            new COSDictionary(), 0, DecodeOptions.DEFAULT);
+        assertArrayEquals(expected, readInChunks(decoder, new Random(1)));
+    }
+
+    /**
+     * Test that the incremental Flate decoder doesn't need all data to return the first bytes.
+     *
+     * @throws IOException
+     */
+    @Test
+    public void testFlateDecoderStreamIsLazy() throws IOException
+    {
+        byte[] original = new byte[1000000];
+        new Random(42).nextBytes(original);
+        Filter filter = FilterFactory.INSTANCE.getFilter(COSName.FLATE_DECODE);
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        filter.encode(new ByteArrayInputStream(original), encoded, new COSDictionary());
+
+        ByteArrayInputStream in = new ByteArrayInputStream(encoded.toByteArray());
+        InputStream decoder = filter.createDecoderStream(in, new COSDictionary(), 0,
+            DecodeOptions.DEFAULT);
+        byte[] first = new byte[1024];
+        int read = decoder.read(first);
+        assertTrue(read > 0);
+        assertArrayEquals(Arrays.copyOf(original, read), Arrays.copyOf(first, read));
+        // most of the encoded data hasn't been read yet
+        assertTrue(in.available() > encoded.size() / 2);
+        decoder.close();
+    }
+
+    /**
+     * Test that the incremental Flate decoder has no more data available after the end.
+     *
+     * @throws IOException
+     */
+    @Test
+    public void testFlateDecoderStreamAvailable() throws IOException
+    {
+        byte[] original = "BT /F1 12 Tf (Hello) Tj ET".getBytes("US-ASCII");
+        Filter filter = FilterFactory.INSTANCE.getFilter(COSName.FLATE_DECODE);
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        filter.encode(new ByteArrayInputStream(original), encoded, new COSDictionary());
+
+        InputStream decoder = filter.createDecoderStream(
+            new ByteArrayInputStream(encoded.toByteArray()), new COSDictionary(), 0,
+            DecodeOptions.DEFAULT);
+        assertTrue(decoder.available() > 0);
+        byte[] decoded = new byte[100];
+        assertEquals(original.length, decoder.read(decoded));
+        assertEquals(0, decoder.available());
+        assertEquals(-1, decoder.read());
+        decoder.close();
+    }
+
+    /**
+     * Test that many small Flate streams reuse pooled inflaters, also when a stream isn't read to
+     * the end or is corrupt.
+     *
+     * @throws IOException
+     */
+    @Test
+    public void testFlatePoolReuse() throws IOException
+    {
+        Filter filter = FilterFactory.INSTANCE.getFilter(COSName.FLATE_DECODE);
+        byte[] original = "BT /F1 12 Tf (Hello) Tj ET".getBytes("US-ASCII");
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        filter.encode(new ByteArrayInputStream(original), encoded, new COSDictionary());
+
+        for (int i = 0; i < 1000; i++)
+        {
+            ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+            filter.decode(new ByteArrayInputStream(encoded.toByteArray()), decoded,
+                new COSDictionary(), 0);
+            assertArrayEquals(original, decoded.toByteArray());
+
+            InputStream decoder = filter.createDecoderStream(
+                new ByteArrayInputStream(encoded.toByteArray()), new COSDictionary(), 0,
+                DecodeOptions.DEFAULT);
+            assertEquals('B', decoder.read());
+            decoder.close();
+        }
+        assertTrue(FlatePool.getIdleInflaterCount() > 0);
+
+        byte[] corrupt = new byte[] { 0x78, (byte) 0x9c, (byte) 0xff, (byte) 0xff, (byte) 0xff };
+        try
+        {
+            filter.decode(new ByteArrayInputStream(corrupt), new ByteArrayOutputStream(),
+                new COSDictionary(), 0);
+            fail("corrupt stream should not be decoded");
+        }
+        catch (IOException expected)
+        {
+            // expected
+        }
+
+        // a pooled inflater is reset before it's used again
+        ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+        filter.decode(new ByteArrayInputStream(encoded.toByteArray()), decoded,
+            new COSDictionary(), 0);
+        assertArrayEquals(original, decoded.toByteArray());
+    }
+
+    private static byte[] readInChunks(InputStream in, Random random) throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[1024];
+        while (true)
+        {
+            if (random.nextInt(4) == 0)
+            {
+                int b = in.read();
+                if (b == -1)
+                {
+                    break;
+                }
+                out.write(b);
+            }
+            else
+            {
+                int read = in.read(buf, 0, 1 + random.nextInt(buf.length));
+                if (read == -1)
+                {
+                    break;
+                }
+                out.write(buf, 0, read);
+            }
+        }
+        in.close();
+        return out.toByteArray();
     }
 }
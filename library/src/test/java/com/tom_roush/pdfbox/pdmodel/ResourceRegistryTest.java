@@ -0,0 +1,184 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tom_roush.pdfbox.pdmodel;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import com.tom_roush.pdfbox.cos.COSName;
+import com.tom_roush.pdfbox.cos.COSObject;
+import com.tom_roush.pdfbox.cos.COSStream;
+import com.tom_roush.pdfbox.pdmodel.font.PDType0Font;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the deduplication of resources with a {@link ResourceRegistry}.
+ */
+public class ResourceRegistryTest
+{
+    private static final File FONT_FILE =
+        new File("src/test/resources/fontbox/ttf/LiberationSans-Regular.ttf");
+
+    @Test
+    public void testFontIsLoadedOnce() throws IOException
+    {
+        PDDocument document = new PDDocument();
+        try
+        {
+            PDType0Font font1 = PDType0Font.load(document, FONT_FILE);
+            PDType0Font font2 = PDType0Font.load(document, FONT_FILE);
+            assertNotSame(font1, font2);
+
+            document.setResourceRegistry(new ResourceRegistry());
+            PDType0Font font3 = PDType0Font.load(document, FONT_FILE);
+            assertSame(font3, PDType0Font.load(document, FONT_FILE));
+            assertSame(font3, PDType0Font.load(document, new FileInputStream(FONT_FILE)));
+            assertNotSame(font3, PDType0Font.load(document, new FileInputStream(FONT_FILE), false));
+            assertNotSame(font3, PDType0Font.loadVertical(document, FONT_FILE));
+            assertEquals(3, document.getResourceRegistry().size());
+        }
+        finally
+        {
+            document.close();
+        }
+    }
+
+    /**
+     * The font stream is closed whether or not the document has a registry.
+     *
+     * @throws IOException
+     */
+    @Test
+    public void testFontStreamIsClosed() throws IOException
+    {
+        PDDocument document = new PDDocument();
+        try
+        {
+            final boolean[] closed = new boolean[1];
+            PDType0Font.load(document, new FileInputStream(FONT_FILE)
+            {
+                @Override
+                public void close() throws IOException
+                {
+                    closed[0] = true;
+                    super.close();
+                }
+            });
+            assertTrue(closed[0]);
+
+            closed[0] = false;
+            document.setResourceRegistry(new ResourceRegistry());
+            PDType0Font.load(document, new FileInputStream(FONT_FILE)
+            {
+                @Override
+                public void close() throws IOException
+                {
+                    closed[0] = true;
+                    super.close();
+                }
+            });
+            assertTrue(closed[0]);
+        }
+        finally
+        {
+            document.close();
+        }
+    }
+
+    /**
+     * Byte-identical streams are written once when saving with a registry, streams with the same
+     * data but a different dictionary are not merged.
+     *
+     * @throws IOException
+     */
+    @Test
+    public void testIdenticalStreamsAreMerged() throws IOException
+    {
+        byte[] merged = save(true);
+        byte[] unmerged = save(false);
+        assertTrue(merged.length + 1000 < unmerged.length);
+
+        PDDocument document = PDDocument.load(merged);
+        try
+        {
+            assertEquals(3, document.getNumberOfPages());
+            long contents0 = getContentsObjectNumber(document.getPage(0));
+            assertEquals(contents0, getContentsObjectNumber(document.getPage(1)));
+            assertNotEquals(contents0, getContentsObjectNumber(document.getPage(2)));
+        }
+        finally
+        {
+            document.close();
+        }
+
+        document = PDDocument.load(unmerged);
+        try
+        {
+            assertNotEquals(getContentsObjectNumber(document.getPage(0)),
+                getContentsObjectNumber(document.getPage(1)));
+        }
+        finally
+        {
+            document.close();
+        }
+    }
+
+    private static byte[] save(boolean merge) throws IOException
+    {
+        PDDocument document = new PDDocument();
+        if (merge)
+        {
+            document.setResourceRegistry(new ResourceRegistry());
+        }
+        for (int i = 0; i < 3; i++)
+        {
+            PDPage page = new PDPage();
+            document.addPage(page);
+            COSStream contents = document.getDocument().createCOSStream();
+            OutputStream out = contents.createOutputStream();
+            for (int j = 0; j < 200; j++)
+            {
+                out.write(("0 0 m " + j + " " + j + " l S\n").getBytes("US-ASCII"));
+            }
+            out.close();
+            if (i == 2)
+            {
+                contents.setName(COSName.getPDFName("Custom"), "third");
+            }
+            page.getCOSObject().setItem(COSName.CONTENTS, contents);
+        }
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        document.save(baos);
+        document.close();
+        return baos.toByteArray();
+    }
+
+    private static long getContentsObjectNumber(PDPage page)
+    {
+        return ((COSObject) page.getCOSObject().getItem(COSName.CONTENTS)).getObjectNumber();
+    }
+}
@@ -101,4 +101,25 @@ public class PDStreamTest
         doc.close();
     }
 
+    /**
+     * Test that the decoded length hint /DL doesn't change the decoded data, whether it's too
+     * small, exact or too large.
+     */
+    @Test
+    public void testToByteArrayWithDecodedLength() throws Exception
+    {
+        PDDocument doc = new PDDocument();
+        byte[] data = new byte[3000];
+        for (int i = 0; i < data.length; i++)
+        {
+            data[i] = (byte) (i % 7);
+        }
+        PDStream pdStream = new PDStream(doc, new ByteArrayInputStream(data), COSName.FLATE_DECODE);
+        for (int decodedLength : new int[] { 0, 1, 2999, 3000, 3001, 100000 })
+        {
+            pdStream.setDecodedStreamLength(decodedLength);
+            Assert.assertArrayEquals(data, pdStream.toByteArray());
+        }
+        doc.close();
+    }
 }
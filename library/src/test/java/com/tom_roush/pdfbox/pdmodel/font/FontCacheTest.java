@@ -0,0 +1,269 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tom_roush.pdfbox.pdmodel.font;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.tom_roush.fontbox.FontBoxFont;
+import com.tom_roush.fontbox.ttf.TTFParser;
+import com.tom_roush.fontbox.ttf.TrueTypeFont;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests the eviction, statistics and loading behaviour of {@link FontCache}.
+ */
+public class FontCacheTest
+{
+    private TrueTypeFont font;
+    private long fontSize;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        font = new TTFParser().parse(PDFont.class.getResourceAsStream(
+            "/com/tom_roush/pdfbox/resources/ttf/LiberationSans-Regular.ttf"));
+        fontSize = FontCache.estimateSize(font);
+    }
+
+    @Test
+    public void testHitsAndMisses()
+    {
+        FontCache cache = new FontCache();
+        FontInfo info = new TestFontInfo("A");
+
+        assertNull(cache.getFont(info));
+        cache.addFont(info, font);
+        assertSame(font, cache.getFont(info));
+
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getFontCount());
+        assertEquals(fontSize, cache.getSize());
+    }
+
+    @Test
+    public void testDefaultBudget()
+    {
+        // an eighth of the heap, at most 64 MB
+        assertEquals(4L * 1024 * 1024, FontCache.getDefaultMaxSize(32L * 1024 * 1024));
+        assertEquals(64L * 1024 * 1024, FontCache.getDefaultMaxSize(512L * 1024 * 1024));
+        assertEquals(64L * 1024 * 1024, FontCache.getDefaultMaxSize(Long.MAX_VALUE));
+        assertEquals(FontCache.DEFAULT_MAX_SIZE, new FontCache().getMaxSize());
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed()
+    {
+        FontCache cache = new FontCache(fontSize * 2 + fontSize / 2);
+        FontInfo a = new TestFontInfo("A");
+        FontInfo b = new TestFontInfo("B");
+        FontInfo c = new TestFontInfo("C");
+
+        cache.addFont(a, font);
+        cache.addFont(b, font);
+        cache.getFont(a);
+        cache.addFont(c, font);
+
+        assertNotNull(cache.getFont(a));
+        assertNull(cache.getFont(b));
+        assertNotNull(cache.getFont(c));
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(fontSize * 2, cache.getSize());
+    }
+
+    @Test
+    public void testKeepsFontLargerThanBudget()
+    {
+        FontCache cache = new FontCache(fontSize / 2);
+        FontInfo a = new TestFontInfo("A");
+        FontInfo b = new TestFontInfo("B");
+
+        cache.addFont(a, font);
+        assertSame(font, cache.getFont(a));
+
+        cache.addFont(b, font);
+        assertNull(cache.getFont(a));
+        assertSame(font, cache.getFont(b));
+        assertEquals(1, cache.getFontCount());
+    }
+
+    @Test
+    public void testShrinkBudget()
+    {
+        FontCache cache = new FontCache();
+        cache.addFont(new TestFontInfo("A"), font);
+        cache.addFont(new TestFontInfo("B"), font);
+
+        cache.setMaxSize(0);
+        assertEquals(0, cache.getFontCount());
+        assertEquals(0, cache.getSize());
+        assertEquals(2, cache.getEvictionCount());
+    }
+
+    @Test
+    public void testConcurrentLoadsParseOnce() throws Exception
+    {
+        final FontCache cache = new FontCache();
+        final FontInfo info = new TestFontInfo("A");
+        final AtomicInteger loads = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        final Callable<FontBoxFont> loader = new Callable<FontBoxFont>()
+        {
+            @Override
+            public FontBoxFont call() throws Exception
+            {
+                loads.incrementAndGet();
+                Thread.sleep(50);
+                return font;
+            }
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try
+        {
+            List<Future<FontBoxFont>> results = new ArrayList<Future<FontBoxFont>>();
+            for (int i = 0; i < 8; i++)
+            {
+                results.add(executor.submit(new Callable<FontBoxFont>()
+                {
+                    @Override
+                    public FontBoxFont call() throws Exception
+                    {
+                        start.await();
+                        return cache.getFont(info, loader);
+                    }
+                }));
+            }
+            start.countDown();
+            for (Future<FontBoxFont> result : results)
+            {
+                assertSame(font, result.get());
+            }
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+
+        assertEquals(1, loads.get());
+        assertEquals(1, cache.getLoadCount());
+    }
+
+    @Test
+    public void testFailedLoadIsNotCached() throws IOException
+    {
+        FontCache cache = new FontCache();
+        FontInfo info = new TestFontInfo("A");
+        Callable<FontBoxFont> loader = new Callable<FontBoxFont>()
+        {
+            @Override
+            public FontBoxFont call()
+            {
+                return null;
+            }
+        };
+
+        assertNull(cache.getFont(info, loader));
+        assertNull(cache.getFont(info, loader));
+        assertEquals(2, cache.getLoadCount());
+        assertEquals(0, cache.getFontCount());
+    }
+
+    private static class TestFontInfo extends FontInfo
+    {
+        private final String name;
+
+        TestFontInfo(String name)
+        {
+            this.name = name;
+        }
+
+        @Override
+        public String getPostScriptName()
+        {
+            return name;
+        }
+
+        @Override
+        public FontFormat getFormat()
+        {
+            return FontFormat.TTF;
+        }
+
+        @Override
+        public CIDSystemInfo getCIDSystemInfo()
+        {
+            return null;
+        }
+
+        @Override
+        public FontBoxFont getFont()
+        {
+            return null;
+        }
+
+        @Override
+        public int getFamilyClass()
+        {
+            return 0;
+        }
+
+        @Override
+        public int getWeightClass()
+        {
+            return 0;
+        }
+
+        @Override
+        public int getCodePageRange1()
+        {
+            return 0;
+        }
+
+        @Override
+        public int getCodePageRange2()
+        {
+            return 0;
+        }
+
+        @Override
+        public int getMacStyle()
+        {
+            return 0;
+        }
+
+        @Override
+        public PDPanoseClassification getPanose()
+        {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tom_roush.pdfbox.pdmodel.font;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.tom_roush.fontbox.FontBoxFont;
+import com.tom_roush.fontbox.ttf.TTFParser;
+import com.tom_roush.fontbox.ttf.TrueTypeFont;
+import com.tom_roush.pdfbox.cos.COSDictionary;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the memoization of font substitutions in {@link FontMapperImpl}.
+ */
+public class FontMapperImplTest
+{
+    private TrueTypeFont font;
+    private FontMapperImpl fontMapper;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        font = new TTFParser().parse(PDFont.class.getResourceAsStream(
+            "/com/tom_roush/pdfbox/resources/ttf/LiberationSans-Regular.ttf"));
+        fontMapper = new FontMapperImpl();
+        fontMapper.setProvider(new TestFontProvider(new TestFontInfo("ArialMT", font)));
+    }
+
+    @Test
+    public void testRepeatedMappingIsCached()
+    {
+        PDFontDescriptor descriptor = new PDFontDescriptor(new COSDictionary());
+        FontMapping<TrueTypeFont> first = fontMapper.getTrueTypeFont("Arial", descriptor);
+        FontMapping<TrueTypeFont> second = fontMapper.getTrueTypeFont("Arial", descriptor);
+
+        assertSame(font, first.getFont());
+        assertSame(font, second.getFont());
+        assertFalse(second.isFallback());
+
+        FontMappingCache cache = fontMapper.getMappingCache();
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testFallbackIsCached()
+    {
+        FontMapping<FontBoxFont> first = fontMapper.getFontBoxFont("Unknown", null);
+        FontMapping<FontBoxFont> second = fontMapper.getFontBoxFont("Unknown", null);
+
+        assertTrue(first.isFallback());
+        assertTrue(second.isFallback());
+        assertSame(first.getFont(), second.getFont());
+        assertEquals(1, fontMapper.getMappingCache().getHitCount());
+    }
+
+    @Test
+    public void testProviderChangeInvalidates()
+    {
+        fontMapper.getTrueTypeFont("Arial", null);
+        assertEquals(1, fontMapper.getMappingCache().size());
+
+        fontMapper.setProvider(new TestFontProvider());
+        assertEquals(0, fontMapper.getMappingCache().size());
+
+        FontMapping<TrueTypeFont> mapping = fontMapper.getTrueTypeFont("Arial", null);
+        assertTrue(mapping.isFallback());
+    }
+
+    private static class TestFontProvider extends FontProvider
+    {
+        private final List<FontInfo> fontInfo;
+
+        TestFontProvider(FontInfo... fontInfo)
+        {
+            this.fontInfo = new ArrayList<FontInfo>();
+            Collections.addAll(this.fontInfo, fontInfo);
+        }
+
+        @Override
+        public String toDebugString()
+        {
+            return fontInfo.toString();
+        }
+
+        @Override
+        public List<? extends FontInfo> getFontInfo()
+        {
+            return fontInfo;
+        }
+    }
+
+    private static class TestFontInfo extends FontInfo
+    {
+        private final String name;
+        private final FontBoxFont font;
+
+        TestFontInfo(String name, FontBoxFont font)
+        {
+            this.name = name;
+            this.font = font;
+        }
+
+        @Override
+        public String getPostScriptName()
+        {
+            return name;
+        }
+
+        @Override
+        public FontFormat getFormat()
+        {
+            return FontFormat.TTF;
+        }
+
+        @Override
+        public CIDSystemInfo getCIDSystemInfo()
+        {
+            return null;
+        }
+
+        @Override
+        public FontBoxFont getFont()
+        {
+            return font;
+        }
+
+        @Override
+        public int getFamilyClass()
+        {
+            return 0;
+        }
+
+        @Override
+        public int getWeightClass()
+        {
+            return 0;
+        }
+
+        @Override
+        public int getCodePageRange1()
+        {
+            return 0;
+        }
+
+        @Override
+        public int getCodePageRange2()
+        {
+            return 0;
+        }
+
+        @Override
+        public int getMacStyle()
+        {
+            return 0;
+        }
+
+        @Override
+        public PDPanoseClassification getPanose()
+        {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tom_roush.pdfbox.pdmodel.graphics.image;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Adler32;
+import java.util.zip.Deflater;
+import java.util.zip.InflaterInputStream;
+
+import com.tom_roush.pdfbox.io.IOUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the chunked zlib compression of {@link LosslessFactory}.
+ */
+public class LosslessFactoryDeflateTest
+{
+    private boolean useChunkedDeflate;
+
+    @Before
+    public void setUp()
+    {
+        // Build.VERSION.SDK_INT is 0 in unit tests, but the JVM supports SYNC_FLUSH
+        useChunkedDeflate = LosslessFactory.useChunkedDeflate;
+        LosslessFactory.useChunkedDeflate = true;
+    }
+
+    @After
+    public void tearDown()
+    {
+        LosslessFactory.useChunkedDeflate = useChunkedDeflate;
+    }
+
+    @Test
+    public void testCombineAdler32()
+    {
+        byte[] data = createData(100000);
+        Adler32 whole = new Adler32();
+        whole.update(data, 0, data.length);
+        for (int split : new int[] { 0, 1, 65521, 65522, 99999, 100000 })
+        {
+            Adler32 first = new Adler32();
+            first.update(data, 0, split);
+            Adler32 second = new Adler32();
+            second.update(data, split, data.length - split);
+            assertEquals(whole.getValue(), LosslessFactory.combineAdler32(first.getValue(),
+                second.getValue(), data.length - split));
+        }
+    }
+
+    /**
+     * Data compressed in several chunks must be a valid zlib stream, including the checksum
+     * which InflaterInputStream verifies.
+     *
+     * @throws IOException
+     */
+    @Test
+    public void testDeflate() throws IOException
+    {
+        for (int length : new int[] { 0, 1, 1000, 3 * (1 << 18) + 17, 5000000 })
+        {
+            byte[] data = createData(length);
+            for (int level : new int[] { Deflater.DEFAULT_COMPRESSION, Deflater.NO_COMPRESSION,
+                Deflater.BEST_SPEED, Deflater.BEST_COMPRESSION })
+            {
+                byte[] encoded = LosslessFactory.deflate(data, level);
+                assertEquals(0, ((encoded[0] & 0xff) << 8 | encoded[1] & 0xff) % 31);
+                byte[] decoded = IOUtils.toByteArray(
+                    new InflaterInputStream(new ByteArrayInputStream(encoded)));
+                assertArrayEquals(data, decoded);
+            }
+        }
+    }
+
+    /**
+     * Without chunks, as before API 19, the data is compressed as a single stream.
+     *
+     * @throws IOException
+     */
+    @Test
+    public void testDeflateSingleStream() throws IOException
+    {
+        LosslessFactory.useChunkedDeflate = false;
+        byte[] data = createData(3 * (1 << 18) + 17);
+        byte[] encoded = LosslessFactory.deflate(data, Deflater.DEFAULT_COMPRESSION);
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        deflater.setInput(data);
+        deflater.finish();
+        byte[] buffer = new byte[data.length];
+        int length = deflater.deflate(buffer);
+        deflater.end();
+        assertArrayEquals(Arrays.copyOf(buffer, length), encoded);
+    }
+
+    @Test
+    public void testDeflateRatio() throws IOException
+    {
+        byte[] data = createData(4000000);
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        deflater.setInput(data);
+        deflater.finish();
+        byte[] buffer = new byte[data.length];
+        int single = deflater.deflate(buffer);
+        deflater.end();
+
+        // priming each chunk with the preceding data keeps the size close to a single stream
+        int chunked = LosslessFactory.deflate(data, Deflater.DEFAULT_COMPRESSION).length;
+        assertTrue("chunked " + chunked + ", single " + single, chunked < single * 1.01);
+    }
+
+    /**
+     * Creates compressible data, like the rows of a predictor encoded image.
+     */
+    private static byte[] createData(int length)
+    {
+        Random random = new Random(length);
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++)
+        {
+            data[i] = random.nextInt(8) == 0 ? (byte) random.nextInt() : (byte) (i / 3000);
+        }
+        return data;
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tom_roush.pdfbox.rendering;
+
+import java.io.IOException;
+
+import com.tom_roush.pdfbox.cos.COSArray;
+import com.tom_roush.pdfbox.cos.COSBoolean;
+import com.tom_roush.pdfbox.cos.COSDictionary;
+import com.tom_roush.pdfbox.cos.COSFloat;
+import com.tom_roush.pdfbox.cos.COSInteger;
+import com.tom_roush.pdfbox.cos.COSName;
+import com.tom_roush.pdfbox.pdmodel.graphics.color.PDDeviceRGB;
+import com.tom_roush.pdfbox.pdmodel.graphics.shading.PDShading;
+import com.tom_roush.pdfbox.pdmodel.graphics.shading.PDShadingType2;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the lookup tables and the geometry of axial and radial shadings.
+ */
+public class GradientShadingTest
+{
+    private static final int RED = 0xFFFF0000;
+    private static final int BLUE = 0xFF0000FF;
+
+    @Test
+    public void testLookupTable() throws IOException
+    {
+        ShadingLookupTable lookupTable = createLookupTable(createShading(2, false, false, 0, 0,
+            100, 0));
+        assertEquals(RED, lookupTable.getColor(0));
+        assertEquals(BLUE, lookupTable.getColor(1));
+        assertEquals(RED, lookupTable.getColor(-1));
+        int purple = lookupTable.getColor(0.5f);
+        assertEquals(128, (purple >> 16) & 0xFF, 1);
+        assertEquals(0, (purple >> 8) & 0xFF);
+        assertEquals(128, purple & 0xFF, 1);
+    }
+
+    @Test
+    public void testColorFallback() throws IOException
+    {
+        // the components of unsupported color spaces, which fall back to DeviceRGB
+        assertEquals(0xFF00FFFF, ShadingLookupTable.toARGB(PDDeviceRGB.INSTANCE,
+            new float[] { 1, 0, 0, 0 }));
+        assertEquals(0xFF808080, ShadingLookupTable.toARGB(PDDeviceRGB.INSTANCE,
+            new float[] { 0.5f }));
+        assertEquals(0xFF336699, ShadingLookupTable.toARGB(PDDeviceRGB.INSTANCE,
+            new float[] { 0.2f, 0.4f, 0.6f }));
+    }
+
+    @Test
+    public void testAxial() throws IOException
+    {
+        PDShadingType2 shading = createShading(2, false, true, 10, 0, 110, 0);
+        GradientShading gradient = new GradientShading(shading, createLookupTable(shading));
+        assertTrue(gradient.canUseShader());
+        assertEquals(0.5f, gradient.getPosition(60, 50), 1e-6);
+        assertEquals(0.25f, gradient.getPosition(35, -1000), 1e-6);
+        assertTrue(Float.isNaN(gradient.getPosition(9, 0)));
+        assertEquals(1, gradient.getPosition(500, 0), 0);
+
+        int[] row = new int[4];
+        gradient.rasterizeRow(row, 4, 0, 0, 50, 0);
+        assertEquals(0, row[0]);
+        assertEquals(lookupTableColor(shading, 0.4f), row[1]);
+        assertEquals(lookupTableColor(shading, 0.9f), row[2]);
+        assertEquals(BLUE, row[3]);
+    }
+
+    @Test
+    public void testConcentricRadial() throws IOException
+    {
+        PDShadingType2 shading = createShading(3, true, false, 0, 0, 10, 0, 0, 50);
+        GradientShading gradient = new GradientShading(shading, createLookupTable(shading));
+        assertTrue(gradient.canUseShader());
+        assertEquals(0, gradient.getPosition(5, 0), 1e-6);
+        assertEquals(0.5f, gradient.getPosition(0, 30), 1e-6);
+        assertTrue(Float.isNaN(gradient.getPosition(51, 0)));
+    }
+
+    @Test
+    public void testTwoPointRadial() throws IOException
+    {
+        // a small circle within a larger one, not concentric
+        PDShadingType2 shading = createShading(3, false, false, 20, 0, 0, 0, 0, 100);
+        GradientShading gradient = new GradientShading(shading, createLookupTable(shading));
+        assertFalse(gradient.canUseShader());
+        assertEquals(1, gradient.getPosition(0, 100), 1e-6);
+        assertEquals(1, gradient.getPosition(-100, 0), 1e-6);
+        assertEquals(0.5f, gradient.getPosition(10, 50), 1e-6);
+        assertTrue(Float.isNaN(gradient.getPosition(120, 0)));
+        assertEquals(0.25f, gradient.getPosition(40, 0), 1e-6);
+    }
+
+    @Test
+    public void testEmpty() throws IOException
+    {
+        PDShadingType2 shading = createShading(2, true, true, 10, 10, 10, 10);
+        GradientShading gradient = new GradientShading(shading, createLookupTable(shading));
+        assertTrue(gradient.isEmpty());
+        assertTrue(Float.isNaN(gradient.getPosition(10, 10)));
+    }
+
+    private static ShadingLookupTable createLookupTable(PDShadingType2 shading)
+        throws IOException
+    {
+        float[] domain = GradientShading.getDomain(shading);
+        return ShadingLookupTable.create(shading, domain[0], domain[1]);
+    }
+
+    private static int lookupTableColor(PDShadingType2 shading, float s) throws IOException
+    {
+        return createLookupTable(shading).getColor(s);
+    }
+
+    // a shading from red to blue with the given coordinates
+    private static PDShadingType2 createShading(int type, boolean extendStart,
+        boolean extendEnd, float... coords) throws IOException
+    {
+        COSDictionary function = new COSDictionary();
+        function.setInt(COSName.FUNCTION_TYPE, 2);
+        function.setItem(COSName.DOMAIN, toArray(0, 1));
+        function.setItem(COSName.C0, toArray(1, 0, 0));
+        function.setItem(COSName.C1, toArray(0, 0, 1));
+        function.setItem(COSName.N, COSInteger.ONE);
+
+        COSDictionary dictionary = new COSDictionary();
+        dictionary.setInt(COSName.SHADING_TYPE, type);
+        dictionary.setItem(COSName.COLORSPACE, COSName.DEVICERGB);
+        dictionary.setItem(COSName.COORDS, toArray(coords));
+        dictionary.setItem(COSName.FUNCTION, function);
+        COSArray extend = new COSArray();
+        extend.add(COSBoolean.getBoolean(extendStart));
+        extend.add(COSBoolean.getBoolean(extendEnd));
+        dictionary.setItem(COSName.EXTEND, extend);
+        return (PDShadingType2) PDShading.create(dictionary);
+    }
+
+    private static COSArray toArray(float... values)
+    {
+        COSArray array = new COSArray();
+        for (float value : values)
+        {
+            array.add(new COSFloat(value));
+        }
+        return array;
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tom_roush.pdfbox.rendering;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import com.tom_roush.harmony.awt.geom.AffineTransform;
+import com.tom_roush.pdfbox.cos.COSArray;
+import com.tom_roush.pdfbox.cos.COSDictionary;
+import com.tom_roush.pdfbox.cos.COSFloat;
+import com.tom_roush.pdfbox.cos.COSInteger;
+import com.tom_roush.pdfbox.cos.COSName;
+import com.tom_roush.pdfbox.cos.COSStream;
+import com.tom_roush.pdfbox.pdmodel.graphics.shading.PDShading;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests decoding, dividing and rasterizing triangle and patch meshes.
+ */
+public class MeshShadingTest
+{
+    @Test
+    public void testFreeForm() throws IOException
+    {
+        // red, green and blue corners, then a white vertex which continues with flag 1
+        PDShading shading = createShading(4, 255, 3, new int[] {
+            0, 0, 0, 255, 0, 0,
+            0, 100, 0, 0, 255, 0,
+            0, 0, 100, 0, 0, 255,
+            1, 100, 100, 255, 255, 255 });
+        MeshShading mesh = new MeshShading(shading, null);
+        assertFalse(mesh.isEmpty());
+        assertEquals(0, mesh.getLevels(new AffineTransform()).length);
+        float[] triangles = mesh.getTriangles(new int[0]);
+        assertEquals(2, mesh.getTriangleCount(triangles));
+
+        int[] pixels = rasterize(mesh, triangles, 100, 100);
+        assertColor(0xFFFF0000, pixels[0], 8);
+        assertColor(0xFF00FF00, pixels[98], 8);
+        assertColor(0xFF0000FF, pixels[98 * 100], 8);
+        assertColor(0xFFFFFFFF, pixels[99 * 100 + 99], 8);
+        // between red and green
+        assertColor(0xFF808000, pixels[49], 8);
+    }
+
+    @Test
+    public void testLatticeWithFunction() throws IOException
+    {
+        // 2 x 2 vertices, the function parameter grows from left to right
+        PDShading shading = createShading(5, 255, 1, new int[] {
+            0, 0, 0, 60, 0, 255,
+            0, 60, 0, 60, 60, 255 });
+        shading.getCOSObject().setInt(COSName.VERTICES_PER_ROW, 2);
+        COSDictionary function = new COSDictionary();
+        function.setInt(COSName.FUNCTION_TYPE, 2);
+        function.setItem(COSName.DOMAIN, toArray(0, 1));
+        function.setItem(COSName.C0, toArray(1, 0, 0));
+        function.setItem(COSName.C1, toArray(0, 0, 1));
+        function.setItem(COSName.N, COSInteger.ONE);
+        shading.getCOSObject().setItem(COSName.FUNCTION, function);
+
+        float[] range = MeshShading.getParameterRange(shading);
+        assertEquals(0, range[0], 0);
+        assertEquals(1, range[1], 0);
+        MeshShading mesh = new MeshShading(shading, ShadingLookupTable.create(shading, 0, 1));
+        float[] triangles = mesh.getTriangles(new int[0]);
+        assertEquals(2, mesh.getTriangleCount(triangles));
+
+        int[] pixels = rasterize(mesh, triangles, 60, 60);
+        assertColor(0xFFFF0000, pixels[10 * 60], 8);
+        assertColor(0xFF0000FF, pixels[50 * 60 + 59], 8);
+        assertColor(0xFF800080, pixels[30 * 60 + 30], 8);
+    }
+
+    @Test
+    public void testCoonsPatch() throws IOException
+    {
+        // a square patch with straight edges, the second one continues along its right edge
+        int[] data = {
+            0,
+            0, 0, 0, 30, 0, 60, 0, 90, 30, 90, 60, 90, 90, 90, 90, 60, 90, 30, 90, 0, 60, 0, 30, 0,
+            255, 0, 0, 0, 255, 0, 0, 0, 255, 255, 255, 255,
+            2,
+            120, 0, 150, 0, 180, 0, 180, 30, 180, 60, 180, 90, 150, 90, 120, 90,
+            0, 0, 0, 0, 0, 0 };
+        PDShading shading = createShading(6, 255, 3, data);
+        MeshShading mesh = new MeshShading(shading, null);
+
+        // 90 units on the device need 32 x 32 cells of 4 pixels at most
+        assertArrayEquals(new int[] { 5, 5 }, mesh.getLevels(new AffineTransform()));
+        assertArrayEquals(new int[] { 6, 6 },
+            mesh.getLevels(AffineTransform.getScaleInstance(10, 10)));
+        assertArrayEquals(new int[] { 0, 0 },
+            mesh.getLevels(AffineTransform.getScaleInstance(0.01, 0.01)));
+        float[] triangles = mesh.getTriangles(new int[] { 2, 2 });
+        assertSame(triangles, mesh.getTriangles(new int[] { 2, 2 }));
+        assertEquals(2 * 2 * 4 * 4, mesh.getTriangleCount(triangles));
+
+        int[] pixels = rasterize(mesh, mesh.getTriangles(new int[] { 5, 5 }), 180, 90);
+        // corners of the first patch at p00, p03, p33 and p30
+        assertColor(0xFFFF0000, pixels[0], 12);
+        assertColor(0xFF00FF00, pixels[89 * 180], 12);
+        assertColor(0xFF0000FF, pixels[89 * 180 + 89], 12);
+        assertColor(0xFFFFFFFF, pixels[89], 12);
+        // the second patch fades from the shared edge to black
+        assertColor(0xFF000000, pixels[50 * 180 + 179], 12);
+        assertColor(0xFF808080, pixels[2 * 180 + 135], 12);
+    }
+
+    @Test
+    public void testPatchLevels() throws IOException
+    {
+        // a large patch and a small one, each is divided according to its own size
+        int[] data = {
+            0,
+            0, 0, 0, 30, 0, 60, 0, 90, 30, 90, 60, 90, 90, 90, 90, 60, 90, 30, 90, 0, 60, 0, 30, 0,
+            255, 0, 0, 0, 255, 0, 0, 0, 255, 255, 255, 255,
+            0,
+            100, 0, 100, 3, 100, 5, 100, 8, 103, 8, 105, 8, 108, 8, 108, 5, 108, 3, 108, 0,
+            105, 0, 103, 0,
+            255, 0, 0, 0, 255, 0, 0, 0, 255, 255, 255, 255 };
+        MeshShading mesh = new MeshShading(createShading(6, 255, 3, data), null);
+        int[] levels = mesh.getLevels(new AffineTransform());
+        assertArrayEquals(new int[] { 5, 1 }, levels);
+        float[] triangles = mesh.getTriangles(levels);
+        assertEquals(2 * 32 * 32 + 2 * 2 * 2, mesh.getTriangleCount(triangles));
+        // the most recent triangles are kept
+        assertSame(triangles, mesh.getTriangles(new int[] { 5, 1 }));
+
+        int[] pixels = rasterize(mesh, triangles, 110, 90);
+        assertColor(0xFFFF0000, pixels[0], 12);
+        assertColor(0xFFFF0000, pixels[100], 40);
+        assertColor(0xFF0000FF, pixels[7 * 110 + 107], 40);
+    }
+
+    @Test(expected = IOException.class)
+    public void testMissingDecode() throws IOException
+    {
+        PDShading shading = createShading(4, 255, 3, new int[0]);
+        shading.getCOSObject().removeItem(COSName.DECODE);
+        new MeshShading(shading, null);
+    }
+
+    // fills the triangles without transformation into a buffer of the given size
+    private static int[] rasterize(MeshShading mesh, float[] triangles, int width, int height)
+    {
+        int[] pixels = new int[width * height];
+        mesh.rasterize(triangles, 0, mesh.getTriangleCount(triangles), new AffineTransform(),
+            pixels, width, height);
+        return pixels;
+    }
+
+    // a mesh shading with 8 bits per flag, coordinate and component, in DeviceRGB
+    private static PDShading createShading(int type, int maxCoordinate, int components,
+        int[] data) throws IOException
+    {
+        COSStream stream = new COSStream();
+        stream.setInt(COSName.SHADING_TYPE, type);
+        stream.setItem(COSName.COLORSPACE, COSName.DEVICERGB);
+        stream.setInt(COSName.BITS_PER_COORDINATE, 8);
+        stream.setInt(COSName.BITS_PER_COMPONENT, 8);
+        if (type != 5)
+        {
+            stream.setInt(COSName.BITS_PER_FLAG, 8);
+        }
+        float[] decode = new float[4 + 2 * components];
+        decode[1] = maxCoordinate;
+        decode[3] = maxCoordinate;
+        for (int i = 0; i < components; i++)
+        {
+            decode[5 + 2 * i] = 1;
+        }
+        stream.setItem(COSName.DECODE, toArray(decode));
+        OutputStream output = stream.createOutputStream();
+        for (int value : data)
+        {
+            output.write(value);
+        }
+        output.close();
+        return PDShading.create(stream);
+    }
+
+    private static COSArray toArray(float... values)
+    {
+        COSArray array = new COSArray();
+        for (float value : values)
+        {
+            array.add(new COSFloat(value));
+        }
+        return array;
+    }
+
+    private static void assertColor(int expected, int actual, int tolerance)
+    {
+        String message = "expected " + Integer.toHexString(expected) + " but was " +
+            Integer.toHexString(actual);
+        assertEquals(message, 0xFF, actual >>> 24);
+        for (int shift = 0; shift < 24; shift += 8)
+        {
+            assertTrue(message, Math.abs(((expected >> shift) & 0xFF) -
+                ((actual >> shift) & 0xFF)) <= tolerance);
+        }
+    }
+}